@@ -0,0 +1,72 @@
+package com.example.LoanManage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs expensive requests (aggregates, full listings, queries, bulk ingestion) on a bounded pool of
+ * their own, so they never occupy the Tomcat workers that serve cheap lookups. How many requests of
+ * each kind may run at once is limited per workload by LoanWorkloadExecutor.
+ * <p>
+ * Exports and imports, which run for up to an hour, have a second pool sized to their own limit, so
+ * that they never take threads from the requests above.
+ */
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+    public static final String WORKLOAD_EXECUTOR = "loanWorkloadTaskExecutor";
+    public static final String BATCH_EXECUTOR = "loanBatchTaskExecutor";
+
+    private final int poolSize;
+    private final int queueCapacity;
+    private final long requestTimeoutMillis;
+    private final int batchPoolSize;
+
+    public AsyncConfig(@Value("${loan.async.pool-size:16}") int poolSize,
+                       @Value("${loan.async.queue-capacity:64}") int queueCapacity,
+                       @Value("${loan.async.request-timeout-ms:600000}") long requestTimeoutMillis,
+                       @Value("${loan.async.batch.max-concurrent:2}") int batchPoolSize) {
+        this.poolSize = poolSize;
+        this.queueCapacity = queueCapacity;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.batchPoolSize = batchPoolSize;
+    }
+
+    @Bean(name = WORKLOAD_EXECUTOR)
+    public ThreadPoolTaskExecutor loanWorkloadTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("loan-workload-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * One thread per BATCH permit. The queue only covers a thread that is still finishing the task whose
+     * permit was just released; shutdown does not wait, as imports resume at startup and exports are resubmitted.
+     */
+    @Bean(name = BATCH_EXECUTOR)
+    public ThreadPoolTaskExecutor loanBatchTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(batchPoolSize);
+        executor.setMaxPoolSize(batchPoolSize);
+        executor.setQueueCapacity(batchPoolSize);
+        executor.setThreadNamePrefix("loan-batch-");
+        return executor;
+    }
+
+    /**
+     * StreamingResponseBody writers run on the same pool. The MVC timeout is only a backstop for them;
+     * CompletableFuture endpoints time out earlier, per workload.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(loanWorkloadTaskExecutor());
+        configurer.setDefaultTimeout(requestTimeoutMillis);
+    }
+}
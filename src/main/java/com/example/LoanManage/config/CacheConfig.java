@@ -0,0 +1,55 @@
+package com.example.LoanManage.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * Bounded Caffeine caches for the loan lookups. Each cache evicts by size or weight (W-TinyLFU) and by age,
+ * and records statistics so hits, misses and evictions are published as cache.* metrics.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String LOAN_BY_ID = "loanById";
+    public static final String LOANS_BY_CUSTOMER = "loansByCustomer";
+    public static final String LOANS_BY_LENDER = "loansByLender";
+
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> loanCacheCustomizer(
+            @Value("${loan.cache.loan-maximum-size:100000}") long loanMaximumSize,
+            @Value("${loan.cache.list-maximum-loans:1000000}") long listMaximumLoans,
+            @Value("${loan.cache.ttl:10m}") Duration ttl) {
+        return cacheManager -> {
+            cacheManager.registerCustomCache(LOAN_BY_ID, Caffeine.newBuilder()
+                    .maximumSize(loanMaximumSize)
+                    .expireAfterWrite(ttl)
+                    .recordStats()
+                    .build());
+            cacheManager.registerCustomCache(LOANS_BY_CUSTOMER, Caffeine.newBuilder()
+                    .maximumWeight(listMaximumLoans)
+                    .weigher(CacheConfig::weighList)
+                    .expireAfterWrite(ttl)
+                    .recordStats()
+                    .build());
+            cacheManager.registerCustomCache(LOANS_BY_LENDER, Caffeine.newBuilder()
+                    .maximumWeight(listMaximumLoans)
+                    .weigher(CacheConfig::weighList)
+                    .expireAfterWrite(ttl)
+                    .recordStats()
+                    .build());
+        };
+    }
+
+    // List caches are bounded by the number of loans they hold, so one large lender cannot pin the heap
+    private static int weighList(Object key, Object value) {
+        return value instanceof Collection ? ((Collection<?>) value).size() + 1 : 1;
+    }
+}
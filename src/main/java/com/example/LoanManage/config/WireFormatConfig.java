@@ -0,0 +1,33 @@
+package com.example.LoanManage.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Binary encodings of the loan endpoints, chosen by the Accept (and Content-Type) header:
+ * CBOR ({@value MediaType#APPLICATION_CBOR_VALUE}) and Smile ({@value #APPLICATION_SMILE_VALUE}).
+ * <p>
+ * Both converters use mappers built from Spring Boot's Jackson2ObjectMapperBuilder, so they carry the same
+ * modules, settings and hand-written serializers as the JSON mapper and encode the same fields.
+ * JSON stays the default for clients that do not ask for a binary type.
+ */
+@Configuration
+public class WireFormatConfig {
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.LoanManage.controller;
+
+import com.example.LoanManage.dto.LoanAccrualDTO;
+import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.service.LoanAccrualEngine;
+import com.example.LoanManage.service.LoanWorkloadExecutor;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Workload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/loans/accrual")
+public class LoanAccrualController {
+
+    private final Logger logger = LoggerFactory.getLogger(LoanAccrualController.class);
+    private final LoanAccrualEngine accrualEngine;
+    private final LoanWorkloadExecutor workloadExecutor;
+
+    @Autowired
+    public LoanAccrualController(LoanAccrualEngine accrualEngine, LoanWorkloadExecutor workloadExecutor) {
+        this.accrualEngine = accrualEngine;
+        this.workloadExecutor = workloadExecutor;
+    }
+
+    /**
+     * Compute interest and penalty accrued by the whole book up to a date.
+     *
+     * @param asOf Optional ISO date (yyyy-MM-dd) to accrue up to; defaults to today in UTC.
+     * @return ResponseEntity containing a LoanAccrualDTO with the portfolio totals.
+     */
+    @GetMapping
+    public CompletableFuture<ResponseEntity<LoanAccrualDTO>> accrue(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate asOf) {
+        LocalDate date = asOf != null ? asOf : LocalDate.now(ZoneOffset.UTC);
+        logger.debug("Received request to accrue loans as of {}.", date);
+        return workloadExecutor.submit(Workload.ACCRUAL, () -> {
+            LoanAccrualDTO result = accrualEngine.accrue(date);
+            logger.debug("Accrued {} loans as of {}.", result.getLoanCount(), date);
+            return ResponseEntity.ok(result);
+        });
+    }
+
+    /**
+     * Retrieve the result of the last nightly accrual run.
+     *
+     * @return ResponseEntity containing the last LoanAccrualDTO.
+     */
+    @GetMapping("/latest")
+    public ResponseEntity<LoanAccrualDTO> getLatestRun() {
+        LoanAccrualDTO result = accrualEngine.getLatestRun();
+        if (result == null) {
+            throw new ResourceNotFoundException("No accrual run has completed yet");
+        }
+        return ResponseEntity.ok(result);
+    }
+}
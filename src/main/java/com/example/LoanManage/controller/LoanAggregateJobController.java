@@ -0,0 +1,87 @@
+package com.example.LoanManage.controller;
+
+import com.example.LoanManage.dto.AggregateJobDTO;
+import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.service.LoanAggregateJobService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.net.URI;
+
+@RestController
+@RequestMapping("/loans/aggregate/jobs")
+public class LoanAggregateJobController {
+
+    private final Logger logger = LoggerFactory.getLogger(LoanAggregateJobController.class);
+    private final LoanAggregateJobService jobService;
+
+    @Autowired
+    public LoanAggregateJobController(LoanAggregateJobService jobService) {
+        this.jobService = jobService;
+    }
+
+    /**
+     * Start an aggregate job, or join an identical one that is running or has a live result.
+     *
+     * @param groupBy lender, customer or interest.
+     * @param sortBy  Optional order of the breakdown: groupKey (default), loanCount, remainingAmount, interest or penalty.
+     * @param top     Optional maximum number of groups to return.
+     * @return 202 Accepted with the AggregateJobDTO and the job URI in the Location header.
+     */
+    @PostMapping
+    public ResponseEntity<AggregateJobDTO> submitJob(@RequestParam String groupBy,
+                                                     @RequestParam(required = false) String sortBy,
+                                                     @RequestParam(required = false) Integer top) {
+        logger.debug("Received request to aggregate loans by {} as a job.", groupBy);
+        AggregateJobDTO job = jobService.submit(groupBy, sortBy, top);
+        URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQuery(null)
+                .path("/{jobId}")
+                .buildAndExpand(job.getJobId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(job);
+    }
+
+    /**
+     * Get the status of an aggregate job.
+     *
+     * @param jobId The job ID returned on submission.
+     * @return ResponseEntity containing the AggregateJobDTO.
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<AggregateJobDTO> getJob(@PathVariable String jobId) {
+        return ResponseEntity.ok(jobService.getJob(jobId));
+    }
+
+    /**
+     * Get the result of an aggregate job.
+     *
+     * @param jobId The job ID returned on submission.
+     * @return 200 with the LoanAggregateDTO when the job succeeded, 202 with no body while it is still running,
+     * or 500 with the AggregateJobDTO and its error if it failed.
+     */
+    @GetMapping("/{jobId}/result")
+    public ResponseEntity<?> getJobResult(@PathVariable String jobId) {
+        LoanAggregateDTO result;
+        try {
+            result = jobService.getResult(jobId);
+        } catch (IllegalStateException ex) {
+            logger.debug("Aggregate job {} failed.", jobId);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(jobService.getJob(jobId));
+        }
+        if (result == null) {
+            return ResponseEntity.accepted().build();
+        }
+        return ResponseEntity.ok(result);
+    }
+}
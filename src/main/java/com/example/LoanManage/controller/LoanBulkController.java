@@ -0,0 +1,98 @@
+package com.example.LoanManage.controller;
+
+import com.example.LoanManage.dto.BulkIngestResultDTO;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.service.LoanIngestService;
+import com.example.LoanManage.service.LoanWorkloadExecutor;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Permit;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Workload;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Bulk ingestion runs on the request thread under a BULK permit rather than through
+ * {@link LoanWorkloadExecutor#submit}: rows are committed batch by batch, so a response timeout could
+ * report failure for rows already saved, and the request body cannot be read once the request has ended.
+ */
+@RestController
+@RequestMapping("/loans/bulk")
+public class LoanBulkController {
+
+    private final Logger logger = LoggerFactory.getLogger(LoanBulkController.class);
+    private final LoanIngestService loanIngestService;
+    private final LoanWorkloadExecutor workloadExecutor;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public LoanBulkController(LoanIngestService loanIngestService, LoanWorkloadExecutor workloadExecutor,
+                              ObjectMapper objectMapper) {
+        this.loanIngestService = loanIngestService;
+        this.workloadExecutor = workloadExecutor;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Add many loans from a JSON array. Invalid rows are reported and skipped; valid rows are persisted.
+     *
+     * @param loans The LoanDTOs to create.
+     * @return ResponseEntity containing a BulkIngestResultDTO with per-row errors.
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BulkIngestResultDTO> addLoans(@RequestBody List<LoanDTO> loans) {
+        logger.debug("Received request to add {} loans.", loans.size());
+        try (Permit permit = workloadExecutor.acquire(Workload.BULK)) {
+            return ResponseEntity.ok(loanIngestService.ingest(loans));
+        }
+    }
+
+    /**
+     * Add many loans from newline-delimited JSON, one LoanDTO per line. Rows are validated and persisted
+     * while the request is read, so the request body is never held in memory as a whole.
+     *
+     * @param body The request body.
+     * @return ResponseEntity containing a BulkIngestResultDTO with per-row errors.
+     */
+    @PostMapping(consumes = LoanController.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<BulkIngestResultDTO> streamLoans(InputStream body) throws IOException {
+        logger.debug("Received request to add loans from an NDJSON stream.");
+        try (Permit permit = workloadExecutor.acquire(Workload.BULK)) {
+            return ResponseEntity.ok(ingestStream(body));
+        }
+    }
+
+    private BulkIngestResultDTO ingestStream(InputStream body) throws IOException {
+        LoanIngestService.Batch batch = loanIngestService.newBatch();
+        try (MappingIterator<LoanDTO> rows = objectMapper.readerFor(LoanDTO.class).readValues(body)) {
+            while (true) {
+                try {
+                    if (!rows.hasNextValue()) {
+                        break;
+                    }
+                    batch.add(rows.nextValue());
+                } catch (JsonParseException ex) {
+                    // Malformed JSON leaves the parser in an unknown position, so stop reading here
+                    batch.reject("Malformed JSON: " + ex.getOriginalMessage());
+                    break;
+                } catch (JsonMappingException ex) {
+                    batch.reject("Invalid loan: " + ex.getOriginalMessage());
+                }
+            }
+        }
+        return batch.finish();
+    }
+}
@@ -1,48 +1,111 @@
 package com.example.LoanManage.controller;
 
+import com.example.LoanManage.dto.AggregateConsistencyDTO;
 import com.example.LoanManage.dto.LoanAggregateDTO;
 import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanPageDTO;
+import com.example.LoanManage.dto.LoanQueryDTO;
+import com.example.LoanManage.dto.LoanQueryResultDTO;
 import com.example.LoanManage.entity.Loan;
 import com.example.LoanManage.exception.ResourceNotFoundException;
 import com.example.LoanManage.mapper.LoanMapper;
+import com.example.LoanManage.service.LoanChangeTracker;
+import com.example.LoanManage.service.LoanCursor;
+import com.example.LoanManage.service.LoanQueryService;
 import com.example.LoanManage.service.LoanService;
+import com.example.LoanManage.service.LoanWorkloadExecutor;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Permit;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Workload;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/loans")
 public class LoanController {
 
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private final Logger logger = LoggerFactory.getLogger(LoanController.class);
     private final LoanService loanService;
+    private final LoanQueryService loanQueryService;
+    private final LoanChangeTracker changeTracker;
+    private final LoanWorkloadExecutor workloadExecutor;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public LoanController(LoanService loanService) {
+    public LoanController(LoanService loanService, LoanQueryService loanQueryService,
+                          LoanChangeTracker changeTracker, LoanWorkloadExecutor workloadExecutor,
+                          ObjectMapper objectMapper) {
         this.loanService = loanService;
+        this.loanQueryService = loanQueryService;
+        this.changeTracker = changeTracker;
+        this.workloadExecutor = workloadExecutor;
+        this.objectMapper = objectMapper;
     }
 
     /**
-     * Retrieve a list of all loans.
+     * Retrieve a list of all loans. The JSON array is written to the response as rows are read,
+     * so the book is never collected into a list.
      *
-     * @return ResponseEntity containing a list of LoanDTOs representing all loans.
+     * @param request The current request.
+     * @return ResponseEntity whose body writes the loans to the response as a JSON array of LoanDTOs.
      */
     @GetMapping("/all")
-    public ResponseEntity<List<LoanDTO>> getAllLoans() {
-        logger.info("Received request to retrieve all loans.");
-        List<LoanDTO> loans = loanService.getAllLoans()
-                .stream()
-                .map(LoanMapper::toDTO)
-                .collect(Collectors.toList());
-        logger.info("Retrieved {} loans.", loans.size());
-        return ResponseEntity.ok(loans);
+    public ResponseEntity<StreamingResponseBody> getAllLoans(WebRequest request) {
+        logger.debug("Received request to retrieve all loans.");
+        return streamLoans(request, MediaType.APPLICATION_JSON, true);
+    }
+
+    /**
+     * Retrieve one page of loans using keyset pagination on the loan's surrogate id.
+     *
+     * @param cursor The nextCursor returned with the previous page; omit for the first page.
+     * @param size   The maximum number of loans on the page.
+     * @return ResponseEntity containing a LoanPageDTO with the loans and the cursor of the next page.
+     */
+    @GetMapping(value = "/all", params = "size")
+    public ResponseEntity<LoanPageDTO> getLoansPage(@RequestParam(required = false) String cursor,
+                                                    @RequestParam int size) {
+        logger.debug("Received request to retrieve a page of {} loans.", size);
+        LoanPageDTO page = loanService.getLoansAfter(LoanCursor.decode(cursor), size);
+        logger.debug("Retrieved page of {} loans.", page.getLoans().size());
+        return ResponseEntity.ok(page);
+    }
+
+    /**
+     * Stream all loans as newline-delimited JSON, one LoanDTO per line.
+     * Rows are written to the response as they are read, so memory use does not depend on the size of the book.
+     *
+     * @param request The current request.
+     * @return ResponseEntity whose body writes the loans to the response.
+     */
+    @GetMapping(value = "/all", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllLoans(WebRequest request) {
+        logger.debug("Received request to stream all loans.");
+        return streamLoans(request, MediaType.parseMediaType(APPLICATION_NDJSON_VALUE), false);
     }
 
     /**
@@ -53,103 +116,259 @@ public class LoanController {
      */
     @PostMapping("/add")
     public ResponseEntity<LoanDTO> addLoan(@RequestBody LoanDTO loanDTO) {
-        logger.info("Received request to create a new loan: {}", loanDTO);
+        logger.debug("Received request to create loan with loan ID: {}", loanDTO.getLoanId());
         Loan loan = LoanMapper.toEntity(loanDTO);
         Loan savedLoan = loanService.addLoan(loan);
-        logger.info("Created loan with ID: {}", savedLoan.getId());
+        logger.debug("Created loan with ID: {}", savedLoan.getId());
         return ResponseEntity.status(HttpStatus.CREATED).body(LoanMapper.toDTO(savedLoan));
     }
 
     /**
-     * Get Load Details by loan Id
+     * Get Load Details by loan Id. The ETag is the loan's version and remaining amount, since payments
+     * change the amount without a new version until they are settled, and Last-Modified its last update
+     * or payment; a matching If-None-Match or If-Modified-Since is answered with 304 and no body. Last-Modified
+     * is only sent, and If-Modified-Since only honoured, when it falls on a whole second.
      *
      * @param loanId
+     * @param request The request, for its conditional headers.
      * @return
      */
     @GetMapping("/{loanId}")
-    public ResponseEntity<LoanDTO> getLoanById(@PathVariable String loanId) {
-        logger.info("Received request to retrieve loan details by ID: {}", loanId);
-        Optional<Loan> loan = loanService.getLoanByLoanId(loanId);
+    public ResponseEntity<LoanDTO> getLoanById(@PathVariable String loanId, WebRequest request) {
+        logger.debug("Received request to retrieve loan details by ID: {}", loanId);
+        Optional<LoanDTO> loan = loanService.getLoanByLoanId(loanId);
 
         if (loan.isPresent()) {
-            logger.info("Retrieved loan details for ID {}: {}", loanId, loan.get());
-            return ResponseEntity.ok(LoanMapper.toDTO(loan.get()));
+            LoanDTO loanDTO = loan.get();
+            long lastModified = loanDTO.getLastModified() != null ? loanDTO.getLastModified().getTime() : -1;
+            if (checkNotModified(request, loanEtag(loanDTO), lastModified)) {
+                logger.debug("Loan with ID {} not modified.", loanId);
+                return null;
+            }
+            logger.debug("Retrieved loan details for ID {}.", loanId);
+            return ResponseEntity.ok(loanDTO);
         } else {
-            logger.warn("Loan with ID {} not found.", loanId);
+            logger.debug("Loan with ID {} not found.", loanId);
             throw new ResourceNotFoundException("Loan with Loan ID " + loanId + " not found");
         }
     }
 
     /**
-     * Retrieve loan details for loans associated with a specific customer.
+     * Retrieve loan details for loans associated with a specific customer. The ETag and Last-Modified
+     * come from the customer's change stamp, so a poll with a current If-None-Match or If-Modified-Since
+     * is answered with 304 before the list is loaded. As for a single loan, If-Modified-Since is only honoured
+     * for a stamp on a whole second.
      *
      * @param customerId The Customer ID for which loan details are requested.
+     * @param request    The request, for its conditional headers.
      * @return ResponseEntity containing a list of LoanDTOs representing loans associated with the specified customer.
      */
     @GetMapping("/customer/{customerId}")
-    public ResponseEntity<List<LoanDTO>> getLoansByCustomerId(@PathVariable String customerId) {
-        logger.info("Received request to retrieve loans for customer with ID: {}", customerId);
-        List<LoanDTO> loans = loanService.getLoansByCustomerId(customerId)
-                .stream()
-                .map(LoanMapper::toDTO)
-                .collect(Collectors.toList());
-        logger.info("Retrieved {} loans for customer with ID: {}", loans.size(), customerId);
+    public ResponseEntity<List<LoanDTO>> getLoansByCustomerId(@PathVariable String customerId, WebRequest request) {
+        logger.debug("Received request to retrieve loans for customer with ID: {}", customerId);
+        // Read before the list: a change in between yields a new list under the old stamp, never the reverse
+        LoanChangeTracker.Stamp stamp = changeTracker.customerStamp(customerId);
+        if (checkNotModified(request, stamp.getEtag(), stamp.getLastModified())) {
+            logger.debug("Loans for customer with ID {} not modified.", customerId);
+            return null;
+        }
+        List<LoanDTO> loans = loanService.getLoansByCustomerId(customerId);
+        logger.debug("Retrieved {} loans for customer with ID: {}", loans.size(), customerId);
         return ResponseEntity.ok(loans);
     }
 
     /**
-     * Retrieve loan details for loans associated with a specific lender.
+     * Retrieve loan details for loans associated with a specific lender. The ETag and Last-Modified
+     * come from the lender's change stamp, as for the customer lists.
      *
      * @param lenderId The Lender ID for which loan details are requested.
+     * @param request  The request, for its conditional headers.
      * @return ResponseEntity containing a list of LoanDTOs representing loans associated with the specified lender.
      */
     @GetMapping("/lender/{lenderId}")
-    public ResponseEntity<List<LoanDTO>> getLoansByLenderId(@PathVariable String lenderId) {
-        logger.info("Received request to retrieve loans for lender with ID: {}", lenderId);
-        List<LoanDTO> loans = loanService.getLoansByLenderId(lenderId)
-                .stream()
-                .map(LoanMapper::toDTO)
-                .collect(Collectors.toList());
-        logger.info("Retrieved {} loans for lender with ID: {}", loans.size(), lenderId);
+    public ResponseEntity<List<LoanDTO>> getLoansByLenderId(@PathVariable String lenderId, WebRequest request) {
+        logger.debug("Received request to retrieve loans for lender with ID: {}", lenderId);
+        LoanChangeTracker.Stamp stamp = changeTracker.lenderStamp(lenderId);
+        if (checkNotModified(request, stamp.getEtag(), stamp.getLastModified())) {
+            logger.debug("Loans for lender with ID {} not modified.", lenderId);
+            return null;
+        }
+        List<LoanDTO> loans = loanService.getLoansByLenderId(lenderId);
+        logger.debug("Retrieved {} loans for lender with ID: {}", loans.size(), lenderId);
         return ResponseEntity.ok(loans);
     }
 
     /**
-     * Retrieves and aggregates loans by lender, calculating the total remaining amount, total interest, and total penalty.
+     * Retrieve the overdue loans of a lender: not cancelled, not fully repaid and due before asOf,
+     * earliest due first.
      *
+     * @param lenderId The Lender ID for which overdue loans are requested.
+     * @param asOf     Optional ISO date-time the loans must be due before; defaults to now.
+     * @return ResponseEntity containing a list of LoanDTOs representing the lender's overdue loans.
+     */
+    @GetMapping("/lender/{lenderId}/overdue")
+    public ResponseEntity<List<LoanDTO>> getOverdueLoansByLenderId(
+            @PathVariable String lenderId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date asOf) {
+        Date dueBefore = asOf != null ? asOf : new Date();
+        logger.debug("Received request to retrieve loans of lender with ID {} overdue as of {}.", lenderId, dueBefore);
+        List<LoanDTO> loans = loanService.getOverdueLoansByLenderId(lenderId, dueBefore);
+        logger.debug("Retrieved {} overdue loans for lender with ID: {}", loans.size(), lenderId);
+        return ResponseEntity.ok(loans);
+    }
+
+    /**
+     * Retrieves and aggregates loans by lender, calculating the total remaining amount, total interest, and total penalty,
+     * along with a per-lender breakdown.
+     *
+     * @param sortBy Optional order of the breakdown: groupKey (default), loanCount, remainingAmount, interest or penalty.
+     * @param top    Optional maximum number of groups to return.
      * @return A ResponseEntity containing a LoanAggregateDTO with aggregated loan information by lender.
      */
     @GetMapping("/aggregate/lender")
-    public ResponseEntity<LoanAggregateDTO> aggregateLoansByLender() {
-        logger.info("Received request to aggregate loans by lender.");
-        LoanAggregateDTO result = loanService.aggregateLoansByLender();
-        logger.info("Aggregated loans by lender: {}", result);
-        return ResponseEntity.ok(result);
+    public CompletableFuture<ResponseEntity<LoanAggregateDTO>> aggregateLoansByLender(
+            @RequestParam(required = false) String sortBy, @RequestParam(required = false) Integer top) {
+        logger.debug("Received request to aggregate loans by lender.");
+        return workloadExecutor.submit(Workload.AGGREGATE, () -> {
+            LoanAggregateDTO result = loanService.aggregateLoansByLender(sortBy, top);
+            logger.debug("Aggregated loans by lender into {} groups.", result.getGroupCount());
+            return ResponseEntity.ok(result);
+        });
     }
 
     /**
-     * Retrieves and aggregates loans by customer, calculating the total remaining amount, total interest, and total penalty.
+     * Retrieves and aggregates loans by customer, calculating the total remaining amount, total interest, and total penalty,
+     * along with a per-customer breakdown.
      *
+     * @param sortBy Optional order of the breakdown: groupKey (default), loanCount, remainingAmount, interest or penalty.
+     * @param top    Optional maximum number of groups to return.
      * @return A ResponseEntity containing a LoanAggregateDTO with aggregated loan information by customer.
      */
     @GetMapping("/aggregate/customer")
-    public ResponseEntity<LoanAggregateDTO> aggregateLoansByCustomerId() {
-        logger.info("Received request to aggregate loans by customer.");
-        LoanAggregateDTO result = loanService.aggregateLoansByCustomerId();
-        logger.info("Aggregated loans by customer: {}", result);
-        return ResponseEntity.ok(result);
+    public CompletableFuture<ResponseEntity<LoanAggregateDTO>> aggregateLoansByCustomerId(
+            @RequestParam(required = false) String sortBy, @RequestParam(required = false) Integer top) {
+        logger.debug("Received request to aggregate loans by customer.");
+        return workloadExecutor.submit(Workload.AGGREGATE, () -> {
+            LoanAggregateDTO result = loanService.aggregateLoansByCustomerId(sortBy, top);
+            logger.debug("Aggregated loans by customer into {} groups.", result.getGroupCount());
+            return ResponseEntity.ok(result);
+        });
     }
 
     /**
-     * Retrieves and aggregates loans by interest rate, calculating the total remaining amount, total interest, and total penalty.
+     * Retrieves and aggregates loans by interest rate, calculating the total remaining amount, total interest, and total penalty,
+     * along with a per-rate breakdown.
      *
+     * @param sortBy Optional order of the breakdown: groupKey (default), loanCount, remainingAmount, interest or penalty.
+     * @param top    Optional maximum number of groups to return.
      * @return A ResponseEntity containing a LoanAggregateDTO with aggregated loan information by interest rate.
      */
     @GetMapping("/aggregate/interest")
-    public ResponseEntity<LoanAggregateDTO> aggregateLoansByInterest() {
-        logger.info("Received request to aggregate loans by interest.");
-        LoanAggregateDTO result = loanService.aggregateLoansByInterest();
-        logger.info("Aggregated loans by interest: {}", result);
-        return ResponseEntity.ok(result);
+    public CompletableFuture<ResponseEntity<LoanAggregateDTO>> aggregateLoansByInterest(
+            @RequestParam(required = false) String sortBy, @RequestParam(required = false) Integer top) {
+        logger.debug("Received request to aggregate loans by interest.");
+        return workloadExecutor.submit(Workload.AGGREGATE, () -> {
+            LoanAggregateDTO result = loanService.aggregateLoansByInterest(sortBy, top);
+            logger.debug("Aggregated loans by interest into {} groups.", result.getGroupCount());
+            return ResponseEntity.ok(result);
+        });
+    }
+
+    /**
+     * Filter loans and aggregate the matches server-side, e.g. overdue non-cancelled loans of one lender
+     * above an interest rate, grouped by customer.
+     * <p>
+     * Queries read the analytics snapshot, so remaining amounts, and the repaid filter on them, are those of
+     * its last rebuild, up to loan.snapshot.refresh-interval-ms old: payments made since, settled or not, are not
+     * included. GET /loans/{loanId} returns the current remaining amount of a loan.
+     *
+     * @param query The filters, group-by dimensions (lender, customer, interest), sortBy, limit and timeoutMillis.
+     * @return ResponseEntity containing a LoanQueryResultDTO with the totals and the per-group breakdown.
+     */
+    @PostMapping("/query")
+    public CompletableFuture<ResponseEntity<LoanQueryResultDTO>> queryLoans(@RequestBody LoanQueryDTO query) {
+        logger.debug("Received loan query grouped by {}.", query.getGroupBy());
+        return workloadExecutor.submit(Workload.QUERY, () -> {
+            LoanQueryResultDTO result = loanQueryService.query(query);
+            logger.debug("Loan query matched {} loans in {} groups.", result.getMatchedLoans(), result.getGroupCount());
+            return ResponseEntity.ok(result);
+        });
+    }
+
+    /**
+     * Recompute the aggregates from the database and report drift from the materialized aggregates.
+     *
+     * @param repair Whether to replace the materialized aggregates with the recomputed ones when drift is found.
+     * @return A ResponseEntity containing an AggregateConsistencyDTO listing the groups that differ.
+     */
+    @GetMapping("/aggregate/consistency")
+    public CompletableFuture<ResponseEntity<AggregateConsistencyDTO>> checkAggregateConsistency(
+            @RequestParam(defaultValue = "false") boolean repair) {
+        logger.debug("Received request to check aggregate consistency.");
+        return workloadExecutor.submit(Workload.AGGREGATE, () -> {
+            AggregateConsistencyDTO result = loanService.checkAggregateConsistency(repair);
+            logger.debug("Aggregate consistency check found {} drifted groups.", result.getDrifts().size());
+            return ResponseEntity.ok(result);
+        });
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamLoans(WebRequest request, MediaType contentType,
+                                                             boolean asArray) {
+        ObjectWriter writer = objectMapper.writerFor(LoanDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        // Taken here so an overloaded service answers 503 before the response starts
+        Permit permit = workloadExecutor.acquire(Workload.LIST_ALL);
+        // The body closes the permit when it ends; the async request's completion closes it too, for the case
+        // where the body never runs because the request timed out, failed or the pool rejected it
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(Permit.class.getName(),
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                        permit.close();
+                    }
+                });
+        StreamingResponseBody body = outputStream -> {
+            try (permit) {
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+                if (asArray) {
+                    generator.writeStartArray();
+                } else {
+                    generator.setRootValueSeparator(null);
+                }
+                try {
+                    loanService.streamAllLoans(loan -> {
+                        try {
+                            writer.writeValue(generator, loan);
+                            if (!asArray) {
+                                generator.writeRaw('\n');
+                            }
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+                if (asArray) {
+                    generator.writeEndArray();
+                }
+                generator.flush();
+            }
+        };
+        return ResponseEntity.ok().contentType(contentType).body(body);
+    }
+
+    // If-Modified-Since has whole seconds, so against a stamp inside a second it would answer 304 for a change
+    // later in that second; such stamps are checked, and sent, as an ETag only
+    private static boolean checkNotModified(WebRequest request, String etag, long lastModified) {
+        if (lastModified % 1000 != 0) {
+            return request.checkNotModified(etag);
+        }
+        return request.checkNotModified(etag, lastModified);
+    }
+
+    private static String loanEtag(LoanDTO loan) {
+        return "\"" + loan.getVersion() + "." + Long.toHexString(Double.doubleToLongBits(loan.getRemainingAmount()))
+                + "\"";
     }
 }
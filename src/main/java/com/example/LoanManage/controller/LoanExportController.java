@@ -0,0 +1,143 @@
+package com.example.LoanManage.controller;
+
+import com.example.LoanManage.dto.LoanExportDTO;
+import com.example.LoanManage.service.LoanExportService;
+import com.example.LoanManage.service.LoanExportService.ExportFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+@RestController
+@RequestMapping("/loans/exports")
+public class LoanExportController {
+
+    // Tomcat sends the file named in these request attributes itself, by sendfile from the file to the socket,
+    // when a response without a body completes; its DefaultServlet serves static files the same way
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final Logger logger = LoggerFactory.getLogger(LoanExportController.class);
+    private final LoanExportService exportService;
+
+    @Autowired
+    public LoanExportController(LoanExportService exportService) {
+        this.exportService = exportService;
+    }
+
+    /**
+     * Start an export of the loan book to a file, or join an identical one that is running or has a live file.
+     * Date ranges are ISO dates, inclusive, in UTC.
+     *
+     * @param format          csv (default) or columnar.
+     * @param lenderId        Optional lender whose loans to export.
+     * @param paymentDateFrom Optional first payment date.
+     * @param paymentDateTo   Optional last payment date.
+     * @param dueDateFrom     Optional first due date.
+     * @param dueDateTo       Optional last due date.
+     * @return 202 Accepted with the LoanExportDTO and the export URI in the Location header.
+     */
+    @PostMapping
+    public ResponseEntity<LoanExportDTO> submitExport(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) String lenderId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate paymentDateFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate paymentDateTo,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueDateFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueDateTo) {
+        logger.debug("Received request to export loans as {}.", format);
+        LoanExportDTO export = exportService.submit(format, lenderId, paymentDateFrom, paymentDateTo,
+                dueDateFrom, dueDateTo);
+        URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQuery(null)
+                .path("/{exportId}")
+                .buildAndExpand(export.getExportId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(export);
+    }
+
+    /**
+     * Get the status of an export.
+     *
+     * @param exportId The export ID returned on submission.
+     * @return ResponseEntity containing the LoanExportDTO.
+     */
+    @GetMapping("/{exportId}")
+    public ResponseEntity<LoanExportDTO> getExport(@PathVariable String exportId) {
+        return ResponseEntity.ok(exportService.getExport(exportId));
+    }
+
+    /**
+     * Download the file of an export. The file is sent from disk as it was written: by the connector with
+     * sendfile where it supports that, otherwise with FileChannel.transferTo into the response.
+     *
+     * @param exportId The export ID returned on submission.
+     * @param request  The request, to hand the file to the connector.
+     * @return 200 with the file when the export succeeded, 202 with no body while it is still running,
+     * or 500 if it failed.
+     */
+    @GetMapping("/{exportId}/file")
+    public ResponseEntity<StreamingResponseBody> downloadExport(@PathVariable String exportId,
+                                                                HttpServletRequest request) throws IOException {
+        ExportFile file;
+        try {
+            file = exportService.getFile(exportId);
+        } catch (IllegalStateException ex) {
+            logger.debug("Loan export {} failed.", exportId);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+        if (file == null) {
+            return ResponseEntity.accepted().build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(file.getFormat().getMediaType()))
+                .contentLength(file.getSize())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(file.getFileName()).build().toString());
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat only accepts the canonical path of the file
+            request.setAttribute(SENDFILE_FILENAME, file.getPath().toRealPath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, file.getSize());
+            logger.debug("Sending loan export {} with sendfile.", exportId);
+            return response.build();
+        }
+        return response.body(outputStream -> transfer(file, outputStream));
+    }
+
+    private static void transfer(ExportFile file, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = 0;
+            while (position < file.getSize()) {
+                position += channel.transferTo(position, file.getSize() - position, target);
+            }
+        }
+    }
+}
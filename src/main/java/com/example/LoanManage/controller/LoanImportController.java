@@ -0,0 +1,110 @@
+package com.example.LoanManage.controller;
+
+import com.example.LoanManage.dto.LoanImportDTO;
+import com.example.LoanManage.service.LoanImportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+@RestController
+@RequestMapping("/loans/imports")
+public class LoanImportController {
+
+    private final Logger logger = LoggerFactory.getLogger(LoanImportController.class);
+    private final LoanImportService importService;
+
+    @Autowired
+    public LoanImportController(LoanImportService importService) {
+        this.importService = importService;
+    }
+
+    /**
+     * Start importing a CSV file of loans from the server's import directory, or join the import of the same
+     * file. An interrupted import resumes from where it stopped.
+     *
+     * @param file The file name, relative to the import directory.
+     * @return 202 Accepted with the LoanImportDTO and the import URI in the Location header.
+     */
+    @PostMapping
+    public ResponseEntity<LoanImportDTO> submitImport(@RequestParam String file) {
+        logger.debug("Received request to import loans from {}.", file);
+        LoanImportDTO loanImport = importService.submit(file);
+        URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQuery(null)
+                .path("/{importId}")
+                .buildAndExpand(loanImport.getImportId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(loanImport);
+    }
+
+    /**
+     * Get the status and progress of an import.
+     *
+     * @param importId The import ID returned on submission.
+     * @return ResponseEntity containing the LoanImportDTO.
+     */
+    @GetMapping("/{importId}")
+    public ResponseEntity<LoanImportDTO> getImport(@PathVariable String importId) {
+        return ResponseEntity.ok(importService.getImport(importId));
+    }
+
+    /**
+     * Download the rows an import rejected, as CSV: the byte offset of the row in the file, the reason,
+     * then the row as it was.
+     *
+     * @param importId The import ID returned on submission.
+     * @return 200 with the file when the import succeeded, 202 with no body while it is still running,
+     * or 500 if it failed.
+     */
+    @GetMapping("/{importId}/rejected")
+    public ResponseEntity<StreamingResponseBody> downloadRejected(@PathVariable String importId) throws IOException {
+        Path file;
+        try {
+            file = importService.getRejectedRows(importId);
+        } catch (IllegalStateException ex) {
+            logger.debug("Loan import {} failed.", importId);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+        if (file == null) {
+            return ResponseEntity.accepted().build();
+        }
+
+        long size = Files.size(file);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .contentLength(size)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename("rejected-" + file.getFileName()).build().toString())
+                .body(outputStream -> {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        WritableByteChannel target = Channels.newChannel(outputStream);
+                        long position = 0;
+                        while (position < size) {
+                            position += channel.transferTo(position, size - position, target);
+                        }
+                    }
+                });
+    }
+}
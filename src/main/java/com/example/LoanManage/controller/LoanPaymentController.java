@@ -0,0 +1,47 @@
+package com.example.LoanManage.controller;
+
+import com.example.LoanManage.dto.LoanPaymentDTO;
+import com.example.LoanManage.service.LoanLedger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/loans")
+public class LoanPaymentController {
+
+    private final Logger logger = LoggerFactory.getLogger(LoanPaymentController.class);
+    private final LoanLedger ledger;
+
+    @Autowired
+    public LoanPaymentController(LoanLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Record a repayment of a loan. The response is sent once the payment is committed to the ledger,
+     * together with the other payments that arrived meanwhile.
+     *
+     * @param loanId  The loan being repaid.
+     * @param payment The payment; only its amount is read.
+     * @return ResponseEntity containing the committed LoanPaymentDTO and the loan's new remaining amount.
+     */
+    @PostMapping("/{loanId}/payments")
+    public CompletableFuture<ResponseEntity<LoanPaymentDTO>> postPayment(@PathVariable String loanId,
+                                                                        @RequestBody LoanPaymentDTO payment) {
+        logger.debug("Received payment of {} for loan {}.", payment.getAmount(), loanId);
+        return ledger.post(loanId, payment.getAmount()).thenApply(committed -> {
+            logger.debug("Committed payment {} for loan {}.", committed.getPaymentId(), loanId);
+            return ResponseEntity.status(HttpStatus.CREATED).body(committed);
+        });
+    }
+}
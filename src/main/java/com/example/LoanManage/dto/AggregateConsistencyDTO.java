@@ -0,0 +1,14 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class AggregateConsistencyDTO {
+    private boolean consistent;
+    private int groupsChecked;
+    private boolean repaired; // True when the materialized aggregates were replaced by the recomputed ones
+    private List<AggregateDriftDTO> drifts;
+
+}
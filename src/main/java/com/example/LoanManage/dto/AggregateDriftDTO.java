@@ -0,0 +1,18 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+@Data
+public class AggregateDriftDTO {
+    private String dimension; // LENDER, CUSTOMER or INTEREST
+    private String groupKey;
+    private long expectedLoanCount; // Recomputed from the repository
+    private long materializedLoanCount; // Held by the in-process aggregate store
+    private double expectedRemainingAmount;
+    private double materializedRemainingAmount;
+    private double expectedInterest;
+    private double materializedInterest;
+    private double expectedPenalty;
+    private double materializedPenalty;
+
+}
@@ -0,0 +1,20 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class AggregateJobDTO {
+    private String jobId;
+    private String groupBy; // "lender", "customer" or "interest"
+    private String sortBy;
+    private Integer top;
+    private String status; // PENDING, RUNNING, SUCCEEDED or FAILED
+    private boolean coalesced; // Whether the submission joined an existing job instead of starting one
+    private Date submittedAt;
+    private Date completedAt;
+    private Date expiresAt; // When a finished job and its result are discarded
+    private String error;
+
+}
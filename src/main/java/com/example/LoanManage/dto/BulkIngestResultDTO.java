@@ -0,0 +1,15 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BulkIngestResultDTO {
+    private int totalRows;
+    private int acceptedRows;
+    private int rejectedRows;
+    private boolean errorsTruncated; // True when more rows were rejected than errors are reported
+    private List<BulkRowErrorDTO> errors;
+
+}
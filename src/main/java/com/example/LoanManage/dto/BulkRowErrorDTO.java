@@ -0,0 +1,13 @@
+package com.example.LoanManage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BulkRowErrorDTO {
+    private int row; // 1-based position of the row in the request
+    private String loanId;
+    private String message;
+
+}
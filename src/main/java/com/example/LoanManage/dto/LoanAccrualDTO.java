@@ -0,0 +1,17 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+@Data
+public class LoanAccrualDTO {
+    private LocalDate asOf;
+    private long loanCount; // Non-cancelled loans in the run
+    private long accruingLoanCount; // Unpaid loans whose payment date is before asOf
+    private long overdueLoanCount; // Unpaid loans whose due date is before asOf
+    private double totalAccruedInterest;
+    private double totalAccruedPenalty;
+    private long elapsedMillis;
+
+}
@@ -2,11 +2,15 @@ package com.example.LoanManage.dto;
 
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class LoanAggregateDTO {
     private String groupBy; // Indicates the grouping (e.g., "lender", "customer", "interest")
     private double totalRemainingAmount;
     private double totalInterest;
     private double totalPenalty;
+    private int groupCount; // Number of groups before any top-N limit is applied
+    private List<LoanGroupDTO> groups;
 
 }
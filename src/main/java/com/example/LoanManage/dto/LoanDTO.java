@@ -1,10 +1,14 @@
 package com.example.LoanManage.dto;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.util.Date;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor // Used by the LoanRepository constructor projections; keep the field order in sync
 public class LoanDTO {
     private String loanId;
     private String customerId;
@@ -16,5 +20,7 @@ public class LoanDTO {
     private Date dueDate;
     private double penaltyPerDay;
     private boolean cancelled;
+    private long version; // Changes on every update of the loan; ignored on input
+    private Date lastModified; // Ignored on input
 
 }
@@ -0,0 +1,27 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class LoanExportDTO {
+    private String exportId;
+    private String format; // "csv" or "columnar"
+    // Filters; a null filter matches every loan. Date ranges are inclusive and compare dates by day.
+    private String lenderId;
+    private Date paymentDateFrom;
+    private Date paymentDateTo;
+    private Date dueDateFrom;
+    private Date dueDateTo;
+
+    private String status; // PENDING, RUNNING, SUCCEEDED or FAILED
+    private boolean coalesced; // Whether the submission joined an existing export instead of starting one
+    private Long rowCount; // Set once the export has succeeded
+    private Long sizeBytes;
+    private Date submittedAt;
+    private Date completedAt; // The loans are as of this time; later changes need a new export
+    private Date expiresAt; // When a finished export and its file are discarded
+    private String error;
+
+}
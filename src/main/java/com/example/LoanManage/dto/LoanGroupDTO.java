@@ -0,0 +1,13 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+@Data
+public class LoanGroupDTO {
+    private String groupKey; // Lender ID, customer ID or interest rate of the group
+    private long loanCount;
+    private double totalRemainingAmount;
+    private double totalInterest;
+    private double totalPenalty;
+
+}
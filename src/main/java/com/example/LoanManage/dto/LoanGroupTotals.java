@@ -0,0 +1,17 @@
+package com.example.LoanManage.dto;
+
+/**
+ * Projection of one GROUP BY row computed by the database: the group key and
+ * the per-group sums, so aggregation never materializes Loan entities.
+ */
+public interface LoanGroupTotals {
+    Object getGroupKey();
+
+    Long getLoanCount();
+
+    Double getTotalRemainingAmount();
+
+    Double getTotalInterest();
+
+    Double getTotalPenalty();
+}
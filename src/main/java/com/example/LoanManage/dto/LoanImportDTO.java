@@ -0,0 +1,23 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class LoanImportDTO {
+    private String importId;
+    private String fileName; // Relative to the import directory
+    private String status; // PENDING, RUNNING, SUCCEEDED or FAILED
+    private boolean coalesced; // Whether the submission joined an existing import of the same file
+    private double progress; // From 0 to 1, by bytes of the file imported
+    private long fileSize;
+    private long processedBytes;
+    private long acceptedRows;
+    private long rejectedRows; // Listed, with the reason, in the rejected-rows file
+    private int segments; // Parts of the file imported in parallel
+    private Date submittedAt;
+    private Date completedAt; // Null until the import finishes on this instance
+    private String error;
+
+}
@@ -0,0 +1,12 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class LoanPageDTO {
+    private List<LoanDTO> loans;
+    private String nextCursor; // Pass back as the cursor parameter to fetch the next page; null on the last page
+
+}
@@ -0,0 +1,15 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class LoanPaymentDTO {
+    private Long paymentId; // Assigned when the payment is committed; ignored on input
+    private String loanId; // Taken from the request path on input
+    private double amount;
+    private Date paidAt; // Ignored on input
+    private double remainingAmount; // Remaining amount of the loan right after this payment; ignored on input
+
+}
@@ -0,0 +1,16 @@
+package com.example.LoanManage.dto;
+
+import java.util.Date;
+
+/**
+ * Projection of the journal entries of one loan in a range of payment ids, summed by the database.
+ */
+public interface LoanPaymentTotals {
+    String getLoanId();
+
+    Double getTotalAmount();
+
+    Long getLastPaymentId();
+
+    Date getLastPaidAt();
+}
@@ -0,0 +1,31 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.Date;
+import java.util.List;
+
+@Data
+public class LoanQueryDTO {
+    // Filters; a null filter matches every loan. Ranges are inclusive and compare dates by day.
+    private String lenderId;
+    private String customerId;
+    private Boolean cancelled;
+    private Boolean repaid; // Whether remainingAmount <= 0, as of the last snapshot rebuild
+    private Date dueDateFrom;
+    private Date dueDateTo;
+    private Date paymentDateFrom;
+    private Date paymentDateTo;
+    private Double minAmount;
+    private Double maxAmount;
+    private Double minInterestPerDay;
+    private Double maxInterestPerDay;
+    private Double minPenaltyPerDay;
+    private Double maxPenaltyPerDay;
+
+    private List<String> groupBy; // Any of "lender", "customer", "interest"; empty gives a single group
+    private String sortBy; // As for the aggregate endpoints, e.g. "remainingAmount"
+    private Integer limit; // Maximum number of groups to return
+    private Long timeoutMillis; // Capped by loan.query.max-timeout-ms
+
+}
@@ -0,0 +1,20 @@
+package com.example.LoanManage.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class LoanQueryResultDTO {
+    private List<String> groupBy; // Group keys join the values of these dimensions with '|', in this order
+    private long scannedLoans;
+    private long matchedLoans;
+    private double totalRemainingAmount;
+    private double totalInterest;
+    private double totalPenalty;
+    private int groupCount; // Number of groups before the limit is applied
+    private boolean truncated; // Whether the limit dropped groups
+    private long elapsedMillis;
+    private List<LoanGroupDTO> groups;
+
+}
@@ -0,0 +1,19 @@
+package com.example.LoanManage.entity;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * The single row recording how far the repayment journal has been folded into Loan.remainingAmount.
+ */
+@Entity
+@Data
+public class LedgerCheckpoint {
+    public static final int LEDGER = 1;
+
+    @Id
+    private Integer id = LEDGER;
+    private long settledPaymentId; // Payments with an id up to this one are included in Loan.remainingAmount
+}
@@ -1,18 +1,36 @@
 package com.example.LoanManage.entity;
 
 import lombok.Data;
+import lombok.ToString;
 
 import javax.persistence.*;
 import java.util.Date;
 
 @Entity
 @Data
+@ToString(onlyExplicitlyIncluded = true) // Identifiers only: cheap to log and never touches lazy state
+@Table(indexes = {
+        // Lookup by customer or lender, covering the columns summed by the aggregate queries
+        @Index(name = "idx_loan_customer_totals",
+                columnList = "customerId, remainingAmount, interestPerDay, amount, penaltyPerDay"),
+        @Index(name = "idx_loan_lender_totals",
+                columnList = "lenderId, remainingAmount, interestPerDay, amount, penaltyPerDay"),
+        @Index(name = "idx_loan_interest_totals",
+                columnList = "interestPerDay, remainingAmount, amount, penaltyPerDay"),
+        // Due-date order, for the overdue scanner and the overdue list of a lender
+        @Index(name = "idx_loan_due", columnList = "cancelled, dueDate"),
+        @Index(name = "idx_loan_lender_due", columnList = "lenderId, cancelled, dueDate")
+})
 public class Loan {
+    // Pooled sequence ids: IDENTITY would force one INSERT per loan and disable JDBC batching
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @ToString.Include
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_seq")
+    @SequenceGenerator(name = "loan_seq", sequenceName = "loan_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true)
+    @ToString.Include
     private String loanId;
     private String customerId;
     private String lenderId;
@@ -23,4 +41,15 @@ public class Loan {
     private Date dueDate;
     private double penaltyPerDay;
     private boolean cancelled;
+
+    // Optimistic-lock version, also the ETag of the loan
+    @Version
+    private long version;
+    private Date lastModified;
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        lastModified = new Date();
+    }
 }
\ No newline at end of file
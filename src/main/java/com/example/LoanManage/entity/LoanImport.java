@@ -0,0 +1,25 @@
+package com.example.LoanManage.entity;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * A CSV file being imported by LoanImportService, split into the LoanImportSegment rows that record its progress.
+ */
+@Entity
+@Data
+@Table(indexes = @Index(name = "idx_loan_import_file", columnList = "filePath, fileSize, fileModified"))
+public class LoanImport {
+    @Id
+    private String importId;
+
+    private String filePath; // Absolute path of the file in the import directory
+    private long fileSize;
+    private long fileModified; // With the size, tells a resubmitted file from one that was replaced
+    private Date submittedAt;
+}
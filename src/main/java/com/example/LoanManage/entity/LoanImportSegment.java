@@ -0,0 +1,30 @@
+package com.example.LoanManage.entity;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * A byte range of an imported file, made of whole lines, and how far it has been imported. The checkpoint
+ * is updated in the transaction that inserts the loans before it, so an import resumed after a crash neither
+ * skips nor repeats rows.
+ */
+@Entity
+@Data
+@Table(indexes = @Index(name = "idx_loan_import_segment_import", columnList = "importId, segmentIndex"))
+public class LoanImportSegment {
+    @Id
+    private String segmentId; // importId + "/" + segmentIndex
+
+    private String importId;
+    private int segmentIndex;
+    private long startOffset;
+    private long endOffset; // Just past the last line of the segment
+    private long committedOffset; // Lines before this are persisted or in the rejected-rows file
+    private long acceptedRows;
+    private long rejectedRows;
+    private long rejectedBytes; // Length of the segment's part of the rejected-rows file at the checkpoint
+}
@@ -0,0 +1,25 @@
+package com.example.LoanManage.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * One entry of the append-only repayment journal. Entries are inserted by LoanLedger and never updated.
+ */
+@Entity
+@Data
+@Table(indexes = @Index(name = "idx_loan_payment_loan", columnList = "loanId, id"))
+public class LoanPayment {
+    // Ids increase in commit order (one writer), which the ledger checkpoint relies on.
+    // A large pooled allocation lets a full group commit run on one sequence call
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_payment_seq")
+    @SequenceGenerator(name = "loan_payment_seq", sequenceName = "loan_payment_seq", allocationSize = 1000)
+    private Long id;
+
+    private String loanId;
+    private double amount;
+    private Date paidAt;
+}
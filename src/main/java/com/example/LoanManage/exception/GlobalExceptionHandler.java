@@ -1,6 +1,9 @@
 package com.example.LoanManage.exception;
 
 import com.example.LoanManage.common.ErrorResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -20,10 +23,24 @@ import java.util.stream.Collectors;
 
 @ControllerAdvice
 public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
+    private final Counter validationFailures;
+    private final Counter conflicts;
+
+    @Autowired
+    public GlobalExceptionHandler(MeterRegistry meterRegistry) {
+        this.validationFailures = Counter.builder("loan.validation.failures")
+                .description("Requests rejected with a LoanValidationException")
+                .register(meterRegistry);
+        this.conflicts = Counter.builder("loan.conflicts")
+                .description("Requests rejected with a DataIntegrityViolationException")
+                .register(meterRegistry);
+    }
+
     @ExceptionHandler(LoanValidationException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ResponseBody
     public ErrorResponse handleLoanValidationException(LoanValidationException ex) {
+        validationFailures.increment();
         return new ErrorResponse("Validation Error", ex.getMessage());
     }
 
@@ -36,10 +53,25 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
     // Handle DataIntegrityViolationException
     @ExceptionHandler(DataIntegrityViolationException.class)
     public ResponseEntity<ErrorResponse> handleDataIntegrityViolationException(DataIntegrityViolationException ex) {
+        conflicts.increment();
         ErrorResponse errorResponse = new ErrorResponse("Data Integrity Violation", ex.getRootCause().getMessage());
         return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
     }
 
+    @ExceptionHandler(LoanQueryTimeoutException.class)
+    public ResponseEntity<ErrorResponse> handleLoanQueryTimeoutException(LoanQueryTimeoutException ex) {
+        ErrorResponse errorResponse = new ErrorResponse("Query Timeout", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorResponse);
+    }
+
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<ErrorResponse> handleServiceOverloadedException(ServiceOverloadedException ex) {
+        ErrorResponse errorResponse = new ErrorResponse("Service Overloaded", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(errorResponse);
+    }
+
     // Handle EntityNotFoundException
     @ExceptionHandler(EntityNotFoundException.class)
     public ResponseEntity<ErrorResponse> handleEntityNotFoundException(EntityNotFoundException ex) {
@@ -0,0 +1,7 @@
+package com.example.LoanManage.exception;
+
+public class LoanQueryTimeoutException extends RuntimeException {
+    public LoanQueryTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.LoanManage.filter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One structured line per request (method, URI, status, latency, outcome, loanId) on the
+ * "loan.requests" logger, replacing the per-request log statements in the controllers.
+ * Successful requests are sampled at {@code loan.request-log.sample-rate}; failures are always
+ * candidates. Either way at most {@code loan.request-log.max-per-second} lines are written.
+ * <p>
+ * An async request (CompletableFuture and streaming endpoints) is logged when its async processing
+ * completes, with the final status and latency, not when the first dispatch returns.
+ */
+@Component
+public class RequestLogFilter extends OncePerRequestFilter {
+    private final Logger requestLogger = LoggerFactory.getLogger("loan.requests");
+    private final double sampleRate;
+    private final int maxPerSecond;
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger linesThisSecond = new AtomicInteger();
+
+    @Autowired
+    public RequestLogFilter(@Value("${loan.request-log.sample-rate:1.0}") double sampleRate,
+                            @Value("${loan.request-log.max-per-second:100}") int maxPerSecond) {
+        this.sampleRate = sampleRate;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!requestLogger.isInfoEnabled()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException ex) {
+            log(request, response, start, "exception");
+            throw ex;
+        }
+        if (!request.isAsyncStarted()) {
+            log(request, response, start, outcome(response));
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            private volatile String failure;
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                log(request, response, start, failure != null ? failure : outcome(response));
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                failure = "timeout";
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                failure = "exception";
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // Async is started once per request here, so there is nothing to re-register
+            }
+        });
+    }
+
+    private void log(HttpServletRequest request, HttpServletResponse response, long start, String outcome) {
+        boolean failed = !"ok".equals(outcome);
+        if ((failed || ThreadLocalRandom.current().nextDouble() < sampleRate) && tryAcquire()) {
+            requestLogger.info("method={} uri={} status={} latencyMs={} outcome={} loanId={}",
+                    request.getMethod(), request.getRequestURI(), response.getStatus(),
+                    (System.nanoTime() - start) / 1_000_000, outcome, loanId(request));
+        }
+    }
+
+    private static String outcome(HttpServletResponse response) {
+        if (response.getStatus() >= 500) {
+            return "server_error";
+        }
+        return response.getStatus() >= 400 ? "client_error" : "ok";
+    }
+
+    private boolean tryAcquire() {
+        long second = System.currentTimeMillis() / 1000;
+        long current = currentSecond.get();
+        if (current != second && currentSecond.compareAndSet(current, second)) {
+            linesThisSecond.set(0);
+        }
+        return linesThisSecond.incrementAndGet() <= maxPerSecond;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String loanId(HttpServletRequest request) {
+        Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return variables instanceof Map ? ((Map<String, String>) variables).get("loanId") : null;
+    }
+}
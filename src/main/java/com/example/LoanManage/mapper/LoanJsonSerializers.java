@@ -0,0 +1,236 @@
+package com.example.LoanManage.mapper;
+
+import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanGroupDTO;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Hand-written Jackson serializers for the DTOs returned in bulk by the list and aggregate endpoints.
+ * <p>
+ * They write the same JSON as the default bean serializers under Spring Boot's ObjectMapper (same property
+ * order, nulls included, dates as ISO-8601 in UTC) but without reflection, with pre-encoded property names,
+ * and with dates formatted from their epoch milliseconds into a per-thread buffer instead of through
+ * {@link DateFormat}. When the ObjectMapper is configured for another date format or time zone, dates
+ * fall back to the configured formatting.
+ */
+@JsonComponent
+public class LoanJsonSerializers {
+
+    private static final SerializedString LOAN_ID = new SerializedString("loanId");
+    private static final SerializedString CUSTOMER_ID = new SerializedString("customerId");
+    private static final SerializedString LENDER_ID = new SerializedString("lenderId");
+    private static final SerializedString AMOUNT = new SerializedString("amount");
+    private static final SerializedString REMAINING_AMOUNT = new SerializedString("remainingAmount");
+    private static final SerializedString PAYMENT_DATE = new SerializedString("paymentDate");
+    private static final SerializedString INTEREST_PER_DAY = new SerializedString("interestPerDay");
+    private static final SerializedString DUE_DATE = new SerializedString("dueDate");
+    private static final SerializedString PENALTY_PER_DAY = new SerializedString("penaltyPerDay");
+    private static final SerializedString CANCELLED = new SerializedString("cancelled");
+    private static final SerializedString VERSION = new SerializedString("version");
+    private static final SerializedString LAST_MODIFIED = new SerializedString("lastModified");
+    private static final SerializedString GROUP_BY = new SerializedString("groupBy");
+    private static final SerializedString GROUP_KEY = new SerializedString("groupKey");
+    private static final SerializedString LOAN_COUNT = new SerializedString("loanCount");
+    private static final SerializedString TOTAL_REMAINING_AMOUNT = new SerializedString("totalRemainingAmount");
+    private static final SerializedString TOTAL_INTEREST = new SerializedString("totalInterest");
+    private static final SerializedString TOTAL_PENALTY = new SerializedString("totalPenalty");
+    private static final SerializedString GROUP_COUNT = new SerializedString("groupCount");
+    private static final SerializedString GROUPS = new SerializedString("groups");
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    // yyyy-MM-ddTHH:mm:ss.SSS+00:00, as StdDateFormat writes UTC dates
+    private static final int ISO_LENGTH = 29;
+    private static final ThreadLocal<char[]> DATE_BUFFER = ThreadLocal.withInitial(() -> new char[ISO_LENGTH]);
+
+    public static class LoanDTOSerializer extends StdSerializer<LoanDTO> {
+
+        public LoanDTOSerializer() {
+            super(LoanDTO.class);
+        }
+
+        @Override
+        public void serialize(LoanDTO loan, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(loan);
+            generator.writeFieldName(LOAN_ID);
+            generator.writeString(loan.getLoanId());
+            generator.writeFieldName(CUSTOMER_ID);
+            generator.writeString(loan.getCustomerId());
+            generator.writeFieldName(LENDER_ID);
+            generator.writeString(loan.getLenderId());
+            generator.writeFieldName(AMOUNT);
+            generator.writeNumber(loan.getAmount());
+            generator.writeFieldName(REMAINING_AMOUNT);
+            generator.writeNumber(loan.getRemainingAmount());
+            generator.writeFieldName(PAYMENT_DATE);
+            writeDate(loan.getPaymentDate(), generator, provider);
+            generator.writeFieldName(INTEREST_PER_DAY);
+            generator.writeNumber(loan.getInterestPerDay());
+            generator.writeFieldName(DUE_DATE);
+            writeDate(loan.getDueDate(), generator, provider);
+            generator.writeFieldName(PENALTY_PER_DAY);
+            generator.writeNumber(loan.getPenaltyPerDay());
+            generator.writeFieldName(CANCELLED);
+            generator.writeBoolean(loan.isCancelled());
+            generator.writeFieldName(VERSION);
+            generator.writeNumber(loan.getVersion());
+            generator.writeFieldName(LAST_MODIFIED);
+            writeDate(loan.getLastModified(), generator, provider);
+            generator.writeEndObject();
+        }
+    }
+
+    public static class LoanGroupDTOSerializer extends StdSerializer<LoanGroupDTO> {
+
+        public LoanGroupDTOSerializer() {
+            super(LoanGroupDTO.class);
+        }
+
+        @Override
+        public void serialize(LoanGroupDTO group, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            writeGroup(group, generator);
+        }
+    }
+
+    public static class LoanAggregateDTOSerializer extends StdSerializer<LoanAggregateDTO> {
+
+        public LoanAggregateDTOSerializer() {
+            super(LoanAggregateDTO.class);
+        }
+
+        @Override
+        public void serialize(LoanAggregateDTO aggregate, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject(aggregate);
+            generator.writeFieldName(GROUP_BY);
+            generator.writeString(aggregate.getGroupBy());
+            generator.writeFieldName(TOTAL_REMAINING_AMOUNT);
+            generator.writeNumber(aggregate.getTotalRemainingAmount());
+            generator.writeFieldName(TOTAL_INTEREST);
+            generator.writeNumber(aggregate.getTotalInterest());
+            generator.writeFieldName(TOTAL_PENALTY);
+            generator.writeNumber(aggregate.getTotalPenalty());
+            generator.writeFieldName(GROUP_COUNT);
+            generator.writeNumber(aggregate.getGroupCount());
+            generator.writeFieldName(GROUPS);
+            List<LoanGroupDTO> groups = aggregate.getGroups();
+            if (groups == null) {
+                generator.writeNull();
+            } else {
+                generator.writeStartArray(groups, groups.size());
+                for (int i = 0; i < groups.size(); i++) {
+                    writeGroup(groups.get(i), generator);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeGroup(LoanGroupDTO group, JsonGenerator generator) throws IOException {
+        if (group == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartObject(group);
+        generator.writeFieldName(GROUP_KEY);
+        generator.writeString(group.getGroupKey());
+        generator.writeFieldName(LOAN_COUNT);
+        generator.writeNumber(group.getLoanCount());
+        generator.writeFieldName(TOTAL_REMAINING_AMOUNT);
+        generator.writeNumber(group.getTotalRemainingAmount());
+        generator.writeFieldName(TOTAL_INTEREST);
+        generator.writeNumber(group.getTotalInterest());
+        generator.writeFieldName(TOTAL_PENALTY);
+        generator.writeNumber(group.getTotalPenalty());
+        generator.writeEndObject();
+    }
+
+    static void writeDate(Date date, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        if (date == null) {
+            generator.writeNull();
+            return;
+        }
+        long millis = date.getTime();
+        if (provider.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)) {
+            generator.writeNumber(millis);
+            return;
+        }
+        char[] buffer = DATE_BUFFER.get();
+        if (!isDefaultDateFormat(provider) || !formatIsoUtc(millis, buffer)) {
+            provider.defaultSerializeDateValue(date, generator);
+            return;
+        }
+        generator.writeString(buffer, 0, ISO_LENGTH);
+    }
+
+    private static boolean isDefaultDateFormat(SerializerProvider provider) {
+        DateFormat dateFormat = provider.getConfig().getDateFormat();
+        return dateFormat != null && dateFormat.getClass() == StdDateFormat.class
+                && "UTC".equals(provider.getTimeZone().getID());
+    }
+
+    /**
+     * Format epoch milliseconds as yyyy-MM-ddTHH:mm:ss.SSS+00:00 into the buffer.
+     *
+     * @return false if the year does not fit in four digits; the buffer is then unspecified.
+     */
+    static boolean formatIsoUtc(long millis, char[] buffer) {
+        long epochDay = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(millis, MILLIS_PER_DAY);
+
+        // Civil date from days since 1970-01-01 in the proleptic Gregorian calendar (400-year eras from 0000-03-01)
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        int dayOfEra = (int) (z - era * 146_097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return false;
+        }
+
+        writeDigits(buffer, 0, (int) year, 4);
+        buffer[4] = '-';
+        writeDigits(buffer, 5, month, 2);
+        buffer[7] = '-';
+        writeDigits(buffer, 8, day, 2);
+        buffer[10] = 'T';
+        writeDigits(buffer, 11, millisOfDay / 3_600_000, 2);
+        buffer[13] = ':';
+        writeDigits(buffer, 14, millisOfDay / 60_000 % 60, 2);
+        buffer[16] = ':';
+        writeDigits(buffer, 17, millisOfDay / 1_000 % 60, 2);
+        buffer[19] = '.';
+        writeDigits(buffer, 20, millisOfDay % 1_000, 3);
+        buffer[23] = '+';
+        buffer[24] = '0';
+        buffer[25] = '0';
+        buffer[26] = ':';
+        buffer[27] = '0';
+        buffer[28] = '0';
+        return true;
+    }
+
+    private static void writeDigits(char[] buffer, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -17,6 +17,8 @@ public class LoanMapper {
         dto.setDueDate(loan.getDueDate());
         dto.setPenaltyPerDay(loan.getPenaltyPerDay());
         dto.setCancelled(loan.isCancelled());
+        dto.setVersion(loan.getVersion());
+        dto.setLastModified(loan.getLastModified());
         return dto;
     }
 
@@ -0,0 +1,100 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanGroupDTO;
+import com.example.LoanManage.exception.LoanValidationException;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+
+/**
+ * Sort orders accepted by the aggregate endpoints. Groups are ordered by key
+ * ascending, or by the chosen metric descending so a top-N limit keeps the largest groups.
+ * <p>
+ * Keys are compared part by part, the parts of a multi-dimension key being separated by '|'. Parts that are
+ * both numbers, such as interest rates, compare by value, so 2.0 comes before 10.0 and 1.0E-4 before 0.02;
+ * other parts compare as strings, after the numbers.
+ */
+public enum AggregateSort {
+    GROUP_KEY("groupKey", Comparator.comparing(LoanGroupDTO::getGroupKey,
+            Comparator.nullsFirst(AggregateSort::compareKeys))),
+    LOAN_COUNT("loanCount", Comparator.comparingLong(LoanGroupDTO::getLoanCount).reversed()),
+    REMAINING_AMOUNT("remainingAmount", Comparator.comparingDouble(LoanGroupDTO::getTotalRemainingAmount).reversed()),
+    INTEREST("interest", Comparator.comparingDouble(LoanGroupDTO::getTotalInterest).reversed()),
+    PENALTY("penalty", Comparator.comparingDouble(LoanGroupDTO::getTotalPenalty).reversed());
+
+    private final String parameter;
+    private final Comparator<LoanGroupDTO> comparator;
+
+    AggregateSort(String parameter, Comparator<LoanGroupDTO> comparator) {
+        this.parameter = parameter;
+        this.comparator = comparator;
+    }
+
+    public Comparator<LoanGroupDTO> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Resolve the sortBy request parameter.
+     *
+     * @param parameter The parameter value, e.g. "groupKey" or "remainingAmount"; null means GROUP_KEY.
+     * @return The matching sort order.
+     * @throws LoanValidationException if the value is not a known sort order.
+     */
+    public static AggregateSort fromParameter(String parameter) {
+        if (parameter == null) {
+            return GROUP_KEY;
+        }
+        for (AggregateSort sort : values()) {
+            if (sort.parameter.equalsIgnoreCase(parameter)) {
+                return sort;
+            }
+        }
+        throw new LoanValidationException("Unsupported sortBy value: " + parameter);
+    }
+
+    static int compareKeys(String left, String right) {
+        if (left.indexOf('|') < 0 && right.indexOf('|') < 0) {
+            return compareParts(left, right);
+        }
+        String[] leftParts = left.split("\\|", -1);
+        String[] rightParts = right.split("\\|", -1);
+        for (int i = 0; i < Math.min(leftParts.length, rightParts.length); i++) {
+            int order = compareParts(leftParts[i], rightParts[i]);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(leftParts.length, rightParts.length);
+    }
+
+    private static int compareParts(String left, String right) {
+        BigDecimal leftNumber = number(left);
+        BigDecimal rightNumber = number(right);
+        if (leftNumber != null && rightNumber != null) {
+            int order = leftNumber.compareTo(rightNumber);
+            // 2.0 and 2.00 have the same value; the string keeps the order total
+            return order != 0 ? order : left.compareTo(right);
+        }
+        if (leftNumber != null || rightNumber != null) {
+            return leftNumber != null ? -1 : 1;
+        }
+        return left.compareTo(right);
+    }
+
+    // The value of a part that is a decimal number, or null; IDs usually fail on the first character
+    private static BigDecimal number(String part) {
+        if (part.isEmpty()) {
+            return null;
+        }
+        char first = part.charAt(0);
+        if ((first < '0' || first > '9') && first != '-' && first != '+' && first != '.') {
+            return null;
+        }
+        try {
+            return new BigDecimal(part);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanAccrualDTO;
+import com.example.LoanManage.service.LoanSnapshot.Columns;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes interest and penalty accrued up to an as-of date for every non-cancelled loan.
+ * Interest accrues for each day since the payment date and penalty for each day past the due date,
+ * both on the loan amount, matching the daily rates used by the aggregates.
+ * <p>
+ * A fully repaid loan stops accruing both on the day it was repaid: it keeps what it accrued up to then and is
+ * not counted as accruing or overdue, as in the overdue queries of {@link LoanRepository}. Which loans are
+ * repaid is read against a {@link LoanLedger.View}, so payments still in the ledger tail count, and not from the
+ * snapshot, whose remaining amounts may be one rebuild old. A loan is repaid on its last payment, or when its
+ * row was last modified if it has none; for a loan repaid by its tail, on the tail's last payment.
+ * <p>
+ * The run reduces the primitive columns of the {@link LoanSnapshot} with fork/join,
+ * so no Loan entities are touched while the numbers are computed. Days are counted in UTC.
+ */
+@Service
+public class LoanAccrualEngine {
+    private static final int SPLIT_THRESHOLD = 1 << 15;
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+
+    private final LoanSnapshot loanSnapshot;
+    private final LoanLedger ledger;
+    private final LoanRepository loanRepository;
+    private final Clock clock;
+    private final AtomicReference<LoanAccrualDTO> latestRun = new AtomicReference<>();
+    private final Logger logger = LoggerFactory.getLogger(LoanAccrualEngine.class);
+
+    @Autowired
+    public LoanAccrualEngine(LoanSnapshot loanSnapshot, LoanLedger ledger, LoanRepository loanRepository) {
+        this(loanSnapshot, ledger, loanRepository, Clock.systemUTC());
+    }
+
+    LoanAccrualEngine(LoanSnapshot loanSnapshot, LoanLedger ledger, LoanRepository loanRepository, Clock clock) {
+        this.loanSnapshot = loanSnapshot;
+        this.ledger = ledger;
+        this.loanRepository = loanRepository;
+        this.clock = clock;
+    }
+
+    /**
+     * Compute accrued interest and penalty for the whole book as of the given date.
+     *
+     * @param asOf The date to accrue up to (inclusive of whole days elapsed before it).
+     * @return LoanAccrualDTO with the portfolio totals.
+     */
+    @Timed(value = "loan.accrual", extraTags = {"method", "accrue"})
+    public LoanAccrualDTO accrue(LocalDate asOf) {
+        long startNanos = System.nanoTime();
+        Columns columns = loanSnapshot.columns();
+        RepaidDays repaidDays = ledger.readView(this::repaidDays);
+        Totals totals = ForkJoinPool.commonPool()
+                .invoke(new AccrualTask(columns, repaidDays, asOf.toEpochDay(), 0, columns.size()));
+
+        LoanAccrualDTO result = new LoanAccrualDTO();
+        result.setAsOf(asOf);
+        result.setLoanCount(totals.loans);
+        result.setAccruingLoanCount(totals.accruingLoans);
+        result.setOverdueLoanCount(totals.overdueLoans);
+        result.setTotalAccruedInterest(totals.interest);
+        result.setTotalAccruedPenalty(totals.penalty);
+        result.setElapsedMillis((System.nanoTime() - startNanos) / 1_000_000);
+        logger.debug("Accrued {} loans as of {} in {} ms.", totals.loans, asOf, result.getElapsedMillis());
+        return result;
+    }
+
+    /**
+     * Nightly accrual run for the current date. The result is kept for {@link #getLatestRun()}.
+     */
+    @Scheduled(cron = "${loan.accrual.cron:0 30 1 * * *}", zone = "UTC")
+    public void runNightly() {
+        LoanAccrualDTO result = accrue(LocalDate.now(clock));
+        latestRun.set(result);
+        logger.info("Nightly accrual as of {}: {} loans, {} overdue, {} ms.", result.getAsOf(),
+                result.getLoanCount(), result.getOverdueLoanCount(), result.getElapsedMillis());
+    }
+
+    /**
+     * @return The result of the last nightly run, or null if none has completed since startup.
+     */
+    public LoanAccrualDTO getLatestRun() {
+        return latestRun.get();
+    }
+
+    private RepaidDays repaidDays(LoanLedger.View view) {
+        Map<Long, Integer> days = new HashMap<>();
+        for (Object[] row : loanRepository.findRepaidLoanColumns(view.getSettledPaymentId())) {
+            String loanId = (String) row[1];
+            // Rows settled since the view opened are taken back to it; those repaid by the tail are found below
+            if ((Double) row[2] + view.settledAmount(loanId, (Long) row[3]) <= 0) {
+                Date repaidAt = row[4] != null ? (Date) row[4] : (Date) row[5];
+                days.put((Long) row[0], LoanSnapshot.toEpochDay(repaidAt));
+            }
+        }
+        List<String> loanIds = new ArrayList<>(view.unsettledLoanIds());
+        for (int from = 0; from < loanIds.size(); from += LOOKUP_CHUNK_SIZE) {
+            List<String> chunk = loanIds.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, loanIds.size()));
+            for (Object[] row : loanRepository.findBalanceColumnsByLoanIdIn(chunk)) {
+                String loanId = (String) row[1];
+                double remainingAmount = (Double) row[2];
+                long version = (Long) row[3];
+                if (remainingAmount + view.settledAmount(loanId, version) > 0
+                        && view.remainingAmount(loanId, remainingAmount, version) <= 0) {
+                    days.put((Long) row[0], LoanSnapshot.toEpochDay(view.lastPaidAt(loanId)));
+                }
+            }
+        }
+        return new RepaidDays(days);
+    }
+
+    /**
+     * The day each repaid loan was repaid, by surrogate id, sorted like the snapshot columns.
+     */
+    static final class RepaidDays {
+        private final long[] ids;
+        private final int[] days;
+
+        RepaidDays(Map<Long, Integer> repaidDays) {
+            ids = new long[repaidDays.size()];
+            days = new int[repaidDays.size()];
+            int i = 0;
+            for (Map.Entry<Long, Integer> entry : new TreeMap<>(repaidDays).entrySet()) {
+                ids[i] = entry.getKey();
+                days[i] = entry.getValue();
+                i++;
+            }
+        }
+    }
+
+    static final class Totals {
+        double interest;
+        double penalty;
+        long loans;
+        long accruingLoans;
+        long overdueLoans;
+
+        Totals merge(Totals other) {
+            interest += other.interest;
+            penalty += other.penalty;
+            loans += other.loans;
+            accruingLoans += other.accruingLoans;
+            overdueLoans += other.overdueLoans;
+            return this;
+        }
+    }
+
+    /**
+     * Splits the index range in halves until it is small enough to sum in a plain loop.
+     * The split points depend only on the book size, so a run is reproducible to the last bit.
+     */
+    static final class AccrualTask extends RecursiveTask<Totals> {
+        private final Columns columns;
+        private final RepaidDays repaidDays;
+        private final long asOfDay;
+        private final int from;
+        private final int to;
+
+        AccrualTask(Columns columns, RepaidDays repaidDays, long asOfDay, int from, int to) {
+            this.columns = columns;
+            this.repaidDays = repaidDays;
+            this.asOfDay = asOfDay;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                return sum();
+            }
+            int middle = (from + to) >>> 1;
+            AccrualTask left = new AccrualTask(columns, repaidDays, asOfDay, from, middle);
+            left.fork();
+            Totals right = new AccrualTask(columns, repaidDays, asOfDay, middle, to).compute();
+            return left.join().merge(right);
+        }
+
+        private Totals sum() {
+            Totals totals = new Totals();
+            long[] id = columns.id;
+            double[] amount = columns.amount;
+            double[] interestPerDay = columns.interestPerDay;
+            double[] penaltyPerDay = columns.penaltyPerDay;
+            int[] paymentDay = columns.paymentDay;
+            int[] dueDay = columns.dueDay;
+            boolean[] cancelled = columns.cancelled;
+            long[] repaidIds = repaidDays.ids;
+            int[] repaidDay = repaidDays.days;
+            // Both are sorted by id, so the repaid loans of the range are walked alongside it
+            int repaid = from < to ? Arrays.binarySearch(repaidIds, id[from]) : 0;
+            if (repaid < 0) {
+                repaid = -repaid - 1;
+            }
+            for (int i = from; i < to; i++) {
+                while (repaid < repaidIds.length && repaidIds[repaid] < id[i]) {
+                    repaid++;
+                }
+                if (cancelled[i]) {
+                    continue;
+                }
+                totals.loans++;
+                boolean unpaid = repaid == repaidIds.length || repaidIds[repaid] != id[i];
+                long untilDay = unpaid ? asOfDay : Math.min(asOfDay, repaidDay[repaid]);
+                // Int days widened to long cannot overflow, even against the NO_DATE sentinel
+                long interestDays = untilDay - paymentDay[i];
+                if (interestDays > 0) {
+                    totals.interest += interestPerDay[i] * amount[i] * interestDays;
+                    if (unpaid) {
+                        totals.accruingLoans++;
+                    }
+                }
+                long penaltyDays = untilDay - dueDay[i];
+                if (penaltyDays > 0) {
+                    totals.penalty += penaltyPerDay[i] * amount[i] * penaltyDays;
+                    if (unpaid) {
+                        totals.overdueLoans++;
+                    }
+                }
+            }
+            return totals;
+        }
+    }
+}
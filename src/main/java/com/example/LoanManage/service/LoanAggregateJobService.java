@@ -0,0 +1,280 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.AggregateJobDTO;
+import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.service.LoanAggregateStore.Dimension;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Workload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the LoanService aggregates as background jobs for callers that cannot wait on one HTTP request.
+ * <p>
+ * A submission returns a job id at once; the job runs on the JOB workload of {@link LoanWorkloadExecutor}.
+ * Submissions with the same parameters share one job while it is pending or running, and after it
+ * succeeds until its result expires, so a dashboard reloading the same aggregate reuses the result.
+ * Jobs live in memory on the instance that accepted them.
+ */
+@Service
+public class LoanAggregateJobService {
+
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final LoanService loanService;
+    private final LoanWorkloadExecutor workloadExecutor;
+    private final Duration resultTtl;
+    private final Clock clock;
+    private final Map<String, Job> jobsById = new ConcurrentHashMap<>();
+    private final Map<String, Job> jobsByKey = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(LoanAggregateJobService.class);
+
+    @Autowired
+    public LoanAggregateJobService(LoanService loanService, LoanWorkloadExecutor workloadExecutor,
+                                   @Value("${loan.jobs.result-ttl:10m}") Duration resultTtl) {
+        this(loanService, workloadExecutor, resultTtl, Clock.systemUTC());
+    }
+
+    LoanAggregateJobService(LoanService loanService, LoanWorkloadExecutor workloadExecutor,
+                            Duration resultTtl, Clock clock) {
+        this.loanService = loanService;
+        this.workloadExecutor = workloadExecutor;
+        this.resultTtl = resultTtl;
+        this.clock = clock;
+    }
+
+    /**
+     * Submit an aggregate job, or join the matching one that is in progress or has a live result.
+     *
+     * @param groupBy "lender", "customer" or "interest".
+     * @param sortBy  The order of the breakdown (see {@link AggregateSort}); null sorts by group key.
+     * @param top     The maximum number of groups to return; null returns all groups.
+     * @return AggregateJobDTO describing the job.
+     * @throws LoanValidationException if the parameters are invalid.
+     */
+    public AggregateJobDTO submit(String groupBy, String sortBy, Integer top) {
+        Dimension dimension = resolveDimension(groupBy);
+        AggregateSort sort = AggregateSort.fromParameter(sortBy);
+        if (top != null && top < 1) {
+            throw new LoanValidationException("top must be a positive number");
+        }
+        String key = dimension + "|" + sort + "|" + top;
+        Instant now = clock.instant();
+        Job[] created = new Job[1];
+        Job job = jobsByKey.compute(key, (k, existing) -> {
+            if (existing != null && existing.isReusable(now)) {
+                return existing;
+            }
+            created[0] = new Job(UUID.randomUUID().toString(), k, dimension, sortBy, top, now);
+            // Published by id before by key, so a caller that joins the job can always look it up
+            jobsById.put(created[0].id, created[0]);
+            return created[0];
+        });
+        if (created[0] == null) {
+            logger.debug("Coalesced {} aggregate job into job {}.", groupBy, job.id);
+            return job.toDTO(true);
+        }
+
+        try {
+            workloadExecutor.submit(Workload.JOB, () -> run(job)).whenComplete((result, ex) -> {
+                if (ex != null) {
+                    // Covers the JOB timeout, which fails the future while the work may still be running
+                    fail(job, ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Callers may have joined the job already, so it fails and expires rather than disappearing
+            fail(job, ex);
+            throw ex;
+        }
+        logger.debug("Submitted {} aggregate job {}.", groupBy, job.id);
+        return job.toDTO(false);
+    }
+
+    /**
+     * @param jobId The job id returned on submission.
+     * @return AggregateJobDTO with the current status.
+     * @throws ResourceNotFoundException if the job does not exist or has expired.
+     */
+    public AggregateJobDTO getJob(String jobId) {
+        return find(jobId).toDTO(false);
+    }
+
+    /**
+     * @param jobId The job id returned on submission.
+     * @return The result, or null while the job is pending or running.
+     * @throws ResourceNotFoundException if the job does not exist or has expired.
+     * @throws IllegalStateException     if the job failed.
+     */
+    public LoanAggregateDTO getResult(String jobId) {
+        Job job = find(jobId);
+        synchronized (job) {
+            if (job.status == Status.FAILED) {
+                throw new IllegalStateException("Aggregate job " + jobId + " failed: " + job.error);
+            }
+            return job.result;
+        }
+    }
+
+    /**
+     * Drop finished jobs whose results have expired.
+     */
+    @Scheduled(fixedDelayString = "${loan.jobs.cleanup-interval-ms:60000}")
+    public void evictExpired() {
+        Instant now = clock.instant();
+        for (Job job : jobsById.values()) {
+            if (job.isExpired(now)) {
+                forget(job);
+            }
+        }
+    }
+
+    private LoanAggregateDTO run(Job job) {
+        job.started();
+        try {
+            LoanAggregateDTO result;
+            switch (job.dimension) {
+                case LENDER:
+                    result = loanService.aggregateLoansByLender(job.sortBy, job.top);
+                    break;
+                case CUSTOMER:
+                    result = loanService.aggregateLoansByCustomerId(job.sortBy, job.top);
+                    break;
+                default:
+                    result = loanService.aggregateLoansByInterest(job.sortBy, job.top);
+                    break;
+            }
+            job.succeeded(result, clock.instant(), resultTtl);
+            return result;
+        } catch (RuntimeException ex) {
+            fail(job, ex);
+            throw ex;
+        }
+    }
+
+    private void fail(Job job, Throwable ex) {
+        if (job.failed(ex.getMessage(), clock.instant(), resultTtl)) {
+            logger.warn("Aggregate job {} failed: {}", job.id, ex.getMessage());
+            // A failed job is not reused; it stays visible until its TTL so pollers see the error
+            jobsByKey.remove(job.key, job);
+        }
+    }
+
+    private Job find(String jobId) {
+        Job job = jobsById.get(jobId);
+        if (job == null || job.isExpired(clock.instant())) {
+            throw new ResourceNotFoundException("Aggregate job " + jobId + " not found");
+        }
+        return job;
+    }
+
+    private void forget(Job job) {
+        jobsById.remove(job.id, job);
+        jobsByKey.remove(job.key, job);
+    }
+
+    private static Dimension resolveDimension(String groupBy) {
+        try {
+            return Dimension.valueOf(String.valueOf(groupBy).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new LoanValidationException("Unsupported groupBy value: " + groupBy);
+        }
+    }
+
+    /**
+     * One aggregate computation. State changes and reads are synchronized on the job.
+     */
+    private static final class Job {
+        private final String id;
+        private final String key;
+        private final Dimension dimension;
+        private final String sortBy;
+        private final Integer top;
+        private final Instant submittedAt;
+        private Status status = Status.PENDING;
+        private Instant completedAt;
+        private Instant expiresAt;
+        private LoanAggregateDTO result;
+        private String error;
+
+        private Job(String id, String key, Dimension dimension, String sortBy, Integer top, Instant submittedAt) {
+            this.id = id;
+            this.key = key;
+            this.dimension = dimension;
+            this.sortBy = sortBy;
+            this.top = top;
+            this.submittedAt = submittedAt;
+        }
+
+        private synchronized void started() {
+            if (status == Status.PENDING) {
+                status = Status.RUNNING;
+            }
+        }
+
+        private synchronized void succeeded(LoanAggregateDTO result, Instant now, Duration ttl) {
+            if (completedAt != null) {
+                // Already failed by its timeout; a late result is dropped
+                return;
+            }
+            this.status = Status.SUCCEEDED;
+            this.result = result;
+            this.completedAt = now;
+            this.expiresAt = now.plus(ttl);
+        }
+
+        /**
+         * @return Whether the job was still unfinished, i.e. whether this call failed it.
+         */
+        private synchronized boolean failed(String error, Instant now, Duration ttl) {
+            if (completedAt != null) {
+                return false;
+            }
+            this.status = Status.FAILED;
+            this.error = error;
+            this.completedAt = now;
+            this.expiresAt = now.plus(ttl);
+            return true;
+        }
+
+        private synchronized boolean isExpired(Instant now) {
+            return expiresAt != null && !now.isBefore(expiresAt);
+        }
+
+        private synchronized boolean isReusable(Instant now) {
+            return status != Status.FAILED && !isExpired(now);
+        }
+
+        private synchronized AggregateJobDTO toDTO(boolean coalesced) {
+            AggregateJobDTO dto = new AggregateJobDTO();
+            dto.setJobId(id);
+            dto.setGroupBy(dimension.name().toLowerCase(Locale.ROOT));
+            dto.setSortBy(sortBy);
+            dto.setTop(top);
+            dto.setStatus(status.name());
+            dto.setCoalesced(coalesced);
+            dto.setSubmittedAt(Date.from(submittedAt));
+            dto.setCompletedAt(completedAt != null ? Date.from(completedAt) : null);
+            dto.setExpiresAt(expiresAt != null ? Date.from(expiresAt) : null);
+            dto.setError(error);
+            return dto;
+        }
+    }
+}
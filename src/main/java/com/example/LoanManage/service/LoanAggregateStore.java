@@ -0,0 +1,428 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.AggregateConsistencyDTO;
+import com.example.LoanManage.dto.AggregateDriftDTO;
+import com.example.LoanManage.dto.LoanGroupTotals;
+import com.example.LoanManage.entity.Loan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * In-process materialized aggregates per lender, customer and interest rate.
+ * <p>
+ * The store is seeded once from the repository GROUP BY queries and then maintained
+ * incrementally by every write that goes through {@link #recordAdd}, {@link #recordUpdate}
+ * and {@link #recordRemoval}, so reading the aggregates costs O(groups) instead of a table scan.
+ * Writes hold the read side of a lock while they save and apply their delta; seeding and
+ * consistency checks hold the write side, so a loan is never both read from the database
+ * and applied as a delta.
+ */
+@Component
+public class LoanAggregateStore {
+
+    public enum Dimension {
+        LENDER, CUSTOMER, INTEREST
+    }
+
+    private static final double TOLERANCE = 1e-6;
+
+    private final LoanRepository loanRepository;
+    private final Logger logger = LoggerFactory.getLogger(LoanAggregateStore.class);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Map<Dimension, ConcurrentHashMap<String, GroupAccumulator>> groups = emptyGroups();
+    private volatile boolean seeded;
+
+    @Autowired
+    public LoanAggregateStore(LoanRepository loanRepository) {
+        this.loanRepository = loanRepository;
+    }
+
+    /**
+     * Seed the store when the application starts so the first aggregate request does not pay for it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedOnStartup() {
+        ensureSeeded();
+    }
+
+    /**
+     * Rebuild every dimension from the repository, discarding the current state.
+     */
+    public void reseed() {
+        lock.writeLock().lock();
+        try {
+            Map<Dimension, ConcurrentHashMap<String, GroupAccumulator>> loaded = emptyGroups();
+            for (Dimension dimension : Dimension.values()) {
+                loaded.put(dimension, load(dimension));
+            }
+            groups = loaded;
+            seeded = true;
+            logger.info("Seeded materialized aggregates: {} lenders, {} customers, {} interest rates.",
+                    groups.get(Dimension.LENDER).size(), groups.get(Dimension.CUSTOMER).size(),
+                    groups.get(Dimension.INTEREST).size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild every dimension from loans supplied by the caller instead of the repository GROUP BY queries,
+     * for a caller that reads the whole book anyway, such as {@link LoanBookImage} restoring it.
+     *
+     * @param loans Called once with a sink that accepts every loan of the book.
+     */
+    public void reseed(Consumer<Consumer<Loan>> loans) {
+        lock.writeLock().lock();
+        try {
+            Map<Dimension, ConcurrentHashMap<String, GroupAccumulator>> loaded = emptyGroups();
+            loans.accept(loan -> apply(loaded, loan, 1));
+            groups = loaded;
+            seeded = true;
+            logger.info("Seeded materialized aggregates from the loan book: {} lenders, {} customers, "
+                    + "{} interest rates.", groups.get(Dimension.LENDER).size(),
+                    groups.get(Dimension.CUSTOMER).size(), groups.get(Dimension.INTEREST).size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return a copy of the current per-group totals of one dimension.
+     *
+     * @param dimension The grouping to read.
+     * @return One LoanGroupTotals per group.
+     */
+    public List<LoanGroupTotals> getGroups(Dimension dimension) {
+        ensureSeeded();
+        Map<String, GroupAccumulator> current = groups.get(dimension);
+        List<LoanGroupTotals> result = new ArrayList<>(current.size());
+        for (GroupAccumulator accumulator : current.values()) {
+            result.add(accumulator.copy());
+        }
+        return result;
+    }
+
+    /**
+     * Persist a new loan and add it to the aggregates.
+     *
+     * @param save The write that persists the loan and returns the saved entity.
+     * @return The saved loan.
+     */
+    public Loan recordAdd(Supplier<Loan> save) {
+        lock.readLock().lock();
+        try {
+            Loan savedLoan = save.get();
+            apply(savedLoan, 1);
+            return savedLoan;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persist a batch of new loans and add them to the aggregates.
+     *
+     * @param save The write that persists the loans and returns the saved entities.
+     * @return The saved loans.
+     */
+    public List<Loan> recordAddAll(Supplier<List<Loan>> save) {
+        lock.readLock().lock();
+        try {
+            List<Loan> savedLoans = save.get();
+            for (Loan loan : savedLoans) {
+                apply(loan, 1);
+            }
+            return savedLoans;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persist a change to an existing loan and move its contribution between groups.
+     *
+     * @param before A copy of the loan as it was before the change.
+     * @param save   The write that persists the change and returns the saved entity.
+     * @return The saved loan.
+     */
+    public Loan recordUpdate(Loan before, Supplier<Loan> save) {
+        lock.readLock().lock();
+        try {
+            Loan savedLoan = save.get();
+            apply(before, -1);
+            apply(savedLoan, 1);
+            return savedLoan;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persist changes to a batch of existing loans and move their contributions between groups.
+     *
+     * @param save The write that persists the changes and returns each changed loan before and after its change.
+     * @return The changes returned by save.
+     */
+    public List<Change> recordUpdateAll(Supplier<List<Change>> save) {
+        lock.readLock().lock();
+        try {
+            List<Change> changes = save.get();
+            for (Change change : changes) {
+                apply(change.before, -1);
+                apply(change.after, 1);
+            }
+            return changes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a loan and remove it from the aggregates.
+     *
+     * @param loan   The loan being removed.
+     * @param delete The write that deletes the loan.
+     */
+    public void recordRemoval(Loan loan, Runnable delete) {
+        lock.readLock().lock();
+        try {
+            delete.run();
+            apply(loan, -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recompute every dimension from the repository and compare it with the materialized state.
+     *
+     * @param repair Whether to replace the materialized state with the recomputed one when drift is found.
+     * @return The drift found, if any.
+     */
+    public AggregateConsistencyDTO verify(boolean repair) {
+        ensureSeeded();
+        lock.writeLock().lock();
+        try {
+            AggregateConsistencyDTO report = new AggregateConsistencyDTO();
+            List<AggregateDriftDTO> drifts = new ArrayList<>();
+            int groupsChecked = 0;
+            Map<Dimension, ConcurrentHashMap<String, GroupAccumulator>> recomputed = emptyGroups();
+
+            for (Dimension dimension : Dimension.values()) {
+                ConcurrentHashMap<String, GroupAccumulator> expected = load(dimension);
+                recomputed.put(dimension, expected);
+                Map<String, GroupAccumulator> actual = new HashMap<>(groups.get(dimension));
+                for (Map.Entry<String, GroupAccumulator> entry : expected.entrySet()) {
+                    groupsChecked++;
+                    GroupAccumulator materialized = actual.remove(entry.getKey());
+                    if (materialized == null || !entry.getValue().matches(materialized)) {
+                        drifts.add(drift(dimension, entry.getKey(), entry.getValue(), materialized));
+                    }
+                }
+                for (Map.Entry<String, GroupAccumulator> entry : actual.entrySet()) {
+                    groupsChecked++;
+                    drifts.add(drift(dimension, entry.getKey(), null, entry.getValue()));
+                }
+            }
+
+            report.setGroupsChecked(groupsChecked);
+            report.setDrifts(drifts);
+            report.setConsistent(drifts.isEmpty());
+            if (!drifts.isEmpty()) {
+                logger.warn("Materialized aggregates drifted from the repository in {} groups.", drifts.size());
+                if (repair) {
+                    groups = recomputed;
+                    report.setRepaired(true);
+                }
+            }
+            return report;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureSeeded() {
+        if (!seeded) {
+            synchronized (this) {
+                if (!seeded) {
+                    reseed();
+                }
+            }
+        }
+    }
+
+    private static Map<Dimension, ConcurrentHashMap<String, GroupAccumulator>> emptyGroups() {
+        Map<Dimension, ConcurrentHashMap<String, GroupAccumulator>> empty = new EnumMap<>(Dimension.class);
+        for (Dimension dimension : Dimension.values()) {
+            empty.put(dimension, new ConcurrentHashMap<>());
+        }
+        return empty;
+    }
+
+    private ConcurrentHashMap<String, GroupAccumulator> load(Dimension dimension) {
+        List<LoanGroupTotals> rows;
+        switch (dimension) {
+            case LENDER:
+                rows = loanRepository.sumByLender();
+                break;
+            case CUSTOMER:
+                rows = loanRepository.sumByCustomerId();
+                break;
+            default:
+                rows = loanRepository.sumByInterest();
+                break;
+        }
+        ConcurrentHashMap<String, GroupAccumulator> loaded = new ConcurrentHashMap<>();
+        for (LoanGroupTotals row : rows) {
+            String key = String.valueOf(row.getGroupKey());
+            loaded.put(key, new GroupAccumulator(key, row.getLoanCount(), row.getTotalRemainingAmount(),
+                    row.getTotalInterest(), row.getTotalPenalty()));
+        }
+        return loaded;
+    }
+
+    private void apply(Loan loan, int sign) {
+        apply(groups, loan, sign);
+    }
+
+    private static void apply(Map<Dimension, ConcurrentHashMap<String, GroupAccumulator>> allGroups, Loan loan,
+                              int sign) {
+        apply(allGroups.get(Dimension.LENDER), String.valueOf(loan.getLenderId()), loan, sign);
+        apply(allGroups.get(Dimension.CUSTOMER), String.valueOf(loan.getCustomerId()), loan, sign);
+        apply(allGroups.get(Dimension.INTEREST), String.valueOf(loan.getInterestPerDay()), loan, sign);
+    }
+
+    private static void apply(ConcurrentHashMap<String, GroupAccumulator> dimensionGroups, String key, Loan loan,
+                              int sign) {
+        dimensionGroups.compute(key, (k, accumulator) -> {
+            GroupAccumulator target = accumulator != null ? accumulator : new GroupAccumulator(k, 0, 0, 0, 0);
+            target.add(sign, loan.getRemainingAmount(), loan.getInterestPerDay() * loan.getAmount(),
+                    loan.getPenaltyPerDay() * loan.getAmount());
+            return target.loanCount > 0 ? target : null;
+        });
+    }
+
+    private static AggregateDriftDTO drift(Dimension dimension, String key,
+                                           GroupAccumulator expected, GroupAccumulator materialized) {
+        AggregateDriftDTO drift = new AggregateDriftDTO();
+        drift.setDimension(dimension.name());
+        drift.setGroupKey(key);
+        if (expected != null) {
+            drift.setExpectedLoanCount(expected.loanCount);
+            drift.setExpectedRemainingAmount(expected.remainingAmount);
+            drift.setExpectedInterest(expected.interest);
+            drift.setExpectedPenalty(expected.penalty);
+        }
+        if (materialized != null) {
+            GroupAccumulator copy = materialized.copy();
+            drift.setMaterializedLoanCount(copy.loanCount);
+            drift.setMaterializedRemainingAmount(copy.remainingAmount);
+            drift.setMaterializedInterest(copy.interest);
+            drift.setMaterializedPenalty(copy.penalty);
+        }
+        return drift;
+    }
+
+    private static boolean closeTo(double expected, double actual) {
+        return Math.abs(expected - actual) <= TOLERANCE * Math.max(1.0, Math.abs(expected));
+    }
+
+    /**
+     * Running totals of one group. Mutations happen inside ConcurrentHashMap.compute, which
+     * serializes writers per key; readers take a copy under the same monitor.
+     */
+    private static final class GroupAccumulator implements LoanGroupTotals {
+        private final String key;
+        private long loanCount;
+        private double remainingAmount;
+        private double interest;
+        private double penalty;
+
+        private GroupAccumulator(String key, long loanCount, double remainingAmount, double interest, double penalty) {
+            this.key = key;
+            this.loanCount = loanCount;
+            this.remainingAmount = remainingAmount;
+            this.interest = interest;
+            this.penalty = penalty;
+        }
+
+        private synchronized void add(int sign, double remainingAmount, double interest, double penalty) {
+            this.loanCount += sign;
+            this.remainingAmount += sign * remainingAmount;
+            this.interest += sign * interest;
+            this.penalty += sign * penalty;
+        }
+
+        private synchronized GroupAccumulator copy() {
+            return new GroupAccumulator(key, loanCount, remainingAmount, interest, penalty);
+        }
+
+        private boolean matches(GroupAccumulator other) {
+            GroupAccumulator snapshot = other.copy();
+            return loanCount == snapshot.loanCount
+                    && closeTo(remainingAmount, snapshot.remainingAmount)
+                    && closeTo(interest, snapshot.interest)
+                    && closeTo(penalty, snapshot.penalty);
+        }
+
+        @Override
+        public Object getGroupKey() {
+            return key;
+        }
+
+        @Override
+        public Long getLoanCount() {
+            return loanCount;
+        }
+
+        @Override
+        public Double getTotalRemainingAmount() {
+            return remainingAmount;
+        }
+
+        @Override
+        public Double getTotalInterest() {
+            return interest;
+        }
+
+        @Override
+        public Double getTotalPenalty() {
+            return penalty;
+        }
+    }
+
+    /**
+     * One loan changed by a batch update: a copy as it was before the change, and the saved entity.
+     */
+    public static final class Change {
+        private final Loan before;
+        private final Loan after;
+
+        public Change(Loan before, Loan after) {
+            this.before = before;
+            this.after = after;
+        }
+
+        public Loan getBefore() {
+            return before;
+        }
+
+        public Loan getAfter() {
+            return after;
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.LedgerCheckpoint;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.entity.LoanImport;
+import com.example.LoanManage.entity.LoanImportSegment;
+import com.example.LoanManage.entity.LoanPayment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary image of the loan book on local disk, so that restarting the in-memory database does not lose the book.
+ * <p>
+ * The image holds every Loan row, the repayment journal, the ledger checkpoint and the progress of CSV
+ * imports, so an import interrupted by the restart resumes where it stopped. It is written on a schedule
+ * and at shutdown, in large sequential FileChannel writes, to a temporary file that atomically replaces the
+ * previous image once it is complete and forced to disk. A fixed header carries a magic number, the format
+ * version, the body length and a CRC32 of the body.
+ * <p>
+ * An empty database is restored from the image once all beans exist, before the web server accepts requests
+ * and before the ledger and the analytics snapshot load. The file is memory-mapped in windows and read once,
+ * front to back. Rows go into JDBC batches in one transaction, which is rolled back if the checksum does not
+ * match. The materialized aggregates are seeded from the same pass instead of the GROUP BY queries. A missing
+ * image starts an empty book. An unreadable one stops startup, so a good image is never replaced by an empty
+ * book.
+ */
+@Component
+public class LoanBookImage implements SmartInitializingSingleton {
+    static final int MAGIC = 0x4C4E424B; // "LNBK"
+    // Version 2 added the import records; version 1 images are still read
+    static final int FORMAT_VERSION = 2;
+    static final int HEADER_SIZE = 32;
+
+    private static final byte END = 0;
+    private static final byte LOAN = 1;
+    private static final byte PAYMENT = 2;
+    private static final byte CHECKPOINT = 3;
+    private static final byte IMPORT = 4;
+    private static final byte IMPORT_SEGMENT = 5;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int NO_STRING = -1;
+    // Bounds one record, so a record never straddles a write buffer or a mapped window
+    private static final int MAX_STRING_BYTES = 4096;
+    private static final int MAX_RECORD_SIZE = 16 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final long MAP_WINDOW_SIZE = 64L << 20;
+    private static final int INSERT_BATCH_SIZE = 10_000;
+    // At least the allocationSize of the Loan and LoanPayment sequence generators
+    private static final long SEQUENCE_MARGIN = 1000;
+
+    private static final String SELECT_LOANS = "SELECT id, loan_id, customer_id, lender_id, amount, remaining_amount, "
+            + "payment_date, interest_per_day, due_date, penalty_per_day, cancelled, version, last_modified "
+            + "FROM loan ORDER BY id";
+    private static final String INSERT_LOAN = "INSERT INTO loan (id, loan_id, customer_id, lender_id, amount, "
+            + "remaining_amount, payment_date, interest_per_day, due_date, penalty_per_day, cancelled, version, "
+            + "last_modified) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_PAYMENTS = "SELECT id, loan_id, amount, paid_at FROM loan_payment ORDER BY id";
+    private static final String INSERT_PAYMENT = "INSERT INTO loan_payment (id, loan_id, amount, paid_at) "
+            + "VALUES (?, ?, ?, ?)";
+    private static final String SELECT_IMPORTS = "SELECT import_id, file_path, file_size, file_modified, submitted_at "
+            + "FROM loan_import";
+    private static final String INSERT_IMPORT = "INSERT INTO loan_import (import_id, file_path, file_size, "
+            + "file_modified, submitted_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_IMPORT_SEGMENTS = "SELECT segment_id, import_id, segment_index, start_offset, "
+            + "end_offset, committed_offset, accepted_rows, rejected_rows, rejected_bytes FROM loan_import_segment";
+    private static final String INSERT_IMPORT_SEGMENT = "INSERT INTO loan_import_segment (segment_id, import_id, "
+            + "segment_index, start_offset, end_offset, committed_offset, accepted_rows, rejected_rows, "
+            + "rejected_bytes) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final LoanLedger ledger;
+    private final LoanAggregateStore aggregateStore;
+    private final Path path;
+    private final Logger logger = LoggerFactory.getLogger(LoanBookImage.class);
+    // Set once the database holds the book the image was made from; until then an image is never written
+    private volatile boolean restored;
+
+    @Autowired
+    public LoanBookImage(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                         LoanLedger ledger, LoanAggregateStore aggregateStore,
+                         @Value("${loan.book-image.path:}") String path) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.ledger = ledger;
+        this.aggregateStore = aggregateStore;
+        this.path = path.isEmpty() ? null : Paths.get(path);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        restore();
+    }
+
+    /**
+     * Restore an empty database from the image, if there is one.
+     *
+     * @return The number of loans restored; 0 if there was nothing to restore.
+     * @throws IllegalStateException if the image is unreadable or fails its checksum; nothing is restored then.
+     */
+    public synchronized long restore() {
+        if (path == null) {
+            return 0;
+        }
+        if (!Files.exists(path)) {
+            logger.info("No loan book image at {}; starting with the book in the database.", path);
+            restored = true;
+            return 0;
+        }
+        Long existing = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM loan", Long.class);
+        if (existing != null && existing > 0) {
+            logger.info("The database already holds {} loans; not restoring the loan book from {}.", existing, path);
+            restored = true;
+            return 0;
+        }
+
+        long startNanos = System.nanoTime();
+        RestoredRows rows = new RestoredRows();
+        try {
+            aggregateStore.reseed(aggregates -> {
+                rows.aggregates = aggregates;
+                transactionTemplate.executeWithoutResult(status -> {
+                    read(path, rows);
+                    rows.finish();
+                });
+            });
+        } catch (UncheckedIOException ex) {
+            throw new IllegalStateException("Could not read the loan book image " + path, ex.getCause());
+        }
+        restored = true;
+        logger.info("Restored {} loans and {} payments from {} in {} ms.", rows.loanCount, rows.paymentCount, path,
+                (System.nanoTime() - startNanos) / 1_000_000);
+        return rows.loanCount;
+    }
+
+    /**
+     * Write the current book to the image, replacing the previous one. Failures are logged; the previous
+     * image is then left as it was.
+     *
+     * @return The number of loans written, or -1 if no image was written.
+     */
+    @Scheduled(fixedDelayString = "${loan.book-image.interval-ms:600000}",
+            initialDelayString = "${loan.book-image.interval-ms:600000}")
+    public synchronized long save() {
+        if (path == null || !restored) {
+            return -1;
+        }
+        long startNanos = System.nanoTime();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            long loans;
+            try (ImageWriter writer = new ImageWriter(FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+                // Rows are written as of the view's checkpoint, so payments settled meanwhile are not counted twice
+                loans = ledger.readView(view -> readOnlyTransaction.execute(status -> writeRows(writer, view)));
+                writer.finish(System.currentTimeMillis());
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Wrote {} loans to the loan book image {} in {} ms.", loans, path,
+                    (System.nanoTime() - startNanos) / 1_000_000);
+            return loans;
+        } catch (IOException | UncheckedIOException ex) {
+            logger.error("Could not write the loan book image {}.", path, ex);
+            return -1;
+        }
+    }
+
+    @PreDestroy
+    public void saveOnShutdown() {
+        save();
+    }
+
+    private long writeRows(ImageWriter writer, LoanLedger.View view) {
+        // Imports go first: a chunk committed while the loans are read is then in the image but not behind its
+        // checkpoint, and is read again on resume rather than lost
+        jdbcTemplate.query(SELECT_IMPORTS, (ResultSet rs) -> {
+            LoanImport loanImport = new LoanImport();
+            loanImport.setImportId(rs.getString(1));
+            loanImport.setFilePath(rs.getString(2));
+            loanImport.setFileSize(rs.getLong(3));
+            loanImport.setFileModified(rs.getLong(4));
+            loanImport.setSubmittedAt(rs.getTimestamp(5));
+            writer.writeImport(loanImport);
+        });
+        jdbcTemplate.query(SELECT_IMPORT_SEGMENTS, (ResultSet rs) -> {
+            LoanImportSegment segment = new LoanImportSegment();
+            segment.setSegmentId(rs.getString(1));
+            segment.setImportId(rs.getString(2));
+            segment.setSegmentIndex(rs.getInt(3));
+            segment.setStartOffset(rs.getLong(4));
+            segment.setEndOffset(rs.getLong(5));
+            segment.setCommittedOffset(rs.getLong(6));
+            segment.setAcceptedRows(rs.getLong(7));
+            segment.setRejectedRows(rs.getLong(8));
+            segment.setRejectedBytes(rs.getLong(9));
+            writer.writeImportSegment(segment);
+        });
+        long[] loans = new long[1];
+        jdbcTemplate.query(connection -> streaming(connection.prepareStatement(SELECT_LOANS)), (ResultSet rs) -> {
+            Loan loan = new Loan();
+            loan.setId(rs.getLong(1));
+            loan.setLoanId(rs.getString(2));
+            loan.setCustomerId(rs.getString(3));
+            loan.setLenderId(rs.getString(4));
+            loan.setAmount(rs.getDouble(5));
+            loan.setRemainingAmount(rs.getDouble(6) + view.settledAmount(loan.getLoanId(), rs.getLong(12)));
+            loan.setPaymentDate(rs.getTimestamp(7));
+            loan.setInterestPerDay(rs.getDouble(8));
+            loan.setDueDate(rs.getTimestamp(9));
+            loan.setPenaltyPerDay(rs.getDouble(10));
+            loan.setCancelled(rs.getBoolean(11));
+            loan.setVersion(rs.getLong(12));
+            loan.setLastModified(rs.getTimestamp(13));
+            writer.writeLoan(loan);
+            loans[0]++;
+        });
+        jdbcTemplate.query(connection -> streaming(connection.prepareStatement(SELECT_PAYMENTS)), (ResultSet rs) -> {
+            LoanPayment payment = new LoanPayment();
+            payment.setId(rs.getLong(1));
+            payment.setLoanId(rs.getString(2));
+            payment.setAmount(rs.getDouble(3));
+            payment.setPaidAt(rs.getTimestamp(4));
+            writer.writePayment(payment);
+        });
+        if (view.getSettledPaymentId() > 0) {
+            writer.writeCheckpoint(view.getSettledPaymentId());
+        }
+        return loans[0];
+    }
+
+    private static PreparedStatement streaming(PreparedStatement statement) throws SQLException {
+        statement.setFetchSize(1000);
+        return statement;
+    }
+
+    /**
+     * Receives the records of an image in file order.
+     */
+    interface ImageRecords {
+        void loan(Loan loan);
+
+        void payment(LoanPayment payment);
+
+        void checkpoint(long settledPaymentId);
+
+        void loanImport(LoanImport loanImport);
+
+        void importSegment(LoanImportSegment segment);
+    }
+
+    /**
+     * Read an image front to back through memory-mapped windows, passing each record on as it is read.
+     * The checksum covers the whole body, so it is verified after the last record.
+     *
+     * @throws IllegalStateException if the image is not a loan book image, is truncated or fails its checksum.
+     */
+    static void read(Path path, ImageRecords records) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IllegalStateException(path + " is not a loan book image");
+            }
+            int version = header.getInt(4);
+            long bodyLength = header.getLong(16);
+            int checksum = header.getInt(24);
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IllegalStateException(path + " has format version " + version + "; expected 1 to "
+                        + FORMAT_VERSION);
+            }
+            long end = HEADER_SIZE + bodyLength;
+            if (end != channel.size()) {
+                throw new IllegalStateException(path + " is truncated: " + channel.size() + " bytes; expected " + end);
+            }
+
+            CRC32 crc = new CRC32();
+            long position = HEADER_SIZE;
+            boolean ended = false;
+            while (!ended && position < end) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW_SIZE, end - position));
+                boolean lastWindow = position + window.capacity() == end;
+                // The next window starts at the first record that might not fit in this one
+                while (!ended && window.hasRemaining() && (lastWindow || window.remaining() >= MAX_RECORD_SIZE)) {
+                    ended = readRecord(window, records, path);
+                }
+                ByteBuffer consumed = window.duplicate();
+                consumed.flip();
+                crc.update(consumed);
+                position += consumed.limit();
+            }
+            if (!ended || position != end) {
+                throw new IllegalStateException(path + " does not end with its end marker");
+            }
+            if ((int) crc.getValue() != checksum) {
+                throw new IllegalStateException(path + " fails its checksum");
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalStateException(path + " ends inside a record", ex);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static boolean readRecord(ByteBuffer buffer, ImageRecords records, Path path) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case END:
+                return true;
+            case LOAN:
+                Loan loan = new Loan();
+                loan.setId(buffer.getLong());
+                loan.setLoanId(getString(buffer));
+                loan.setCustomerId(getString(buffer));
+                loan.setLenderId(getString(buffer));
+                loan.setAmount(buffer.getDouble());
+                loan.setRemainingAmount(buffer.getDouble());
+                loan.setPaymentDate(getDate(buffer));
+                loan.setInterestPerDay(buffer.getDouble());
+                loan.setDueDate(getDate(buffer));
+                loan.setPenaltyPerDay(buffer.getDouble());
+                loan.setCancelled(buffer.get() != 0);
+                loan.setVersion(buffer.getLong());
+                loan.setLastModified(getDate(buffer));
+                records.loan(loan);
+                return false;
+            case PAYMENT:
+                LoanPayment payment = new LoanPayment();
+                payment.setId(buffer.getLong());
+                payment.setLoanId(getString(buffer));
+                payment.setAmount(buffer.getDouble());
+                payment.setPaidAt(getDate(buffer));
+                records.payment(payment);
+                return false;
+            case CHECKPOINT:
+                records.checkpoint(buffer.getLong());
+                return false;
+            case IMPORT:
+                LoanImport loanImport = new LoanImport();
+                loanImport.setImportId(getString(buffer));
+                loanImport.setFilePath(getString(buffer));
+                loanImport.setFileSize(buffer.getLong());
+                loanImport.setFileModified(buffer.getLong());
+                loanImport.setSubmittedAt(getDate(buffer));
+                records.loanImport(loanImport);
+                return false;
+            case IMPORT_SEGMENT:
+                LoanImportSegment segment = new LoanImportSegment();
+                segment.setSegmentId(getString(buffer));
+                segment.setImportId(getString(buffer));
+                segment.setSegmentIndex(buffer.getInt());
+                segment.setStartOffset(buffer.getLong());
+                segment.setEndOffset(buffer.getLong());
+                segment.setCommittedOffset(buffer.getLong());
+                segment.setAcceptedRows(buffer.getLong());
+                segment.setRejectedRows(buffer.getLong());
+                segment.setRejectedBytes(buffer.getLong());
+                records.importSegment(segment);
+                return false;
+            default:
+                throw new IllegalStateException(path + " holds an unknown record type " + tag);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NO_STRING) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IllegalStateException("Invalid string length " + length + " in the loan book image");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Date getDate(ByteBuffer buffer) {
+        long millis = buffer.getLong();
+        return millis == NO_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * Writes records through a direct buffer into a channel positioned after the header, then the header.
+     */
+    static final class ImageWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long bodyLength;
+
+        ImageWriter(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(HEADER_SIZE);
+        }
+
+        void writeLoan(Loan loan) {
+            reserve();
+            buffer.put(LOAN);
+            buffer.putLong(loan.getId());
+            putString(loan.getLoanId());
+            putString(loan.getCustomerId());
+            putString(loan.getLenderId());
+            buffer.putDouble(loan.getAmount());
+            buffer.putDouble(loan.getRemainingAmount());
+            putDate(loan.getPaymentDate());
+            buffer.putDouble(loan.getInterestPerDay());
+            putDate(loan.getDueDate());
+            buffer.putDouble(loan.getPenaltyPerDay());
+            buffer.put((byte) (loan.isCancelled() ? 1 : 0));
+            buffer.putLong(loan.getVersion());
+            putDate(loan.getLastModified());
+        }
+
+        void writePayment(LoanPayment payment) {
+            reserve();
+            buffer.put(PAYMENT);
+            buffer.putLong(payment.getId());
+            putString(payment.getLoanId());
+            buffer.putDouble(payment.getAmount());
+            putDate(payment.getPaidAt());
+        }
+
+        void writeCheckpoint(long settledPaymentId) {
+            reserve();
+            buffer.put(CHECKPOINT);
+            buffer.putLong(settledPaymentId);
+        }
+
+        void writeImport(LoanImport loanImport) {
+            reserve();
+            buffer.put(IMPORT);
+            putString(loanImport.getImportId());
+            putString(loanImport.getFilePath());
+            buffer.putLong(loanImport.getFileSize());
+            buffer.putLong(loanImport.getFileModified());
+            putDate(loanImport.getSubmittedAt());
+        }
+
+        void writeImportSegment(LoanImportSegment segment) {
+            reserve();
+            buffer.put(IMPORT_SEGMENT);
+            putString(segment.getSegmentId());
+            putString(segment.getImportId());
+            buffer.putInt(segment.getSegmentIndex());
+            buffer.putLong(segment.getStartOffset());
+            buffer.putLong(segment.getEndOffset());
+            buffer.putLong(segment.getCommittedOffset());
+            buffer.putLong(segment.getAcceptedRows());
+            buffer.putLong(segment.getRejectedRows());
+            buffer.putLong(segment.getRejectedBytes());
+        }
+
+        /**
+         * Write the end marker and the header, and force the file to disk.
+         */
+        void finish(long createdAt) throws IOException {
+            reserve();
+            buffer.put(END);
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putLong(createdAt);
+            header.putLong(bodyLength);
+            header.putInt((int) crc.getValue());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void reserve() {
+            if (buffer.remaining() < MAX_RECORD_SIZE) {
+                try {
+                    flush();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            bodyLength += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putString(String value) {
+            if (value == null) {
+                buffer.putInt(NO_STRING);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_STRING_BYTES) {
+                throw new IllegalStateException("A value of " + bytes.length
+                        + " bytes does not fit in the loan book image");
+            }
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void putDate(Date date) {
+            buffer.putLong(date != null ? date.getTime() : NO_DATE);
+        }
+    }
+
+    /**
+     * Inserts the records of an image being restored in JDBC batches and feeds the loans to the aggregates.
+     */
+    private final class RestoredRows implements ImageRecords {
+        private final List<Object[]> loanBatch = new ArrayList<>(INSERT_BATCH_SIZE);
+        private final List<Object[]> paymentBatch = new ArrayList<>(INSERT_BATCH_SIZE);
+        private Consumer<Loan> aggregates;
+        private long loanCount;
+        private long paymentCount;
+        private long maxLoanId;
+        private long maxPaymentId;
+        private Long settledPaymentId;
+
+        @Override
+        public void loan(Loan loan) {
+            loanBatch.add(new Object[]{loan.getId(), loan.getLoanId(), loan.getCustomerId(), loan.getLenderId(),
+                    loan.getAmount(), loan.getRemainingAmount(), timestamp(loan.getPaymentDate()),
+                    loan.getInterestPerDay(), timestamp(loan.getDueDate()), loan.getPenaltyPerDay(),
+                    loan.isCancelled(), loan.getVersion(), timestamp(loan.getLastModified())});
+            aggregates.accept(loan);
+            loanCount++;
+            maxLoanId = Math.max(maxLoanId, loan.getId());
+            if (loanBatch.size() == INSERT_BATCH_SIZE) {
+                jdbcTemplate.batchUpdate(INSERT_LOAN, loanBatch);
+                loanBatch.clear();
+            }
+        }
+
+        @Override
+        public void payment(LoanPayment payment) {
+            paymentBatch.add(new Object[]{payment.getId(), payment.getLoanId(), payment.getAmount(),
+                    timestamp(payment.getPaidAt())});
+            paymentCount++;
+            maxPaymentId = Math.max(maxPaymentId, payment.getId());
+            if (paymentBatch.size() == INSERT_BATCH_SIZE) {
+                jdbcTemplate.batchUpdate(INSERT_PAYMENT, paymentBatch);
+                paymentBatch.clear();
+            }
+        }
+
+        @Override
+        public void checkpoint(long settledPaymentId) {
+            this.settledPaymentId = settledPaymentId;
+        }
+
+        // Few rows per import, so these go in one by one
+        @Override
+        public void loanImport(LoanImport loanImport) {
+            jdbcTemplate.update(INSERT_IMPORT, loanImport.getImportId(), loanImport.getFilePath(),
+                    loanImport.getFileSize(), loanImport.getFileModified(), timestamp(loanImport.getSubmittedAt()));
+        }
+
+        @Override
+        public void importSegment(LoanImportSegment segment) {
+            jdbcTemplate.update(INSERT_IMPORT_SEGMENT, segment.getSegmentId(), segment.getImportId(),
+                    segment.getSegmentIndex(), segment.getStartOffset(), segment.getEndOffset(),
+                    segment.getCommittedOffset(), segment.getAcceptedRows(), segment.getRejectedRows(),
+                    segment.getRejectedBytes());
+        }
+
+        private void finish() {
+            if (!loanBatch.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_LOAN, loanBatch);
+            }
+            if (!paymentBatch.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_PAYMENT, paymentBatch);
+            }
+            if (settledPaymentId != null) {
+                jdbcTemplate.update("INSERT INTO ledger_checkpoint (id, settled_payment_id) VALUES (?, ?)",
+                        LedgerCheckpoint.LEDGER, settledPaymentId);
+            }
+            // Rows came in with their ids; new ids must start above them
+            jdbcTemplate.execute("ALTER SEQUENCE loan_seq RESTART WITH " + (maxLoanId + SEQUENCE_MARGIN));
+            jdbcTemplate.execute("ALTER SEQUENCE loan_payment_seq RESTART WITH " + (maxPaymentId + SEQUENCE_MARGIN));
+        }
+
+        private Timestamp timestamp(Date date) {
+            return date != null ? new Timestamp(date.getTime()) : null;
+        }
+    }
+}
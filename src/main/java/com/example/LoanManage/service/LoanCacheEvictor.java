@@ -0,0 +1,59 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.config.CacheConfig;
+import com.example.LoanManage.entity.Loan;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+
+/**
+ * Invalidates what clients and caches hold for written loans: evicts the cached lookups, then advances
+ * the list change stamps (see {@link LoanChangeTracker}). Every write path calls it once its loans are committed.
+ * <p>
+ * Cached loans and lists are keyed by their stamp. A lookup that read before the commit and caches after the
+ * eviction files its result under the stamp that is about to be replaced, where no later lookup finds it.
+ */
+@Component
+public class LoanCacheEvictor {
+    private final CacheManager cacheManager;
+    private final LoanChangeTracker changeTracker;
+
+    @Autowired
+    public LoanCacheEvictor(CacheManager cacheManager, LoanChangeTracker changeTracker) {
+        this.cacheManager = cacheManager;
+        this.changeTracker = changeTracker;
+    }
+
+    /**
+     * Evict every cache entry that may contain one of the given loans and advance their change stamps.
+     *
+     * @param loans The loans that were written.
+     */
+    public void evict(Collection<Loan> loans) {
+        Cache loanById = cacheManager.getCache(CacheConfig.LOAN_BY_ID);
+        Cache loansByCustomer = cacheManager.getCache(CacheConfig.LOANS_BY_CUSTOMER);
+        Cache loansByLender = cacheManager.getCache(CacheConfig.LOANS_BY_LENDER);
+        for (Loan loan : loans) {
+            if (loan.getLoanId() != null) {
+                evict(loanById, changeTracker.loanCacheKey(loan.getLoanId()));
+            }
+            if (loan.getCustomerId() != null) {
+                evict(loansByCustomer, changeTracker.customerCacheKey(loan.getCustomerId()));
+            }
+            if (loan.getLenderId() != null) {
+                evict(loansByLender, changeTracker.lenderCacheKey(loan.getLenderId()));
+            }
+        }
+        // After eviction, so a client that sees a new stamp also loads the new list
+        changeTracker.recordChanges(loans);
+    }
+
+    private static void evict(Cache cache, String key) {
+        if (cache != null && key != null) {
+            cache.evict(key);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Change stamps for the per-customer and per-lender loan lists, used as their ETag and Last-Modified
+ * so a poll can be answered with 304 Not Modified without loading the list.
+ * <p>
+ * A stamp changes whenever a loan of the customer or lender is written. Stamps live in memory: each
+ * ETag carries the epoch of the tracker that issued it, so ETags from before a restart or from another
+ * instance never match, and Last-Modified is never earlier than the start of the tracker.
+ * <p>
+ * Single loans are stamped by stripe rather than one by one, which would keep an entry for every loan ever
+ * written. A loan's cache key carries the stamp of its stripe, so a change to another loan of the stripe
+ * only costs a cache miss.
+ */
+@Component
+public class LoanChangeTracker {
+    private static final int LOAN_STRIPES = 1 << 12;
+
+    /**
+     * The validators of one list: a strong ETag and the time of its last change in epoch milliseconds.
+     */
+    public static final class Stamp {
+        private final String etag;
+        private final long lastModified;
+
+        private Stamp(String etag, long lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private final Clock clock;
+    private final String epoch;
+    private final Stamp unchanged;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Stamp> customers = new ConcurrentHashMap<>();
+    private final Map<String, Stamp> lenders = new ConcurrentHashMap<>();
+    private final AtomicLongArray loanStripes = new AtomicLongArray(LOAN_STRIPES);
+
+    public LoanChangeTracker() {
+        this(Clock.systemUTC());
+    }
+
+    LoanChangeTracker(Clock clock) {
+        this.clock = clock;
+        long startedAt = clock.millis();
+        this.epoch = Long.toString(startedAt, 36);
+        this.unchanged = new Stamp(etag(0), startedAt);
+    }
+
+    /**
+     * @param customerId The customer ID.
+     * @return The current stamp of the customer's loan list.
+     */
+    public Stamp customerStamp(String customerId) {
+        return customers.getOrDefault(customerId, unchanged);
+    }
+
+    /**
+     * @param lenderId The lender ID.
+     * @return The current stamp of the lender's loan list.
+     */
+    public Stamp lenderStamp(String lenderId) {
+        return lenders.getOrDefault(lenderId, unchanged);
+    }
+
+    /**
+     * The key of a customer's list in the cache. It carries the current stamp, so a list loaded before a
+     * change and cached after it is filed under the old stamp and never served once the stamp advances.
+     *
+     * @param customerId The customer ID.
+     * @return The cache key of the customer's loan list.
+     */
+    public String customerCacheKey(String customerId) {
+        return customerId + '|' + customerStamp(customerId).getEtag();
+    }
+
+    /**
+     * @param lenderId The lender ID.
+     * @return The cache key of the lender's loan list, as for {@link #customerCacheKey(String)}.
+     */
+    public String lenderCacheKey(String lenderId) {
+        return lenderId + '|' + lenderStamp(lenderId).getEtag();
+    }
+
+    /**
+     * @param loanId The loan ID.
+     * @return The cache key of the loan, which carries the stamp of its stripe as for
+     * {@link #customerCacheKey(String)}.
+     */
+    public String loanCacheKey(String loanId) {
+        return loanId + '|' + Long.toString(loanStripes.get(stripe(loanId)), 36);
+    }
+
+    /**
+     * Advance the stamps of the given loans and of every customer and lender of them. Call only once the loans
+     * are committed and the cached lookups are evicted, so a new stamp is never paired with a stale value.
+     *
+     * @param loans The loans that were written.
+     */
+    public void recordChanges(Collection<Loan> loans) {
+        long now = clock.millis();
+        for (Loan loan : loans) {
+            if (loan.getLoanId() != null) {
+                loanStripes.set(stripe(loan.getLoanId()), sequence.incrementAndGet());
+            }
+            advance(customers, loan.getCustomerId(), now);
+            advance(lenders, loan.getLenderId(), now);
+        }
+    }
+
+    private void advance(Map<String, Stamp> stamps, String key, long now) {
+        if (key == null) {
+            return;
+        }
+        stamps.compute(key, (k, previous) -> new Stamp(etag(sequence.incrementAndGet()),
+                Math.max(now, previous != null ? previous.lastModified : unchanged.lastModified)));
+    }
+
+    private static int stripe(String loanId) {
+        return loanId.hashCode() & (LOAN_STRIPES - 1);
+    }
+
+    private String etag(long version) {
+        return "\"" + epoch + '.' + Long.toString(version, 36) + "\"";
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Parses one CSV line of loans, in the columns of the CSV export (see {@link LoanExportService#COLUMN_NAMES}),
+ * straight from a buffer such as a memory-mapped file. Numbers, dates and booleans are read from the bytes
+ * without building a String; only the identifiers become Strings, because the Loan holds them.
+ * <p>
+ * Fields may be quoted as in RFC 4180, but a row must fit on one line. Empty numbers are 0 and an empty cancelled
+ * flag is false, as when the field is missing from a LoanDTO; the cancelled column itself may be left out.
+ * Dates are ISO dates or date-times, in UTC unless they carry an offset. Not thread-safe.
+ */
+final class LoanCsvRowParser {
+    static final int COLUMNS = LoanExportService.COLUMN_NAMES.length;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    // Powers of ten that are exact doubles, so one multiplication or division by them rounds correctly
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final int[] fieldStart = new int[COLUMNS];
+    private final int[] fieldEnd = new int[COLUMNS];
+    private final boolean[] fieldQuoted = new boolean[COLUMNS];
+    private byte[] scratch = new byte[256];
+    private int fields;
+    private String error;
+
+    /**
+     * @param data  The buffer holding the line.
+     * @param start The index of the first byte of the line.
+     * @param end   The index just past the line, without its line terminator.
+     * @return The loan, or null if the line is malformed; {@link #error()} then says why.
+     */
+    Loan parse(ByteBuffer data, int start, int end) {
+        error = null;
+        if (!split(data, start, end)) {
+            return null;
+        }
+        Loan loan = new Loan();
+        loan.setLoanId(string(data, 0));
+        loan.setCustomerId(string(data, 1));
+        loan.setLenderId(string(data, 2));
+        loan.setAmount(number(data, 3));
+        loan.setRemainingAmount(number(data, 4));
+        loan.setPaymentDate(date(data, 5));
+        loan.setInterestPerDay(number(data, 6));
+        loan.setDueDate(date(data, 7));
+        loan.setPenaltyPerDay(number(data, 8));
+        loan.setCancelled(fields > 9 && bool(data, 9));
+        return error == null ? loan : null;
+    }
+
+    /**
+     * @return Why the last line could not be parsed, or null if it could.
+     */
+    String error() {
+        return error;
+    }
+
+    private boolean split(ByteBuffer data, int start, int end) {
+        fields = 0;
+        int position = start;
+        while (true) {
+            if (fields == COLUMNS) {
+                return fail("More than " + COLUMNS + " fields");
+            }
+            int field = fields++;
+            if (position < end && data.get(position) == '"') {
+                int closing = position + 1;
+                while (true) {
+                    if (closing >= end) {
+                        return fail("Unterminated quoted field " + LoanExportService.COLUMN_NAMES[field]);
+                    }
+                    if (data.get(closing) == '"') {
+                        if (closing + 1 < end && data.get(closing + 1) == '"') {
+                            closing += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    closing++;
+                }
+                fieldStart[field] = position + 1;
+                fieldEnd[field] = closing;
+                fieldQuoted[field] = true;
+                position = closing + 1;
+                if (position < end && data.get(position) != ',') {
+                    return fail("Unexpected character after quoted field " + LoanExportService.COLUMN_NAMES[field]);
+                }
+            } else {
+                fieldStart[field] = position;
+                while (position < end && data.get(position) != ',') {
+                    position++;
+                }
+                fieldEnd[field] = position;
+                fieldQuoted[field] = false;
+            }
+            if (position >= end) {
+                break;
+            }
+            position++; // The comma
+        }
+        if (fields < COLUMNS - 1) {
+            return fail("Expected " + (COLUMNS - 1) + " or " + COLUMNS + " fields, found " + fields);
+        }
+        return true;
+    }
+
+    // An empty unquoted field is null
+    private String string(ByteBuffer data, int field) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        if (start == end && !fieldQuoted[field]) {
+            return null;
+        }
+        if (scratch.length < end - start) {
+            scratch = new byte[Math.max(scratch.length * 2, end - start)];
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            scratch[length++] = b;
+            if (b == '"' && fieldQuoted[field]) {
+                i++; // An escaped quote is two quotes
+            }
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Plain decimals of up to 15 significant digits, the usual case, are computed exactly from the digits
+     * and one power of ten. Anything else, such as exponents, goes through Double.parseDouble.
+     */
+    private double number(ByteBuffer data, int field) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        if (start == end) {
+            return 0.0;
+        }
+        int i = start;
+        boolean negative = data.get(i) == '-';
+        if (negative || data.get(i) == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        boolean digits = false;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = data.get(i);
+            if (b >= '0' && b <= '9') {
+                digits = true;
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) {
+                    scale++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return slowNumber(data, field);
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                return slowNumber(data, field);
+            }
+        }
+        if (!digits || scale >= EXACT_POWERS_OF_TEN.length) {
+            return slowNumber(data, field);
+        }
+        double value = (double) mantissa / EXACT_POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private double slowNumber(ByteBuffer data, int field) {
+        String text = ascii(data, field);
+        try {
+            double value = Double.parseDouble(text);
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                return value;
+            }
+        } catch (NumberFormatException ex) {
+            // Reported below
+        }
+        fail("Invalid " + LoanExportService.COLUMN_NAMES[field] + ": " + text);
+        return 0.0;
+    }
+
+    /**
+     * yyyy-MM-dd, or yyyy-MM-ddTHH:mm[:ss[.fraction]] followed by Z, +HH:mm, -HH:mm or nothing for UTC.
+     */
+    private Date date(ByteBuffer data, int field) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        if (start == end) {
+            return null;
+        }
+        int length = end - start;
+        int year = digits(data, start, 4);
+        int month = digits(data, start + 5, 2);
+        int day = digits(data, start + 8, 2);
+        if (length < 10 || year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || data.get(start + 4) != '-' || data.get(start + 7) != '-') {
+            return invalidDate(data, field);
+        }
+        long millis = epochDay(year, month, day) * MILLIS_PER_DAY;
+        if (length == 10) {
+            return new Date(millis);
+        }
+
+        int i = start + 10;
+        byte separator = data.get(i);
+        int hour = digits(data, i + 1, 2);
+        int minute = digits(data, i + 4, 2);
+        if ((separator != 'T' && separator != ' ') || end - i < 6 || hour < 0 || hour > 23 || data.get(i + 3) != ':'
+                || minute < 0 || minute > 59) {
+            return invalidDate(data, field);
+        }
+        millis += hour * 3_600_000L + minute * 60_000L;
+        i += 6;
+        if (i + 3 <= end && data.get(i) == ':') {
+            int second = digits(data, i + 1, 2);
+            if (second < 0 || second > 59) {
+                return invalidDate(data, field);
+            }
+            millis += second * 1_000L;
+            i += 3;
+            if (i < end && data.get(i) == '.') {
+                // Milliseconds from the first three digits of the fraction
+                int fractionDigits = 0;
+                int fractionMillis = 0;
+                for (i++; i < end && data.get(i) >= '0' && data.get(i) <= '9'; i++) {
+                    if (fractionDigits < 3) {
+                        fractionMillis = fractionMillis * 10 + (data.get(i) - '0');
+                    }
+                    fractionDigits++;
+                }
+                if (fractionDigits == 0) {
+                    return invalidDate(data, field);
+                }
+                for (int pad = fractionDigits; pad < 3; pad++) {
+                    fractionMillis *= 10;
+                }
+                millis += fractionMillis;
+            }
+        }
+        if (i == end) {
+            return new Date(millis);
+        }
+        if (data.get(i) == 'Z' && i + 1 == end) {
+            return new Date(millis);
+        }
+        byte sign = data.get(i);
+        int offsetHours = digits(data, i + 1, 2);
+        int offsetMinutes = digits(data, i + 4, 2);
+        if ((sign != '+' && sign != '-') || end - i != 6 || data.get(i + 3) != ':' || offsetHours < 0
+                || offsetHours > 18 || offsetMinutes < 0 || offsetMinutes > 59) {
+            return invalidDate(data, field);
+        }
+        long offset = offsetHours * 3_600_000L + offsetMinutes * 60_000L;
+        return new Date(sign == '+' ? millis - offset : millis + offset);
+    }
+
+    private Date invalidDate(ByteBuffer data, int field) {
+        fail("Invalid " + LoanExportService.COLUMN_NAMES[field] + ": " + ascii(data, field));
+        return null;
+    }
+
+    private boolean bool(ByteBuffer data, int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (length == 0 || (length == 1 && data.get(start) == '0') || equalsIgnoreCase(data, start, length, "false")) {
+            return false;
+        }
+        if ((length == 1 && data.get(start) == '1') || equalsIgnoreCase(data, start, length, "true")) {
+            return true;
+        }
+        fail("Invalid " + LoanExportService.COLUMN_NAMES[field] + ": " + ascii(data, field));
+        return false;
+    }
+
+    private boolean fail(String message) {
+        if (error == null) {
+            error = message;
+        }
+        return false;
+    }
+
+    // For error messages and the rare slow path only
+    private String ascii(ByteBuffer data, int field) {
+        int start = fieldStart[field];
+        byte[] bytes = new byte[fieldEnd[field] - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The value of count decimal digits, or -1 if any of them is not a digit or lies outside the buffer
+    private static int digits(ByteBuffer data, int start, int count) {
+        if (start < 0 || start + count > data.limit()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte b = data.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuffer data, int start, int length, String expected) {
+        if (length != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase((char) data.get(start + i)) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+        return month == 2 && leap ? 29 : DAYS_IN_MONTH[month - 1];
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar (400-year eras from 0000-03-01)
+    static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.exception.LoanValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset-pagination cursor: the surrogate id of the last loan on the previous page.
+ */
+public final class LoanCursor {
+    private static final String PREFIX = "loan:";
+
+    private LoanCursor() {
+    }
+
+    public static String encode(long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Decode a cursor produced by {@link #encode(long)}.
+     *
+     * @param cursor The cursor token; null or empty means the first page.
+     * @return The id after which the next page starts.
+     * @throws LoanValidationException if the cursor is malformed.
+     */
+    public static long decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0L;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            if (decoded.startsWith(PREFIX)) {
+                return Long.parseLong(decoded.substring(PREFIX.length()));
+            }
+        } catch (IllegalArgumentException ex) {
+            // Falls through to the validation error below; NumberFormatException is an IllegalArgumentException
+        }
+        throw new LoanValidationException("Invalid cursor: " + cursor);
+    }
+}
@@ -0,0 +1,923 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanExportDTO;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Workload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports of the loan book to files, for consumers such as Finance that take the whole book, or a lender's part
+ * of it, every day and would otherwise stream it from /loans/all.
+ * <p>
+ * An export runs as a background job on the BATCH workload, like the jobs of {@link LoanAggregateJobService}. The matching
+ * loans are split into ranges of Loan.id that are read in parallel, each into its own part file, and the parts
+ * are then joined into the export file with FileChannel.transferTo, so the kernel copies them without the bytes
+ * passing through the JVM. The file is written once and kept until the export expires: submissions with the
+ * same format and filters share it, and downloads send it from disk as it is.
+ * <p>
+ * Remaining amounts include the unsettled payments of {@link LoanLedger}, all as of one {@link LoanLedger.View},
+ * so a payment settled while the export reads counts once. The ranges are read by separate statements, so a loan
+ * added during the export may or may not be in it.
+ * Exports live in memory on the instance that accepted them; their files are in loan.export.directory.
+ */
+@Service
+public class LoanExportService {
+
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+
+    public enum Format {
+        // RFC 4180, with a header row; dates are ISO-8601 instants in UTC
+        CSV("text/csv", ".csv"),
+        // Column-major blocks, one per id range; see ColumnarPartWriter, and assemble for the header and footer
+        COLUMNAR("application/octet-stream", ".lcol");
+
+        private final String mediaType;
+        private final String extension;
+
+        Format(String mediaType, String extension) {
+            this.mediaType = mediaType;
+            this.extension = extension;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    static final int COLUMNAR_MAGIC = 0x4C4E434C; // "LNCL"
+    static final int COLUMNAR_VERSION = 1;
+    static final int FOOTER_TAIL_SIZE = 16; // Block count, row count and magic, after the block offsets
+    static final byte STRING = 1;
+    static final byte DOUBLE = 2;
+    static final byte DATE = 3;
+    static final byte BOOLEAN = 4;
+    static final long NO_DATE = Long.MIN_VALUE;
+    static final int NO_STRING = -1;
+    // Both formats have these columns, in this order
+    static final String[] COLUMN_NAMES = {"loanId", "customerId", "lenderId", "amount", "remainingAmount",
+            "paymentDate", "interestPerDay", "dueDate", "penaltyPerDay", "cancelled"};
+    static final byte[] COLUMN_TYPES = {STRING, STRING, STRING, DOUBLE, DOUBLE, DATE, DOUBLE, DATE, DOUBLE, BOOLEAN};
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_PLAIN_FIELD_SIZE = 8 * 1024;
+    private static final byte[] CSV_LINE_END = {'\r', '\n'};
+    private static final String SELECT_ROWS = "SELECT loan_id, customer_id, lender_id, amount, remaining_amount, "
+            + "payment_date, interest_per_day, due_date, penalty_per_day, cancelled, version FROM loan "
+            + "WHERE id >= ? AND id < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LoanLedger ledger;
+    private final LoanWorkloadExecutor workloadExecutor;
+    private final Path directory;
+    private final Duration ttl;
+    private final long chunkSize;
+    private final ExecutorService rangeExecutor;
+    private final Clock clock;
+    private final Map<String, Export> exportsById = new ConcurrentHashMap<>();
+    private final Map<String, Export> exportsByKey = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(LoanExportService.class);
+
+    @Autowired
+    public LoanExportService(JdbcTemplate jdbcTemplate, LoanLedger ledger, LoanWorkloadExecutor workloadExecutor,
+                             @Value("${loan.export.directory:data/exports}") String directory,
+                             @Value("${loan.export.ttl:1h}") Duration ttl,
+                             @Value("${loan.export.chunk-size:50000}") long chunkSize,
+                             @Value("${loan.export.parallelism:4}") int parallelism) {
+        this(jdbcTemplate, ledger, workloadExecutor, Paths.get(directory), ttl, chunkSize, parallelism,
+                Clock.systemUTC());
+    }
+
+    LoanExportService(JdbcTemplate jdbcTemplate, LoanLedger ledger, LoanWorkloadExecutor workloadExecutor,
+                      Path directory, Duration ttl, long chunkSize, int parallelism, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ledger = ledger;
+        this.workloadExecutor = workloadExecutor;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.ttl = ttl;
+        this.chunkSize = chunkSize;
+        this.clock = clock;
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Each thread holds a database connection while it reads a range
+        this.rangeExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "loan-export-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submit an export, or join the matching one that is in progress or has a live file.
+     *
+     * @param format          "csv" or "columnar".
+     * @param lenderId        Optional lender whose loans to export.
+     * @param paymentDateFrom Optional first payment date to export.
+     * @param paymentDateTo   Optional last payment date to export.
+     * @param dueDateFrom     Optional first due date to export.
+     * @param dueDateTo       Optional last due date to export.
+     * @return LoanExportDTO describing the export.
+     * @throws LoanValidationException if the parameters are invalid.
+     */
+    public LoanExportDTO submit(String format, String lenderId, LocalDate paymentDateFrom, LocalDate paymentDateTo,
+                                LocalDate dueDateFrom, LocalDate dueDateTo) {
+        Format resolved = resolveFormat(format);
+        Filter filter = new Filter(lenderId, paymentDateFrom, paymentDateTo, dueDateFrom, dueDateTo);
+        String key = resolved + "|" + filter.key;
+        Instant now = clock.instant();
+        Export[] created = new Export[1];
+        Export export = exportsByKey.compute(key, (k, existing) -> {
+            if (existing != null && existing.isReusable(now)) {
+                return existing;
+            }
+            created[0] = new Export(UUID.randomUUID().toString(), k, resolved, filter, now);
+            // Published by id before by key, so a caller that joins the export can always look it up
+            exportsById.put(created[0].id, created[0]);
+            return created[0];
+        });
+        if (created[0] == null) {
+            logger.debug("Coalesced {} export into export {}.", format, export.id);
+            return export.toDTO(true);
+        }
+
+        try {
+            workloadExecutor.submit(Workload.BATCH, () -> run(export)).whenComplete((file, ex) -> {
+                if (ex != null) {
+                    // Covers the BATCH timeout, which fails the future while the export may still be running
+                    failed(export, ex instanceof CompletionException && ex.getCause() instanceof RuntimeException
+                            ? (RuntimeException) ex.getCause() : new CompletionException(ex));
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Callers may have joined the export already, so it fails and expires rather than disappearing
+            throw failed(export, ex);
+        }
+        logger.debug("Submitted {} export {}.", format, export.id);
+        return export.toDTO(false);
+    }
+
+    /**
+     * @param exportId The export id returned on submission.
+     * @return LoanExportDTO with the current status.
+     * @throws ResourceNotFoundException if the export does not exist or has expired.
+     */
+    public LoanExportDTO getExport(String exportId) {
+        return find(exportId).toDTO(false);
+    }
+
+    /**
+     * @param exportId The export id returned on submission.
+     * @return The export file, or null while the export is pending or running.
+     * @throws ResourceNotFoundException if the export does not exist or has expired.
+     * @throws IllegalStateException     if the export failed.
+     */
+    public ExportFile getFile(String exportId) {
+        Export export = find(exportId);
+        synchronized (export) {
+            if (export.status == Status.FAILED) {
+                throw new IllegalStateException("Loan export " + exportId + " failed: " + export.error);
+            }
+            return export.file;
+        }
+    }
+
+    /**
+     * Drop finished exports that have expired, and delete their files.
+     */
+    @Scheduled(fixedDelayString = "${loan.jobs.cleanup-interval-ms:60000}")
+    public void evictExpired() {
+        Instant now = clock.instant();
+        for (Export export : exportsById.values()) {
+            if (export.isExpired(now)) {
+                forget(export);
+                ExportFile file = export.getFileQuietly();
+                if (file != null) {
+                    deleteQuietly(file.path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the files of exports from before a restart; their exports were only held in memory.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void removeStaleFiles() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(Format.CSV.extension) || name.endsWith(Format.COLUMNAR.extension)
+                        || name.endsWith(".tmp") || name.contains(".part")) {
+                    deleteQuietly(file);
+                    removed++;
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("Could not list the export directory {}: {}", directory, ex.getMessage());
+        }
+        if (removed > 0) {
+            logger.info("Removed {} files of earlier loan exports from {}.", removed, directory);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        rangeExecutor.shutdownNow();
+    }
+
+    private ExportFile run(Export export) {
+        export.started();
+        long startNanos = System.nanoTime();
+        try {
+            Path target = directory.resolve(export.id + export.format.extension);
+            long rows = ledger.readView(view -> write(export, target, view));
+            ExportFile file = new ExportFile(target, export.format, rows, Files.size(target));
+            if (!export.succeeded(file, clock.instant(), ttl)) {
+                // The export already failed on its timeout, and nothing points to the file
+                deleteQuietly(target);
+                return file;
+            }
+            logger.info("Exported {} loans to {} in {} ms.", rows, target, (System.nanoTime() - startNanos) / 1_000_000);
+            return file;
+        } catch (IOException ex) {
+            throw failed(export, new UncheckedIOException(ex));
+        } catch (RuntimeException ex) {
+            throw failed(export, ex);
+        }
+    }
+
+    private RuntimeException failed(Export export, RuntimeException ex) {
+        if (export.failed(ex.getMessage(), clock.instant(), ttl)) {
+            logger.warn("Loan export {} failed: {}", export.id, ex.getMessage());
+            // A failed export is not reused; it stays visible until its TTL so pollers see the error
+            exportsByKey.remove(export.key, export);
+        }
+        return ex;
+    }
+
+    private long write(Export export, Path target, LoanLedger.View view) {
+        List<Path> partPaths = new ArrayList<>();
+        List<CompletableFuture<Part>> futures = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            long[] bounds = idBounds(export.filter);
+            for (long from = bounds[0]; from <= bounds[1]; from += chunkSize) {
+                long rangeFrom = from;
+                long rangeTo = Math.min(from + chunkSize, bounds[1] + 1);
+                Path partPath = directory.resolve(export.id + ".part" + partPaths.size());
+                partPaths.add(partPath);
+                futures.add(CompletableFuture.supplyAsync(
+                        () -> writePart(export.format, export.filter, rangeFrom, rangeTo, partPath, view),
+                        rangeExecutor));
+            }
+            // Wait for every range, even after one fails, so that no part file is written after its deletion
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(ex -> null).join();
+            List<Part> parts = new ArrayList<>(futures.size());
+            for (CompletableFuture<Part> future : futures) {
+                parts.add(future.join());
+            }
+            return assemble(export.format, parts, target);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+        } finally {
+            partPaths.forEach(LoanExportService::deleteQuietly);
+        }
+    }
+
+    // The smallest and largest matching id; an empty range if no loan matches
+    private long[] idBounds(Filter filter) {
+        ResultSetExtractor<long[]> extractor = rs -> {
+            rs.next();
+            long min = rs.getLong(1);
+            return rs.wasNull() ? new long[]{0, -1} : new long[]{min, rs.getLong(2)};
+        };
+        return jdbcTemplate.query("SELECT MIN(id), MAX(id) FROM loan WHERE 1 = 1" + filter.sql, extractor,
+                filter.args.toArray());
+    }
+
+    private Part writePart(Format format, Filter filter, long fromId, long toId, Path path, LoanLedger.View view) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            PartWriter writer = format == Format.CSV ? new CsvPartWriter(channel) : new ColumnarPartWriter(channel);
+            Row row = new Row();
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(SELECT_ROWS + filter.sql + " ORDER BY id");
+                statement.setFetchSize(1000);
+                statement.setLong(1, fromId);
+                statement.setLong(2, toId);
+                for (int i = 0; i < filter.args.size(); i++) {
+                    statement.setObject(i + 3, filter.args.get(i));
+                }
+                return statement;
+            }, (ResultSet rs) -> writer.write(readRow(rs, row, view)));
+            return new Part(path, writer.finish());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Row readRow(ResultSet rs, Row row, LoanLedger.View view) throws SQLException {
+        row.loanId = rs.getString(1);
+        row.customerId = rs.getString(2);
+        row.lenderId = rs.getString(3);
+        row.amount = rs.getDouble(4);
+        row.remainingAmount = view.remainingAmount(row.loanId, rs.getDouble(5), rs.getLong(11));
+        row.paymentDate = millis(rs.getTimestamp(6));
+        row.interestPerDay = rs.getDouble(7);
+        row.dueDate = millis(rs.getTimestamp(8));
+        row.penaltyPerDay = rs.getDouble(9);
+        row.cancelled = rs.getBoolean(10);
+        return row;
+    }
+
+    private static long millis(Timestamp timestamp) {
+        return timestamp == null ? NO_DATE : timestamp.getTime();
+    }
+
+    /**
+     * Join the part files, in order, into the export file, between the header and footer of the format.
+     * The file is written under a temporary name and renamed once it is complete.
+     * <p>
+     * A columnar file starts with the magic, the format version, the column count and the type and name of each
+     * column, and ends with the file offset of each block, the block count, the row count and the magic again,
+     * so that a reader can go straight to any block.
+     *
+     * @return The number of rows in the file.
+     */
+    static long assemble(Format format, List<Part> parts, Path target) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        long rows = 0;
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, header(format));
+            long[] blockOffsets = new long[parts.size()];
+            int blocks = 0;
+            for (Part part : parts) {
+                if (part.rows == 0) {
+                    continue;
+                }
+                blockOffsets[blocks++] = out.position();
+                try (FileChannel in = FileChannel.open(part.path, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+                rows += part.rows;
+            }
+            if (format == Format.COLUMNAR) {
+                ByteBuffer footer = ByteBuffer.allocate(blocks * Long.BYTES + FOOTER_TAIL_SIZE);
+                for (int i = 0; i < blocks; i++) {
+                    footer.putLong(blockOffsets[i]);
+                }
+                footer.putInt(blocks);
+                footer.putLong(rows);
+                footer.putInt(COLUMNAR_MAGIC);
+                footer.flip();
+                writeFully(out, footer);
+            }
+            out.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    private static ByteBuffer header(Format format) {
+        if (format == Format.CSV) {
+            return ByteBuffer.wrap((String.join(",", COLUMN_NAMES) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        ByteBuffer header = ByteBuffer.allocate(256);
+        header.putInt(COLUMNAR_MAGIC);
+        header.putInt(COLUMNAR_VERSION);
+        header.putInt(COLUMN_NAMES.length);
+        for (int i = 0; i < COLUMN_NAMES.length; i++) {
+            byte[] name = COLUMN_NAMES[i].getBytes(StandardCharsets.US_ASCII);
+            header.put(COLUMN_TYPES[i]);
+            header.putShort((short) name.length);
+            header.put(name);
+        }
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Whether the string can be written one char per byte, as is, in either format
+    private static boolean isPlainAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80 || c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            LoggerFactory.getLogger(LoanExportService.class).warn("Could not delete {}: {}", path, ex.getMessage());
+        }
+    }
+
+    private Export find(String exportId) {
+        Export export = exportsById.get(exportId);
+        if (export == null || export.isExpired(clock.instant())) {
+            throw new ResourceNotFoundException("Loan export " + exportId + " not found");
+        }
+        return export;
+    }
+
+    private void forget(Export export) {
+        exportsById.remove(export.id, export);
+        exportsByKey.remove(export.key, export);
+    }
+
+    private static Format resolveFormat(String format) {
+        try {
+            return Format.valueOf(String.valueOf(format).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new LoanValidationException("Unsupported export format: " + format);
+        }
+    }
+
+    /**
+     * A finished export file.
+     */
+    public static final class ExportFile {
+        private final Path path;
+        private final Format format;
+        private final long rowCount;
+        private final long size;
+
+        ExportFile(Path path, Format format, long rowCount, long size) {
+            this.path = path;
+            this.format = format;
+            this.rowCount = rowCount;
+            this.size = size;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getFileName() {
+            return "loans-" + path.getFileName();
+        }
+    }
+
+    /**
+     * The WHERE conditions of an export, after the id range. Date ranges include both days, in UTC.
+     */
+    static final class Filter {
+        private final String lenderId;
+        private final LocalDate paymentDateFrom;
+        private final LocalDate paymentDateTo;
+        private final LocalDate dueDateFrom;
+        private final LocalDate dueDateTo;
+        private final String key;
+        private final StringBuilder sql = new StringBuilder();
+        private final List<Object> args = new ArrayList<>();
+
+        Filter(String lenderId, LocalDate paymentDateFrom, LocalDate paymentDateTo,
+               LocalDate dueDateFrom, LocalDate dueDateTo) {
+            this.lenderId = lenderId;
+            this.paymentDateFrom = paymentDateFrom;
+            this.paymentDateTo = paymentDateTo;
+            this.dueDateFrom = dueDateFrom;
+            this.dueDateTo = dueDateTo;
+            this.key = lenderId + "|" + paymentDateFrom + "|" + paymentDateTo + "|" + dueDateFrom + "|" + dueDateTo;
+            if (lenderId != null) {
+                sql.append(" AND lender_id = ?");
+                args.add(lenderId);
+            }
+            addDateRange("payment_date", "paymentDate", paymentDateFrom, paymentDateTo);
+            addDateRange("due_date", "dueDate", dueDateFrom, dueDateTo);
+        }
+
+        // With either bound set, loans without the date are excluded, as the comparisons are never true for them
+        private void addDateRange(String column, String name, LocalDate from, LocalDate to) {
+            if (from != null && to != null && from.isAfter(to)) {
+                throw new LoanValidationException(name + "From must not be after " + name + "To");
+            }
+            if (from != null) {
+                sql.append(" AND ").append(column).append(" >= ?");
+                args.add(Timestamp.from(from.atStartOfDay(ZoneOffset.UTC).toInstant()));
+            }
+            if (to != null) {
+                sql.append(" AND ").append(column).append(" < ?");
+                args.add(Timestamp.from(to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant()));
+            }
+        }
+
+        private static Date toDate(LocalDate date) {
+            return date == null ? null : Date.from(date.atStartOfDay(ZoneOffset.UTC).toInstant());
+        }
+    }
+
+    /**
+     * The part file of one id range, and the number of rows in it.
+     */
+    static final class Part {
+        private final Path path;
+        private final long rows;
+
+        Part(Path path, long rows) {
+            this.path = path;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * One loan as exported. A range reuses one instance for all of its rows.
+     */
+    static final class Row {
+        String loanId;
+        String customerId;
+        String lenderId;
+        double amount;
+        double remainingAmount;
+        long paymentDate;
+        double interestPerDay;
+        long dueDate;
+        double penaltyPerDay;
+        boolean cancelled;
+    }
+
+    /**
+     * Encodes the rows of one id range into its part file.
+     */
+    interface PartWriter {
+        void write(Row row);
+
+        /**
+         * Write what is still buffered.
+         *
+         * @return The number of rows written.
+         */
+        long finish() throws IOException;
+    }
+
+    /**
+     * CSV rows through a direct buffer. ASCII values are copied into the buffer char by char, without
+     * encoding them into a byte array first.
+     */
+    static final class CsvPartWriter implements PartWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private long rows;
+
+        CsvPartWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(Row row) {
+            putString(row.loanId);
+            putSeparator();
+            putString(row.customerId);
+            putSeparator();
+            putString(row.lenderId);
+            putSeparator();
+            putAscii(Double.toString(row.amount));
+            putSeparator();
+            putAscii(Double.toString(row.remainingAmount));
+            putSeparator();
+            putDate(row.paymentDate);
+            putSeparator();
+            putAscii(Double.toString(row.interestPerDay));
+            putSeparator();
+            putDate(row.dueDate);
+            putSeparator();
+            putAscii(Double.toString(row.penaltyPerDay));
+            putSeparator();
+            putAscii(row.cancelled ? "true" : "false");
+            ensure(CSV_LINE_END.length);
+            buffer.put(CSV_LINE_END);
+            rows++;
+        }
+
+        @Override
+        public long finish() {
+            flush();
+            return rows;
+        }
+
+        // Null is written as an empty field; values with separators, quotes or non-ASCII chars are quoted
+        private void putString(String value) {
+            if (value == null) {
+                return;
+            }
+            if (value.length() <= MAX_PLAIN_FIELD_SIZE && isPlainAscii(value)) {
+                putAscii(value);
+                return;
+            }
+            byte[] bytes = ('"' + value.replace("\"", "\"\"") + '"').getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                writeThrough(ByteBuffer.wrap(bytes));
+            } else {
+                ensure(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        private void putDate(long millis) {
+            if (millis != NO_DATE) {
+                putAscii(Instant.ofEpochMilli(millis).toString());
+            }
+        }
+
+        private void putSeparator() {
+            ensure(1);
+            buffer.put((byte) ',');
+        }
+
+        // For values of at most MAX_PLAIN_FIELD_SIZE chars
+        private void putAscii(String value) {
+            ensure(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                buffer.put((byte) value.charAt(i));
+            }
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            buffer.flip();
+            writeThrough(buffer);
+            buffer.clear();
+        }
+
+        private void writeThrough(ByteBuffer bytes) {
+            try {
+                writeFully(channel, bytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * One column-major block for the whole range, built in memory and written by {@link #finish}. Block layout,
+     * big-endian: the row count, then each column in order. A STRING column is the byte length of every value
+     * (-1 for null), the total length, then the UTF-8 bytes of the values; DOUBLE and DATE columns are 8 bytes
+     * a value, dates in epoch milliseconds with Long.MIN_VALUE for null; a BOOLEAN column is 1 byte a value.
+     */
+    static final class ColumnarPartWriter implements PartWriter {
+        private final FileChannel channel;
+        private final ColumnBuffer[] stringLengths = {new ColumnBuffer(), new ColumnBuffer(), new ColumnBuffer()};
+        private final ColumnBuffer[] stringBytes = {new ColumnBuffer(), new ColumnBuffer(), new ColumnBuffer()};
+        private final ColumnBuffer[] numbers = new ColumnBuffer[COLUMN_NAMES.length];
+        private int rows;
+
+        ColumnarPartWriter(FileChannel channel) {
+            this.channel = channel;
+            for (int i = 3; i < numbers.length; i++) {
+                numbers[i] = new ColumnBuffer();
+            }
+        }
+
+        @Override
+        public void write(Row row) {
+            putString(0, row.loanId);
+            putString(1, row.customerId);
+            putString(2, row.lenderId);
+            numbers[3].reserve(Double.BYTES).putDouble(row.amount);
+            numbers[4].reserve(Double.BYTES).putDouble(row.remainingAmount);
+            numbers[5].reserve(Long.BYTES).putLong(row.paymentDate);
+            numbers[6].reserve(Double.BYTES).putDouble(row.interestPerDay);
+            numbers[7].reserve(Long.BYTES).putLong(row.dueDate);
+            numbers[8].reserve(Double.BYTES).putDouble(row.penaltyPerDay);
+            numbers[9].reserve(1).put((byte) (row.cancelled ? 1 : 0));
+            rows++;
+        }
+
+        @Override
+        public long finish() throws IOException {
+            if (rows == 0) {
+                return 0;
+            }
+            ByteBuffer count = ByteBuffer.allocate(Integer.BYTES).putInt(rows);
+            count.flip();
+            writeFully(channel, count);
+            for (int i = 0; i < COLUMN_NAMES.length; i++) {
+                if (COLUMN_TYPES[i] == STRING) {
+                    stringLengths[i].writeTo(channel);
+                    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES).putInt(stringBytes[i].size());
+                    length.flip();
+                    writeFully(channel, length);
+                    stringBytes[i].writeTo(channel);
+                } else {
+                    numbers[i].writeTo(channel);
+                }
+            }
+            return rows;
+        }
+
+        private void putString(int column, String value) {
+            if (value == null) {
+                stringLengths[column].reserve(Integer.BYTES).putInt(NO_STRING);
+                return;
+            }
+            if (isPlainAscii(value)) {
+                stringLengths[column].reserve(Integer.BYTES).putInt(value.length());
+                ByteBuffer bytes = stringBytes[column].reserve(value.length());
+                for (int i = 0; i < value.length(); i++) {
+                    bytes.put((byte) value.charAt(i));
+                }
+                return;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            stringLengths[column].reserve(Integer.BYTES).putInt(encoded.length);
+            stringBytes[column].reserve(encoded.length).put(encoded);
+        }
+    }
+
+    /**
+     * A growable heap buffer holding one column of a block.
+     */
+    static final class ColumnBuffer {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        ByteBuffer reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            return buffer;
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        void writeTo(FileChannel channel) throws IOException {
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * One export. State changes and reads are synchronized on the export.
+     */
+    private static final class Export {
+        private final String id;
+        private final String key;
+        private final Format format;
+        private final Filter filter;
+        private final Instant submittedAt;
+        private Status status = Status.PENDING;
+        private Instant completedAt;
+        private Instant expiresAt;
+        private ExportFile file;
+        private String error;
+
+        private Export(String id, String key, Format format, Filter filter, Instant submittedAt) {
+            this.id = id;
+            this.key = key;
+            this.format = format;
+            this.filter = filter;
+            this.submittedAt = submittedAt;
+        }
+
+        private synchronized void started() {
+            if (status == Status.PENDING) {
+                status = Status.RUNNING;
+            }
+        }
+
+        // Completion happens once: a late result after the timeout, or a second failure, is ignored
+        private synchronized boolean succeeded(ExportFile file, Instant now, Duration ttl) {
+            if (completedAt != null) {
+                return false;
+            }
+            this.status = Status.SUCCEEDED;
+            this.file = file;
+            this.completedAt = now;
+            this.expiresAt = now.plus(ttl);
+            return true;
+        }
+
+        private synchronized boolean failed(String error, Instant now, Duration ttl) {
+            if (completedAt != null) {
+                return false;
+            }
+            this.status = Status.FAILED;
+            this.error = error;
+            this.completedAt = now;
+            this.expiresAt = now.plus(ttl);
+            return true;
+        }
+
+        private synchronized ExportFile getFileQuietly() {
+            return file;
+        }
+
+        private synchronized boolean isExpired(Instant now) {
+            return expiresAt != null && !now.isBefore(expiresAt);
+        }
+
+        private synchronized boolean isReusable(Instant now) {
+            return status != Status.FAILED && !isExpired(now);
+        }
+
+        private synchronized LoanExportDTO toDTO(boolean coalesced) {
+            LoanExportDTO dto = new LoanExportDTO();
+            dto.setExportId(id);
+            dto.setFormat(format.name().toLowerCase(Locale.ROOT));
+            dto.setLenderId(filter.lenderId);
+            dto.setPaymentDateFrom(Filter.toDate(filter.paymentDateFrom));
+            dto.setPaymentDateTo(Filter.toDate(filter.paymentDateTo));
+            dto.setDueDateFrom(Filter.toDate(filter.dueDateFrom));
+            dto.setDueDateTo(Filter.toDate(filter.dueDateTo));
+            dto.setStatus(status.name());
+            dto.setCoalesced(coalesced);
+            dto.setRowCount(file != null ? file.rowCount : null);
+            dto.setSizeBytes(file != null ? file.size : null);
+            dto.setSubmittedAt(Date.from(submittedAt));
+            dto.setCompletedAt(completedAt != null ? Date.from(completedAt) : null);
+            dto.setExpiresAt(expiresAt != null ? Date.from(expiresAt) : null);
+            dto.setError(error);
+            return dto;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.LoanImport;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface LoanImportRepository extends JpaRepository<LoanImport, String> {
+
+    Optional<LoanImport> findFirstByFilePathAndFileSizeAndFileModified(String filePath, long fileSize,
+                                                                       long fileModified);
+}
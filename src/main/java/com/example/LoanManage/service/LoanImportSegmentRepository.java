@@ -0,0 +1,26 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.LoanImportSegment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface LoanImportSegmentRepository extends JpaRepository<LoanImportSegment, String> {
+
+    List<LoanImportSegment> findByImportIdOrderBySegmentIndex(String importId);
+
+    @Query("SELECT DISTINCT s.importId FROM LoanImportSegment s WHERE s.committedOffset < s.endOffset")
+    List<String> findUnfinishedImportIds();
+
+    @Modifying
+    @Query("UPDATE LoanImportSegment s SET s.committedOffset = :committedOffset, s.acceptedRows = :acceptedRows, "
+            + "s.rejectedRows = :rejectedRows, s.rejectedBytes = :rejectedBytes WHERE s.segmentId = :segmentId")
+    int checkpoint(@Param("segmentId") String segmentId, @Param("committedOffset") long committedOffset,
+                   @Param("acceptedRows") long acceptedRows, @Param("rejectedRows") long rejectedRows,
+                   @Param("rejectedBytes") long rejectedBytes);
+}
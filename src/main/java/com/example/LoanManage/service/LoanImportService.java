@@ -0,0 +1,720 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanImportDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.entity.LoanImport;
+import com.example.LoanManage.entity.LoanImportSegment;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.exception.ServiceOverloadedException;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Workload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-side import of large CSV files of loans, such as the portfolios lenders deliver, from
+ * loan.import.directory. The columns are those of the CSV export, so an export can be imported as it is.
+ * <p>
+ * A submitted file is split into segments of about loan.import.segment-size that end on line boundaries, and
+ * the segments are imported in parallel. Each is memory-mapped and parsed in place by {@link LoanCsvRowParser}.
+ * Rows are checked with {@link LoanValidator}, as for POST /loans/add, and persisted in chunks through
+ * {@link LoanIngestService#persist}, each chunk committing together with the checkpoint of its segment.
+ * Rows that fail go to the import's rejected-rows file, with their byte offset in the file and the reason.
+ * A row whose loan is already stored with the same terms, e.g. after the database was restored from a book image
+ * taken during the import, counts as imported rather than rejected.
+ * <p>
+ * An import runs on the BATCH workload, and fails when it exceeds the workload's timeout. It is only started
+ * again, on a new submission, once the run that timed out has ended.
+ * <p>
+ * Imports and checkpoints are kept in the database, so an import cut short by a crash or a shutdown is resumed
+ * at startup from the last committed chunk of each segment. Submitting a file again joins its import instead of
+ * starting another; a file that has been replaced since is imported anew.
+ */
+@Service
+public class LoanImportService {
+
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private static final int HEADER_SCAN_SIZE = 64 * 1024;
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] LINE_END = {'\r', '\n'};
+    private static final String REJECTED_DIRECTORY = "rejected";
+
+    private final LoanIngestService ingestService;
+    private final LoanImportRepository importRepository;
+    private final LoanImportSegmentRepository segmentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final LoanWorkloadExecutor workloadExecutor;
+    private final Path directory;
+    private final long segmentSize;
+    private final int batchSize;
+    private final ExecutorService segmentExecutor;
+    private final Clock clock;
+    // Imports started on this instance; everything else about an import is in the database
+    private final Map<String, ImportState> states = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(LoanImportService.class);
+
+    @Autowired
+    public LoanImportService(LoanIngestService ingestService, LoanImportRepository importRepository,
+                             LoanImportSegmentRepository segmentRepository, TransactionTemplate transactionTemplate,
+                             LoanWorkloadExecutor workloadExecutor,
+                             @Value("${loan.import.directory:data/imports}") String directory,
+                             @Value("${loan.import.segment-size:64MB}") DataSize segmentSize,
+                             @Value("${loan.import.batch-size:1000}") int batchSize,
+                             @Value("${loan.import.parallelism:4}") int parallelism) {
+        this(ingestService, importRepository, segmentRepository, transactionTemplate, workloadExecutor,
+                Paths.get(directory), segmentSize.toBytes(), batchSize, parallelism, Clock.systemUTC());
+    }
+
+    LoanImportService(LoanIngestService ingestService, LoanImportRepository importRepository,
+                      LoanImportSegmentRepository segmentRepository, TransactionTemplate transactionTemplate,
+                      LoanWorkloadExecutor workloadExecutor, Path directory, long segmentSize, int batchSize,
+                      int parallelism, Clock clock) {
+        // A segment is mapped as one buffer, and may run past the segment size to the end of a line
+        if (segmentSize < 1 || segmentSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("loan.import.segment-size must be between 1 byte and 1GB");
+        }
+        this.ingestService = ingestService;
+        this.importRepository = importRepository;
+        this.segmentRepository = segmentRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.workloadExecutor = workloadExecutor;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.segmentSize = segmentSize;
+        this.batchSize = batchSize;
+        this.clock = clock;
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Each thread holds a database connection while it commits a chunk
+        this.segmentExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "loan-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Import a file from the import directory, or join the import of the same file.
+     *
+     * @param fileName The file, relative to the import directory.
+     * @return LoanImportDTO describing the import.
+     * @throws LoanValidationException   if the name points outside the import directory.
+     * @throws ResourceNotFoundException if there is no such file.
+     */
+    public LoanImportDTO submit(String fileName) {
+        Path file = resolve(fileName);
+        LoanImport loanImport;
+        boolean coalesced;
+        try {
+            long size = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            synchronized (this) {
+                Optional<LoanImport> existing = importRepository.findFirstByFilePathAndFileSizeAndFileModified(
+                        file.toString(), size, modified);
+                coalesced = existing.isPresent();
+                loanImport = coalesced ? existing.get() : plan(file, size, modified);
+                start(loanImport.getImportId());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        logger.debug("{} import {} of {}.", coalesced ? "Joined" : "Started", loanImport.getImportId(), fileName);
+        return toDTO(loanImport, coalesced);
+    }
+
+    /**
+     * @param importId The import id returned on submission.
+     * @return LoanImportDTO with the current status and progress.
+     * @throws ResourceNotFoundException if the import does not exist.
+     */
+    public LoanImportDTO getImport(String importId) {
+        return toDTO(find(importId), false);
+    }
+
+    /**
+     * @param importId The import id returned on submission.
+     * @return The rejected-rows file, or null while the import is pending or running.
+     * @throws ResourceNotFoundException if the import does not exist.
+     * @throws IllegalStateException     if the import failed.
+     */
+    public Path getRejectedRows(String importId) {
+        find(importId);
+        ImportState state = states.get(importId);
+        if (state != null) {
+            synchronized (state) {
+                if (state.status == Status.FAILED) {
+                    throw new IllegalStateException("Loan import " + importId + " failed: " + state.error);
+                }
+                if (state.status != Status.SUCCEEDED) {
+                    return null;
+                }
+            }
+        }
+        Path file = rejectedFile(importId);
+        return Files.exists(file) ? file : null;
+    }
+
+    /**
+     * Resume the imports that a crash or a shutdown left unfinished.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        for (String importId : segmentRepository.findUnfinishedImportIds()) {
+            try {
+                start(importId);
+                logger.info("Resuming loan import {}.", importId);
+            } catch (ServiceOverloadedException ex) {
+                logger.warn("Could not resume loan import {}: {}", importId, ex.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        segmentExecutor.shutdownNow();
+    }
+
+    private Path resolve(String fileName) {
+        if (fileName == null || fileName.isEmpty()) {
+            throw new LoanValidationException("A file name is required");
+        }
+        Path file = directory.resolve(fileName).normalize();
+        if (!Files.isRegularFile(file)) {
+            throw new ResourceNotFoundException("File " + fileName + " not found in the import directory");
+        }
+        try {
+            // Also rejects links out of the directory
+            if (!file.toRealPath().startsWith(directory.toRealPath())) {
+                throw new LoanValidationException("The file must be in the import directory");
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return file;
+    }
+
+    // Split the file into segments of whole lines and record the import, without reading more than the boundaries
+    private LoanImport plan(Path file, long size, long modified) throws IOException {
+        LoanImport loanImport = new LoanImport();
+        loanImport.setImportId(UUID.randomUUID().toString());
+        loanImport.setFilePath(file.toString());
+        loanImport.setFileSize(size);
+        loanImport.setFileModified(modified);
+        loanImport.setSubmittedAt(Date.from(clock.instant()));
+        List<LoanImportSegment> segments = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = dataStart(channel, size);
+            while (start < size) {
+                long end = size - start <= segmentSize ? size : lineEndAfter(channel, start + segmentSize, size);
+                LoanImportSegment segment = new LoanImportSegment();
+                segment.setSegmentId(loanImport.getImportId() + "/" + segments.size());
+                segment.setImportId(loanImport.getImportId());
+                segment.setSegmentIndex(segments.size());
+                segment.setStartOffset(start);
+                segment.setEndOffset(end);
+                segment.setCommittedOffset(start);
+                segments.add(segment);
+                start = end;
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            importRepository.save(loanImport);
+            segmentRepository.saveAll(segments);
+        });
+        logger.info("Importing {} ({} bytes) in {} segments as import {}.", file, size, segments.size(),
+                loanImport.getImportId());
+        return loanImport;
+    }
+
+    // Where the rows start: after a UTF-8 byte order mark and a header line, if the file has them. Only a line of
+    // exactly the export's column names is a header, so no row is skipped for a loanId that merely looks like one.
+    static long dataStart(FileChannel channel, long size) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(HEADER_SCAN_SIZE, size));
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+            // Read until the buffer is full or the file ends
+        }
+        int start = 0;
+        if (head.position() >= UTF8_BOM.length && head.get(0) == UTF8_BOM[0] && head.get(1) == UTF8_BOM[1]
+                && head.get(2) == UTF8_BOM[2]) {
+            start = UTF8_BOM.length;
+        }
+        int end = start;
+        while (end < head.position() && head.get(end) != '\n') {
+            end++;
+        }
+        int contentEnd = end > start && head.get(end - 1) == '\r' ? end - 1 : end;
+        String[] fields = new String(head.array(), start, contentEnd - start, StandardCharsets.UTF_8).split(",", -1);
+        if (fields.length != LoanExportService.COLUMN_NAMES.length) {
+            return start;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i].trim();
+            if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+                field = field.substring(1, field.length() - 1);
+            }
+            if (!field.equalsIgnoreCase(LoanExportService.COLUMN_NAMES[i])) {
+                return start;
+            }
+        }
+        return end < head.position() ? end + 1 : head.position();
+    }
+
+    // The offset just past the first line feed at or after the position, or the size if there is none
+    static long lineEndAfter(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SCAN_SIZE);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private synchronized void start(String importId) {
+        ImportState current = states.get(importId);
+        if (current != null && !current.isRestartable()) {
+            return;
+        }
+        if (current == null && isFinished(importId)) {
+            return;
+        }
+        ImportState state = new ImportState();
+        states.put(importId, state);
+        try {
+            workloadExecutor.submit(Workload.BATCH, () -> run(importId, state)).whenComplete((segments, ex) -> {
+                if (ex != null) {
+                    // Covers the BATCH timeout, which fails the future while the import may still be running
+                    failed(importId, state, ex instanceof CompletionException
+                            && ex.getCause() instanceof RuntimeException
+                            ? (RuntimeException) ex.getCause() : new CompletionException(ex));
+                }
+            });
+        } catch (RuntimeException ex) {
+            states.remove(importId, state);
+            throw ex;
+        }
+    }
+
+    private boolean isFinished(String importId) {
+        return Files.exists(rejectedFile(importId)) && segmentRepository.findByImportIdOrderBySegmentIndex(importId)
+                .stream().allMatch(segment -> segment.getCommittedOffset() >= segment.getEndOffset());
+    }
+
+    private List<LoanImportSegment> run(String importId, ImportState state) {
+        if (!state.started()) {
+            // Failed on its timeout while it waited for a thread
+            state.ended();
+            return Collections.emptyList();
+        }
+        long startNanos = System.nanoTime();
+        try {
+            LoanImport loanImport = find(importId);
+            Path file = Paths.get(loanImport.getFilePath());
+            if (Files.size(file) != loanImport.getFileSize()
+                    || Files.getLastModifiedTime(file).toMillis() != loanImport.getFileModified()) {
+                throw new IllegalStateException(file + " has changed since its import started");
+            }
+            Files.createDirectories(directory.resolve(REJECTED_DIRECTORY));
+            List<LoanImportSegment> segments = segmentRepository.findByImportIdOrderBySegmentIndex(importId);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (LoanImportSegment segment : segments) {
+                if (segment.getCommittedOffset() < segment.getEndOffset()) {
+                    futures.add(CompletableFuture.runAsync(() -> importSegment(file, segment), segmentExecutor));
+                }
+            }
+            // Wait for every segment, even after one fails, so the import is not started again while one runs
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(ex -> null).join();
+            for (CompletableFuture<Void> future : futures) {
+                future.join();
+            }
+            mergeRejected(importId, segments.size());
+            state.succeeded(clock.instant());
+            logger.info("Finished loan import {} in {} ms.", importId, (System.nanoTime() - startNanos) / 1_000_000);
+            return segments;
+        } catch (CompletionException ex) {
+            throw failed(importId, state, ex.getCause() instanceof RuntimeException
+                    ? (RuntimeException) ex.getCause() : ex);
+        } catch (IOException ex) {
+            throw failed(importId, state, new UncheckedIOException(ex));
+        } catch (RuntimeException ex) {
+            throw failed(importId, state, ex);
+        } finally {
+            state.ended();
+        }
+    }
+
+    private RuntimeException failed(String importId, ImportState state, RuntimeException ex) {
+        // Committed chunks stay; submitting the file again resumes from them
+        if (state.failed(ex.getMessage(), clock.instant())) {
+            logger.warn("Loan import {} failed: {}", importId, ex.getMessage());
+        }
+        return ex;
+    }
+
+    private void importSegment(Path file, LoanImportSegment segment) {
+        long base = segment.getCommittedOffset();
+        long length = segment.getEndOffset() - base;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Segment " + segment.getSegmentId() + " has a line too long to import");
+        }
+        Path part = rejectedPart(segment.getImportId(), segment.getSegmentIndex());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel rejected = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Rows rejected after the checkpoint are read again, so their lines are dropped from the file
+            rejected.truncate(segment.getRejectedBytes());
+            rejected.position(segment.getRejectedBytes());
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+            new SegmentImport(segment, data, base, rejected).run();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Join the rejected rows of the segments, in file order, under one header
+    private void mergeRejected(String importId, int segments) throws IOException {
+        Path target = rejectedFile(importId);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.wrap(("offset,error," + String.join(",", LoanExportService.COLUMN_NAMES)
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+            for (int i = 0; i < segments; i++) {
+                Path part = rejectedPart(importId, i);
+                if (!Files.exists(part)) {
+                    continue;
+                }
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+            out.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (int i = 0; i < segments; i++) {
+            Files.deleteIfExists(rejectedPart(importId, i));
+        }
+    }
+
+    private Path rejectedFile(String importId) {
+        return directory.resolve(REJECTED_DIRECTORY).resolve(importId + ".csv");
+    }
+
+    private Path rejectedPart(String importId, int segmentIndex) {
+        return directory.resolve(REJECTED_DIRECTORY).resolve(importId + ".part" + segmentIndex);
+    }
+
+    private LoanImport find(String importId) {
+        return importRepository.findById(importId)
+                .orElseThrow(() -> new ResourceNotFoundException("Loan import " + importId + " not found"));
+    }
+
+    private LoanImportDTO toDTO(LoanImport loanImport, boolean coalesced) {
+        List<LoanImportSegment> segments = segmentRepository.findByImportIdOrderBySegmentIndex(
+                loanImport.getImportId());
+        long dataBytes = 0;
+        long processedBytes = 0;
+        long acceptedRows = 0;
+        long rejectedRows = 0;
+        for (LoanImportSegment segment : segments) {
+            dataBytes += segment.getEndOffset() - segment.getStartOffset();
+            processedBytes += segment.getCommittedOffset() - segment.getStartOffset();
+            acceptedRows += segment.getAcceptedRows();
+            rejectedRows += segment.getRejectedRows();
+        }
+        LoanImportDTO dto = new LoanImportDTO();
+        dto.setImportId(loanImport.getImportId());
+        dto.setFileName(directory.relativize(Paths.get(loanImport.getFilePath())).toString());
+        dto.setCoalesced(coalesced);
+        dto.setFileSize(loanImport.getFileSize());
+        dto.setProcessedBytes(processedBytes);
+        dto.setProgress(dataBytes == 0 ? 1.0 : (double) processedBytes / dataBytes);
+        dto.setAcceptedRows(acceptedRows);
+        dto.setRejectedRows(rejectedRows);
+        dto.setSegments(segments.size());
+        dto.setSubmittedAt(loanImport.getSubmittedAt());
+        ImportState state = states.get(loanImport.getImportId());
+        if (state != null) {
+            synchronized (state) {
+                dto.setStatus(state.status.name());
+                dto.setCompletedAt(state.completedAt != null ? Date.from(state.completedAt) : null);
+                dto.setError(state.error);
+            }
+        } else {
+            dto.setStatus((isFinished(loanImport.getImportId()) ? Status.SUCCEEDED : Status.PENDING).name());
+        }
+        return dto;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * The import of one segment from its checkpoint on, by one worker thread.
+     */
+    private final class SegmentImport {
+        private final LoanImportSegment segment;
+        private final ByteBuffer data;
+        private final long base;
+        private final FileChannel rejected;
+        private final LoanCsvRowParser parser = new LoanCsvRowParser();
+        private final List<PendingRow> pending = new ArrayList<>(batchSize);
+        private long acceptedRows;
+        private long rejectedRows;
+        private long rejectedBytes;
+        private boolean rejectedUnforced;
+
+        private SegmentImport(LoanImportSegment segment, ByteBuffer data, long base, FileChannel rejected) {
+            this.segment = segment;
+            this.data = data;
+            this.base = base;
+            this.rejected = rejected;
+            this.acceptedRows = segment.getAcceptedRows();
+            this.rejectedRows = segment.getRejectedRows();
+            this.rejectedBytes = segment.getRejectedBytes();
+        }
+
+        private void run() throws IOException {
+            int limit = data.limit();
+            int position = 0;
+            while (position < limit) {
+                int lineEnd = position;
+                while (lineEnd < limit && data.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int next = lineEnd < limit ? lineEnd + 1 : limit;
+                int contentEnd = lineEnd > position && data.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                // Blank lines are skipped
+                if (contentEnd > position) {
+                    Loan loan = parser.parse(data, position, contentEnd);
+                    String error = parser.error();
+                    if (loan != null) {
+                        try {
+                            LoanValidator.validate(loan);
+                        } catch (LoanValidationException ex) {
+                            loan = null;
+                            error = ex.getMessage();
+                        }
+                    }
+                    pending.add(new PendingRow(loan, error, position, contentEnd, next));
+                    if (pending.size() >= batchSize) {
+                        commit(next);
+                    }
+                }
+                position = next;
+            }
+            commit(limit);
+        }
+
+        // Persist the pending rows and move the checkpoint to the end of the line before the given position
+        private void commit(int end) throws IOException {
+            long chunkRejectedRows = rejectedRows;
+            long chunkRejectedBytes = rejectedBytes;
+            List<Loan> loans = new ArrayList<>(pending.size());
+            for (PendingRow row : pending) {
+                if (row.loan != null) {
+                    loans.add(row.loan);
+                } else {
+                    reject(row, row.error);
+                }
+            }
+            try {
+                if (loans.isEmpty()) {
+                    checkpointAlone(end, acceptedRows);
+                } else {
+                    long accepted = acceptedRows + loans.size();
+                    forceRejected();
+                    ingestService.persist(loans, () -> checkpoint(end, accepted));
+                    acceptedRows = accepted;
+                }
+            } catch (DataIntegrityViolationException ex) {
+                logger.warn("Chunk of {} loans in {} violated a constraint; retrying row by row.", loans.size(),
+                        segment.getSegmentId());
+                // Write the rejected rows again in file order, so every checkpoint covers exactly its lines
+                rejected.truncate(chunkRejectedBytes);
+                rejected.position(chunkRejectedBytes);
+                rejectedRows = chunkRejectedRows;
+                rejectedBytes = chunkRejectedBytes;
+                commitRowByRow(end);
+            }
+            pending.clear();
+        }
+
+        private void commitRowByRow(int end) throws IOException {
+            for (PendingRow row : pending) {
+                if (row.loan == null) {
+                    reject(row, row.error);
+                    continue;
+                }
+                // The failed chunk may have assigned an id from the sequence; the row must be inserted as new
+                row.loan.setId(null);
+                long accepted = acceptedRows + 1;
+                try {
+                    forceRejected();
+                    ingestService.persist(Collections.singletonList(row.loan), () -> checkpoint(row.next, accepted));
+                    acceptedRows = accepted;
+                } catch (DataIntegrityViolationException ex) {
+                    if (ingestService.isPersisted(row.loan)) {
+                        // Committed before, e.g. by a chunk that a restored book image holds but the checkpoint
+                        // does not; the next checkpoint counts it
+                        acceptedRows = accepted;
+                        continue;
+                    }
+                    Throwable cause = ex.getRootCause() != null ? ex.getRootCause() : ex;
+                    reject(row, "Data Integrity Violation: " + cause.getMessage());
+                }
+            }
+            checkpointAlone(end, acceptedRows);
+        }
+
+        private void checkpointAlone(int end, long accepted) throws IOException {
+            forceRejected();
+            transactionTemplate.executeWithoutResult(status -> checkpoint(end, accepted));
+        }
+
+        private void checkpoint(int end, long accepted) {
+            segmentRepository.checkpoint(segment.getSegmentId(), base + end, accepted, rejectedRows, rejectedBytes);
+        }
+
+        // One line of the rejected-rows file: the offset of the row in the file, the reason, then the row as it was
+        private void reject(PendingRow row, String error) throws IOException {
+            byte[] prefix = (base + row.start + ",\"" + String.valueOf(error).replace("\"", "\"\"") + "\",")
+                    .getBytes(StandardCharsets.UTF_8);
+            ByteBuffer line = ByteBuffer.allocate(prefix.length + row.end - row.start + LINE_END.length);
+            line.put(prefix);
+            ByteBuffer original = data.duplicate();
+            original.limit(row.end);
+            original.position(row.start);
+            line.put(original);
+            line.put(LINE_END);
+            line.flip();
+            writeFully(rejected, line);
+            rejectedRows++;
+            rejectedBytes += line.limit();
+            rejectedUnforced = true;
+        }
+
+        // Rejected rows must be on disk before a checkpoint that counts them commits
+        private void forceRejected() throws IOException {
+            if (rejectedUnforced) {
+                rejected.force(false);
+                rejectedUnforced = false;
+            }
+        }
+    }
+
+    /**
+     * A parsed line waiting for the next commit: the loan, or why the line was rejected, and where it lies
+     * in the segment.
+     */
+    private static final class PendingRow {
+        private final Loan loan;
+        private final String error;
+        private final int start;
+        private final int end;
+        private final int next;
+
+        private PendingRow(Loan loan, String error, int start, int end, int next) {
+            this.loan = loan;
+            this.error = error;
+            this.start = start;
+            this.end = end;
+            this.next = next;
+        }
+    }
+
+    /**
+     * The state of an import started on this instance. State changes and reads are synchronized on it.
+     */
+    private static final class ImportState {
+        private Status status = Status.PENDING;
+        private Instant completedAt;
+        private String error;
+        private boolean ended;
+
+        private synchronized boolean started() {
+            if (status != Status.PENDING) {
+                return false;
+            }
+            status = Status.RUNNING;
+            return true;
+        }
+
+        // Completion happens once: a late result after the timeout, or a second failure, is ignored
+        private synchronized void succeeded(Instant now) {
+            if (completedAt == null) {
+                status = Status.SUCCEEDED;
+                completedAt = now;
+            }
+        }
+
+        private synchronized boolean failed(String error, Instant now) {
+            if (completedAt != null) {
+                return false;
+            }
+            this.status = Status.FAILED;
+            this.error = error;
+            this.completedAt = now;
+            return true;
+        }
+
+        private synchronized void ended() {
+            ended = true;
+        }
+
+        // A run that failed on its timeout may still be importing, and two runs must not import the same segments
+        private synchronized boolean isRestartable() {
+            return status == Status.FAILED && ended;
+        }
+    }
+}
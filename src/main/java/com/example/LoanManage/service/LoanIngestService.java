@@ -0,0 +1,235 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.BulkIngestResultDTO;
+import com.example.LoanManage.dto.BulkRowErrorDTO;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.mapper.LoanMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Bulk loan ingestion. Rows are validated one by one, and valid rows are persisted in chunks,
+ * each chunk in its own transaction so Hibernate can send the inserts as JDBC batches.
+ * A chunk that violates a database constraint is retried row by row so that only the
+ * offending rows are rejected.
+ */
+@Service
+public class LoanIngestService {
+    public static final int MAX_REPORTED_ERRORS = 1000;
+
+    private final LoanRepository loanRepository;
+    private final LoanAggregateStore aggregateStore;
+    private final LoanSnapshot loanSnapshot;
+    private final LoanCacheEvictor cacheEvictor;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final Logger logger = LoggerFactory.getLogger(LoanIngestService.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    public LoanIngestService(LoanRepository loanRepository,
+                             LoanAggregateStore aggregateStore,
+                             LoanSnapshot loanSnapshot,
+                             LoanCacheEvictor cacheEvictor,
+                             TransactionTemplate transactionTemplate,
+                             @Value("${loan.ingest.chunk-size:500}") int chunkSize) {
+        this.loanRepository = loanRepository;
+        this.aggregateStore = aggregateStore;
+        this.loanSnapshot = loanSnapshot;
+        this.cacheEvictor = cacheEvictor;
+        this.transactionTemplate = transactionTemplate;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Validate and persist a list of loans.
+     *
+     * @param loans The loans to add.
+     * @return BulkIngestResultDTO with the accepted and rejected row counts and the per-row errors.
+     */
+    public BulkIngestResultDTO ingest(List<LoanDTO> loans) {
+        Batch batch = newBatch();
+        for (LoanDTO loan : loans) {
+            batch.add(loan);
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Persist loans that are already validated, in one transaction together with writes of the caller that must
+     * commit with them, e.g. a progress checkpoint, and record them in the aggregates, snapshot and caches.
+     *
+     * @param loans         The loans to add.
+     * @param inTransaction Run in the transaction after the loans are flushed.
+     * @throws DataIntegrityViolationException if a loan violates a constraint; nothing is persisted then.
+     */
+    public void persist(List<Loan> loans, Runnable inTransaction) {
+        aggregateStore.recordAddAll(() -> loanSnapshot.recordAddAll(() -> transactionTemplate.execute(status -> {
+            List<Loan> savedLoans = saveChunk(loans);
+            inTransaction.run();
+            return savedLoans;
+        })));
+        cacheEvictor.evict(loans);
+    }
+
+    /**
+     * Whether a loan is already stored with the same terms, e.g. a row persisted again after the database was
+     * restored from a book image taken while its import ran. The remaining amount and the cancellation are not
+     * compared, since payments and cancellations change them once the loan is stored.
+     *
+     * @param loan A loan whose insert violated the unique loanId.
+     * @return True if the stored loan with its loanId has the same terms.
+     */
+    public boolean isPersisted(Loan loan) {
+        return loanRepository.findByLoanId(loan.getLoanId())
+                .filter(stored -> Objects.equals(stored.getCustomerId(), loan.getCustomerId())
+                        && Objects.equals(stored.getLenderId(), loan.getLenderId())
+                        && stored.getAmount() == loan.getAmount()
+                        && sameInstant(stored.getPaymentDate(), loan.getPaymentDate())
+                        && stored.getInterestPerDay() == loan.getInterestPerDay()
+                        && sameInstant(stored.getDueDate(), loan.getDueDate())
+                        && stored.getPenaltyPerDay() == loan.getPenaltyPerDay())
+                .isPresent();
+    }
+
+    // Stored dates come back as Timestamps, whose equals does not match a Date of the same instant
+    private static boolean sameInstant(Date stored, Date date) {
+        return stored == null ? date == null : date != null && stored.getTime() == date.getTime();
+    }
+
+    /**
+     * Start a batch that callers feed row by row, e.g. while parsing a request stream.
+     *
+     * @return A new, empty batch.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Rows of one ingestion request. Not thread-safe; a batch is fed by the request thread.
+     */
+    public final class Batch {
+        private final List<Loan> pendingLoans = new ArrayList<>(chunkSize);
+        private final List<Integer> pendingRows = new ArrayList<>(chunkSize);
+        private final List<BulkRowErrorDTO> errors = new ArrayList<>();
+        private int totalRows;
+        private int acceptedRows;
+        private int rejectedRows;
+
+        private Batch() {
+        }
+
+        /**
+         * Validate one row and queue it for insertion, flushing a chunk when it is full.
+         *
+         * @param dto The row.
+         */
+        public void add(LoanDTO dto) {
+            int row = ++totalRows;
+            Loan loan = LoanMapper.toEntity(dto);
+            try {
+                LoanValidator.validate(loan);
+            } catch (LoanValidationException ex) {
+                recordError(row, loan.getLoanId(), ex.getMessage());
+                return;
+            }
+            pendingLoans.add(loan);
+            pendingRows.add(row);
+            if (pendingLoans.size() >= chunkSize) {
+                flushChunk();
+            }
+        }
+
+        /**
+         * Record a row that could not be read at all, e.g. malformed JSON.
+         *
+         * @param message Why the row was rejected.
+         */
+        public void reject(String message) {
+            recordError(++totalRows, null, message);
+        }
+
+        /**
+         * Persist the remaining rows and summarize the batch.
+         *
+         * @return BulkIngestResultDTO for the whole batch.
+         */
+        public BulkIngestResultDTO finish() {
+            if (!pendingLoans.isEmpty()) {
+                flushChunk();
+            }
+            BulkIngestResultDTO result = new BulkIngestResultDTO();
+            result.setTotalRows(totalRows);
+            result.setAcceptedRows(acceptedRows);
+            result.setRejectedRows(rejectedRows);
+            result.setErrorsTruncated(rejectedRows > errors.size());
+            result.setErrors(errors);
+            logger.info("Bulk ingestion finished: {} rows, {} accepted, {} rejected.",
+                    totalRows, acceptedRows, rejectedRows);
+            return result;
+        }
+
+        private void flushChunk() {
+            List<Loan> chunk = new ArrayList<>(pendingLoans);
+            List<Integer> rows = new ArrayList<>(pendingRows);
+            pendingLoans.clear();
+            pendingRows.clear();
+            try {
+                persist(chunk, () -> { });
+                acceptedRows += chunk.size();
+            } catch (DataIntegrityViolationException ex) {
+                logger.warn("Chunk of {} loans violated a constraint; retrying row by row.", chunk.size());
+                for (int i = 0; i < chunk.size(); i++) {
+                    saveSingle(chunk.get(i), rows.get(i));
+                }
+            }
+        }
+
+        private void saveSingle(Loan loan, int row) {
+            // The failed chunk may have assigned an id from the sequence; the row must be inserted as new
+            loan.setId(null);
+            try {
+                aggregateStore.recordAdd(() -> loanSnapshot.recordAdd(() -> loanRepository.save(loan)));
+                cacheEvictor.evict(Collections.singletonList(loan));
+                acceptedRows++;
+            } catch (DataIntegrityViolationException ex) {
+                Throwable cause = ex.getRootCause() != null ? ex.getRootCause() : ex;
+                recordError(row, loan.getLoanId(), "Data Integrity Violation: " + cause.getMessage());
+            }
+        }
+
+        private void recordError(int row, String loanId, String message) {
+            rejectedRows++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new BulkRowErrorDTO(row, loanId, message));
+            }
+        }
+    }
+
+    private List<Loan> saveChunk(List<Loan> chunk) {
+        List<Loan> savedLoans = loanRepository.saveAll(chunk);
+        // Flush through the repository so constraint violations are translated, then drop the
+        // chunk from the persistence context to keep memory flat across chunks
+        loanRepository.flush();
+        entityManager.clear();
+        return savedLoans;
+    }
+}
@@ -0,0 +1,636 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanPaymentDTO;
+import com.example.LoanManage.dto.LoanPaymentTotals;
+import com.example.LoanManage.entity.LedgerCheckpoint;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.entity.LoanPayment;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.exception.ServiceOverloadedException;
+import com.example.LoanManage.mapper.LoanMapper;
+import com.example.LoanManage.service.LoanAggregateStore.Change;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Repayment ledger. Posting a payment appends it to the LoanPayment journal and leaves the Loan row alone,
+ * so payments to a popular loan never queue on its row lock.
+ * <p>
+ * Payments are group-committed: they are queued, and one writer thread takes everything waiting (up to the
+ * batch size), checks each payment against its loan's balance, and inserts the accepted ones in a single
+ * transaction. The caller's future completes once its payment is committed or rejected.
+ * <p>
+ * Loan.remainingAmount is the balance as of the ledger checkpoint. Payments after it, the journal tail, are
+ * summed per loan in memory and subtracted on read through {@link #read} and {@link #applyUnsettled}.
+ * {@link #settle} periodically folds the tail into the Loan rows, one update per loan however many payments
+ * it received, and advances the checkpoint. It runs on a thread of its own and excludes those reads, so a read
+ * never sees a payment both in the row and in the tail. Reads of the whole book go through {@link #readView}
+ * instead, which holds no lock while it runs (see {@link View}). Like the materialized aggregates, the tail
+ * assumes this instance is the only writer of the database.
+ * <p>
+ * The aggregates follow the Loan rows and include payments once settled; the analytics snapshot includes them
+ * from its next rebuild.
+ */
+@Service
+public class LoanLedger {
+    private static final long SETTLE_LOCK_TIMEOUT_MS = 100;
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+    private static final double BALANCE_TOLERANCE = 1e-6;
+
+    private final LoanRepository loanRepository;
+    private final LoanPaymentRepository paymentRepository;
+    private final LedgerCheckpointRepository checkpointRepository;
+    private final LoanAggregateStore aggregateStore;
+    private final LoanCacheEvictor cacheEvictor;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long settleIntervalMillis;
+    private final BlockingQueue<PendingPayment> queue;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Tail> tails = new ConcurrentHashMap<>();
+    private final Set<View> views = ConcurrentHashMap.newKeySet();
+    private final Logger logger = LoggerFactory.getLogger(LoanLedger.class);
+    private volatile Thread writer;
+    private volatile ScheduledExecutorService settler;
+
+    @Autowired
+    public LoanLedger(LoanRepository loanRepository,
+                      LoanPaymentRepository paymentRepository,
+                      LedgerCheckpointRepository checkpointRepository,
+                      LoanAggregateStore aggregateStore,
+                      LoanCacheEvictor cacheEvictor,
+                      TransactionTemplate transactionTemplate,
+                      @Value("${loan.ledger.batch-size:1000}") int batchSize,
+                      @Value("${loan.ledger.queue-capacity:100000}") int queueCapacity,
+                      @Value("${loan.ledger.settle-interval-ms:5000}") long settleIntervalMillis) {
+        this.loanRepository = loanRepository;
+        this.paymentRepository = paymentRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.aggregateStore = aggregateStore;
+        this.cacheEvictor = cacheEvictor;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.settleIntervalMillis = settleIntervalMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Rebuild the journal tail from the database and start the writer and settlement threads. Settlement has a
+     * thread of its own so that it never waits behind other scheduled work, such as a book image being written.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        recover();
+        Thread thread = new Thread(this::writeLoop, "loan-ledger-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread settlerThread = new Thread(runnable, "loan-ledger-settler");
+            settlerThread.setDaemon(true);
+            return settlerThread;
+        });
+        settler = executor;
+        executor.scheduleWithFixedDelay(this::settleQuietly, settleIntervalMillis, settleIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService executor = settler;
+        if (executor != null) {
+            // A settlement in progress is left to commit
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        Thread thread = writer;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        List<PendingPayment> unwritten = new ArrayList<>();
+        queue.drainTo(unwritten);
+        for (PendingPayment payment : unwritten) {
+            payment.result.completeExceptionally(new ServiceOverloadedException("The ledger is shutting down"));
+        }
+    }
+
+    /**
+     * Queue a payment for the next group commit.
+     *
+     * @param loanId The loan being repaid.
+     * @param amount The amount paid; it must not exceed the loan's remaining amount.
+     * @return A future completing with the committed payment, or with ResourceNotFoundException if the loan
+     * does not exist and LoanValidationException if it is cancelled or the payment exceeds its balance.
+     * @throws LoanValidationException    if the amount is not a positive number.
+     * @throws ServiceOverloadedException if the payment queue is full.
+     */
+    public CompletableFuture<LoanPaymentDTO> post(String loanId, double amount) {
+        if (!(amount > 0) || Double.isInfinite(amount)) {
+            throw new LoanValidationException("Payment amount must be a positive number");
+        }
+        PendingPayment payment = new PendingPayment(loanId, amount);
+        if (!queue.offer(payment)) {
+            throw new ServiceOverloadedException("Too many payments waiting to be committed");
+        }
+        return payment.result;
+    }
+
+    /**
+     * Run a read of Loan rows that will be combined with the journal tail, excluding settlement.
+     *
+     * @param read The read; it applies {@link #applyUnsettled} to what it returns.
+     * @return The result of the read.
+     */
+    public <T> T read(Supplier<T> read) {
+        lock.readLock().lock();
+        try {
+            return read.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Run a long read of Loan rows, such as streaming or exporting the whole book, against a {@link View}.
+     * The ledger lock is held only while the view is opened, so settlement goes on while the read runs.
+     *
+     * @param read The read; it combines the rows it reads with the view.
+     * @return The result of the read.
+     */
+    public <T> T readView(Function<View, T> read) {
+        View view;
+        lock.readLock().lock();
+        try {
+            // Settlement commits the checkpoint under the write lock, so it matches the copied tails here
+            long settledPaymentId = checkpointRepository.findById(LedgerCheckpoint.LEDGER)
+                    .map(LedgerCheckpoint::getSettledPaymentId)
+                    .orElse(0L);
+            view = new View(new HashMap<>(tails), settledPaymentId);
+            views.add(view);
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            return read.apply(view);
+        } finally {
+            views.remove(view);
+        }
+    }
+
+    /**
+     * Subtract the loan's unsettled payments from its remaining amount. Call within {@link #read}.
+     *
+     * @param loan A loan as read from its row; it is modified in place.
+     * @return The same loan.
+     */
+    public LoanDTO applyUnsettled(LoanDTO loan) {
+        Tail tail = tails.get(loan.getLoanId());
+        if (tail != null) {
+            loan.setRemainingAmount(loan.getRemainingAmount() - tail.amount);
+            if (loan.getLastModified() == null || loan.getLastModified().before(tail.lastPaidAt)) {
+                loan.setLastModified(tail.lastPaidAt);
+            }
+        }
+        return loan;
+    }
+
+    /**
+     * The total of a loan's unsettled payments, for reads that do not build a LoanDTO. Call within {@link #read}.
+     *
+     * @param loanId The loan.
+     * @return The amount to subtract from the remaining amount in its row; 0 if nothing is unsettled.
+     */
+    public double unsettledAmount(String loanId) {
+        Tail tail = tails.get(loanId);
+        return tail != null ? tail.amount : 0.0;
+    }
+
+    /**
+     * Apply {@link #applyUnsettled(LoanDTO)} to each loan and drop the loans repaid in full. Call within {@link #read}.
+     *
+     * @param loans Loans as read from their rows; they are modified in place.
+     * @return The loans with a remaining amount left, in their original order.
+     */
+    public List<LoanDTO> outstanding(List<LoanDTO> loans) {
+        List<LoanDTO> result = new ArrayList<>(loans.size());
+        for (LoanDTO loan : loans) {
+            if (applyUnsettled(loan).getRemainingAmount() > 0) {
+                result.add(loan);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fold the journal tail into the Loan rows and advance the checkpoint. Skipped, and retried on the
+     * next run, if reads or a group commit hold the ledger for longer than a short timeout.
+     */
+    public void settle() {
+        try {
+            if (!lock.writeLock().tryLock(SETTLE_LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.debug("Ledger busy; settlement postponed.");
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        Settlement settlement;
+        try {
+            Settlement[] folded = new Settlement[1];
+            // The rows are saved by the commit, so it runs inside the store's update like every other loan write
+            aggregateStore.recordUpdateAll(() -> {
+                folded[0] = transactionTemplate.execute(status -> foldTail());
+                return folded[0] != null ? folded[0].changes : Collections.emptyList();
+            });
+            settlement = folded[0];
+            if (settlement == null) {
+                return;
+            }
+            for (Map.Entry<String, Double> settled : settlement.amounts.entrySet()) {
+                tails.computeIfPresent(settled.getKey(), (loanId, tail) -> tail.lastPaymentId <= settlement.upToId
+                        ? null : new Tail(tail.amount - settled.getValue(), tail.lastPaymentId, tail.lastPaidAt));
+            }
+            for (View view : views) {
+                for (Change change : settlement.changes) {
+                    Loan loan = change.getAfter();
+                    view.settled(loan.getLoanId(), settlement.amounts.get(loan.getLoanId()), loan.getVersion());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        List<Loan> settledLoans = new ArrayList<>(settlement.changes.size());
+        for (Change change : settlement.changes) {
+            settledLoans.add(change.getAfter());
+        }
+        if (!settledLoans.isEmpty()) {
+            cacheEvictor.evict(settledLoans);
+        }
+        logger.info("Settled payments up to {} into {} loans.", settlement.upToId, settledLoans.size());
+    }
+
+    /**
+     * Commit the payments waiting in the queue, at most one batch. The writer thread does this in a loop.
+     *
+     * @return The number of payments taken from the queue.
+     */
+    int writePending() {
+        List<PendingPayment> batch = new ArrayList<>(batchSize);
+        queue.drainTo(batch, batchSize);
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+        return batch.size();
+    }
+
+    void recover() {
+        long settledPaymentId = checkpointRepository.findById(LedgerCheckpoint.LEDGER)
+                .map(LedgerCheckpoint::getSettledPaymentId)
+                .orElse(0L);
+        tails.clear();
+        for (LoanPaymentTotals totals : paymentRepository.sumByLoanIdBetween(settledPaymentId, Long.MAX_VALUE)) {
+            tails.put(totals.getLoanId(),
+                    new Tail(totals.getTotalAmount(), totals.getLastPaymentId(), totals.getLastPaidAt()));
+        }
+        logger.info("Recovered unsettled payments of {} loans after payment {}.", tails.size(), settledPaymentId);
+    }
+
+    private void settleQuietly() {
+        try {
+            settle();
+        } catch (RuntimeException ex) {
+            // Thrown out of the task, it would cancel every later run
+            logger.error("Settlement failed; it is retried on the next run.", ex);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingPayment> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            // Everything that arrived during the previous commit goes into this one
+            queue.drainTo(batch, batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<PendingPayment> batch) {
+        List<PendingPayment> accepted = new ArrayList<>(batch.size());
+        List<LoanPayment> entries = new ArrayList<>(batch.size());
+        List<Double> balancesAfter = new ArrayList<>(batch.size());
+        Map<String, Loan> paidLoans = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            Map<String, Loan> loans = findLoans(batch);
+            // Running balance per loan: the row, minus the tail, minus the earlier payments of this batch
+            Map<String, Double> balances = new HashMap<>();
+            Date paidAt = new Date();
+            for (PendingPayment payment : batch) {
+                Loan loan = loans.get(payment.loanId);
+                if (loan == null) {
+                    payment.result.completeExceptionally(
+                            new ResourceNotFoundException("Loan with Loan ID " + payment.loanId + " not found"));
+                    continue;
+                }
+                if (loan.isCancelled()) {
+                    payment.result.completeExceptionally(
+                            new LoanValidationException("Loan " + payment.loanId + " is cancelled"));
+                    continue;
+                }
+                double balance = balances.computeIfAbsent(payment.loanId, loanId -> balanceOf(loan));
+                if (payment.amount - balance > BALANCE_TOLERANCE) {
+                    payment.result.completeExceptionally(new LoanValidationException("Payment of " + payment.amount
+                            + " exceeds the remaining amount " + balance + " of loan " + payment.loanId));
+                    continue;
+                }
+                balances.put(payment.loanId, balance - payment.amount);
+                LoanPayment entry = new LoanPayment();
+                entry.setLoanId(payment.loanId);
+                entry.setAmount(payment.amount);
+                entry.setPaidAt(paidAt);
+                entries.add(entry);
+                accepted.add(payment);
+                balancesAfter.add(balance - payment.amount);
+                paidLoans.put(payment.loanId, loan);
+            }
+            if (!entries.isEmpty()) {
+                transactionTemplate.executeWithoutResult(status -> paymentRepository.saveAll(entries));
+                for (LoanPayment entry : entries) {
+                    tails.merge(entry.getLoanId(), new Tail(entry.getAmount(), entry.getId(), entry.getPaidAt()),
+                            (tail, payment) -> new Tail(tail.amount + payment.amount,
+                                    payment.lastPaymentId, payment.lastPaidAt));
+                }
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Could not commit a batch of {} payments.", batch.size(), ex);
+            for (PendingPayment payment : batch) {
+                payment.result.completeExceptionally(ex);
+            }
+            return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!paidLoans.isEmpty()) {
+            cacheEvictor.evict(paidLoans.values());
+        }
+        // Completed after the eviction, so a caller that reads the loan next sees its payment
+        for (int i = 0; i < accepted.size(); i++) {
+            LoanPayment entry = entries.get(i);
+            LoanPaymentDTO dto = new LoanPaymentDTO();
+            dto.setPaymentId(entry.getId());
+            dto.setLoanId(entry.getLoanId());
+            dto.setAmount(entry.getAmount());
+            dto.setPaidAt(entry.getPaidAt());
+            dto.setRemainingAmount(balancesAfter.get(i));
+            accepted.get(i).result.complete(dto);
+        }
+        logger.debug("Committed {} of {} payments.", accepted.size(), batch.size());
+    }
+
+    private Map<String, Loan> findLoans(List<PendingPayment> batch) {
+        Set<String> loanIds = new LinkedHashSet<>();
+        for (PendingPayment payment : batch) {
+            loanIds.add(payment.loanId);
+        }
+        Map<String, Loan> loans = new HashMap<>();
+        for (List<String> chunk : chunks(loanIds)) {
+            for (Loan loan : loanRepository.findByLoanIdIn(chunk)) {
+                loans.put(loan.getLoanId(), loan);
+            }
+        }
+        return loans;
+    }
+
+    private double balanceOf(Loan loan) {
+        Tail tail = tails.get(loan.getLoanId());
+        return tail != null ? loan.getRemainingAmount() - tail.amount : loan.getRemainingAmount();
+    }
+
+    // Runs in the settlement transaction; the loans are managed, so the new balances are flushed on commit
+    private Settlement foldTail() {
+        LedgerCheckpoint checkpoint = checkpointRepository.findById(LedgerCheckpoint.LEDGER)
+                .orElseGet(LedgerCheckpoint::new);
+        Long upToId = paymentRepository.findMaxId();
+        if (upToId == null || upToId <= checkpoint.getSettledPaymentId()) {
+            return null;
+        }
+        Map<String, Double> amounts = new HashMap<>();
+        for (LoanPaymentTotals totals :
+                paymentRepository.sumByLoanIdBetween(checkpoint.getSettledPaymentId(), upToId)) {
+            amounts.put(totals.getLoanId(), totals.getTotalAmount());
+        }
+        Settlement settlement = new Settlement(upToId, amounts);
+        for (List<String> chunk : chunks(amounts.keySet())) {
+            for (Loan loan : loanRepository.findByLoanIdIn(chunk)) {
+                Loan before = LoanMapper.toEntity(LoanMapper.toDTO(loan));
+                loan.setRemainingAmount(loan.getRemainingAmount() - amounts.get(loan.getLoanId()));
+                settlement.changes.add(new Change(before, loan));
+            }
+        }
+        checkpoint.setSettledPaymentId(upToId);
+        checkpointRepository.save(checkpoint);
+        return settlement;
+    }
+
+    private static List<List<String>> chunks(Set<String> values) {
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> chunk = new ArrayList<>(Math.min(values.size(), LOOKUP_CHUNK_SIZE));
+        for (String value : values) {
+            chunk.add(value);
+            if (chunk.size() == LOOKUP_CHUNK_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(LOOKUP_CHUNK_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static final class PendingPayment {
+        private final String loanId;
+        private final double amount;
+        private final CompletableFuture<LoanPaymentDTO> result = new CompletableFuture<>();
+
+        private PendingPayment(String loanId, double amount) {
+            this.loanId = loanId;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * The ledger as of the moment a long read opened it. The view copies the unsettled payments once. Each
+     * settlement while it is open is recorded in it with the version it gave each loan row, and a row read with
+     * that version or a later one is taken back to the view's checkpoint. Every row read during the view then
+     * combines with the same copy, as if the whole read had happened when the view opened.
+     */
+    public static final class View {
+        private final Map<String, Tail> tails;
+        private final long settledPaymentId;
+        private final Map<String, Settled> settled = new ConcurrentHashMap<>();
+
+        View(Map<String, Tail> tails, long settledPaymentId) {
+            this.tails = tails;
+            this.settledPaymentId = settledPaymentId;
+        }
+
+        /**
+         * @return The checkpoint of the view: rows taken back by {@link #settledAmount} hold the payments up to it.
+         */
+        public long getSettledPaymentId() {
+            return settledPaymentId;
+        }
+
+        /**
+         * @param loanId  The loan.
+         * @param version The version of the row as read.
+         * @return The amount settled into the row since the view opened, to add back to its remaining amount.
+         */
+        public double settledAmount(String loanId, long version) {
+            double amount = 0;
+            for (Settled entry = settled.get(loanId); entry != null; entry = entry.previous) {
+                if (version >= entry.version) {
+                    amount += entry.amount;
+                }
+            }
+            return amount;
+        }
+
+        /**
+         * @param loanId The loan.
+         * @return The loan's payments that were unsettled when the view opened.
+         */
+        public double unsettledAmount(String loanId) {
+            Tail tail = tails.get(loanId);
+            return tail != null ? tail.amount : 0.0;
+        }
+
+        /**
+         * @return The loans with payments that were unsettled when the view opened.
+         */
+        public Set<String> unsettledLoanIds() {
+            return Collections.unmodifiableSet(tails.keySet());
+        }
+
+        /**
+         * @param loanId The loan.
+         * @return When the loan's last unsettled payment was made, or null if it had none when the view opened.
+         */
+        public Date lastPaidAt(String loanId) {
+            Tail tail = tails.get(loanId);
+            return tail != null ? tail.lastPaidAt : null;
+        }
+
+        /**
+         * @param loanId          The loan.
+         * @param remainingAmount The remaining amount of the row as read.
+         * @param version         The version of the row as read.
+         * @return The remaining amount of the loan as of the view.
+         */
+        public double remainingAmount(String loanId, double remainingAmount, long version) {
+            return remainingAmount + settledAmount(loanId, version) - unsettledAmount(loanId);
+        }
+
+        /**
+         * The view's counterpart of {@link LoanLedger#applyUnsettled(LoanDTO)}.
+         *
+         * @param loan A loan as read from its row; it is modified in place.
+         * @return The same loan.
+         */
+        public LoanDTO applyUnsettled(LoanDTO loan) {
+            loan.setRemainingAmount(remainingAmount(loan.getLoanId(), loan.getRemainingAmount(), loan.getVersion()));
+            Tail tail = tails.get(loan.getLoanId());
+            if (tail != null && (loan.getLastModified() == null || loan.getLastModified().before(tail.lastPaidAt))) {
+                loan.setLastModified(tail.lastPaidAt);
+            }
+            return loan;
+        }
+
+        private void settled(String loanId, double amount, long version) {
+            settled.compute(loanId, (key, previous) -> new Settled(amount, version, previous));
+        }
+    }
+
+    /**
+     * An amount a settlement folded into a loan row while a view was open, and the row version it produced.
+     */
+    private static final class Settled {
+        private final double amount;
+        private final long version;
+        private final Settled previous;
+
+        private Settled(double amount, long version, Settled previous) {
+            this.amount = amount;
+            this.version = version;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * The unsettled payments of one loan. Immutable; replaced on every change.
+     */
+    static final class Tail {
+        private final double amount;
+        private final long lastPaymentId;
+        private final Date lastPaidAt;
+
+        Tail(double amount, long lastPaymentId, Date lastPaidAt) {
+            this.amount = amount;
+            this.lastPaymentId = lastPaymentId;
+            this.lastPaidAt = lastPaidAt;
+        }
+    }
+
+    private static final class Settlement {
+        private final long upToId;
+        private final Map<String, Double> amounts;
+        private final List<Change> changes = new ArrayList<>();
+
+        private Settlement(long upToId, Map<String, Double> amounts) {
+            this.upToId = upToId;
+            this.amounts = amounts;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Picks up the loans that become overdue, tick by tick, without scanning the book.
+ * <p>
+ * The scanner keeps a watermark: every loan due before it has already been picked up. Each tick reads the
+ * outstanding, non-cancelled loans due between the watermark and now through the (cancelled, dueDate)
+ * index, which returns exactly the loans that crossed their due date since the previous tick, and moves
+ * the watermark to now. The watermark starts when the application does, so loans that fell due while it
+ * was down are not reported as transitions; they are still listed by the overdue endpoints.
+ */
+@Service
+public class LoanOverdueScanner {
+
+    private final LoanRepository loanRepository;
+    private final LoanLedger ledger;
+    private final Counter transitions;
+    private final Clock clock;
+    private final Logger logger = LoggerFactory.getLogger(LoanOverdueScanner.class);
+    private Date watermark;
+
+    @Autowired
+    public LoanOverdueScanner(LoanRepository loanRepository, LoanLedger ledger, MeterRegistry meterRegistry) {
+        this(loanRepository, ledger, meterRegistry, Clock.systemUTC());
+    }
+
+    LoanOverdueScanner(LoanRepository loanRepository, LoanLedger ledger, MeterRegistry meterRegistry, Clock clock) {
+        this.loanRepository = loanRepository;
+        this.ledger = ledger;
+        this.transitions = Counter.builder("loan.overdue.transitions")
+                .description("Loans picked up by the overdue scanner as they crossed their due date")
+                .register(meterRegistry);
+        this.clock = clock;
+        this.watermark = new Date(clock.millis());
+    }
+
+    /**
+     * Pick up the loans that fell due since the previous tick.
+     *
+     * @return The loans that became overdue, earliest due first.
+     */
+    @Scheduled(fixedDelayString = "${loan.overdue.scan-interval-ms:60000}")
+    public synchronized List<LoanDTO> scan() {
+        Date now = new Date(clock.millis());
+        if (!now.after(watermark)) {
+            return Collections.emptyList();
+        }
+        Date from = watermark;
+        List<LoanDTO> overdue = ledger.read(
+                () -> ledger.outstanding(loanRepository.findLoanDTOsFallingDueBetween(from, now)));
+        watermark = now;
+        transitions.increment(overdue.size());
+        for (LoanDTO loan : overdue) {
+            logger.debug("Loan {} of lender {} became overdue; it was due {}.",
+                    loan.getLoanId(), loan.getLenderId(), loan.getDueDate());
+        }
+        if (!overdue.isEmpty()) {
+            logger.info("{} loans became overdue between {} and {}.", overdue.size(), from, now);
+        }
+        return overdue;
+    }
+}
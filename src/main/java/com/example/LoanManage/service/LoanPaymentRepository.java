@@ -0,0 +1,22 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanPaymentTotals;
+import com.example.LoanManage.entity.LoanPayment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface LoanPaymentRepository extends JpaRepository<LoanPayment, Long> {
+
+    @Query("SELECT MAX(p.id) FROM LoanPayment p")
+    Long findMaxId();
+
+    @Query("SELECT p.loanId AS loanId, SUM(p.amount) AS totalAmount, MAX(p.id) AS lastPaymentId, "
+            + "MAX(p.paidAt) AS lastPaidAt FROM LoanPayment p "
+            + "WHERE p.id > :afterId AND p.id <= :upToId GROUP BY p.loanId")
+    List<LoanPaymentTotals> sumByLoanIdBetween(@Param("afterId") long afterId, @Param("upToId") long upToId);
+}
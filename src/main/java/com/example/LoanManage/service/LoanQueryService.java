@@ -0,0 +1,342 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanGroupDTO;
+import com.example.LoanManage.dto.LoanQueryDTO;
+import com.example.LoanManage.dto.LoanQueryResultDTO;
+import com.example.LoanManage.exception.LoanQueryTimeoutException;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.service.LoanAggregateStore.Dimension;
+import com.example.LoanManage.service.LoanSnapshot.Columns;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Ad-hoc filtered aggregation over the {@link LoanSnapshot}.
+ * <p>
+ * A query is one pass over the snapshot columns: every filter is a comparison against a primitive
+ * column (lender and customer filters are resolved to dictionary codes up front), and matching loans
+ * are summed into groups keyed by a single long that packs the group-by codes. The number of groups
+ * held in memory, the number returned and the scan time are all bounded.
+ * <p>
+ * Remaining amounts, and the repaid filter on them, are those of the last snapshot rebuild: payments made since
+ * are in the ledger tail or settled into rows the snapshot has not read again, and are not applied here.
+ */
+@Service
+public class LoanQueryService {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 10_000;
+    // Rows scanned between two deadline checks
+    private static final int DEADLINE_CHECK_INTERVAL = 1 << 14;
+
+    private final LoanSnapshot loanSnapshot;
+    private final int maxGroups;
+    private final long defaultTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final Logger logger = LoggerFactory.getLogger(LoanQueryService.class);
+
+    @Autowired
+    public LoanQueryService(LoanSnapshot loanSnapshot,
+                            @Value("${loan.query.max-groups:100000}") int maxGroups,
+                            @Value("${loan.query.timeout-ms:2000}") long defaultTimeoutMillis,
+                            @Value("${loan.query.max-timeout-ms:10000}") long maxTimeoutMillis) {
+        this.loanSnapshot = loanSnapshot;
+        this.maxGroups = maxGroups;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+    }
+
+    /**
+     * Filter the loan book and aggregate the matching loans.
+     *
+     * @param query The filters, group-by dimensions, sort order, limit and timeout.
+     * @return LoanQueryResultDTO with the overall totals and the per-group breakdown.
+     * @throws LoanValidationException   if the query is malformed or produces too many groups.
+     * @throws LoanQueryTimeoutException if the scan does not finish within the timeout.
+     */
+    @Timed(value = "loan.service", extraTags = {"method", "query"})
+    public LoanQueryResultDTO query(LoanQueryDTO query) {
+        long startNanos = System.nanoTime();
+        List<Dimension> dimensions = resolveDimensions(query.getGroupBy());
+        AggregateSort sort = AggregateSort.fromParameter(query.getSortBy());
+        int limit = resolveLimit(query.getLimit());
+        long deadline = startNanos + resolveTimeoutMillis(query.getTimeoutMillis()) * 1_000_000;
+
+        Columns columns = loanSnapshot.columns();
+        Map<Long, GroupAccumulator> groups = scan(columns, query, dimensions, deadline);
+
+        LoanQueryResultDTO result = new LoanQueryResultDTO();
+        List<String> groupBy = new ArrayList<>(dimensions.size());
+        for (Dimension dimension : dimensions) {
+            groupBy.add(dimension.name().toLowerCase(Locale.ROOT));
+        }
+        result.setGroupBy(groupBy);
+        result.setScannedLoans(columns.size());
+
+        List<LoanGroupDTO> groupDTOs = new ArrayList<>(groups.size());
+        for (GroupAccumulator accumulator : groups.values()) {
+            result.setMatchedLoans(result.getMatchedLoans() + accumulator.loanCount);
+            result.setTotalRemainingAmount(result.getTotalRemainingAmount() + accumulator.remainingAmount);
+            result.setTotalInterest(result.getTotalInterest() + accumulator.interest);
+            result.setTotalPenalty(result.getTotalPenalty() + accumulator.penalty);
+            groupDTOs.add(accumulator.toDTO(columns, dimensions));
+        }
+        groupDTOs.sort(sort.getComparator());
+        result.setGroupCount(groupDTOs.size());
+        result.setTruncated(groupDTOs.size() > limit);
+        result.setGroups(result.isTruncated() ? new ArrayList<>(groupDTOs.subList(0, limit)) : groupDTOs);
+        result.setElapsedMillis((System.nanoTime() - startNanos) / 1_000_000);
+        logger.debug("Query matched {} of {} loans in {} groups in {} ms.", result.getMatchedLoans(),
+                result.getScannedLoans(), result.getGroupCount(), result.getElapsedMillis());
+        return result;
+    }
+
+    private Map<Long, GroupAccumulator> scan(Columns columns, LoanQueryDTO query,
+                                             List<Dimension> dimensions, long deadline) {
+        Map<Long, GroupAccumulator> groups = new HashMap<>();
+        int lenderFilter = codeFilter(query.getLenderId(), columns.lenderCode(query.getLenderId()));
+        int customerFilter = codeFilter(query.getCustomerId(), columns.customerCode(query.getCustomerId()));
+        if (lenderFilter == LoanSnapshot.NO_CODE || customerFilter == LoanSnapshot.NO_CODE) {
+            return groups; // No loan has the requested lender or customer
+        }
+        boolean filterCancelled = query.getCancelled() != null;
+        boolean cancelledValue = filterCancelled && query.getCancelled();
+        boolean filterRepaid = query.getRepaid() != null;
+        boolean repaidValue = filterRepaid && query.getRepaid();
+        int dueFrom = dayFrom(query.getDueDateFrom());
+        int dueTo = dayTo(query.getDueDateFrom(), query.getDueDateTo());
+        int paymentFrom = dayFrom(query.getPaymentDateFrom());
+        int paymentTo = dayTo(query.getPaymentDateFrom(), query.getPaymentDateTo());
+        double minAmount = lower(query.getMinAmount());
+        double maxAmount = upper(query.getMaxAmount());
+        double minInterest = lower(query.getMinInterestPerDay());
+        double maxInterest = upper(query.getMaxInterestPerDay());
+        double minPenalty = lower(query.getMinPenaltyPerDay());
+        double maxPenalty = upper(query.getMaxPenaltyPerDay());
+        GroupKeys keys = new GroupKeys(columns, dimensions);
+
+        int size = columns.size();
+        int[] lenderCode = columns.lenderCode;
+        int[] customerCode = columns.customerCode;
+        boolean[] cancelled = columns.cancelled;
+        double[] remainingAmount = columns.remainingAmount;
+        int[] dueDay = columns.dueDay;
+        int[] paymentDay = columns.paymentDay;
+        double[] amount = columns.amount;
+        double[] interestPerDay = columns.interestPerDay;
+        double[] penaltyPerDay = columns.penaltyPerDay;
+        for (int i = 0; i < size; i++) {
+            if ((i & (DEADLINE_CHECK_INTERVAL - 1)) == 0 && i > 0 && System.nanoTime() > deadline) {
+                throw new LoanQueryTimeoutException("Query did not finish within its timeout after scanning "
+                        + i + " of " + size + " loans");
+            }
+            if ((lenderFilter >= 0 && lenderCode[i] != lenderFilter)
+                    || (customerFilter >= 0 && customerCode[i] != customerFilter)
+                    || (filterCancelled && cancelled[i] != cancelledValue)
+                    || (filterRepaid && (remainingAmount[i] <= 0) != repaidValue)
+                    || dueDay[i] < dueFrom || dueDay[i] > dueTo
+                    || paymentDay[i] < paymentFrom || paymentDay[i] > paymentTo
+                    || amount[i] < minAmount || amount[i] > maxAmount
+                    || interestPerDay[i] < minInterest || interestPerDay[i] > maxInterest
+                    || penaltyPerDay[i] < minPenalty || penaltyPerDay[i] > maxPenalty) {
+                continue;
+            }
+            Long key = keys.of(i);
+            GroupAccumulator accumulator = groups.get(key);
+            if (accumulator == null) {
+                if (groups.size() >= maxGroups) {
+                    throw new LoanValidationException("Query produces more than " + maxGroups
+                            + " groups; add filters or group by fewer dimensions");
+                }
+                accumulator = new GroupAccumulator(i);
+                groups.put(key, accumulator);
+            }
+            accumulator.add(columns, i);
+        }
+        return groups;
+    }
+
+    private static List<Dimension> resolveDimensions(List<String> groupBy) {
+        if (groupBy == null || groupBy.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Dimension> dimensions = new ArrayList<>(groupBy.size());
+        for (String name : groupBy) {
+            Dimension dimension;
+            try {
+                dimension = Dimension.valueOf(String.valueOf(name).toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new LoanValidationException("Unsupported groupBy value: " + name);
+            }
+            if (dimensions.contains(dimension)) {
+                throw new LoanValidationException("Duplicate groupBy value: " + name);
+            }
+            dimensions.add(dimension);
+        }
+        return dimensions;
+    }
+
+    private static int resolveLimit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new LoanValidationException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        return limit;
+    }
+
+    private long resolveTimeoutMillis(Long timeoutMillis) {
+        if (timeoutMillis == null) {
+            return defaultTimeoutMillis;
+        }
+        if (timeoutMillis < 1) {
+            throw new LoanValidationException("timeoutMillis must be a positive number");
+        }
+        return Math.min(timeoutMillis, maxTimeoutMillis);
+    }
+
+    // -2 means no filter; NO_CODE means a filter no loan can match
+    private static int codeFilter(String value, int code) {
+        return value == null ? -2 : code;
+    }
+
+    private static int dayFrom(Date from) {
+        return from == null ? Integer.MIN_VALUE : LoanSnapshot.toEpochDay(from);
+    }
+
+    // With either bound set, loans without the date are excluded
+    private static int dayTo(Date from, Date to) {
+        if (to != null) {
+            return Math.min(LoanSnapshot.toEpochDay(to), LoanSnapshot.NO_DATE - 1);
+        }
+        return from != null ? LoanSnapshot.NO_DATE - 1 : Integer.MAX_VALUE;
+    }
+
+    private static double lower(Double bound) {
+        return bound == null ? Double.NEGATIVE_INFINITY : bound;
+    }
+
+    private static double upper(Double bound) {
+        return bound == null ? Double.POSITIVE_INFINITY : bound;
+    }
+
+    /**
+     * Packs the group-by codes of a loan into one long, in mixed radix. Lender and customer codes come
+     * from the snapshot dictionaries; interest rates are numbered in first-seen order for this query.
+     */
+    private static final class GroupKeys {
+        private final List<Dimension> dimensions;
+        private final int[] lenderCode;
+        private final int[] customerCode;
+        private final double[] interestPerDay;
+        private final Map<Double, Integer> interestCodes = new HashMap<>();
+        private final long lenderRadix;
+        private final long customerRadix;
+        private final long interestRadix;
+
+        private GroupKeys(Columns columns, List<Dimension> dimensions) {
+            this.dimensions = dimensions;
+            this.lenderCode = columns.lenderCode;
+            this.customerCode = columns.customerCode;
+            this.interestPerDay = columns.interestPerDay;
+            // Codes are shifted by one so that a missing id (NO_CODE) packs as zero
+            this.lenderRadix = columns.lenderCount + 1L;
+            this.customerRadix = columns.customerCount + 1L;
+            this.interestRadix = columns.size() + 1L;
+            long keySpace = 1;
+            try {
+                for (Dimension dimension : dimensions) {
+                    keySpace = Math.multiplyExact(keySpace, radix(dimension));
+                }
+            } catch (ArithmeticException ex) {
+                throw new LoanValidationException("Too many distinct groups to group by " + dimensions);
+            }
+        }
+
+        private long radix(Dimension dimension) {
+            switch (dimension) {
+                case LENDER:
+                    return lenderRadix;
+                case CUSTOMER:
+                    return customerRadix;
+                default:
+                    return interestRadix;
+            }
+        }
+
+        private long of(int row) {
+            long key = 0;
+            for (Dimension dimension : dimensions) {
+                switch (dimension) {
+                    case LENDER:
+                        key = key * lenderRadix + lenderCode[row] + 1;
+                        break;
+                    case CUSTOMER:
+                        key = key * customerRadix + customerCode[row] + 1;
+                        break;
+                    default:
+                        Integer code = interestCodes.computeIfAbsent(interestPerDay[row], rate -> interestCodes.size());
+                        key = key * interestRadix + code;
+                        break;
+                }
+            }
+            return key;
+        }
+    }
+
+    private static final class GroupAccumulator {
+        private final int firstRow; // Any loan of the group, used to decode the group key
+        private long loanCount;
+        private double remainingAmount;
+        private double interest;
+        private double penalty;
+
+        private GroupAccumulator(int firstRow) {
+            this.firstRow = firstRow;
+        }
+
+        private void add(Columns columns, int row) {
+            loanCount++;
+            remainingAmount += columns.remainingAmount[row];
+            interest += columns.interestPerDay[row] * columns.amount[row];
+            penalty += columns.penaltyPerDay[row] * columns.amount[row];
+        }
+
+        private LoanGroupDTO toDTO(Columns columns, List<Dimension> dimensions) {
+            StringJoiner groupKey = new StringJoiner("|");
+            for (Dimension dimension : dimensions) {
+                switch (dimension) {
+                    case LENDER:
+                        groupKey.add(String.valueOf(columns.lenderId(columns.lenderCode[firstRow])));
+                        break;
+                    case CUSTOMER:
+                        groupKey.add(String.valueOf(columns.customerId(columns.customerCode[firstRow])));
+                        break;
+                    default:
+                        groupKey.add(String.valueOf(columns.interestPerDay[firstRow]));
+                        break;
+                }
+            }
+            LoanGroupDTO group = new LoanGroupDTO();
+            group.setGroupKey(dimensions.isEmpty() ? "all" : groupKey.toString());
+            group.setLoanCount(loanCount);
+            group.setTotalRemainingAmount(remainingAmount);
+            group.setTotalInterest(interest);
+            group.setTotalPenalty(penalty);
+            return group;
+        }
+    }
+}
@@ -1,17 +1,109 @@
 package com.example.LoanManage.service;
 
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanGroupTotals;
 import com.example.LoanManage.entity.Loan;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository
 public interface LoanRepository extends JpaRepository<Loan, Long> {
+    /**
+     * Constructor projection shared by the read endpoints: rows are hydrated straight into LoanDTO,
+     * so Hibernate neither manages the results nor keeps dirty-checking snapshots of them.
+     */
+    String SELECT_LOAN_DTO = "SELECT new com.example.LoanManage.dto.LoanDTO(l.loanId, l.customerId, l.lenderId, "
+            + "l.amount, l.remainingAmount, l.paymentDate, l.interestPerDay, l.dueDate, l.penaltyPerDay, "
+            + "l.cancelled, l.version, l.lastModified) FROM Loan l ";
+
+    @Query(SELECT_LOAN_DTO + "WHERE l.loanId = :loanId")
+    Optional<LoanDTO> findLoanDTOByLoanId(@Param("loanId") String loanId);
+
+    @Query(SELECT_LOAN_DTO + "WHERE l.customerId = :customerId")
+    List<LoanDTO> findLoanDTOsByCustomerId(@Param("customerId") String customerId);
+
+    @Query(SELECT_LOAN_DTO + "WHERE l.lenderId = :lenderId")
+    List<LoanDTO> findLoanDTOsByLenderId(@Param("lenderId") String lenderId);
+
+    // Range scans of idx_loan_lender_due and idx_loan_due: the cost follows the loans returned, not the book
+    @Query(SELECT_LOAN_DTO + "WHERE l.lenderId = :lenderId AND l.cancelled = false AND l.dueDate < :asOf "
+            + "AND l.remainingAmount > 0 ORDER BY l.dueDate")
+    List<LoanDTO> findOverdueLoanDTOsByLenderId(@Param("lenderId") String lenderId, @Param("asOf") Date asOf);
+
+    @Query(SELECT_LOAN_DTO + "WHERE l.cancelled = false AND l.dueDate >= :from AND l.dueDate < :to "
+            + "AND l.remainingAmount > 0 ORDER BY l.dueDate")
+    List<LoanDTO> findLoanDTOsFallingDueBetween(@Param("from") Date from, @Param("to") Date to);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query(SELECT_LOAN_DTO + "ORDER BY l.id")
+    Stream<LoanDTO> streamAllLoanDTOs();
+
     List<Loan> findByCustomerId(String customerId);
 
     List<Loan> findByLenderId(String lenderId);
 
     Optional<Loan> findByLoanId(String loanId);
+
+    List<Loan> findByLoanIdIn(Collection<String> loanIds);
+
+    // Keyset page in two steps: a JPQL constructor expression cannot be selected next to the id the cursor needs
+    @Query("SELECT l.id FROM Loan l WHERE l.id > :afterId ORDER BY l.id")
+    List<Long> findIdsAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    @Query(SELECT_LOAN_DTO + "WHERE l.id IN :ids ORDER BY l.id")
+    List<LoanDTO> findLoanDTOsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("SELECT l.id, l.customerId, l.lenderId, l.amount, l.remainingAmount, l.interestPerDay, "
+            + "l.penaltyPerDay, l.paymentDate, l.dueDate, l.cancelled FROM Loan l ORDER BY l.id")
+    Stream<Object[]> streamSnapshotColumns();
+
+    // Repaid rows with their last payment up to the ledger checkpoint; later payments are still in the ledger tail
+    @Query("SELECT l.id, l.loanId, l.remainingAmount, l.version, MAX(p.paidAt), l.lastModified FROM Loan l "
+            + "LEFT JOIN LoanPayment p ON p.loanId = l.loanId AND p.id <= :settledPaymentId "
+            + "WHERE l.cancelled = false AND l.remainingAmount <= 0 "
+            + "GROUP BY l.id, l.loanId, l.remainingAmount, l.version, l.lastModified")
+    List<Object[]> findRepaidLoanColumns(@Param("settledPaymentId") long settledPaymentId);
+
+    @Query("SELECT l.id, l.loanId, l.remainingAmount, l.version FROM Loan l "
+            + "WHERE l.cancelled = false AND l.loanId IN :loanIds")
+    List<Object[]> findBalanceColumnsByLoanIdIn(@Param("loanIds") Collection<String> loanIds);
+
+    @Query("SELECT l.lenderId AS groupKey, COUNT(l) AS loanCount, "
+            + "SUM(l.remainingAmount) AS totalRemainingAmount, "
+            + "SUM(l.interestPerDay * l.amount) AS totalInterest, "
+            + "SUM(l.penaltyPerDay * l.amount) AS totalPenalty "
+            + "FROM Loan l GROUP BY l.lenderId")
+    List<LoanGroupTotals> sumByLender();
+
+    @Query("SELECT l.customerId AS groupKey, COUNT(l) AS loanCount, "
+            + "SUM(l.remainingAmount) AS totalRemainingAmount, "
+            + "SUM(l.interestPerDay * l.amount) AS totalInterest, "
+            + "SUM(l.penaltyPerDay * l.amount) AS totalPenalty "
+            + "FROM Loan l GROUP BY l.customerId")
+    List<LoanGroupTotals> sumByCustomerId();
+
+    @Query("SELECT l.interestPerDay AS groupKey, COUNT(l) AS loanCount, "
+            + "SUM(l.remainingAmount) AS totalRemainingAmount, "
+            + "SUM(l.interestPerDay * l.amount) AS totalInterest, "
+            + "SUM(l.penaltyPerDay * l.amount) AS totalPenalty "
+            + "FROM Loan l GROUP BY l.interestPerDay")
+    List<LoanGroupTotals> sumByInterest();
 }
@@ -1,158 +1,371 @@
 package com.example.LoanManage.service;
 
+import com.example.LoanManage.config.CacheConfig;
+import com.example.LoanManage.dto.AggregateConsistencyDTO;
 import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanGroupDTO;
+import com.example.LoanManage.dto.LoanGroupTotals;
+import com.example.LoanManage.dto.LoanPageDTO;
 import com.example.LoanManage.entity.Loan;
 import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.service.LoanAggregateStore.Dimension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class LoanService {
+    public static final int MAX_PAGE_SIZE = 1000;
+
     private final LoanRepository loanRepository;
+    private final LoanAggregateStore aggregateStore;
+    private final LoanSnapshot loanSnapshot;
+    private final LoanCacheEvictor cacheEvictor;
+    private final LoanLedger ledger;
+    private final MeterRegistry meterRegistry;
+    private final SingleFlight singleFlight;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Map<String, AtomicLong> rowGauges = new ConcurrentHashMap<>();
     private final Logger logger = LoggerFactory.getLogger(LoanService.class);
 
     @Autowired
-    public LoanService(LoanRepository loanRepository) {
+    public LoanService(LoanRepository loanRepository, LoanAggregateStore aggregateStore,
+                       LoanSnapshot loanSnapshot, LoanCacheEvictor cacheEvictor, LoanLedger ledger,
+                       PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
         this.loanRepository = loanRepository;
+        this.aggregateStore = aggregateStore;
+        this.loanSnapshot = loanSnapshot;
+        this.cacheEvictor = cacheEvictor;
+        this.ledger = ledger;
+        this.meterRegistry = meterRegistry;
+        this.singleFlight = new SingleFlight(meterRegistry);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Retrieve one page of loans ordered by surrogate id, starting after the given id.
+     * Uses a keyset (seek) predicate, so the cost of a page does not grow with its position in the book.
+     * Loans are projected into DTOs, so no managed entity ever holds a remaining amount that includes the
+     * payments not yet settled by {@link LoanLedger}; they are applied to the DTOs.
+     *
+     * @param afterId The id of the last loan on the previous page; 0 for the first page.
+     * @param size    The maximum number of loans to return, between 1 and {@value #MAX_PAGE_SIZE}.
+     * @return LoanPageDTO with the loans with an id greater than afterId, in id order, and the cursor of the
+     * next page if this one is full.
+     * @throws LoanValidationException if size is out of range.
+     */
+    @Transactional(readOnly = true)
+    @Timed(value = "loan.service", extraTags = {"method", "getLoansAfter"})
+    public LoanPageDTO getLoansAfter(long afterId, int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new LoanValidationException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        logger.debug("Retrieving {} loans after ID {}.", size, afterId);
+        List<Long> ids = loanRepository.findIdsAfter(afterId, PageRequest.of(0, size));
+        LoanPageDTO page = new LoanPageDTO();
+        page.setLoans(ids.isEmpty() ? new ArrayList<>()
+                : ledger.read(() -> applyUnsettled(loanRepository.findLoanDTOsByIdIn(ids))));
+        if (ids.size() == size) {
+            page.setNextCursor(LoanCursor.encode(ids.get(ids.size() - 1)));
+        }
+        return page;
     }
 
     /**
-     * Retrieve a list of all loans.
+     * Pass every loan, in id order, to the consumer without holding the book in memory.
+     * Rows are read through a database cursor in a read-only transaction and projected into DTOs,
+     * so nothing accumulates in the persistence context. Remaining amounts are read against a {@link LoanLedger.View},
+     * so the ledger is not held while the stream runs.
      *
-     * @return List of all loans.
+     * @param consumer Receives each loan.
      */
-    public List<Loan> getAllLoans() {
-        logger.info("Retrieving all loans.");
-        return loanRepository.findAll();
+    @Transactional(readOnly = true)
+    @Timed(value = "loan.service", extraTags = {"method", "streamAllLoans"})
+    public void streamAllLoans(Consumer<LoanDTO> consumer) {
+        logger.debug("Streaming all loans.");
+        AtomicLong rows = new AtomicLong();
+        ledger.readView(view -> {
+            try (Stream<LoanDTO> loans = loanRepository.streamAllLoanDTOs()) {
+                loans.forEach(loan -> {
+                    consumer.accept(view.applyUnsettled(loan));
+                    rows.incrementAndGet();
+                });
+            }
+            return null;
+        });
+        recordRows("streamAllLoans", rows.get(), rows.get());
     }
 
     /**
-     * Add a new loan entry.
+     * Add a new loan entry. Once saved, the cached lookups that may contain it are evicted
+     * and the change stamps of its customer and lender lists advance.
      *
      * @param loan The Loan object to be added.
      * @return The created Loan object.
-     * @throws LoanValidationException if payment date is greater than due date.
+     * @throws LoanValidationException if a date is missing or payment date is greater than due date.
      */
+    @Timed(value = "loan.service", extraTags = {"method", "addLoan"})
     public Loan addLoan(Loan loan) {
-        logger.info("Adding a new loan: {}", loan);
+        logger.debug("Adding a new loan with loan ID: {}", loan.getLoanId());
 
         // Validation logic, e.g., check payment date vs. due date
-        if (loan.getPaymentDate().after(loan.getDueDate())) {
-            logger.error("Payment date is greater than the due date for loan: {}", loan);
-            throw new LoanValidationException("Payment date cannot be greater than the due date");
+        try {
+            LoanValidator.validate(loan);
+        } catch (LoanValidationException ex) {
+            logger.warn("Rejected loan {}: {}", loan.getLoanId(), ex.getMessage());
+            throw ex;
         }
 
-        // Save the loan
-        Loan savedLoan = loanRepository.save(loan);
-        logger.info("Loan added successfully with ID: {}", savedLoan.getId());
+        // Save the loan and fold it into the materialized aggregates and the analytics snapshot
+        Loan savedLoan = aggregateStore.recordAdd(() -> loanSnapshot.recordAdd(() -> loanRepository.save(loan)));
+        cacheEvictor.evict(Collections.singletonList(savedLoan));
+        logger.debug("Loan added successfully with ID: {}", savedLoan.getId());
         return savedLoan;
     }
 
     /**
-     * Retrieve a loan by its unique loan ID.
+     * Retrieve a loan by its unique loan ID. The result is cached until the loan is added, paid or settled, under
+     * a key that carries the loan's change stamp, as for the lists. Identical concurrent lookups share one load; only that load runs in a read-only transaction, so the
+     * callers waiting for it hold no database connection.
      *
      * @param loanId The loan ID to search for.
-     * @return An Optional containing the Loan object if found, empty otherwise.
+     * @return An Optional containing the loan if found, empty otherwise.
      */
-    public Optional<Loan> getLoanByLoanId(String loanId) {
-        logger.info("Retrieving loan by loan ID: {}", loanId);
-        return loanRepository.findByLoanId(loanId);
+    @Cacheable(cacheNames = CacheConfig.LOAN_BY_ID, key = "@loanChangeTracker.loanCacheKey(#loanId)",
+            unless = "#result == null")
+    @Timed(value = "loan.service", extraTags = {"method", "getLoanByLoanId"})
+    public Optional<LoanDTO> getLoanByLoanId(String loanId) {
+        logger.debug("Retrieving loan by loan ID: {}", loanId);
+        return singleFlight.execute("getLoanByLoanId", loanId, () -> readOnly(
+                () -> ledger.read(() -> loanRepository.findLoanDTOByLoanId(loanId).map(ledger::applyUnsettled))));
     }
 
     /**
-     * Retrieve loans associated with a specific customer.
+     * Retrieve loans associated with a specific customer. The list is cached until a loan of the customer is added or paid.
+     * The cache key carries the customer's change stamp, so a list loaded across a change is never served after it.
      *
      * @param customerId The Customer ID to filter loans.
      * @return List of loans associated with the specified customer.
      */
-    public List<Loan> getLoansByCustomerId(String customerId) {
-        logger.info("Retrieving loans by customer ID: {}", customerId);
-        return loanRepository.findByCustomerId(customerId);
+    @Cacheable(cacheNames = CacheConfig.LOANS_BY_CUSTOMER, key = "@loanChangeTracker.customerCacheKey(#customerId)")
+    @Timed(value = "loan.service", extraTags = {"method", "getLoansByCustomerId"})
+    public List<LoanDTO> getLoansByCustomerId(String customerId) {
+        logger.debug("Retrieving loans by customer ID: {}", customerId);
+        return singleFlight.execute("getLoansByCustomerId", customerId, () -> readOnly(
+                () -> ledger.read(() -> applyUnsettled(loanRepository.findLoanDTOsByCustomerId(customerId)))));
     }
 
     /**
-     * Retrieve loans associated with a specific lender.
+     * Retrieve loans associated with a specific lender. The list is cached until a loan of the lender is added or paid.
      *
      * @param lenderId The Lender ID to filter loans.
      * @return List of loans associated with the specified lender.
      */
-    public List<Loan> getLoansByLenderId(String lenderId) {
-        logger.info("Retrieving loans by lender ID: {}", lenderId);
-        return loanRepository.findByLenderId(lenderId);
+    @Cacheable(cacheNames = CacheConfig.LOANS_BY_LENDER, key = "@loanChangeTracker.lenderCacheKey(#lenderId)")
+    @Timed(value = "loan.service", extraTags = {"method", "getLoansByLenderId"})
+    public List<LoanDTO> getLoansByLenderId(String lenderId) {
+        logger.debug("Retrieving loans by lender ID: {}", lenderId);
+        return singleFlight.execute("getLoansByLenderId", lenderId, () -> readOnly(
+                () -> ledger.read(() -> applyUnsettled(loanRepository.findLoanDTOsByLenderId(lenderId)))));
+    }
+
+    /**
+     * Retrieve the overdue loans of a lender: not cancelled, due before the given time and not fully repaid,
+     * earliest due first. Read through the lender and due-date index, so the cost follows the number of
+     * overdue loans rather than the size of the book. Not cached, since the result changes with asOf.
+     *
+     * @param lenderId The Lender ID to filter loans.
+     * @param asOf     The time the loans must be due before.
+     * @return List of the lender's overdue loans.
+     */
+    @Transactional(readOnly = true)
+    @Timed(value = "loan.service", extraTags = {"method", "getOverdueLoansByLenderId"})
+    public List<LoanDTO> getOverdueLoansByLenderId(String lenderId, Date asOf) {
+        logger.debug("Retrieving loans of lender ID {} overdue as of {}.", lenderId, asOf);
+        return ledger.read(() -> ledger.outstanding(loanRepository.findOverdueLoanDTOsByLenderId(lenderId, asOf)));
     }
 
     /**
      * Aggregate loans by lender, calculating the total remaining amount, total interest, and total penalty.
      *
-     * @return LoanAggregateDTO containing aggregated loan information by lender.
+     * @return LoanAggregateDTO containing aggregated loan information and the per-lender breakdown.
      */
+    @Timed(value = "loan.service", extraTags = {"method", "aggregateLoansByLender"})
     public LoanAggregateDTO aggregateLoansByLender() {
-        logger.info("Aggregating loans by lender.");
-        List<Loan> loans = loanRepository.findAll();
-        Map<String, List<Loan>> loansByLender = loans.stream()
-                .collect(Collectors.groupingBy(Loan::getLenderId));
-        LoanAggregateDTO aggregateDTO = createAggregateDTO("Lender", loansByLender);
-        logger.info("Aggregated loans by lender: {}", aggregateDTO);
+        // A call on this bypasses the proxy, so each no-argument overload carries its own @Timed
+        return aggregateLoansByLender(null, null);
+    }
+
+    /**
+     * Aggregate loans by lender, calculating the totals and the per-lender breakdown.
+     * Served from the materialized aggregates, so the cost is proportional to the number of lenders.
+     *
+     * @param sortBy The order of the breakdown (see {@link AggregateSort}); null sorts by lender ID.
+     * @param top    The maximum number of groups to return; null returns all groups.
+     * @return LoanAggregateDTO containing aggregated loan information by lender.
+     */
+    @Timed(value = "loan.service", extraTags = {"method", "aggregateLoansByLender"})
+    public LoanAggregateDTO aggregateLoansByLender(String sortBy, Integer top) {
+        logger.debug("Aggregating loans by lender.");
+        AggregateSort sort = resolveSort(sortBy, top);
+        LoanAggregateDTO aggregateDTO = singleFlight.execute("aggregateLoansByLender", sort + "|" + top,
+                () -> createAggregateDTO("Lender", aggregateStore.getGroups(Dimension.LENDER), sort, top));
+        logger.debug("Aggregated {} lender groups.", aggregateDTO.getGroupCount());
         return aggregateDTO;
     }
 
     /**
      * Aggregate loans by customer, calculating the total remaining amount, total interest, and total penalty.
      *
-     * @return LoanAggregateDTO containing aggregated loan information by customer.
+     * @return LoanAggregateDTO containing aggregated loan information and the per-customer breakdown.
      */
+    @Timed(value = "loan.service", extraTags = {"method", "aggregateLoansByCustomerId"})
     public LoanAggregateDTO aggregateLoansByCustomerId() {
-        logger.info("Aggregating loans by customer.");
-        List<Loan> loans = loanRepository.findAll();
-        Map<String, List<Loan>> loansByCustomer = loans.stream()
-                .collect(Collectors.groupingBy(Loan::getCustomerId));
-        LoanAggregateDTO aggregateDTO = createAggregateDTO("Customer", loansByCustomer);
-        logger.info("Aggregated loans by customer: {}", aggregateDTO);
+        return aggregateLoansByCustomerId(null, null);
+    }
+
+    /**
+     * Aggregate loans by customer, calculating the totals and the per-customer breakdown.
+     * Served from the materialized aggregates, so the cost is proportional to the number of customers.
+     *
+     * @param sortBy The order of the breakdown (see {@link AggregateSort}); null sorts by customer ID.
+     * @param top    The maximum number of groups to return; null returns all groups.
+     * @return LoanAggregateDTO containing aggregated loan information by customer.
+     */
+    @Timed(value = "loan.service", extraTags = {"method", "aggregateLoansByCustomerId"})
+    public LoanAggregateDTO aggregateLoansByCustomerId(String sortBy, Integer top) {
+        logger.debug("Aggregating loans by customer.");
+        AggregateSort sort = resolveSort(sortBy, top);
+        LoanAggregateDTO aggregateDTO = singleFlight.execute("aggregateLoansByCustomerId", sort + "|" + top,
+                () -> createAggregateDTO("Customer", aggregateStore.getGroups(Dimension.CUSTOMER), sort, top));
+        logger.debug("Aggregated {} customer groups.", aggregateDTO.getGroupCount());
         return aggregateDTO;
     }
 
     /**
      * Aggregate loans by interest rate, calculating the total remaining amount, total interest, and total penalty.
      *
-     * @return LoanAggregateDTO containing aggregated loan information by interest rate.
+     * @return LoanAggregateDTO containing aggregated loan information and the per-rate breakdown.
      */
+    @Timed(value = "loan.service", extraTags = {"method", "aggregateLoansByInterest"})
     public LoanAggregateDTO aggregateLoansByInterest() {
-        logger.info("Aggregating loans by interest.");
-        List<Loan> loans = loanRepository.findAll();
-        Map<Double, List<Loan>> loansByInterest = loans.stream()
-                .collect(Collectors.groupingBy(Loan::getInterestPerDay));
-        LoanAggregateDTO aggregateDTO = createAggregateDTO("Interest", loansByInterest);
-        logger.info("Aggregated loans by interest: {}", aggregateDTO);
+        return aggregateLoansByInterest(null, null);
+    }
+
+    /**
+     * Aggregate loans by interest rate, calculating the totals and the per-rate breakdown.
+     * Served from the materialized aggregates, so the cost is proportional to the number of distinct rates.
+     *
+     * @param sortBy The order of the breakdown (see {@link AggregateSort}); null sorts by interest rate.
+     * @param top    The maximum number of groups to return; null returns all groups.
+     * @return LoanAggregateDTO containing aggregated loan information by interest rate.
+     */
+    @Timed(value = "loan.service", extraTags = {"method", "aggregateLoansByInterest"})
+    public LoanAggregateDTO aggregateLoansByInterest(String sortBy, Integer top) {
+        logger.debug("Aggregating loans by interest.");
+        AggregateSort sort = resolveSort(sortBy, top);
+        LoanAggregateDTO aggregateDTO = singleFlight.execute("aggregateLoansByInterest", sort + "|" + top,
+                () -> createAggregateDTO("Interest", aggregateStore.getGroups(Dimension.INTEREST), sort, top));
+        logger.debug("Aggregated {} interest groups.", aggregateDTO.getGroupCount());
         return aggregateDTO;
     }
 
-    private LoanAggregateDTO createAggregateDTO(String groupBy, Map<?, List<Loan>> loansByGroup) {
+    /**
+     * Recompute the aggregates from the repository and report any drift from the materialized ones.
+     *
+     * @param repair Whether to replace the materialized aggregates when drift is found.
+     * @return AggregateConsistencyDTO describing the groups that differ.
+     */
+    @Timed(value = "loan.service", extraTags = {"method", "checkAggregateConsistency"})
+    public AggregateConsistencyDTO checkAggregateConsistency(boolean repair) {
+        logger.info("Checking materialized aggregates against the repository (repair={}).", repair);
+        return aggregateStore.verify(repair);
+    }
+
+    private AggregateSort resolveSort(String sortBy, Integer top) {
+        if (top != null && top < 1) {
+            throw new LoanValidationException("top must be a positive number");
+        }
+        return AggregateSort.fromParameter(sortBy);
+    }
+
+    private LoanAggregateDTO createAggregateDTO(String groupBy, List<LoanGroupTotals> groupTotals,
+                                                AggregateSort sort, Integer top) {
         LoanAggregateDTO aggregateDTO = new LoanAggregateDTO();
         aggregateDTO.setGroupBy(groupBy);
 
         double totalRemainingAmount = 0.0;
         double totalInterest = 0.0;
         double totalPenalty = 0.0;
+        List<LoanGroupDTO> groups = new ArrayList<>(groupTotals.size());
 
-        for (List<Loan> loans : loansByGroup.values()) {
-            for (Loan loan : loans) {
-                totalRemainingAmount += loan.getRemainingAmount();
-                totalInterest += (loan.getInterestPerDay() * loan.getAmount());
-                totalPenalty += (loan.getPenaltyPerDay() * loan.getAmount());
-            }
+        for (LoanGroupTotals totals : groupTotals) {
+            totalRemainingAmount += totals.getTotalRemainingAmount();
+            totalInterest += totals.getTotalInterest();
+            totalPenalty += totals.getTotalPenalty();
+
+            LoanGroupDTO group = new LoanGroupDTO();
+            group.setGroupKey(String.valueOf(totals.getGroupKey()));
+            group.setLoanCount(totals.getLoanCount());
+            group.setTotalRemainingAmount(totals.getTotalRemainingAmount());
+            group.setTotalInterest(totals.getTotalInterest());
+            group.setTotalPenalty(totals.getTotalPenalty());
+            groups.add(group);
         }
 
+        groups.sort(sort.getComparator());
         aggregateDTO.setTotalRemainingAmount(totalRemainingAmount);
         aggregateDTO.setTotalInterest(totalInterest);
         aggregateDTO.setTotalPenalty(totalPenalty);
+        aggregateDTO.setGroupCount(groups.size());
+        aggregateDTO.setGroups(top != null && top < groups.size() ? new ArrayList<>(groups.subList(0, top)) : groups);
+        recordRows("aggregateBy" + groupBy, groups.size(), aggregateDTO.getGroups().size());
 
         return aggregateDTO;
     }
+
+    private <T> T readOnly(Supplier<T> load) {
+        return readOnlyTransaction.execute(status -> load.get());
+    }
+
+    private List<LoanDTO> applyUnsettled(List<LoanDTO> loans) {
+        for (LoanDTO loan : loans) {
+            ledger.applyUnsettled(loan);
+        }
+        return loans;
+    }
+
+    // Rows read versus rows returned by the last call of each bulk read, published as gauges
+    private void recordRows(String operation, long scanned, long returned) {
+        rowGauge("loan.rows.scanned", operation).set(scanned);
+        rowGauge("loan.rows.returned", operation).set(returned);
+    }
+
+    private AtomicLong rowGauge(String name, String operation) {
+        return rowGauges.computeIfAbsent(name + ":" + operation,
+                key -> meterRegistry.gauge(name, Tags.of("operation", operation), new AtomicLong()));
+    }
 }
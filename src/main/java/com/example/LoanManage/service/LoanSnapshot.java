@@ -0,0 +1,337 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Read-optimized, columnar copy of the loan book for analytics.
+ * <p>
+ * Every loan is one index into a set of primitive arrays: customer and lender ids are
+ * dictionary-encoded as int codes, amounts and rates are doubles and dates are epoch days (UTC),
+ * about 60 bytes per loan against several hundred for a Loan entity. Scans over {@link Columns}
+ * are plain indexed loops over those arrays.
+ * <p>
+ * The snapshot is built from the repository at startup and rebuilt on a schedule; in between,
+ * loans saved through {@link #recordAdd} and {@link #recordAddAll} are appended. As in
+ * {@link LoanAggregateStore}, writes hold the read side of a lock and rebuilds the write side.
+ * Readers take no lock: {@link #columns()} returns an immutable view, and appends only write
+ * past the end of every published view before publishing a longer one.
+ */
+@Component
+public class LoanSnapshot {
+    public static final int NO_CODE = -1;
+    static final long MILLIS_PER_DAY = 86_400_000L;
+    /** Epoch day stored for a missing date; it sorts after every real date. */
+    public static final int NO_DATE = Integer.MAX_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final LoanRepository loanRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Logger logger = LoggerFactory.getLogger(LoanSnapshot.class);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object buildMonitor = new Object();
+    private Builder builder; // Guarded by this
+    private volatile Columns columns;
+
+    @Autowired
+    public LoanSnapshot(LoanRepository loanRepository, PlatformTransactionManager transactionManager) {
+        this.loanRepository = loanRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Build the snapshot when the application starts so the first analytics request does not pay for it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        columns();
+    }
+
+    /**
+     * Rebuild the snapshot from the repository, picking up changes that bypassed {@link #recordAdd}.
+     */
+    @Scheduled(fixedDelayString = "${loan.snapshot.refresh-interval-ms:900000}",
+            initialDelayString = "${loan.snapshot.refresh-interval-ms:900000}")
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            long startNanos = System.nanoTime();
+            Builder loaded = readOnlyTransaction.execute(status -> {
+                try (Stream<Object[]> rows = loanRepository.streamSnapshotColumns()) {
+                    Builder rowBuilder = new Builder(INITIAL_CAPACITY);
+                    rows.forEach(rowBuilder::append);
+                    return rowBuilder;
+                }
+            });
+            synchronized (this) {
+                builder = loaded;
+                columns = loaded.view();
+            }
+            logger.info("Built loan snapshot: {} loans, {} customers, {} lenders in {} ms.", columns.size,
+                    columns.customerCount, columns.lenderCount, (System.nanoTime() - startNanos) / 1_000_000);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The current view of the loan book, building it first if needed.
+     */
+    public Columns columns() {
+        Columns current = columns;
+        if (current == null) {
+            // A separate monitor: writers waiting in append() hold the read lock, which rebuild() waits for
+            synchronized (buildMonitor) {
+                if (columns == null) {
+                    rebuild();
+                }
+                current = columns;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Persist a new loan and append it to the snapshot.
+     *
+     * @param save The write that persists the loan and returns the saved entity.
+     * @return The saved loan.
+     */
+    public Loan recordAdd(Supplier<Loan> save) {
+        lock.readLock().lock();
+        try {
+            Loan savedLoan = save.get();
+            append(Collections.singletonList(savedLoan));
+            return savedLoan;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persist a batch of new loans and append them to the snapshot.
+     *
+     * @param save The write that persists the loans and returns the saved entities.
+     * @return The saved loans.
+     */
+    public List<Loan> recordAddAll(Supplier<List<Loan>> save) {
+        lock.readLock().lock();
+        try {
+            List<Loan> savedLoans = save.get();
+            append(savedLoans);
+            return savedLoans;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private synchronized void append(List<Loan> loans) {
+        // Not built yet: the loans are already committed and will be read by the first build
+        if (builder == null) {
+            return;
+        }
+        for (Loan loan : loans) {
+            builder.append(loan.getId(), loan.getCustomerId(), loan.getLenderId(), loan.getAmount(),
+                    loan.getRemainingAmount(), loan.getInterestPerDay(), loan.getPenaltyPerDay(),
+                    loan.getPaymentDate(), loan.getDueDate(), loan.isCancelled());
+        }
+        columns = builder.view();
+    }
+
+    static int toEpochDay(Date date) {
+        return date == null ? NO_DATE : Math.toIntExact(Math.floorDiv(date.getTime(), MILLIS_PER_DAY));
+    }
+
+    /**
+     * An immutable view of the first {@link #size()} loans. Array slots at and past {@code size} belong
+     * to later views and must not be read.
+     */
+    public static final class Columns {
+        final int size;
+        final long[] id;
+        final int[] customerCode;
+        final int[] lenderCode;
+        final double[] amount;
+        final double[] remainingAmount;
+        final double[] interestPerDay;
+        final double[] penaltyPerDay;
+        final int[] paymentDay;
+        final int[] dueDay;
+        final boolean[] cancelled;
+        final int customerCount;
+        final int lenderCount;
+        private final String[] customerIds;
+        private final String[] lenderIds;
+        private final Dictionary customers;
+        private final Dictionary lenders;
+
+        private Columns(Builder builder) {
+            size = builder.size;
+            id = builder.id;
+            customerCode = builder.customerCode;
+            lenderCode = builder.lenderCode;
+            amount = builder.amount;
+            remainingAmount = builder.remainingAmount;
+            interestPerDay = builder.interestPerDay;
+            penaltyPerDay = builder.penaltyPerDay;
+            paymentDay = builder.paymentDay;
+            dueDay = builder.dueDay;
+            cancelled = builder.cancelled;
+            customerCount = builder.customers.size;
+            lenderCount = builder.lenders.size;
+            customerIds = builder.customers.values;
+            lenderIds = builder.lenders.values;
+            customers = builder.customers;
+            lenders = builder.lenders;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param customerId A customer id.
+         * @return Its code in this view, or {@link #NO_CODE} if no loan in this view has that customer.
+         */
+        public int customerCode(String customerId) {
+            return customers.codeOf(customerId, customerCount);
+        }
+
+        /**
+         * @param lenderId A lender id.
+         * @return Its code in this view, or {@link #NO_CODE} if no loan in this view has that lender.
+         */
+        public int lenderCode(String lenderId) {
+            return lenders.codeOf(lenderId, lenderCount);
+        }
+
+        public String customerId(int code) {
+            return code == NO_CODE ? null : customerIds[code];
+        }
+
+        public String lenderId(int code) {
+            return code == NO_CODE ? null : lenderIds[code];
+        }
+    }
+
+    /**
+     * Append-only string dictionary. Codes are assigned in first-seen order and never change.
+     */
+    private static final class Dictionary {
+        private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+        private String[] values = new String[64];
+        private int size;
+
+        private int encode(String value) {
+            if (value == null) {
+                return NO_CODE;
+            }
+            Integer code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            codes.put(value, size);
+            return size++;
+        }
+
+        private int codeOf(String value, int viewSize) {
+            Integer code = value == null ? null : codes.get(value);
+            return code != null && code < viewSize ? code : NO_CODE;
+        }
+    }
+
+    /**
+     * Growable columns owned by the single writer.
+     */
+    private static final class Builder {
+        private final Dictionary customers = new Dictionary();
+        private final Dictionary lenders = new Dictionary();
+        private int size;
+        private long[] id;
+        private int[] customerCode;
+        private int[] lenderCode;
+        private double[] amount;
+        private double[] remainingAmount;
+        private double[] interestPerDay;
+        private double[] penaltyPerDay;
+        private int[] paymentDay;
+        private int[] dueDay;
+        private boolean[] cancelled;
+
+        private Builder(int capacity) {
+            id = new long[capacity];
+            customerCode = new int[capacity];
+            lenderCode = new int[capacity];
+            amount = new double[capacity];
+            remainingAmount = new double[capacity];
+            interestPerDay = new double[capacity];
+            penaltyPerDay = new double[capacity];
+            paymentDay = new int[capacity];
+            dueDay = new int[capacity];
+            cancelled = new boolean[capacity];
+        }
+
+        private void append(Object[] row) {
+            append((Long) row[0], (String) row[1], (String) row[2], (Double) row[3], (Double) row[4],
+                    (Double) row[5], (Double) row[6], (Date) row[7], (Date) row[8], (Boolean) row[9]);
+        }
+
+        private void append(Long loanId, String customerId, String lenderId, double loanAmount, double remaining,
+                            double interestRate, double penaltyRate, Date paymentDate, Date dueDate,
+                            boolean isCancelled) {
+            if (size == id.length) {
+                grow(size * 2);
+            }
+            id[size] = loanId;
+            customerCode[size] = customers.encode(customerId);
+            lenderCode[size] = lenders.encode(lenderId);
+            amount[size] = loanAmount;
+            remainingAmount[size] = remaining;
+            interestPerDay[size] = interestRate;
+            penaltyPerDay[size] = penaltyRate;
+            paymentDay[size] = toEpochDay(paymentDate);
+            dueDay[size] = toEpochDay(dueDate);
+            cancelled[size] = isCancelled;
+            size++;
+        }
+
+        private void grow(int capacity) {
+            id = Arrays.copyOf(id, capacity);
+            customerCode = Arrays.copyOf(customerCode, capacity);
+            lenderCode = Arrays.copyOf(lenderCode, capacity);
+            amount = Arrays.copyOf(amount, capacity);
+            remainingAmount = Arrays.copyOf(remainingAmount, capacity);
+            interestPerDay = Arrays.copyOf(interestPerDay, capacity);
+            penaltyPerDay = Arrays.copyOf(penaltyPerDay, capacity);
+            paymentDay = Arrays.copyOf(paymentDay, capacity);
+            dueDay = Arrays.copyOf(dueDay, capacity);
+            cancelled = Arrays.copyOf(cancelled, capacity);
+        }
+
+        private Columns view() {
+            return new Columns(this);
+        }
+    }
+}
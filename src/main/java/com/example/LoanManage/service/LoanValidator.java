@@ -0,0 +1,28 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.exception.LoanValidationException;
+
+/**
+ * Validation rules shared by the single-loan and bulk ingestion paths.
+ */
+public final class LoanValidator {
+
+    private LoanValidator() {
+    }
+
+    /**
+     * Check a loan before it is persisted.
+     *
+     * @param loan The loan to check.
+     * @throws LoanValidationException if a date is missing or the payment date is after the due date.
+     */
+    public static void validate(Loan loan) {
+        if (loan.getPaymentDate() == null || loan.getDueDate() == null) {
+            throw new LoanValidationException("Payment date and due date are required");
+        }
+        if (loan.getPaymentDate().after(loan.getDueDate())) {
+            throw new LoanValidationException("Payment date cannot be greater than the due date");
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.config.AsyncConfig;
+import com.example.LoanManage.exception.LoanQueryTimeoutException;
+import com.example.LoanManage.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs expensive request work off the servlet threads, with a concurrency limit and a timeout per
+ * kind of workload. A request that finds its workload at the limit, or the pool full, is rejected
+ * at once with {@link ServiceOverloadedException} instead of queueing behind the others.
+ * <p>
+ * Limits and timeouts default to the values in {@link Workload} and can be overridden with
+ * {@code loan.async.<workload>.max-concurrent} and {@code loan.async.<workload>.timeout-ms}.
+ * A timeout only fails the response: the work keeps its permit until it really finishes, so
+ * the limit always reflects what is running.
+ * <p>
+ * BATCH work runs on a pool of its own, so that exports and imports never hold the threads that
+ * the other workloads, and the MVC async requests, run on.
+ */
+@Component
+public class LoanWorkloadExecutor {
+
+    public enum Workload {
+        AGGREGATE("aggregate", 4, 10_000),
+        LIST_ALL("list-all", 2, 60_000),
+        QUERY("query", 4, 15_000),
+        ACCRUAL("accrual", 1, 60_000),
+        // Taken with acquire() on the request thread, so the timeout is not applied
+        BULK("bulk", 2, 300_000),
+        JOB("job", 2, 3_600_000),
+        // Exports and imports, on the batch executor
+        BATCH("batch", 2, 3_600_000);
+
+        private final String property;
+        private final int defaultMaxConcurrent;
+        private final long defaultTimeoutMillis;
+
+        Workload(String property, int defaultMaxConcurrent, long defaultTimeoutMillis) {
+            this.property = property;
+            this.defaultMaxConcurrent = defaultMaxConcurrent;
+            this.defaultTimeoutMillis = defaultTimeoutMillis;
+        }
+    }
+
+    private final Executor executor;
+    private final Executor batchExecutor;
+    private final Map<Workload, Semaphore> permits = new EnumMap<>(Workload.class);
+    private final Map<Workload, Long> timeoutMillis = new EnumMap<>(Workload.class);
+    private final Map<Workload, Counter> rejections = new EnumMap<>(Workload.class);
+
+    @Autowired
+    public LoanWorkloadExecutor(@Qualifier(AsyncConfig.WORKLOAD_EXECUTOR) Executor executor,
+                                @Qualifier(AsyncConfig.BATCH_EXECUTOR) Executor batchExecutor,
+                                Environment environment, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.batchExecutor = batchExecutor;
+        for (Workload workload : Workload.values()) {
+            String prefix = "loan.async." + workload.property;
+            int maxConcurrent = environment.getProperty(prefix + ".max-concurrent", Integer.class,
+                    workload.defaultMaxConcurrent);
+            Semaphore semaphore = new Semaphore(maxConcurrent);
+            permits.put(workload, semaphore);
+            timeoutMillis.put(workload, environment.getProperty(prefix + ".timeout-ms", Long.class,
+                    workload.defaultTimeoutMillis));
+            Tags tags = Tags.of("workload", workload.property);
+            meterRegistry.gauge("loan.workload.in.flight", tags, semaphore,
+                    s -> maxConcurrent - s.availablePermits());
+            rejections.put(workload, Counter.builder("loan.workload.rejected")
+                    .description("Requests rejected because their workload was at its concurrency limit")
+                    .tags(tags)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Run work on the workload pool, or the batch pool for {@link Workload#BATCH}.
+     *
+     * @param workload The kind of work, which determines the concurrency limit and timeout.
+     * @param work     The work to run.
+     * @return A future of the result. It fails with LoanQueryTimeoutException if the work exceeds its timeout.
+     * @throws ServiceOverloadedException if the workload is at its limit or the pool is full.
+     */
+    public <T> CompletableFuture<T> submit(Workload workload, Supplier<T> work) {
+        Permit permit = acquire(workload);
+        CompletableFuture<T> future;
+        try {
+            // The permit is released before the caller sees the result
+            future = CompletableFuture.supplyAsync(work, workload == Workload.BATCH ? batchExecutor : executor)
+                    .whenComplete((result, ex) -> permit.close());
+        } catch (RejectedExecutionException ex) {
+            permit.close();
+            rejections.get(workload).increment();
+            throw new ServiceOverloadedException("Too many requests in progress; retry later");
+        }
+        long timeout = timeoutMillis.get(workload);
+        // Time out a copy, so that the work itself keeps its permit until it really ends
+        return future.copy()
+                .orTimeout(timeout, TimeUnit.MILLISECONDS)
+                .exceptionally(ex -> {
+                    throw translate(ex, workload, timeout);
+                });
+    }
+
+    /**
+     * Take a slot of a workload for work the caller runs itself, e.g. writing a streaming response.
+     *
+     * @param workload The kind of work.
+     * @return The permit; close it when the work ends.
+     * @throws ServiceOverloadedException if the workload is at its limit.
+     */
+    public Permit acquire(Workload workload) {
+        Semaphore semaphore = permits.get(workload);
+        if (!semaphore.tryAcquire()) {
+            rejections.get(workload).increment();
+            throw new ServiceOverloadedException("Too many " + workload.property + " requests in progress; retry later");
+        }
+        return new Permit(semaphore);
+    }
+
+    private static RuntimeException translate(Throwable ex, Workload workload, long timeout) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof TimeoutException) {
+            return new LoanQueryTimeoutException(
+                    "The " + workload.property + " request did not finish within " + timeout + " ms");
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+    }
+
+    /**
+     * One running request of a workload. Closing it more than once releases the slot once.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.LoanManage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical calls into one: the first caller for a key runs the call, and callers
+ * arriving with the same key while it is in flight wait for it and receive the same result or exception.
+ * Nothing is kept once the call returns, so this is not a cache; it only removes duplicate concurrent work.
+ * <p>
+ * Every call is counted in {@code loan.singleflight.calls}, tagged with the operation and with
+ * outcome {@code executed} or {@code collapsed}.
+ */
+public final class SingleFlight {
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public SingleFlight(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Run the call, or join the identical call already in flight.
+     *
+     * @param operation The operation name, used in the key and as a metric tag.
+     * @param key       The arguments that make two calls of the operation identical.
+     * @param call      The call to run.
+     * @return The result of the call. Results are shared between callers and must not be modified.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String operation, Object key, Supplier<T> call) {
+        String flightKey = operation + ':' + key;
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(flightKey, flight);
+        if (leader != null) {
+            counter(operation, "collapsed").increment();
+            return (T) await(leader);
+        }
+
+        counter(operation, "executed").increment();
+        try {
+            T result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(flightKey, flight);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> leader) {
+        try {
+            return leader.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private Counter counter(String operation, String outcome) {
+        return counters.computeIfAbsent(operation + ':' + outcome, key -> Counter.builder("loan.singleflight.calls")
+                .description("Reads executed, or collapsed into an identical read already in flight")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+}
@@ -3,7 +3,7 @@ package com.example.LoanManage;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "loan.book-image.path=")
 class LoanManageApplicationTests {
 
 	@Test
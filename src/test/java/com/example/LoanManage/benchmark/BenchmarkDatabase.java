@@ -0,0 +1,51 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.LoanManageApplication;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.support.SyntheticLoans;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts the application without a web server on a private in-memory H2 database
+ * and fills the loan table with {@link SyntheticLoans} through JDBC batches, bypassing the service layer.
+ */
+final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+    }
+
+    static ConfigurableApplicationContext start(String databaseName) {
+        return new SpringApplicationBuilder(LoanManageApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1",
+                        "loan.book-image.path=", "logging.level.root=WARN")
+                .run();
+    }
+
+    static void seedLoans(JdbcTemplate jdbcTemplate, int count) {
+        String sql = "INSERT INTO loan (id, loan_id, customer_id, lender_id, amount, remaining_amount, payment_date, "
+                + "interest_per_day, due_date, penalty_per_day, cancelled, version, last_modified) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        List<Object[]> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Loan loan = SyntheticLoans.loan(i);
+            batch.add(new Object[]{loan.getId(), loan.getLoanId(), loan.getCustomerId(), loan.getLenderId(),
+                    loan.getAmount(), loan.getRemainingAmount(), loan.getPaymentDate(), loan.getInterestPerDay(),
+                    loan.getDueDate(), loan.getPenaltyPerDay(), loan.isCancelled(), loan.getVersion(),
+                    loan.getLastModified()});
+            if (batch.size() == 10_000) {
+                jdbcTemplate.batchUpdate(sql, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, batch);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.dto.LoanGroupTotals;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.service.LoanRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the pushed-down GROUP BY aggregation against the original
+ * findAll() + Collectors.groupingBy path on an H2 table of {@code loanCount} rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoanAggregationBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int loanCount;
+
+    private ConfigurableApplicationContext context;
+    private LoanRepository loanRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkDatabase.start("aggregation");
+        loanRepository = context.getBean(LoanRepository.class);
+        BenchmarkDatabase.seedLoans(context.getBean(JdbcTemplate.class), loanCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<LoanGroupTotals> pushedDownGroupBy() {
+        return loanRepository.sumByLender();
+    }
+
+    @Benchmark
+    public double[] inMemoryGroupingBy() {
+        Map<String, List<Loan>> loansByLender = loanRepository.findAll().stream()
+                .collect(Collectors.groupingBy(Loan::getLenderId));
+        double[] totals = new double[3];
+        for (List<Loan> loans : loansByLender.values()) {
+            for (Loan loan : loans) {
+                totals[0] += loan.getRemainingAmount();
+                totals[1] += loan.getInterestPerDay() * loan.getAmount();
+                totals[2] += loan.getPenaltyPerDay() * loan.getAmount();
+            }
+        }
+        return totals;
+    }
+}
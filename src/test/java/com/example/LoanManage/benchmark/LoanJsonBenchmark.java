@@ -0,0 +1,56 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.mapper.LoanJsonSerializers;
+import com.example.LoanManage.support.SyntheticLoans;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of List&lt;LoanDTO&gt; as the list endpoints produce it,
+ * with the ObjectMapper configured the way Spring Boot configures it (ISO dates),
+ * through the reflective bean serializer and through {@link LoanJsonSerializers}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoanJsonBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int size;
+
+    private ObjectMapper objectMapper;
+    private ObjectMapper handWrittenMapper;
+    private List<LoanDTO> loans;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        handWrittenMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .serializers(new LoanJsonSerializers.LoanDTOSerializer())
+                .build();
+        loans = SyntheticLoans.dtos(size);
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(loans);
+    }
+
+    @Benchmark
+    public byte[] serializeListHandWritten() throws JsonProcessingException {
+        return handWrittenMapper.writeValueAsBytes(loans);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.LoanManage.benchmark;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.support.SyntheticLoans;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the logging done per addLoan request: the old style (the whole loan rendered
+ * with the Lombok toString twice, written synchronously to a file) against the new style (loanId,
+ * latency and outcome only, through an AsyncAppender that never blocks).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+public class LoanLoggingBenchmark {
+
+    private Logger syncLogger;
+    private Logger asyncLogger;
+    private LoanDTO loanDTO;
+    private Loan loan;
+    private AsyncAppender asyncAppender;
+    private FileAppender<ILoggingEvent> syncFile;
+    private FileAppender<ILoggingEvent> asyncFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        syncFile = fileAppender(context, "sync");
+        asyncFile = fileAppender(context, "async");
+
+        asyncAppender = new AsyncAppender();
+        asyncAppender.setContext(context);
+        asyncAppender.setQueueSize(8192);
+        asyncAppender.setNeverBlock(true);
+        asyncAppender.setIncludeCallerData(false);
+        asyncAppender.addAppender(asyncFile);
+        asyncAppender.start();
+
+        syncLogger = logger(context, "benchmark.sync");
+        syncLogger.addAppender(syncFile);
+        asyncLogger = logger(context, "benchmark.async");
+        asyncLogger.addAppender(asyncAppender);
+
+        loanDTO = SyntheticLoans.dto(7);
+        loan = SyntheticLoans.loan(7);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        asyncAppender.stop();
+        syncFile.stop();
+        asyncFile.stop();
+    }
+
+    @Benchmark
+    public void wholeObjectSynchronous() {
+        syncLogger.info("Received request to create a new loan: {}", loanDTO);
+        syncLogger.info("Adding a new loan: {}", loanDTO);
+        syncLogger.info("Loan added successfully with ID: {}", loan.getId());
+    }
+
+    @Benchmark
+    public void minimalFieldsAsynchronous() {
+        asyncLogger.info("method={} uri={} status={} latencyMs={} outcome={} loanId={}",
+                "POST", "/loans/add", 201, 3, "ok", loan.getLoanId());
+    }
+
+    private static Logger logger(LoggerContext context, String name) {
+        Logger logger = context.getLogger(name);
+        logger.setLevel(ch.qos.logback.classic.Level.INFO);
+        logger.setAdditive(false);
+        return logger;
+    }
+
+    private static FileAppender<ILoggingEvent> fileAppender(LoggerContext context, String name) throws IOException {
+        File file = File.createTempFile("loan-logging-" + name, ".log");
+        file.deleteOnExit();
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d %-5level [%thread] %logger - %msg%n");
+        encoder.start();
+        FileAppender<ILoggingEvent> appender = new FileAppender<>();
+        appender.setContext(context);
+        appender.setFile(file.getAbsolutePath());
+        appender.setEncoder(encoder);
+        appender.start();
+        return appender;
+    }
+}
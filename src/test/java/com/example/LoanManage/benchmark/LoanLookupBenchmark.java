@@ -0,0 +1,73 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.dto.LoanGroupTotals;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.service.LoanRepository;
+import com.example.LoanManage.support.SyntheticLoans;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency by customer and lender, and the lender GROUP BY, with and without
+ * the secondary indexes declared on Loan. The unindexed case drops every secondary index on Loan after seeding,
+ * including the due-date ones, since idx_loan_lender_due also serves the lookup by lender.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoanLookupBenchmark {
+
+    @Param({"1000000", "3000000"})
+    private int loanCount;
+
+    @Param({"true", "false"})
+    private boolean indexed;
+
+    private ConfigurableApplicationContext context;
+    private LoanRepository loanRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkDatabase.start("lookup");
+        loanRepository = context.getBean(LoanRepository.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        BenchmarkDatabase.seedLoans(jdbcTemplate, loanCount);
+        if (!indexed) {
+            jdbcTemplate.execute("DROP INDEX idx_loan_customer_totals");
+            jdbcTemplate.execute("DROP INDEX idx_loan_lender_totals");
+            jdbcTemplate.execute("DROP INDEX idx_loan_interest_totals");
+            jdbcTemplate.execute("DROP INDEX idx_loan_due");
+            jdbcTemplate.execute("DROP INDEX idx_loan_lender_due");
+        }
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Loan> findByCustomerId() {
+        return loanRepository.findByCustomerId("C" + ThreadLocalRandom.current().nextInt(SyntheticLoans.CUSTOMERS));
+    }
+
+    @Benchmark
+    public List<Loan> findByLenderId() {
+        return loanRepository.findByLenderId("LEN" + ThreadLocalRandom.current().nextInt(SyntheticLoans.LENDERS));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<LoanGroupTotals> sumByLender() {
+        return loanRepository.sumByLender();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.mapper.LoanMapper;
+import com.example.LoanManage.support.SyntheticLoans;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one LoanMapper conversion in each direction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoanMapperBenchmark {
+
+    private Loan loan;
+    private LoanDTO loanDTO;
+
+    @Setup
+    public void setUp() {
+        loan = SyntheticLoans.loan(42);
+        loanDTO = SyntheticLoans.dto(42);
+    }
+
+    @Benchmark
+    public LoanDTO toDTO() {
+        return LoanMapper.toDTO(loan);
+    }
+
+    @Benchmark
+    public Loan toEntity() {
+        return LoanMapper.toEntity(loanDTO);
+    }
+}
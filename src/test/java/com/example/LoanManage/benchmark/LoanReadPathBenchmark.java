@@ -0,0 +1,99 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.mapper.LoanMapper;
+import com.example.LoanManage.service.LoanRepository;
+import com.example.LoanManage.support.SyntheticLoans;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Read endpoints served from managed Loan entities mapped to LoanDTO, versus the LoanDTO constructor
+ * projections. The entity path is measured in a read-write transaction (as the endpoints ran before)
+ * and in a read-only one. Run with the gc profiler (the benchmark profile default) to compare
+ * gc.alloc.rate.norm, the bytes allocated per call, alongside latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoanReadPathBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int loanCount;
+
+    private ConfigurableApplicationContext context;
+    private LoanRepository loanRepository;
+    private TransactionTemplate readWrite;
+    private TransactionTemplate readOnly;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkDatabase.start("readpath");
+        loanRepository = context.getBean(LoanRepository.class);
+        BenchmarkDatabase.seedLoans(context.getBean(JdbcTemplate.class), loanCount);
+        PlatformTransactionManager transactionManager = context.getBean(PlatformTransactionManager.class);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<LoanDTO> lenderEntity() {
+        String lenderId = randomLender();
+        return readWrite.execute(status -> toDTOs(loanRepository.findByLenderId(lenderId)));
+    }
+
+    @Benchmark
+    public List<LoanDTO> lenderEntityReadOnly() {
+        String lenderId = randomLender();
+        return readOnly.execute(status -> toDTOs(loanRepository.findByLenderId(lenderId)));
+    }
+
+    @Benchmark
+    public List<LoanDTO> lenderProjection() {
+        String lenderId = randomLender();
+        return readOnly.execute(status -> loanRepository.findLoanDTOsByLenderId(lenderId));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<LoanDTO> allEntity() {
+        return readWrite.execute(status -> toDTOs(loanRepository.findAll()));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<LoanDTO> allProjection() {
+        return readOnly.execute(status -> {
+            try (Stream<LoanDTO> loans = loanRepository.streamAllLoanDTOs()) {
+                return loans.collect(Collectors.toList());
+            }
+        });
+    }
+
+    private static String randomLender() {
+        return "LEN" + ThreadLocalRandom.current().nextInt(SyntheticLoans.LENDERS);
+    }
+
+    private static List<LoanDTO> toDTOs(List<Loan> loans) {
+        return loans.stream().map(LoanMapper::toDTO).collect(Collectors.toList());
+    }
+}
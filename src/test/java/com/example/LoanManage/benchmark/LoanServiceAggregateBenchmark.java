@@ -0,0 +1,77 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.service.LoanAggregateStore;
+import com.example.LoanManage.service.LoanCacheEvictor;
+import com.example.LoanManage.service.LoanLedger;
+import com.example.LoanManage.service.LoanRepository;
+import com.example.LoanManage.service.LoanService;
+import com.example.LoanManage.service.LoanSnapshot;
+import com.example.LoanManage.support.SyntheticLoans;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory aggregation over {@code loanCount} synthetic loans, without a database.
+ * <p>
+ * {@code foldIntoStore} is the per-loan cost of building the materialized aggregates (what
+ * createAggregateDTO used to do over findAll()); the aggregateBy* benchmarks are the three
+ * LoanService aggregate methods reading that store, including sorting and top-N.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LoanServiceAggregateBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    private int loanCount;
+
+    private Loan[] loans;
+    private LoanRepository loanRepository;
+    private LoanService loanService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkLogging.quiet();
+        loans = SyntheticLoans.stream(loanCount).toArray(Loan[]::new);
+        // An empty repository: the store is seeded empty and then fed the synthetic loans
+        loanRepository = Mockito.mock(LoanRepository.class);
+        loanService = new LoanService(loanRepository, foldIntoStore(),
+                new LoanSnapshot(loanRepository, Mockito.mock(PlatformTransactionManager.class)),
+                Mockito.mock(LoanCacheEvictor.class), Mockito.mock(LoanLedger.class),
+                Mockito.mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public LoanAggregateStore foldIntoStore() {
+        LoanAggregateStore store = new LoanAggregateStore(loanRepository);
+        store.reseed();
+        for (Loan loan : loans) {
+            store.recordAdd(() -> loan);
+        }
+        return store;
+    }
+
+    @Benchmark
+    public LoanAggregateDTO aggregateByLender() {
+        return loanService.aggregateLoansByLender(null, null);
+    }
+
+    @Benchmark
+    public LoanAggregateDTO aggregateByCustomerTop100() {
+        return loanService.aggregateLoansByCustomerId("remainingAmount", 100);
+    }
+
+    @Benchmark
+    public LoanAggregateDTO aggregateByInterest() {
+        return loanService.aggregateLoansByInterest(null, null);
+    }
+}
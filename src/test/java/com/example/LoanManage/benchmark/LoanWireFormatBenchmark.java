@@ -0,0 +1,96 @@
+package com.example.LoanManage.benchmark;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.mapper.LoanJsonSerializers;
+import com.example.LoanManage.support.SyntheticLoans;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encode and decode time of a lender-sized List&lt;LoanDTO&gt; in each wire format the loan endpoints
+ * can negotiate, with mappers configured like the application's (ISO dates, hand-written serializers).
+ * json-gzip is JSON as a gzip-compressing client receives it. The relative encoded sizes are asserted
+ * by WireFormatConfigTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoanWireFormatBenchmark {
+
+    @Param({"json", "json-gzip", "smile", "cbor"})
+    private String format;
+
+    @Param({"500", "10000"})
+    private int size;
+
+    private ObjectMapper objectMapper;
+    private ObjectReader reader;
+    private boolean gzip;
+    private List<LoanDTO> loans;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        JsonFactory factory;
+        switch (format) {
+            case "smile":
+                factory = new SmileFactory();
+                break;
+            case "cbor":
+                factory = new CBORFactory();
+                break;
+            default:
+                factory = new JsonFactory();
+                break;
+        }
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .factory(factory)
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .serializers(new LoanJsonSerializers.LoanDTOSerializer())
+                .build();
+        reader = objectMapper.readerFor(LoanDTO[].class);
+        gzip = "json-gzip".equals(format);
+        loans = SyntheticLoans.dtos(size);
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        if (!gzip) {
+            return objectMapper.writeValueAsBytes(loans);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(output, loans);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public LoanDTO[] decode() throws IOException {
+        if (!gzip) {
+            return reader.readValue(encoded);
+        }
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            return reader.readValue(input);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.LoanManage.config;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.mapper.LoanJsonSerializers;
+import com.example.LoanManage.support.SyntheticLoans;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WireFormatConfigTest {
+
+    private final WireFormatConfig wireFormatConfig = new WireFormatConfig();
+    private ObjectMapper jsonMapper;
+    private ObjectMapper cborMapper;
+    private ObjectMapper smileMapper;
+    private List<LoanDTO> loans;
+
+    @Before
+    public void setUp() {
+        jsonMapper = builder().build();
+        cborMapper = wireFormatConfig.cborHttpMessageConverter(builder()).getObjectMapper();
+        smileMapper = wireFormatConfig.smileHttpMessageConverter(builder()).getObjectMapper();
+        loans = SyntheticLoans.dtos(500);
+    }
+
+    @Test
+    public void testBinaryFormatsRoundTripTheSameLoans() throws IOException {
+        // Run the test
+        LoanDTO[] fromCbor = cborMapper.readValue(cborMapper.writeValueAsBytes(loans), LoanDTO[].class);
+        LoanDTO[] fromSmile = smileMapper.readValue(smileMapper.writeValueAsBytes(loans), LoanDTO[].class);
+
+        // Verify the results
+        assertEquals(loans, Arrays.asList(fromCbor));
+        assertEquals(loans, Arrays.asList(fromSmile));
+    }
+
+    @Test
+    public void testPayloadSizes() throws IOException {
+        // Run the test: a lender-sized list, as in LoanWireFormatBenchmark
+        int json = jsonMapper.writeValueAsBytes(loans).length;
+        int cbor = cborMapper.writeValueAsBytes(loans).length;
+        int smile = smileMapper.writeValueAsBytes(loans).length;
+        int jsonGzip = gzip(jsonMapper.writeValueAsBytes(loans)).length;
+
+        // Verify the results: the binary formats are smaller than JSON, and gzip, for clients that accept it,
+        // is smaller still
+        assertTrue("cbor " + cbor + " vs json " + json, cbor < json);
+        assertTrue("smile " + smile + " vs json " + json, smile < json);
+        assertTrue("json-gzip " + jsonGzip + " vs smile " + smile, jsonGzip < Math.min(cbor, smile));
+    }
+
+    // Configured like the application's mapper: ISO dates and the hand-written LoanDTO serializer
+    private static Jackson2ObjectMapperBuilder builder() {
+        return Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .serializers(new LoanJsonSerializers.LoanDTOSerializer());
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -2,23 +2,56 @@ package com.example.LoanManage.controller;
 
 import com.example.LoanManage.dto.LoanAggregateDTO;
 import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanPageDTO;
+import com.example.LoanManage.dto.LoanQueryDTO;
+import com.example.LoanManage.dto.LoanQueryResultDTO;
 import com.example.LoanManage.entity.Loan;
 import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.exception.ServiceOverloadedException;
+import com.example.LoanManage.service.LoanChangeTracker;
+import com.example.LoanManage.service.LoanCursor;
+import com.example.LoanManage.service.LoanQueryService;
 import com.example.LoanManage.service.LoanService;
+import com.example.LoanManage.service.LoanWorkloadExecutor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.http.ResponseEntity;
-
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -27,37 +60,120 @@ public class LoanControllerTest {
     @Mock
     private LoanService mockLoanService;
 
+    @Mock
+    private LoanQueryService mockLoanQueryService;
+
+    private LoanChangeTracker changeTracker;
     private LoanController loanControllerUnderTest;
 
     @Before
     public void setUp() {
-        loanControllerUnderTest = new LoanController(mockLoanService);
+        changeTracker = new LoanChangeTracker();
+        loanControllerUnderTest = new LoanController(mockLoanService, mockLoanQueryService, changeTracker,
+                new LoanWorkloadExecutor(Runnable::run, Runnable::run, new MockEnvironment(), new SimpleMeterRegistry()),
+                new ObjectMapper());
     }
 
     @Test
-    public void testGetAllLoans() {
-        Loan loan = createSampleLoan();
-        final List<Loan> loans = List.of(loan);
-        when(mockLoanService.getAllLoans()).thenReturn(loans);
+    @SuppressWarnings("unchecked")
+    public void testGetAllLoans() throws Exception {
+        // Setup
+        LoanDTO loan = createSampleLoanDTO();
+        doAnswer(invocation -> {
+            Consumer<LoanDTO> consumer = invocation.getArgument(0);
+            consumer.accept(loan);
+            return null;
+        }).when(mockLoanService).streamAllLoans(any(Consumer.class));
 
         // Run the test
-        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getAllLoans();
+        final ResponseEntity<StreamingResponseBody> result = loanControllerUnderTest.getAllLoans(getRequest());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Objects.requireNonNull(result.getBody()).writeTo(output);
 
         // Verify the results
-        assertEquals(1, Objects.requireNonNull(result.getBody()).size());
-        assertEquals(loan.getLoanId(), result.getBody().get(0).getLoanId());
+        LoanDTO[] loans = new ObjectMapper().readValue(output.toByteArray(), LoanDTO[].class);
+        assertEquals(1, loans.length);
+        assertEquals(loan.getLoanId(), loans[0].getLoanId());
+    }
+
+    @Test
+    public void testGetAllLoans_LoanServiceReturnsNoItems() throws Exception {
+        // Run the test
+        final ResponseEntity<StreamingResponseBody> result = loanControllerUnderTest.getAllLoans(getRequest());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Objects.requireNonNull(result.getBody()).writeTo(output);
+
+        // Verify the results
+        assertEquals("[]", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGetAllLoans_PermitReleasedWhenBodyNeverRuns() throws Exception {
+        // Setup: one full listing at a time, and a request whose async processing ends without running the body
+        LoanController controller = new LoanController(mockLoanService, mockLoanQueryService, changeTracker,
+                new LoanWorkloadExecutor(Runnable::run, Runnable::run,
+                        new MockEnvironment().withProperty("loan.async.list-all.max-concurrent", "1"),
+                        new SimpleMeterRegistry()),
+                new ObjectMapper());
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/loans/all");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.getAllLoans(new ServletWebRequest(request, response));
+        try {
+            controller.getAllLoans(getRequest());
+            fail("The listing should be at its limit");
+        } catch (ServiceOverloadedException expected) {
+            // The first request holds the only permit
+        }
+
+        // Run the test
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setTaskExecutor(new TaskExecutorAdapter(Runnable::run));
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+        asyncManager.startCallableProcessing(() -> null);
+        request.getAsyncContext().complete();
+
+        // Verify the results
+        assertEquals(HttpStatus.OK, controller.getAllLoans(getRequest()).getStatusCode());
     }
 
     @Test
-    public void testGetAllLoans_LoanServiceReturnsNoItems() {
+    public void testGetLoansPage() {
         // Setup
-        when(mockLoanService.getAllLoans()).thenReturn(Collections.emptyList());
+        LoanPageDTO page = new LoanPageDTO();
+        page.setLoans(List.of(createSampleLoanDTO()));
+        page.setNextCursor(LoanCursor.encode(8L));
+        when(mockLoanService.getLoansAfter(7L, 1)).thenReturn(page);
 
         // Run the test
-        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getAllLoans();
+        final ResponseEntity<LoanPageDTO> result = loanControllerUnderTest.getLoansPage(LoanCursor.encode(7L), 1);
 
         // Verify the results
-        assertEquals(ResponseEntity.ok(Collections.emptyList()), result);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertSame(page, result.getBody());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamAllLoans() throws Exception {
+        // Setup
+        LoanDTO loan = createSampleLoanDTO();
+        doAnswer(invocation -> {
+            Consumer<LoanDTO> consumer = invocation.getArgument(0);
+            consumer.accept(loan);
+            consumer.accept(loan);
+            return null;
+        }).when(mockLoanService).streamAllLoans(any(Consumer.class));
+
+        // Run the test
+        final ResponseEntity<StreamingResponseBody> result = loanControllerUnderTest.streamAllLoans(getRequest());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Objects.requireNonNull(result.getBody()).writeTo(output);
+
+        // Verify the results: one JSON object per line
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("{") && lines[0].contains("\"loanId\":\"L1\""));
     }
 
     @Test
@@ -77,12 +193,12 @@ public class LoanControllerTest {
     @Test
     public void testGetLoanById() {
         // Mock data
-        Loan loan = createSampleLoan();
-        Optional<Loan> loanOptional = Optional.of(loan);
+        LoanDTO loan = createSampleLoanDTO();
+        Optional<LoanDTO> loanOptional = Optional.of(loan);
         when(mockLoanService.getLoanByLoanId("loanId")).thenReturn(loanOptional);
 
         // Run the test
-        final ResponseEntity<LoanDTO> result = loanControllerUnderTest.getLoanById("loanId");
+        final ResponseEntity<LoanDTO> result = loanControllerUnderTest.getLoanById("loanId", getRequest());
 
         // Verify the results
         assertEquals(loan.getLoanId(), Objects.requireNonNull(result.getBody()).getLoanId());
@@ -94,18 +210,140 @@ public class LoanControllerTest {
         when(mockLoanService.getLoanByLoanId("loanId")).thenReturn(Optional.empty());
 
         // Run the test
-        loanControllerUnderTest.getLoanById("loanId");
+        loanControllerUnderTest.getLoanById("loanId", getRequest());
+    }
+
+    @Test
+    public void testGetLoanById_NotModified() {
+        // Setup: a poll that sends back the ETag of the previous response
+        LoanDTO loan = createSampleLoanDTO();
+        loan.setVersion(3L);
+        when(mockLoanService.getLoanByLoanId("loanId")).thenReturn(Optional.of(loan));
+        MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+        loanControllerUnderTest.getLoanById("loanId",
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/loans/loanId"), firstResponse));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/loans/loanId");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, firstResponse.getHeader(HttpHeaders.ETAG));
+
+        // Run the test
+        final ResponseEntity<LoanDTO> result = loanControllerUnderTest.getLoanById("loanId",
+                new ServletWebRequest(request, response));
+
+        // Verify the results
+        assertNull(result);
+        assertEquals(304, response.getStatus());
+    }
+
+    @Test
+    public void testGetLoanById_IfModifiedSinceIsIgnoredInsideASecond() {
+        // Setup: modified half a second into the second the client last saw
+        LoanDTO loan = createSampleLoanDTO();
+        loan.setLastModified(new Date(1_700_000_000_500L));
+        when(mockLoanService.getLoanByLoanId("loanId")).thenReturn(Optional.of(loan));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/loans/loanId");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, 1_700_000_000_000L);
+
+        // Run the test
+        final ResponseEntity<LoanDTO> result = loanControllerUnderTest.getLoanById("loanId",
+                new ServletWebRequest(request, response));
+
+        // Verify the results: only the ETag can tell the client's copy apart
+        assertEquals(loan, Objects.requireNonNull(result).getBody());
+        assertNull(response.getHeader(HttpHeaders.LAST_MODIFIED));
+        assertNotNull(response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testGetLoanById_NotModifiedSinceAWholeSecond() {
+        // Setup
+        LoanDTO loan = createSampleLoanDTO();
+        loan.setLastModified(new Date(1_700_000_000_000L));
+        when(mockLoanService.getLoanByLoanId("loanId")).thenReturn(Optional.of(loan));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/loans/loanId");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, 1_700_000_000_000L);
+
+        // Run the test
+        final ResponseEntity<LoanDTO> result = loanControllerUnderTest.getLoanById("loanId",
+                new ServletWebRequest(request, response));
+
+        // Verify the results
+        assertNull(result);
+        assertEquals(304, response.getStatus());
+    }
+
+    @Test
+    public void testGetLoanById_PaidSinceETag() {
+        // Setup: a payment lowers the remaining amount without a new version
+        LoanDTO loan = createSampleLoanDTO();
+        loan.setVersion(3L);
+        when(mockLoanService.getLoanByLoanId("loanId")).thenReturn(Optional.of(loan));
+        MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+        loanControllerUnderTest.getLoanById("loanId",
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/loans/loanId"), firstResponse));
+        loan.setRemainingAmount(9000.0);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/loans/loanId");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, firstResponse.getHeader(HttpHeaders.ETAG));
+
+        // Run the test
+        final ResponseEntity<LoanDTO> result = loanControllerUnderTest.getLoanById("loanId",
+                new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        // Verify the results
+        assertEquals(9000.0, Objects.requireNonNull(result.getBody()).getRemainingAmount(), 0.0);
+    }
+
+    @Test
+    public void testGetLoansByCustomerId_NotModified() {
+        // Setup: a poll that sends back the ETag of the previous response
+        MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+        loanControllerUnderTest.getLoansByCustomerId("customerId",
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/loans/customer/customerId"), firstResponse));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/loans/customer/customerId");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, firstResponse.getHeader(HttpHeaders.ETAG));
+
+        // Run the test
+        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByCustomerId("customerId",
+                new ServletWebRequest(request, response));
+
+        // Verify the results: answered without loading the list a second time
+        assertNull(result);
+        assertEquals(304, response.getStatus());
+        verify(mockLoanService, times(1)).getLoansByCustomerId("customerId");
+    }
+
+    @Test
+    public void testGetLoansByLenderId_ModifiedSinceETag() {
+        // Setup: a loan of the lender is written after the client's last poll
+        MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+        loanControllerUnderTest.getLoansByLenderId("lenderId",
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/loans/lender/lenderId"), firstResponse));
+        Loan loan = createSampleLoan();
+        loan.setLenderId("lenderId");
+        changeTracker.recordChanges(List.of(loan));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/loans/lender/lenderId");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, firstResponse.getHeader(HttpHeaders.ETAG));
+
+        // Run the test
+        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByLenderId("lenderId",
+                new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        // Verify the results
+        assertEquals(ResponseEntity.ok(Collections.emptyList()), result);
     }
 
     @Test
     public void testGetLoansByCustomerId() {
         // Mock data
-        Loan loan = createSampleLoan();
-        final List<Loan> loans = List.of(loan);
+        LoanDTO loan = createSampleLoanDTO();
+        final List<LoanDTO> loans = List.of(loan);
         when(mockLoanService.getLoansByCustomerId("customerId")).thenReturn(loans);
 
         // Run the test
-        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByCustomerId("customerId");
+        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByCustomerId("customerId", getRequest());
 
         // Verify the results
         assertEquals(1, Objects.requireNonNull(result.getBody()).size());
@@ -118,7 +356,7 @@ public class LoanControllerTest {
         when(mockLoanService.getLoansByCustomerId("customerId")).thenReturn(Collections.emptyList());
 
         // Run the test
-        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByCustomerId("customerId");
+        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByCustomerId("customerId", getRequest());
 
         // Verify the results
         assertEquals(ResponseEntity.ok(Collections.emptyList()), result);
@@ -127,12 +365,12 @@ public class LoanControllerTest {
     @Test
     public void testGetLoansByLenderId() {
         // Mock data
-        Loan loan = createSampleLoan();
-        final List<Loan> loans = List.of(loan);
+        LoanDTO loan = createSampleLoanDTO();
+        final List<LoanDTO> loans = List.of(loan);
         when(mockLoanService.getLoansByLenderId("lenderId")).thenReturn(loans);
 
         // Run the test
-        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByLenderId("lenderId");
+        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByLenderId("lenderId", getRequest());
 
         // Verify the results
         assertEquals(1, Objects.requireNonNull(result.getBody()).size());
@@ -145,20 +383,35 @@ public class LoanControllerTest {
         when(mockLoanService.getLoansByLenderId("lenderId")).thenReturn(Collections.emptyList());
 
         // Run the test
-        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByLenderId("lenderId");
+        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getLoansByLenderId("lenderId", getRequest());
 
         // Verify the results
         assertEquals(ResponseEntity.ok(Collections.emptyList()), result);
     }
 
+    @Test
+    public void testGetOverdueLoansByLenderId() {
+        // Mock data
+        LoanDTO loan = createSampleLoanDTO();
+        Date asOf = new Date(1234567890124L);
+        when(mockLoanService.getOverdueLoansByLenderId("lenderId", asOf)).thenReturn(List.of(loan));
+
+        // Run the test
+        final ResponseEntity<List<LoanDTO>> result = loanControllerUnderTest.getOverdueLoansByLenderId("lenderId", asOf);
+
+        // Verify the results
+        assertEquals(1, Objects.requireNonNull(result.getBody()).size());
+        assertEquals(loan.getLoanId(), result.getBody().get(0).getLoanId());
+    }
+
     @Test
     public void testAggregateLoansByLender() {
         // Mock data
         LoanAggregateDTO loanAggregateDTO = createSampleLoanAggregateDTO("Lender");
-        when(mockLoanService.aggregateLoansByLender()).thenReturn(loanAggregateDTO);
+        when(mockLoanService.aggregateLoansByLender(null, null)).thenReturn(loanAggregateDTO);
 
         // Run the test
-        final ResponseEntity<LoanAggregateDTO> result = loanControllerUnderTest.aggregateLoansByLender();
+        final ResponseEntity<LoanAggregateDTO> result = loanControllerUnderTest.aggregateLoansByLender(null, null).join();
         double delta = 0.0001;
 
         // Verify the results
@@ -172,10 +425,10 @@ public class LoanControllerTest {
     public void testAggregateLoansByCustomerId() {
         // Mock data
         LoanAggregateDTO loanAggregateDTO = createSampleLoanAggregateDTO("Customer");
-        when(mockLoanService.aggregateLoansByCustomerId()).thenReturn(loanAggregateDTO);
+        when(mockLoanService.aggregateLoansByCustomerId(null, null)).thenReturn(loanAggregateDTO);
 
         // Run the test
-        final ResponseEntity<LoanAggregateDTO> result = loanControllerUnderTest.aggregateLoansByCustomerId();
+        final ResponseEntity<LoanAggregateDTO> result = loanControllerUnderTest.aggregateLoansByCustomerId(null, null).join();
         double delta = 0.0001;
 
         // Verify the results
@@ -189,10 +442,10 @@ public class LoanControllerTest {
     public void testAggregateLoansByInterest() {
         // Mock data
         LoanAggregateDTO loanAggregateDTO = createSampleLoanAggregateDTO("Interest");
-        when(mockLoanService.aggregateLoansByInterest()).thenReturn(loanAggregateDTO);
+        when(mockLoanService.aggregateLoansByInterest(null, null)).thenReturn(loanAggregateDTO);
 
         // Run the test
-        final ResponseEntity<LoanAggregateDTO> result = loanControllerUnderTest.aggregateLoansByInterest();
+        final ResponseEntity<LoanAggregateDTO> result = loanControllerUnderTest.aggregateLoansByInterest(null, null).join();
 
         // Verify the results
         assertEquals(loanAggregateDTO.getGroupBy(), Objects.requireNonNull(result.getBody()).getGroupBy());
@@ -201,6 +454,23 @@ public class LoanControllerTest {
         assertEquals(loanAggregateDTO.getTotalPenalty(), result.getBody().getTotalPenalty(), 0.001);
     }
 
+    @Test
+    public void testQueryLoans() {
+        // Setup
+        final LoanQueryDTO query = new LoanQueryDTO();
+        query.setLenderId("LEN1");
+        query.setGroupBy(List.of("customer"));
+        final LoanQueryResultDTO expected = new LoanQueryResultDTO();
+        expected.setMatchedLoans(3);
+        when(mockLoanQueryService.query(query)).thenReturn(expected);
+
+        // Run the test
+        final ResponseEntity<LoanQueryResultDTO> result = loanControllerUnderTest.queryLoans(query).join();
+
+        // Verify the results
+        assertEquals(expected, result.getBody());
+    }
+
     private Loan createSampleLoan() {
         Loan loan = new Loan();
         loan.setId(1L);
@@ -217,6 +487,10 @@ public class LoanControllerTest {
         return loan;
     }
 
+    private ServletWebRequest getRequest() {
+        return new ServletWebRequest(new MockHttpServletRequest("GET", "/loans"), new MockHttpServletResponse());
+    }
+
     private LoanDTO createSampleLoanDTO() {
         LoanDTO loanDTO = new LoanDTO();
         loanDTO.setLoanId("L1");
@@ -0,0 +1,135 @@
+package com.example.LoanManage.mapper;
+
+import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanGroupDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LoanJsonSerializersTest {
+
+    private ObjectMapper beanMapper;
+    private ObjectMapper handWrittenMapper;
+
+    @Before
+    public void setUp() {
+        beanMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        handWrittenMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .serializers(new LoanJsonSerializers.LoanDTOSerializer(),
+                        new LoanJsonSerializers.LoanGroupDTOSerializer(),
+                        new LoanJsonSerializers.LoanAggregateDTOSerializer())
+                .build();
+    }
+
+    @Test
+    public void testLoanDTOMatchesBeanSerializer() throws Exception {
+        // Setup: dates before and after the epoch, with milliseconds
+        LoanDTO loan = createSampleLoanDTO(new Date(1234567890123L), new Date(-86_399_999L));
+
+        // Run the test
+        String result = handWrittenMapper.writeValueAsString(loan);
+
+        // Verify the results
+        assertEquals(beanMapper.writeValueAsString(loan), result);
+    }
+
+    @Test
+    public void testLoanDTOMatchesBeanSerializer_NullFields() throws Exception {
+        // Setup
+        LoanDTO loan = new LoanDTO();
+
+        // Run the test
+        String result = handWrittenMapper.writeValueAsString(loan);
+
+        // Verify the results
+        assertEquals(beanMapper.writeValueAsString(loan), result);
+    }
+
+    @Test
+    public void testLoanDTOListMatchesBeanSerializer() throws Exception {
+        // Setup
+        List<LoanDTO> loans = List.of(createSampleLoanDTO(new Date(0L), new Date(4102444800000L)),
+                createSampleLoanDTO(new Date(951782400000L), null));
+
+        // Run the test
+        String result = handWrittenMapper.writeValueAsString(loans);
+
+        // Verify the results
+        assertEquals(beanMapper.writeValueAsString(loans), result);
+    }
+
+    @Test
+    public void testLoanDTOUsesConfiguredDateFormat() throws Exception {
+        // Setup: a custom format is not handled by the fast path
+        ObjectMapper customMapper = handWrittenMapper.copy().setDateFormat(new SimpleDateFormat("yyyy/MM/dd"));
+        LoanDTO loan = createSampleLoanDTO(new Date(1234567890123L), new Date(1234567890123L));
+
+        // Run the test
+        String result = customMapper.writeValueAsString(loan);
+
+        // Verify the results
+        assertEquals(beanMapper.copy().setDateFormat(new SimpleDateFormat("yyyy/MM/dd")).writeValueAsString(loan),
+                result);
+    }
+
+    @Test
+    public void testAggregateDTOMatchesBeanSerializer() throws Exception {
+        // Setup
+        LoanGroupDTO group = new LoanGroupDTO();
+        group.setGroupKey("LEN1");
+        group.setLoanCount(2L);
+        group.setTotalRemainingAmount(15000.5);
+        group.setTotalInterest(1.25);
+        group.setTotalPenalty(0.1);
+        LoanAggregateDTO aggregate = new LoanAggregateDTO();
+        aggregate.setGroupBy("Lender");
+        aggregate.setTotalRemainingAmount(15000.5);
+        aggregate.setTotalInterest(1.25);
+        aggregate.setTotalPenalty(0.1);
+        aggregate.setGroupCount(1);
+        aggregate.setGroups(List.of(group));
+
+        // Run the test
+        String result = handWrittenMapper.writeValueAsString(aggregate);
+
+        // Verify the results
+        assertEquals(beanMapper.writeValueAsString(aggregate), result);
+    }
+
+    @Test
+    public void testFormatIsoUtc_YearOutOfRange() {
+        // Run the test
+        boolean result = LoanJsonSerializers.formatIsoUtc(253402300800000L, new char[29]);
+
+        // Verify the results: 10000-01-01 is left to the configured formatting
+        assertFalse(result);
+    }
+
+    private LoanDTO createSampleLoanDTO(Date paymentDate, Date dueDate) {
+        LoanDTO loanDTO = new LoanDTO();
+        loanDTO.setLoanId("L1");
+        loanDTO.setCustomerId("C1");
+        loanDTO.setLenderId("LEN1");
+        loanDTO.setAmount(10000.0);
+        loanDTO.setRemainingAmount(9500.25);
+        loanDTO.setPaymentDate(paymentDate);
+        loanDTO.setInterestPerDay(0.01);
+        loanDTO.setDueDate(dueDate);
+        loanDTO.setPenaltyPerDay(0.0005);
+        loanDTO.setCancelled(true);
+        return loanDTO;
+    }
+}
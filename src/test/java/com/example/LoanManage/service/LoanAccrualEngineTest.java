@@ -0,0 +1,167 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanAccrualDTO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanAccrualEngineTest {
+
+    private static final LocalDate AS_OF = LocalDate.of(2024, 3, 31);
+
+    @Mock
+    private LoanRepository mockLoanRepository;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    @Mock
+    private LoanLedger mockLedger;
+
+    private Map<String, LoanLedger.Tail> tails;
+
+    private LoanAccrualEngine accrualEngineUnderTest;
+
+    @Before
+    public void setUp() {
+        Clock clock = Clock.fixed(AS_OF.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC);
+        accrualEngineUnderTest = new LoanAccrualEngine(new LoanSnapshot(mockLoanRepository, mockTransactionManager),
+                mockLedger, mockLoanRepository, clock);
+        tails = new HashMap<>();
+        when(mockLedger.readView(any())).thenAnswer(invocation ->
+                invocation.<Function<LoanLedger.View, ?>>getArgument(0).apply(new LoanLedger.View(tails, 7L)));
+    }
+
+    @Test
+    public void testAccrue_CountsDaysSincePaymentAndPastDue() {
+        // Setup: paid 10 days ago and due in 5 days; paid 30 days ago and 20 days overdue; paid in the future;
+        // and a cancelled overdue loan that must not accrue
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                row(1, 1000.0, 0.01, 0.02, daysBefore(10), daysBefore(-5), false),
+                row(2, 2000.0, 0.01, 0.02, daysBefore(30), daysBefore(20), false),
+                row(3, 500.0, 0.01, 0.02, daysBefore(-3), daysBefore(-30), false),
+                row(4, 9000.0, 0.01, 0.02, daysBefore(90), daysBefore(60), true)));
+
+        // Run the test
+        final LoanAccrualDTO result = accrualEngineUnderTest.accrue(AS_OF);
+
+        // Verify the results
+        assertEquals(AS_OF, result.getAsOf());
+        assertEquals(3, result.getLoanCount());
+        assertEquals(2, result.getAccruingLoanCount());
+        assertEquals(1, result.getOverdueLoanCount());
+        assertEquals(1000.0 * 0.01 * 10 + 2000.0 * 0.01 * 30, result.getTotalAccruedInterest(), 1e-9);
+        assertEquals(2000.0 * 0.02 * 20, result.getTotalAccruedPenalty(), 1e-9);
+    }
+
+    @Test
+    public void testAccrue_RepaidLoansStopAccruingOnTheDayTheyWereRepaid() {
+        // Setup: two overdue loans, one of them repaid 10 days ago; the snapshot still holds its old balance
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                row(1, 1000.0, 0.01, 0.02, daysBefore(30), daysBefore(20), false),
+                row(2, 2000.0, 0.01, 0.02, daysBefore(30), daysBefore(20), false)));
+        when(mockLoanRepository.findRepaidLoanColumns(7L)).thenReturn(Collections.singletonList(
+                new Object[]{2L, "L2", 0.0, 3L, daysBefore(10), daysBefore(9)}));
+
+        // Run the test
+        final LoanAccrualDTO result = accrualEngineUnderTest.accrue(AS_OF);
+
+        // Verify the results: the repaid loan keeps what it accrued until it was repaid
+        assertEquals(2, result.getLoanCount());
+        assertEquals(1, result.getAccruingLoanCount());
+        assertEquals(1, result.getOverdueLoanCount());
+        assertEquals(1000.0 * 0.01 * 30 + 2000.0 * 0.01 * 20, result.getTotalAccruedInterest(), 1e-9);
+        assertEquals(1000.0 * 0.02 * 20 + 2000.0 * 0.02 * 10, result.getTotalAccruedPenalty(), 1e-9);
+    }
+
+    @Test
+    public void testAccrue_LoansRepaidByTheLedgerTailStopAccruingOnTheirLastPayment() {
+        // Setup: loan 1 is repaid by an unsettled payment 5 days ago; loan 2 only partly
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                row(1, 1000.0, 0.01, 0.02, daysBefore(30), daysBefore(20), false),
+                row(2, 2000.0, 0.01, 0.02, daysBefore(30), daysBefore(20), false)));
+        tails.put("L1", new LoanLedger.Tail(400.0, 9L, daysBefore(5)));
+        tails.put("L2", new LoanLedger.Tail(400.0, 8L, daysBefore(6)));
+        when(mockLoanRepository.findRepaidLoanColumns(7L)).thenReturn(Collections.emptyList());
+        when(mockLoanRepository.findBalanceColumnsByLoanIdIn(anyCollection())).thenReturn(Arrays.asList(
+                new Object[]{1L, "L1", 400.0, 2L}, new Object[]{2L, "L2", 1500.0, 2L}));
+
+        // Run the test
+        final LoanAccrualDTO result = accrualEngineUnderTest.accrue(AS_OF);
+
+        // Verify the results
+        assertEquals(1, result.getAccruingLoanCount());
+        assertEquals(1, result.getOverdueLoanCount());
+        assertEquals(1000.0 * 0.01 * 25 + 2000.0 * 0.01 * 30, result.getTotalAccruedInterest(), 1e-9);
+        assertEquals(1000.0 * 0.02 * 15 + 2000.0 * 0.02 * 20, result.getTotalAccruedPenalty(), 1e-9);
+    }
+
+    @Test
+    public void testAccrue_ParallelRunMatchesSequentialSum() {
+        // Setup: enough loans to split the book across several fork/join tasks
+        int loanCount = 200_000;
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(IntStream.range(0, loanCount)
+                .mapToObj(i -> row(i + 1, 100.0 + i % 1000, 0.001, 0.002,
+                        daysBefore(i % 60), daysBefore(i % 60 - 30), false)));
+        double expectedInterest = 0;
+        double expectedPenalty = 0;
+        for (int i = 0; i < loanCount; i++) {
+            expectedInterest += (100.0 + i % 1000) * 0.001 * (i % 60);
+            expectedPenalty += (100.0 + i % 1000) * 0.002 * Math.max(0, i % 60 - 30);
+        }
+
+        // Run the test
+        final LoanAccrualDTO result = accrualEngineUnderTest.accrue(AS_OF);
+
+        // Verify the results
+        assertEquals(loanCount, result.getLoanCount());
+        assertEquals(expectedInterest, result.getTotalAccruedInterest(), expectedInterest * 1e-12);
+        assertEquals(expectedPenalty, result.getTotalAccruedPenalty(), expectedPenalty * 1e-12);
+    }
+
+    @Test
+    public void testRunNightly_KeepsLatestResult() {
+        // Setup
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.empty());
+        assertNull(accrualEngineUnderTest.getLatestRun());
+
+        // Run the test
+        accrualEngineUnderTest.runNightly();
+
+        // Verify the results
+        assertEquals(AS_OF, accrualEngineUnderTest.getLatestRun().getAsOf());
+        assertEquals(0, accrualEngineUnderTest.getLatestRun().getLoanCount());
+    }
+
+    private static Object[] row(long id, double amount, double interestPerDay, double penaltyPerDay,
+                                Date paymentDate, Date dueDate, boolean cancelled) {
+        return new Object[]{id, "C" + id % 7, "LEN" + id % 3, amount, amount, interestPerDay, penaltyPerDay,
+                paymentDate, dueDate, cancelled};
+    }
+
+    private static Date daysBefore(int days) {
+        return new Date(AS_OF.minusDays(days).toEpochDay() * LoanSnapshot.MILLIS_PER_DAY);
+    }
+}
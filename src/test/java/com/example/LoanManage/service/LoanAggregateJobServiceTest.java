@@ -0,0 +1,180 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.AggregateJobDTO;
+import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanAggregateJobServiceTest {
+
+    @Mock
+    private LoanService mockLoanService;
+
+    private final List<Runnable> queuedTasks = new ArrayList<>();
+    private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+    private LoanAggregateJobService jobServiceUnderTest;
+
+    @Before
+    public void setUp() {
+        LoanWorkloadExecutor workloadExecutor = new LoanWorkloadExecutor(queuedTasks::add, queuedTasks::add,
+                new MockEnvironment(), new SimpleMeterRegistry());
+        jobServiceUnderTest = new LoanAggregateJobService(mockLoanService, workloadExecutor,
+                Duration.ofMinutes(10), clock);
+    }
+
+    @Test
+    public void testSubmit_CoalescesIdenticalJobsAndKeepsTheResult() {
+        // Setup
+        final LoanAggregateDTO aggregate = new LoanAggregateDTO();
+        when(mockLoanService.aggregateLoansByLender("interest", 5)).thenReturn(aggregate);
+
+        // Run the test: two identical submissions before the job runs
+        final AggregateJobDTO first = jobServiceUnderTest.submit("lender", "interest", 5);
+        final AggregateJobDTO second = jobServiceUnderTest.submit("LENDER", "interest", 5);
+
+        // Verify the results
+        assertEquals(first.getJobId(), second.getJobId());
+        assertFalse(first.isCoalesced());
+        assertTrue(second.isCoalesced());
+        assertEquals("PENDING", jobServiceUnderTest.getJob(first.getJobId()).getStatus());
+        assertNull(jobServiceUnderTest.getResult(first.getJobId()));
+        assertEquals(1, queuedTasks.size());
+
+        queuedTasks.get(0).run();
+        assertEquals("SUCCEEDED", jobServiceUnderTest.getJob(first.getJobId()).getStatus());
+        assertSame(aggregate, jobServiceUnderTest.getResult(first.getJobId()));
+
+        // A submission after completion reuses the retained result
+        assertEquals(first.getJobId(), jobServiceUnderTest.submit("lender", "interest", 5).getJobId());
+        verify(mockLoanService, times(1)).aggregateLoansByLender("interest", 5);
+    }
+
+    @Test
+    public void testSubmit_StartsANewJobAfterTheResultExpires() {
+        // Setup
+        when(mockLoanService.aggregateLoansByCustomerId(null, null)).thenReturn(new LoanAggregateDTO());
+        final AggregateJobDTO first = jobServiceUnderTest.submit("customer", null, null);
+        queuedTasks.get(0).run();
+
+        // Run the test
+        clock.advance(Duration.ofMinutes(11));
+        jobServiceUnderTest.evictExpired();
+        final AggregateJobDTO second = jobServiceUnderTest.submit("customer", null, null);
+
+        // Verify the results
+        assertNotEquals(first.getJobId(), second.getJobId());
+        assertFalse(second.isCoalesced());
+        try {
+            jobServiceUnderTest.getJob(first.getJobId());
+            fail("Expected the expired job to be gone");
+        } catch (ResourceNotFoundException expected) {
+            // The expired job was evicted
+        }
+    }
+
+    @Test
+    public void testSubmit_TimedOutJobFailsAndIsNotReused() throws Exception {
+        // Setup: a job timeout shorter than the test, and a job that never gets to run
+        LoanAggregateJobService jobService = new LoanAggregateJobService(mockLoanService,
+                new LoanWorkloadExecutor(queuedTasks::add, queuedTasks::add,
+                        new MockEnvironment().withProperty("loan.async.job.timeout-ms", "1"),
+                        new SimpleMeterRegistry()),
+                Duration.ofMinutes(10), clock);
+        final AggregateJobDTO first = jobService.submit("interest", null, null);
+
+        // Run the test
+        for (int i = 0; i < 500 && !"FAILED".equals(jobService.getJob(first.getJobId()).getStatus()); i++) {
+            Thread.sleep(10);
+        }
+        queuedTasks.get(0).run();
+
+        // Verify the results: the late result does not revive the job, and a new submission starts over
+        assertEquals("FAILED", jobService.getJob(first.getJobId()).getStatus());
+        assertNotEquals(first.getJobId(), jobService.submit("interest", null, null).getJobId());
+    }
+
+    @Test
+    public void testSubmit_OverloadedJobFailsForTheCallersThatJoinedIt() {
+        // Setup: the pool rejects the job, after a second caller has joined it
+        final AggregateJobDTO[] joined = new AggregateJobDTO[1];
+        jobServiceUnderTest = new LoanAggregateJobService(mockLoanService,
+                new LoanWorkloadExecutor(task -> {
+                    joined[0] = jobServiceUnderTest.submit("lender", null, null);
+                    throw new RejectedExecutionException();
+                }, queuedTasks::add, new MockEnvironment(), new SimpleMeterRegistry()),
+                Duration.ofMinutes(10), clock);
+
+        // Run the test
+        try {
+            jobServiceUnderTest.submit("lender", null, null);
+            fail("Expected the job to be rejected");
+        } catch (ServiceOverloadedException expected) {
+            // Verify the results: the joined caller sees the failure
+            final AggregateJobDTO job = jobServiceUnderTest.getJob(joined[0].getJobId());
+            assertTrue(joined[0].isCoalesced());
+            assertEquals("FAILED", job.getStatus());
+            assertEquals(expected.getMessage(), job.getError());
+        }
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testSubmit_UnknownGroupBy() {
+        jobServiceUnderTest.submit("region", null, null);
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
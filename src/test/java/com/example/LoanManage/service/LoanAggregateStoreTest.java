@@ -0,0 +1,140 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.AggregateConsistencyDTO;
+import com.example.LoanManage.dto.LoanGroupTotals;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.service.LoanAggregateStore.Dimension;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanAggregateStoreTest {
+
+    @Mock
+    private LoanRepository mockLoanRepository;
+
+    private LoanAggregateStore aggregateStoreUnderTest;
+
+    @Before
+    public void setUp() {
+        aggregateStoreUnderTest = new LoanAggregateStore(mockLoanRepository);
+    }
+
+    @Test
+    public void testRecordAdd_UpdatesEveryDimension() {
+        // Setup: empty book, then one loan is added
+        aggregateStoreUnderTest.reseed();
+        final Loan loan = createSampleLoan("L1", "C1", "LEN1");
+
+        // Run the test
+        aggregateStoreUnderTest.recordAdd(() -> loan);
+
+        // Verify the results
+        final List<LoanGroupTotals> lenders = aggregateStoreUnderTest.getGroups(Dimension.LENDER);
+        assertEquals(1, lenders.size());
+        assertEquals("LEN1", lenders.get(0).getGroupKey());
+        assertEquals(1L, lenders.get(0).getLoanCount().longValue());
+        assertEquals(10000.0, lenders.get(0).getTotalRemainingAmount(), 0.001);
+        assertEquals(100.0, lenders.get(0).getTotalInterest(), 0.001);
+        assertEquals("C1", aggregateStoreUnderTest.getGroups(Dimension.CUSTOMER).get(0).getGroupKey());
+        assertEquals("0.01", aggregateStoreUnderTest.getGroups(Dimension.INTEREST).get(0).getGroupKey());
+    }
+
+    @Test
+    public void testReseed_FromSuppliedLoans() {
+        // Setup: two loans of one lender, as read from a loan book image
+        final Loan first = createSampleLoan("L1", "C1", "LEN1");
+        final Loan second = createSampleLoan("L2", "C2", "LEN1");
+
+        // Run the test
+        aggregateStoreUnderTest.reseed(sink -> {
+            sink.accept(first);
+            sink.accept(second);
+        });
+
+        // Verify the results: seeded without the repository GROUP BY queries
+        final List<LoanGroupTotals> lenders = aggregateStoreUnderTest.getGroups(Dimension.LENDER);
+        assertEquals(1, lenders.size());
+        assertEquals(2L, lenders.get(0).getLoanCount().longValue());
+        assertEquals(2, aggregateStoreUnderTest.getGroups(Dimension.CUSTOMER).size());
+        verify(mockLoanRepository, never()).sumByLender();
+    }
+
+    @Test
+    public void testRecordUpdateAll_MovesTheDifference() {
+        // Setup: a loan of 10000 of which 2500 is then repaid
+        aggregateStoreUnderTest.reseed();
+        final Loan loan = createSampleLoan("L1", "C1", "LEN1");
+        aggregateStoreUnderTest.recordAdd(() -> loan);
+        final Loan repaid = createSampleLoan("L1", "C1", "LEN1");
+        repaid.setRemainingAmount(7500.0);
+
+        // Run the test
+        aggregateStoreUnderTest.recordUpdateAll(
+                () -> Collections.singletonList(new LoanAggregateStore.Change(loan, repaid)));
+
+        // Verify the results
+        final List<LoanGroupTotals> lenders = aggregateStoreUnderTest.getGroups(Dimension.LENDER);
+        assertEquals(1L, lenders.get(0).getLoanCount().longValue());
+        assertEquals(7500.0, lenders.get(0).getTotalRemainingAmount(), 0.001);
+    }
+
+    @Test
+    public void testRecordRemoval_DropsEmptyGroups() {
+        // Setup
+        aggregateStoreUnderTest.reseed();
+        final Loan loan = createSampleLoan("L1", "C1", "LEN1");
+        aggregateStoreUnderTest.recordAdd(() -> loan);
+
+        // Run the test
+        aggregateStoreUnderTest.recordRemoval(loan, () -> { });
+
+        // Verify the results
+        assertTrue(aggregateStoreUnderTest.getGroups(Dimension.LENDER).isEmpty());
+    }
+
+    @Test
+    public void testVerify_ReportsAndRepairsDrift() {
+        // Setup: the store saw a loan that the repository does not have
+        aggregateStoreUnderTest.reseed();
+        aggregateStoreUnderTest.recordAdd(() -> createSampleLoan("L1", "C1", "LEN1"));
+        when(mockLoanRepository.sumByLender()).thenReturn(Collections.emptyList());
+
+        // Run the test
+        final AggregateConsistencyDTO result = aggregateStoreUnderTest.verify(true);
+
+        // Verify the results: one drifted group per dimension, then the store matches the repository
+        assertFalse(result.isConsistent());
+        assertTrue(result.isRepaired());
+        assertEquals(3, result.getDrifts().size());
+        assertEquals(1L, result.getDrifts().get(0).getMaterializedLoanCount());
+        assertEquals(0L, result.getDrifts().get(0).getExpectedLoanCount());
+        assertTrue(aggregateStoreUnderTest.verify(false).isConsistent());
+    }
+
+    private Loan createSampleLoan(String loanId, String customerId, String lenderId) {
+        Loan loan = new Loan();
+        loan.setLoanId(loanId);
+        loan.setCustomerId(customerId);
+        loan.setLenderId(lenderId);
+        loan.setAmount(10000.0);
+        loan.setRemainingAmount(10000.0);
+        loan.setPaymentDate(new java.sql.Date(1234567890123L));
+        loan.setInterestPerDay(0.01);
+        loan.setDueDate(new java.sql.Date(1234567890123L));
+        loan.setPenaltyPerDay(0.01);
+        loan.setCancelled(false);
+        return loan;
+    }
+}
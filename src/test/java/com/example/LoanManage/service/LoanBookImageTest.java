@@ -0,0 +1,206 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.entity.LoanImport;
+import com.example.LoanManage.entity.LoanImportSegment;
+import com.example.LoanManage.entity.LoanPayment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LoanBookImageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead_RoundTrip() throws IOException {
+        // Setup: enough loans to fill several write buffers, a payment and a checkpoint
+        Path image = folder.getRoot().toPath().resolve("loan-book.img");
+        List<Loan> loans = new ArrayList<>();
+        for (int i = 1; i <= 20_000; i++) {
+            loans.add(createSampleLoan(i));
+        }
+        LoanPayment payment = new LoanPayment();
+        payment.setId(7L);
+        payment.setLoanId("L1");
+        payment.setAmount(125.5);
+        payment.setPaidAt(new Date(1_700_000_000_000L));
+        try (LoanBookImage.ImageWriter writer = new LoanBookImage.ImageWriter(open(image))) {
+            loans.forEach(writer::writeLoan);
+            writer.writePayment(payment);
+            writer.writeCheckpoint(6L);
+            writer.finish(1_700_000_000_000L);
+        }
+        RecordedRows rows = new RecordedRows();
+
+        // Run the test
+        LoanBookImage.read(image, rows);
+
+        // Verify the results
+        assertEquals(loans, rows.loans);
+        assertEquals(List.of(payment), rows.payments);
+        assertEquals(Long.valueOf(6L), rows.settledPaymentId);
+    }
+
+    @Test
+    public void testRead_NullFields() throws IOException {
+        // Setup
+        Path image = folder.getRoot().toPath().resolve("loan-book.img");
+        Loan loan = new Loan();
+        loan.setId(1L);
+        try (LoanBookImage.ImageWriter writer = new LoanBookImage.ImageWriter(open(image))) {
+            writer.writeLoan(loan);
+            writer.finish(0L);
+        }
+        RecordedRows rows = new RecordedRows();
+
+        // Run the test
+        LoanBookImage.read(image, rows);
+
+        // Verify the results
+        assertEquals(List.of(loan), rows.loans);
+        assertNull(rows.settledPaymentId);
+    }
+
+    @Test
+    public void testWriteAndRead_Imports() throws IOException {
+        // Setup: an import with a finished and an interrupted segment
+        Path image = folder.getRoot().toPath().resolve("loan-book.img");
+        LoanImport loanImport = new LoanImport();
+        loanImport.setImportId("import-1");
+        loanImport.setFilePath("/data/imports/portfolio.csv");
+        loanImport.setFileSize(2048L);
+        loanImport.setFileModified(1_700_000_000_000L);
+        loanImport.setSubmittedAt(new Date(1_700_000_100_000L));
+        LoanImportSegment finished = createSampleSegment(0, 0L, 1024L, 1024L);
+        LoanImportSegment interrupted = createSampleSegment(1, 1024L, 2048L, 1536L);
+        try (LoanBookImage.ImageWriter writer = new LoanBookImage.ImageWriter(open(image))) {
+            writer.writeImport(loanImport);
+            writer.writeImportSegment(finished);
+            writer.writeImportSegment(interrupted);
+            writer.writeLoan(createSampleLoan(1));
+            writer.finish(1_700_000_200_000L);
+        }
+        RecordedRows rows = new RecordedRows();
+
+        // Run the test
+        LoanBookImage.read(image, rows);
+
+        // Verify the results
+        assertEquals(List.of(loanImport), rows.imports);
+        assertEquals(List.of(finished, interrupted), rows.segments);
+        assertEquals(List.of(createSampleLoan(1)), rows.loans);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRead_CorruptedBody() throws IOException {
+        // Setup: flip one byte of a loan record
+        Path image = folder.getRoot().toPath().resolve("loan-book.img");
+        try (LoanBookImage.ImageWriter writer = new LoanBookImage.ImageWriter(open(image))) {
+            writer.writeLoan(createSampleLoan(1));
+            writer.finish(0L);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(image.toFile(), "rw")) {
+            long offset = LoanBookImage.HEADER_SIZE + 40;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xFF);
+        }
+
+        // Run the test
+        LoanBookImage.read(image, new RecordedRows());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRead_NotAnImage() throws IOException {
+        // Setup
+        Path image = folder.newFile("loans.csv").toPath();
+
+        // Run the test
+        LoanBookImage.read(image, new RecordedRows());
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static Loan createSampleLoan(long id) {
+        Loan loan = new Loan();
+        loan.setId(id);
+        loan.setLoanId("L" + id);
+        loan.setCustomerId("C" + id % 100);
+        loan.setLenderId("LEN" + id % 7);
+        loan.setAmount(10000.0);
+        loan.setRemainingAmount(9500.25);
+        loan.setPaymentDate(new Date(1234567890123L));
+        loan.setInterestPerDay(0.01);
+        loan.setDueDate(new Date(1334567890123L));
+        loan.setPenaltyPerDay(0.0005);
+        loan.setCancelled(id % 10 == 0);
+        loan.setVersion(id % 3);
+        loan.setLastModified(new Date(1_600_000_000_000L + id));
+        return loan;
+    }
+
+    private static LoanImportSegment createSampleSegment(int index, long start, long end, long committed) {
+        LoanImportSegment segment = new LoanImportSegment();
+        segment.setSegmentId("import-1/" + index);
+        segment.setImportId("import-1");
+        segment.setSegmentIndex(index);
+        segment.setStartOffset(start);
+        segment.setEndOffset(end);
+        segment.setCommittedOffset(committed);
+        segment.setAcceptedRows(10L + index);
+        segment.setRejectedRows(index);
+        segment.setRejectedBytes(index * 80L);
+        return segment;
+    }
+
+    private static final class RecordedRows implements LoanBookImage.ImageRecords {
+        private final List<Loan> loans = new ArrayList<>();
+        private final List<LoanPayment> payments = new ArrayList<>();
+        private final List<LoanImport> imports = new ArrayList<>();
+        private final List<LoanImportSegment> segments = new ArrayList<>();
+        private Long settledPaymentId;
+
+        @Override
+        public void loan(Loan loan) {
+            loans.add(loan);
+        }
+
+        @Override
+        public void payment(LoanPayment payment) {
+            payments.add(payment);
+        }
+
+        @Override
+        public void checkpoint(long settledPaymentId) {
+            this.settledPaymentId = settledPaymentId;
+        }
+
+        @Override
+        public void loanImport(LoanImport loanImport) {
+            imports.add(loanImport);
+        }
+
+        @Override
+        public void importSegment(LoanImportSegment segment) {
+            segments.add(segment);
+        }
+    }
+}
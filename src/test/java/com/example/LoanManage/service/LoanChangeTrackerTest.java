@@ -0,0 +1,92 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoanChangeTrackerTest {
+
+    private LoanChangeTracker trackerUnderTest;
+
+    @Before
+    public void setUp() {
+        trackerUnderTest = new LoanChangeTracker(Clock.fixed(Instant.ofEpochMilli(1_000_000L), ZoneOffset.UTC));
+    }
+
+    @Test
+    public void testRecordChanges() {
+        // Setup
+        LoanChangeTracker.Stamp customerBefore = trackerUnderTest.customerStamp("C1");
+        LoanChangeTracker.Stamp lenderBefore = trackerUnderTest.lenderStamp("LEN1");
+
+        // Run the test
+        trackerUnderTest.recordChanges(List.of(createLoan("C1", "LEN1")));
+
+        // Verify the results: both lists of the loan change, others keep their stamp
+        assertNotEquals(customerBefore.getEtag(), trackerUnderTest.customerStamp("C1").getEtag());
+        assertNotEquals(lenderBefore.getEtag(), trackerUnderTest.lenderStamp("LEN1").getEtag());
+        assertEquals(customerBefore.getEtag(), trackerUnderTest.customerStamp("C2").getEtag());
+        assertEquals(1_000_000L, trackerUnderTest.customerStamp("C1").getLastModified());
+    }
+
+    @Test
+    public void testRecordChanges_EveryChangeHasANewStamp() {
+        // Setup
+        trackerUnderTest.recordChanges(List.of(createLoan("C1", "LEN1")));
+        String first = trackerUnderTest.customerStamp("C1").getEtag();
+
+        // Run the test: a second change within the same millisecond
+        trackerUnderTest.recordChanges(List.of(createLoan("C1", "LEN1")));
+
+        // Verify the results
+        assertNotEquals(first, trackerUnderTest.customerStamp("C1").getEtag());
+    }
+
+    @Test
+    public void testCacheKeysFollowTheStamps() {
+        // Setup
+        String customerKey = trackerUnderTest.customerCacheKey("C1");
+        String lenderKey = trackerUnderTest.lenderCacheKey("LEN1");
+        String loanKey = trackerUnderTest.loanCacheKey("L1");
+
+        // Run the test
+        trackerUnderTest.recordChanges(List.of(createLoan("C1", "LEN1")));
+
+        // Verify the results: a loan or list cached under the old key is no longer found
+        assertNotEquals(loanKey, trackerUnderTest.loanCacheKey("L1"));
+        assertNotEquals(customerKey, trackerUnderTest.customerCacheKey("C1"));
+        assertNotEquals(lenderKey, trackerUnderTest.lenderCacheKey("LEN1"));
+        assertTrue(trackerUnderTest.customerCacheKey("C1").startsWith("C1|"));
+    }
+
+    @Test
+    public void testStampsDifferBetweenTrackers() {
+        // Setup: a tracker started later, as after a restart
+        LoanChangeTracker restarted =
+                new LoanChangeTracker(Clock.fixed(Instant.ofEpochMilli(2_000_000L), ZoneOffset.UTC));
+
+        // Run the test
+        String etag = restarted.customerStamp("C1").getEtag();
+
+        // Verify the results
+        assertNotEquals(trackerUnderTest.customerStamp("C1").getEtag(), etag);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    }
+
+    private Loan createLoan(String customerId, String lenderId) {
+        Loan loan = new Loan();
+        loan.setLoanId("L1");
+        loan.setCustomerId(customerId);
+        loan.setLenderId(lenderId);
+        return loan;
+    }
+}
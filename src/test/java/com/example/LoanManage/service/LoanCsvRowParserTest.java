@@ -0,0 +1,99 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LoanCsvRowParserTest {
+
+    private final LoanCsvRowParser parser = new LoanCsvRowParser();
+
+    @Test
+    public void testParse_ExportedRow() {
+        // Setup: a row as the CSV export writes it, with a quoted name and an escaped quote
+        String line = "L1,\"Smith, \"\"JJ\"\"\",LEN1,10000.5,9500.25,2024-01-10T00:00:00Z,0.01,"
+                + "2024-06-30T12:30:15.250Z,0.0005,true";
+
+        // Run the test
+        final Loan loan = parse(line);
+
+        // Verify the results
+        assertNull(parser.error());
+        assertEquals("L1", loan.getLoanId());
+        assertEquals("Smith, \"JJ\"", loan.getCustomerId());
+        assertEquals("LEN1", loan.getLenderId());
+        assertEquals(10000.5, loan.getAmount(), 0.0);
+        assertEquals(9500.25, loan.getRemainingAmount(), 0.0);
+        assertEquals(Instant.parse("2024-01-10T00:00:00Z"), loan.getPaymentDate().toInstant());
+        assertEquals(0.01, loan.getInterestPerDay(), 0.0);
+        assertEquals(Instant.parse("2024-06-30T12:30:15.250Z"), loan.getDueDate().toInstant());
+        assertEquals(0.0005, loan.getPenaltyPerDay(), 0.0);
+        assertTrue(loan.isCancelled());
+    }
+
+    @Test
+    public void testParse_NumbersMatchDoubleParsing() {
+        // Setup: the exact path and the Double.parseDouble fallback must agree with Java's own parsing
+        String[] numbers = {"0.1", "-2.675", "123456789.123456", "9007199254740993", "1e3", "0.30000000000000004",
+                "+7", "00012.50"};
+
+        for (String number : numbers) {
+            // Run the test
+            final Loan loan = parse("L1,C1,LEN1," + number + ",0,2024-01-10,0,2024-01-11,0");
+
+            // Verify the results
+            assertEquals(number, Double.parseDouble(number), loan.getAmount(), 0.0);
+        }
+    }
+
+    @Test
+    public void testParse_DatesWithOffsetsAndWithoutCancelled() {
+        // Run the test: nine fields, a date-time with an offset and an empty penalty
+        final Loan loan = parse("L1,C1,LEN1,100,100,2024-02-29,0.01,2024-03-01T01:30+02:00,");
+
+        // Verify the results
+        assertNull(parser.error());
+        assertEquals(LocalDate.of(2024, 2, 29).toEpochDay() * 86_400_000L, loan.getPaymentDate().getTime());
+        assertEquals(Instant.parse("2024-02-29T23:30:00Z"), loan.getDueDate().toInstant());
+        assertEquals(0.0, loan.getPenaltyPerDay(), 0.0);
+        assertFalse(loan.isCancelled());
+    }
+
+    @Test
+    public void testParse_MalformedRows() {
+        // Run the test and verify the results
+        assertNull(parse("L1,C1,LEN1,100,100,2023-02-29,0.01,2024-03-01,0"));
+        assertEquals("Invalid paymentDate: 2023-02-29", parser.error());
+        assertNull(parse("L1,C1,LEN1,abc,100,2024-01-10,0.01,2024-03-01,0"));
+        assertEquals("Invalid amount: abc", parser.error());
+        assertNull(parse("L1,C1,LEN1,NaN,100,2024-01-10,0.01,2024-03-01,0"));
+        assertNull(parse("L1,C1,LEN1,100"));
+        assertEquals("Expected 9 or 10 fields, found 4", parser.error());
+        assertNull(parse("L1,\"C1,LEN1,100,100,2024-01-10,0.01,2024-03-01,0"));
+        assertNull(parse("L1,C1,LEN1,100,100,2024-01-10,0.01,2024-03-01,0,yes"));
+        assertEquals("Invalid cancelled: yes", parser.error());
+    }
+
+    @Test
+    public void testEpochDay() {
+        // Verify the results
+        for (LocalDate date = LocalDate.of(1899, 12, 25); date.getYear() < 2101; date = date.plusDays(13)) {
+            assertEquals(date.toString(), date.toEpochDay(),
+                    LoanCsvRowParser.epochDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+        }
+    }
+
+    private Loan parse(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return parser.parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanExportDTO;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ServiceOverloadedException;
+import com.example.LoanManage.service.LoanExportService.ExportFile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanExportServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private LoanLedger mockLedger;
+
+    private final List<Runnable> queuedTasks = new ArrayList<>();
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private LoanExportService exportServiceUnderTest;
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE loan (id BIGINT PRIMARY KEY, loan_id VARCHAR(255), "
+                + "customer_id VARCHAR(255), lender_id VARCHAR(255), amount DOUBLE, remaining_amount DOUBLE, "
+                + "payment_date TIMESTAMP, interest_per_day DOUBLE, due_date TIMESTAMP, penalty_per_day DOUBLE, "
+                + "cancelled BOOLEAN, version BIGINT)");
+        LoanWorkloadExecutor workloadExecutor = new LoanWorkloadExecutor(queuedTasks::add, queuedTasks::add,
+                new MockEnvironment(), new SimpleMeterRegistry());
+        // Ranges of two ids, so that every export has several part files
+        exportServiceUnderTest = new LoanExportService(jdbcTemplate, mockLedger, workloadExecutor,
+                folder.getRoot().toPath(), Duration.ofHours(1), 2, 2, Clock.systemUTC());
+    }
+
+    @After
+    public void tearDown() {
+        exportServiceUnderTest.stop();
+        database.shutdown();
+    }
+
+    @Test
+    public void testExport_CsvOfOneLender() throws IOException {
+        // Setup
+        insertLoan(1, "L1", "Smith, J", "LEN1", LocalDate.of(2024, 1, 10));
+        insertLoan(2, "L2", "C2", "LEN2", LocalDate.of(2024, 1, 11));
+        insertLoan(3, "L3", "C3", "LEN1", LocalDate.of(2024, 1, 12));
+        insertLoan(7, "L7", "C7", "LEN1", LocalDate.of(2024, 1, 13));
+        insertLoan(8, "L8", "C8", "LEN1", LocalDate.of(2024, 2, 1));
+        readThroughView(Map.of("L3", new LoanLedger.Tail(250.0, 1L, new Date())));
+
+        // Run the test: LEN1 loans paid in January
+        final LoanExportDTO export = exportServiceUnderTest.submit("csv", "LEN1", LocalDate.of(2024, 1, 1),
+                LocalDate.of(2024, 1, 31), null, null);
+        queuedTasks.forEach(Runnable::run);
+
+        // Verify the results
+        final ExportFile file = exportServiceUnderTest.getFile(export.getExportId());
+        final List<String> lines = Files.readAllLines(file.getPath(), StandardCharsets.UTF_8);
+        assertEquals(List.of(
+                "loanId,customerId,lenderId,amount,remainingAmount,paymentDate,interestPerDay,dueDate,penaltyPerDay,cancelled",
+                "L1,\"Smith, J\",LEN1,1000.0,1000.0,2024-01-10T00:00:00Z,0.01,,0.5,false",
+                "L3,C3,LEN1,1000.0,750.0,2024-01-12T00:00:00Z,0.01,,0.5,false",
+                "L7,C7,LEN1,1000.0,1000.0,2024-01-13T00:00:00Z,0.01,,0.5,false"), lines);
+        assertEquals(3L, file.getRowCount());
+        assertEquals(Files.size(file.getPath()), file.getSize());
+        assertEquals("SUCCEEDED", exportServiceUnderTest.getExport(export.getExportId()).getStatus());
+        // Only the export file is left in the directory
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testExport_ColumnarBlocksAndFooter() throws IOException {
+        // Setup: ids 1, 2 and 5 give two non-empty ranges, [1, 3) and [5, 6)
+        insertLoan(1, "L1", "C1", "LEN1", LocalDate.of(2024, 1, 10));
+        insertLoan(2, "L2", "C2", "LEN1", LocalDate.of(2024, 1, 11));
+        insertLoan(5, "L5", "C5", "LEN2", LocalDate.of(2024, 1, 12));
+        readThroughView(Collections.emptyMap());
+
+        // Run the test
+        final LoanExportDTO export = exportServiceUnderTest.submit("columnar", null, null, null, null, null);
+        queuedTasks.forEach(Runnable::run);
+
+        // Verify the results
+        final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(
+                exportServiceUnderTest.getFile(export.getExportId()).getPath()));
+        assertEquals(LoanExportService.COLUMNAR_MAGIC, bytes.getInt(0));
+        assertEquals(LoanExportService.COLUMNAR_VERSION, bytes.getInt(4));
+        assertEquals(LoanExportService.COLUMN_NAMES.length, bytes.getInt(8));
+        final int tail = bytes.limit() - LoanExportService.FOOTER_TAIL_SIZE;
+        assertEquals(2, bytes.getInt(tail));
+        assertEquals(3L, bytes.getLong(tail + 4));
+        assertEquals(LoanExportService.COLUMNAR_MAGIC, bytes.getInt(tail + 12));
+
+        // The second block holds L5: its row count, the length of its loanId, then the UTF-8 bytes
+        final int block = (int) bytes.getLong(tail - Long.BYTES);
+        assertEquals(1, bytes.getInt(block));
+        assertEquals(2, bytes.getInt(block + 4));
+        assertEquals(2, bytes.getInt(block + 8));
+        assertEquals('L', bytes.get(block + 12));
+        assertEquals('5', bytes.get(block + 13));
+    }
+
+    @Test
+    public void testSubmit_TimedOutExportFailsAndLeavesNoFile() throws Exception {
+        // Setup: a batch timeout of 1 ms, which passes while the export waits in the queue
+        insertLoan(1, "L1", "C1", "LEN1", LocalDate.of(2024, 1, 10));
+        readThroughView(Collections.emptyMap());
+        exportServiceUnderTest.stop();
+        exportServiceUnderTest = new LoanExportService(jdbcTemplate, mockLedger,
+                new LoanWorkloadExecutor(queuedTasks::add, queuedTasks::add,
+                        new MockEnvironment().withProperty("loan.async.batch.timeout-ms", "1"),
+                        new SimpleMeterRegistry()),
+                folder.getRoot().toPath(), Duration.ofHours(1), 2, 2, Clock.systemUTC());
+        final LoanExportDTO export = exportServiceUnderTest.submit("csv", null, null, null, null, null);
+        for (int i = 0; i < 500 && "PENDING".equals(exportServiceUnderTest.getExport(export.getExportId())
+                .getStatus()); i++) {
+            Thread.sleep(10);
+        }
+
+        // Run the test: the export runs after its timeout
+        queuedTasks.forEach(Runnable::run);
+
+        // Verify the results: it stays failed, is not reused, and its late file is deleted
+        assertEquals("FAILED", exportServiceUnderTest.getExport(export.getExportId()).getStatus());
+        assertNotEquals(export.getExportId(),
+                exportServiceUnderTest.submit("csv", null, null, null, null, null).getExportId());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testSubmit_CoalescesIdenticalExports() {
+        // Run the test
+        final LoanExportDTO first = exportServiceUnderTest.submit("csv", "LEN1", null, null, null, null);
+        final LoanExportDTO second = exportServiceUnderTest.submit("CSV", "LEN1", null, null, null, null);
+        final LoanExportDTO other = exportServiceUnderTest.submit("columnar", "LEN1", null, null, null, null);
+
+        // Verify the results
+        assertEquals(first.getExportId(), second.getExportId());
+        assertFalse(first.isCoalesced());
+        assertTrue(second.isCoalesced());
+        assertNotEquals(first.getExportId(), other.getExportId());
+        assertEquals(2, queuedTasks.size());
+        assertNull(exportServiceUnderTest.getFile(first.getExportId()));
+    }
+
+    @Test
+    public void testSubmit_OverloadedExportFailsForTheCallersThatJoinedIt() {
+        // Setup: the batch pool rejects the export, after a second caller has joined it
+        final LoanExportDTO[] joined = new LoanExportDTO[1];
+        exportServiceUnderTest.stop();
+        exportServiceUnderTest = new LoanExportService(jdbcTemplate, mockLedger,
+                new LoanWorkloadExecutor(queuedTasks::add, task -> {
+                    joined[0] = exportServiceUnderTest.submit("csv", "LEN1", null, null, null, null);
+                    throw new RejectedExecutionException();
+                }, new MockEnvironment(), new SimpleMeterRegistry()),
+                folder.getRoot().toPath(), Duration.ofHours(1), 2, 2, Clock.systemUTC());
+
+        // Run the test
+        try {
+            exportServiceUnderTest.submit("csv", "LEN1", null, null, null, null);
+            fail("Expected the export to be rejected");
+        } catch (ServiceOverloadedException expected) {
+            // Verify the results: the joined caller sees the failure
+            final LoanExportDTO export = exportServiceUnderTest.getExport(joined[0].getExportId());
+            assertTrue(joined[0].isCoalesced());
+            assertEquals("FAILED", export.getStatus());
+            assertEquals(expected.getMessage(), export.getError());
+        }
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testSubmit_DateRangeEndsBeforeItStarts() {
+        exportServiceUnderTest.submit("csv", null, null, null, LocalDate.of(2024, 2, 1), LocalDate.of(2024, 1, 1));
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testSubmit_UnknownFormat() {
+        exportServiceUnderTest.submit("xlsx", null, null, null, null, null);
+    }
+
+    private void readThroughView(Map<String, LoanLedger.Tail> tails) {
+        when(mockLedger.readView(any())).thenAnswer(invocation -> ((Function<LoanLedger.View, ?>)
+                invocation.getArgument(0)).apply(new LoanLedger.View(tails, 0L)));
+    }
+
+    private void insertLoan(long id, String loanId, String customerId, String lenderId, LocalDate paymentDate) {
+        jdbcTemplate.update("INSERT INTO loan VALUES (?, ?, ?, ?, 1000.0, 1000.0, ?, 0.01, NULL, 0.5, FALSE, 0)",
+                id, loanId, customerId, lenderId,
+                Timestamp.from(paymentDate.atStartOfDay(ZoneOffset.UTC).toInstant()));
+    }
+}
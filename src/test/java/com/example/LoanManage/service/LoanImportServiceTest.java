@@ -0,0 +1,327 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanImportDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.entity.LoanImport;
+import com.example.LoanManage.entity.LoanImportSegment;
+import com.example.LoanManage.exception.LoanValidationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanImportServiceTest {
+
+    private static final String HEADER = "loanId,customerId,lenderId,amount,remainingAmount,paymentDate,"
+            + "interestPerDay,dueDate,penaltyPerDay,cancelled\r\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private LoanIngestService mockIngestService;
+
+    @Mock
+    private LoanImportRepository mockImportRepository;
+
+    @Mock
+    private LoanImportSegmentRepository mockSegmentRepository;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    private final List<Runnable> queuedTasks = new ArrayList<>();
+    private final List<LoanImport> imports = new ArrayList<>();
+    private final List<LoanImportSegment> segments = Collections.synchronizedList(new ArrayList<>());
+    private final List<Loan> persistedLoans = Collections.synchronizedList(new ArrayList<>());
+    private Path directory;
+    private LoanImportService importServiceUnderTest;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("imports").toPath();
+        // The repositories keep their rows in the lists above
+        lenient().when(mockImportRepository.save(any(LoanImport.class))).thenAnswer(invocation -> {
+            imports.add(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        lenient().when(mockImportRepository.findById(anyString())).thenAnswer(invocation -> imports.stream()
+                .filter(loanImport -> loanImport.getImportId().equals(invocation.getArgument(0))).findFirst());
+        lenient().when(mockImportRepository.findFirstByFilePathAndFileSizeAndFileModified(anyString(), anyLong(),
+                anyLong())).thenAnswer(invocation -> imports.stream()
+                .filter(loanImport -> loanImport.getFilePath().equals(invocation.getArgument(0))
+                        && loanImport.getFileSize() == (long) invocation.getArgument(1)
+                        && loanImport.getFileModified() == (long) invocation.getArgument(2))
+                .findFirst());
+        lenient().when(mockSegmentRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            segments.addAll(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        lenient().when(mockSegmentRepository.findByImportIdOrderBySegmentIndex(anyString()))
+                .thenAnswer(invocation -> segmentsOf(invocation.getArgument(0)));
+        lenient().when(mockSegmentRepository.checkpoint(anyString(), anyLong(), anyLong(), anyLong(), anyLong()))
+                .thenAnswer(invocation -> {
+                    LoanImportSegment segment = segments.stream()
+                            .filter(s -> s.getSegmentId().equals(invocation.getArgument(0))).findFirst().get();
+                    segment.setCommittedOffset(invocation.getArgument(1));
+                    segment.setAcceptedRows(invocation.getArgument(2));
+                    segment.setRejectedRows(invocation.getArgument(3));
+                    segment.setRejectedBytes(invocation.getArgument(4));
+                    return 1;
+                });
+        // The checkpoint runs inside the persisting transaction
+        lenient().doAnswer(invocation -> {
+            persistedLoans.addAll(invocation.getArgument(0));
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(mockIngestService).persist(anyList(), any(Runnable.class));
+
+        LoanWorkloadExecutor workloadExecutor = new LoanWorkloadExecutor(queuedTasks::add, queuedTasks::add,
+                new MockEnvironment(), new SimpleMeterRegistry());
+        // Segments of about 150 bytes and chunks of two rows, so that a small file exercises both
+        importServiceUnderTest = new LoanImportService(mockIngestService, mockImportRepository,
+                mockSegmentRepository, new TransactionTemplate(mockTransactionManager), workloadExecutor,
+                directory, 150, 2, 2, Clock.systemUTC());
+    }
+
+    @After
+    public void tearDown() {
+        importServiceUnderTest.stop();
+    }
+
+    @Test
+    public void testImport_PersistsValidRowsAndListsTheRejected() throws IOException {
+        // Setup: a byte order mark, a header, a blank line, a malformed date and a due date before the payment
+        String rows = row("L1", "2024-01-10") + row("L2", "2024-01-11") + "\r\n"
+                + row("L3", "2024-13-01") + row("L4", "2024-01-12")
+                + "L5,C5,LEN1,1000,1000,2024-03-01,0.01,2024-02-01,0.02,false\r\n" + row("L6", "2024-01-13");
+        writeImportFile("portfolio.csv", rows, true);
+
+        // Run the test
+        final LoanImportDTO submitted = importServiceUnderTest.submit("portfolio.csv");
+        runQueuedTasks();
+
+        // Verify the results
+        assertFalse(submitted.isCoalesced());
+        assertTrue(submitted.getSegments() > 1);
+        final LoanImportDTO result = importServiceUnderTest.getImport(submitted.getImportId());
+        assertEquals("SUCCEEDED", result.getStatus());
+        assertEquals(1.0, result.getProgress(), 0.0);
+        assertEquals(4, result.getAcceptedRows());
+        assertEquals(2, result.getRejectedRows());
+        assertEquals(List.of("L1", "L2", "L4", "L6"), persistedLoans.stream().map(Loan::getLoanId).sorted()
+                .collect(Collectors.toList()));
+
+        List<String> rejected = Files.readAllLines(importServiceUnderTest.getRejectedRows(submitted.getImportId()));
+        long bodyStart = 3 + HEADER.length();
+        assertEquals(3, rejected.size());
+        assertTrue(rejected.get(0).startsWith("offset,error,loanId,"));
+        assertEquals((bodyStart + rows.indexOf("L3,")) + ",\"Invalid paymentDate: 2024-13-01\","
+                + row("L3", "2024-13-01").trim(), rejected.get(1));
+        assertTrue(rejected.get(2).startsWith((bodyStart + rows.indexOf("L5,")) + ","));
+        assertTrue(rejected.get(2).endsWith(",L5,C5,LEN1,1000,1000,2024-03-01,0.01,2024-02-01,0.02,false"));
+    }
+
+    @Test
+    public void testImport_TimedOutImportIsNotStartedAgainWhileItRuns() throws Exception {
+        // Setup: a batch timeout of 1 ms, which passes while the import waits in the queue
+        importServiceUnderTest.stop();
+        importServiceUnderTest = new LoanImportService(mockIngestService, mockImportRepository,
+                mockSegmentRepository, new TransactionTemplate(mockTransactionManager),
+                new LoanWorkloadExecutor(queuedTasks::add, queuedTasks::add,
+                        new MockEnvironment().withProperty("loan.async.batch.timeout-ms", "1"),
+                        new SimpleMeterRegistry()),
+                directory, 150, 2, 2, Clock.systemUTC());
+        writeImportFile("portfolio.csv", row("L1", "2024-01-10") + row("L2", "2024-01-11"), false);
+        final LoanImportDTO submitted = importServiceUnderTest.submit("portfolio.csv");
+        for (int i = 0; i < 500 && !"FAILED".equals(importServiceUnderTest.getImport(submitted.getImportId())
+                .getStatus()); i++) {
+            Thread.sleep(10);
+        }
+
+        // Run the test: submitting again joins the failed run, which has not ended yet
+        importServiceUnderTest.submit("portfolio.csv");
+
+        // Verify the results
+        assertEquals(1, queuedTasks.size());
+        assertEquals("FAILED", importServiceUnderTest.getImport(submitted.getImportId()).getStatus());
+        // The queued run skips the import, after which a submission starts it again
+        runQueuedTasks();
+        assertTrue(persistedLoans.isEmpty());
+        importServiceUnderTest.submit("portfolio.csv");
+        assertEquals(1, queuedTasks.size());
+    }
+
+    @Test
+    public void testImport_ResumesFromTheCheckpoint() throws IOException {
+        // Setup: an import of the same file that stopped after its first row
+        String rows = row("L1", "2024-01-10") + row("L2", "2024-01-11");
+        Path file = writeImportFile("portfolio.csv", rows, false);
+        LoanImport loanImport = new LoanImport();
+        loanImport.setImportId("import-1");
+        loanImport.setFilePath(file.toString());
+        loanImport.setFileSize(Files.size(file));
+        loanImport.setFileModified(Files.getLastModifiedTime(file).toMillis());
+        imports.add(loanImport);
+        LoanImportSegment segment = new LoanImportSegment();
+        segment.setSegmentId("import-1/0");
+        segment.setImportId("import-1");
+        segment.setStartOffset(0);
+        segment.setEndOffset(rows.length());
+        segment.setCommittedOffset(rows.indexOf("L2,"));
+        segment.setAcceptedRows(1);
+        segments.add(segment);
+
+        // Run the test
+        final LoanImportDTO submitted = importServiceUnderTest.submit("portfolio.csv");
+        runQueuedTasks();
+
+        // Verify the results
+        assertTrue(submitted.isCoalesced());
+        assertEquals("import-1", submitted.getImportId());
+        assertEquals(List.of("L2"), persistedLoans.stream().map(Loan::getLoanId).collect(Collectors.toList()));
+        final LoanImportDTO result = importServiceUnderTest.getImport("import-1");
+        assertEquals("SUCCEEDED", result.getStatus());
+        assertEquals(2, result.getAcceptedRows());
+    }
+
+    @Test
+    public void testImport_ConstraintViolationFallsBackToSingleRows() throws IOException {
+        // Setup: L2 already exists, so its chunk fails and it alone is rejected
+        doAnswer(invocation -> {
+            List<Loan> loans = invocation.getArgument(0);
+            if (loans.stream().anyMatch(loan -> "L2".equals(loan.getLoanId()))) {
+                throw new DataIntegrityViolationException("duplicate loanId");
+            }
+            persistedLoans.addAll(loans);
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(mockIngestService).persist(anyList(), any(Runnable.class));
+        writeImportFile("portfolio.csv", row("L1", "2024-01-10") + row("L2", "2024-01-11"), false);
+
+        // Run the test
+        final LoanImportDTO submitted = importServiceUnderTest.submit("portfolio.csv");
+        runQueuedTasks();
+
+        // Verify the results
+        final LoanImportDTO result = importServiceUnderTest.getImport(submitted.getImportId());
+        assertEquals(1, result.getAcceptedRows());
+        assertEquals(1, result.getRejectedRows());
+        assertEquals(List.of("L1"), persistedLoans.stream().map(Loan::getLoanId).collect(Collectors.toList()));
+        List<String> rejected = Files.readAllLines(importServiceUnderTest.getRejectedRows(submitted.getImportId()));
+        assertTrue(rejected.get(1).contains("Data Integrity Violation: duplicate loanId"));
+    }
+
+    @Test
+    public void testImport_LoansAlreadyStoredWithTheSameTermsCountAsImported() throws IOException {
+        // Setup: L2 is stored already, as after a restore from a book image taken while the import ran
+        doAnswer(invocation -> {
+            List<Loan> loans = invocation.getArgument(0);
+            if (loans.stream().anyMatch(loan -> "L2".equals(loan.getLoanId()))) {
+                throw new DataIntegrityViolationException("duplicate loanId");
+            }
+            persistedLoans.addAll(loans);
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(mockIngestService).persist(anyList(), any(Runnable.class));
+        when(mockIngestService.isPersisted(argThat(loan -> "L2".equals(loan.getLoanId())))).thenReturn(true);
+        writeImportFile("portfolio.csv", row("L1", "2024-01-10") + row("L2", "2024-01-11"), false);
+
+        // Run the test
+        final LoanImportDTO submitted = importServiceUnderTest.submit("portfolio.csv");
+        runQueuedTasks();
+
+        // Verify the results
+        final LoanImportDTO result = importServiceUnderTest.getImport(submitted.getImportId());
+        assertEquals(2, result.getAcceptedRows());
+        assertEquals(0, result.getRejectedRows());
+        assertEquals(List.of("L1"), persistedLoans.stream().map(Loan::getLoanId).collect(Collectors.toList()));
+        assertEquals(1, Files.readAllLines(importServiceUnderTest.getRejectedRows(submitted.getImportId())).size());
+    }
+
+    @Test
+    public void testImport_RowWhoseLoanIdStartsLikeTheHeaderIsNotSkipped() throws IOException {
+        // Setup: no header, and a first loanId that begins with the name of the first column
+        writeImportFile("portfolio.csv", row("LOANID-7", "2024-01-10") + row("L2", "2024-01-11"), false);
+
+        // Run the test
+        final LoanImportDTO submitted = importServiceUnderTest.submit("portfolio.csv");
+        runQueuedTasks();
+
+        // Verify the results
+        assertEquals(2, importServiceUnderTest.getImport(submitted.getImportId()).getAcceptedRows());
+        assertEquals(List.of("L2", "LOANID-7"), persistedLoans.stream().map(Loan::getLoanId).sorted()
+                .collect(Collectors.toList()));
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testSubmit_OutsideTheImportDirectory() throws IOException {
+        // Setup
+        Files.write(folder.getRoot().toPath().resolve("secret.csv"), new byte[]{'x'});
+
+        // Run the test
+        importServiceUnderTest.submit("../secret.csv");
+    }
+
+    private static String row(String loanId, String paymentDate) {
+        return loanId + ",\"Smith, J\",LEN1,1000.50,900.25," + paymentDate + ",0.01,2024-06-30T12:00:00Z,0.02,false\r\n";
+    }
+
+    private Path writeImportFile(String name, String rows, boolean withHeader) throws IOException {
+        byte[] body = ((withHeader ? HEADER : "") + rows).getBytes(StandardCharsets.UTF_8);
+        byte[] content = body;
+        if (withHeader) {
+            content = new byte[body.length + 3];
+            content[0] = (byte) 0xEF;
+            content[1] = (byte) 0xBB;
+            content[2] = (byte) 0xBF;
+            System.arraycopy(body, 0, content, 3, body.length);
+        }
+        return Files.write(directory.resolve(name), content);
+    }
+
+    private List<LoanImportSegment> segmentsOf(String importId) {
+        synchronized (segments) {
+            return segments.stream().filter(segment -> segment.getImportId().equals(importId))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void runQueuedTasks() {
+        while (!queuedTasks.isEmpty()) {
+            queuedTasks.remove(0).run();
+        }
+    }
+}
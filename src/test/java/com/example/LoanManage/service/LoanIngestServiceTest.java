@@ -0,0 +1,126 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.BulkIngestResultDTO;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.mapper.LoanMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanIngestServiceTest {
+
+    @Mock
+    private LoanRepository mockLoanRepository;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    @Mock
+    private EntityManager mockEntityManager;
+
+    @Mock
+    private LoanCacheEvictor mockCacheEvictor;
+
+    private LoanIngestService loanIngestServiceUnderTest;
+
+    @Before
+    public void setUp() {
+        loanIngestServiceUnderTest = new LoanIngestService(mockLoanRepository,
+                new LoanAggregateStore(mockLoanRepository),
+                new LoanSnapshot(mockLoanRepository, mockTransactionManager), mockCacheEvictor,
+                new TransactionTemplate(mockTransactionManager), 2);
+        ReflectionTestUtils.setField(loanIngestServiceUnderTest, "entityManager", mockEntityManager);
+    }
+
+    @Test
+    public void testIngest_RejectsInvalidRowsAndPersistsTheRestInChunks() {
+        // Setup: row 2 has its payment date after its due date
+        LoanDTO invalid = createSampleLoanDTO("L2");
+        invalid.setPaymentDate(new java.sql.Date(1234567890123L + 86_400_000L));
+        when(mockLoanRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Run the test
+        final BulkIngestResultDTO result = loanIngestServiceUnderTest.ingest(Arrays.asList(
+                createSampleLoanDTO("L1"), invalid, createSampleLoanDTO("L3"), createSampleLoanDTO("L4")));
+
+        // Verify the results
+        assertEquals(4, result.getTotalRows());
+        assertEquals(3, result.getAcceptedRows());
+        assertEquals(1, result.getRejectedRows());
+        assertEquals(2, result.getErrors().get(0).getRow());
+        assertEquals("L2", result.getErrors().get(0).getLoanId());
+        verify(mockLoanRepository, times(2)).saveAll(anyList());
+        verify(mockCacheEvictor, times(2)).evict(anyList());
+    }
+
+    @Test
+    public void testIsPersisted_ComparesTheTermsButNotTheBalance() {
+        // Setup: the stored loan has been paid down since; another loan with the same loanId has another amount
+        Loan stored = LoanMapper.toEntity(createSampleLoanDTO("L1"));
+        stored.setRemainingAmount(0.0);
+        stored.setPaymentDate(new java.sql.Timestamp(stored.getPaymentDate().getTime()));
+        when(mockLoanRepository.findByLoanId("L1")).thenReturn(Optional.of(stored));
+        Loan other = LoanMapper.toEntity(createSampleLoanDTO("L1"));
+        other.setAmount(other.getAmount() + 1);
+
+        // Run the test and verify the results
+        assertTrue(loanIngestServiceUnderTest.isPersisted(LoanMapper.toEntity(createSampleLoanDTO("L1"))));
+        assertFalse(loanIngestServiceUnderTest.isPersisted(other));
+    }
+
+    @Test
+    public void testIngest_ConstraintViolationFallsBackToSingleRows() {
+        // Setup: the chunk fails because L2 already exists
+        when(mockLoanRepository.saveAll(anyList())).thenThrow(new DataIntegrityViolationException("duplicate"));
+        when(mockLoanRepository.save(argThat((Loan loan) -> loan != null && "L1".equals(loan.getLoanId()))))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        when(mockLoanRepository.save(argThat((Loan loan) -> loan != null && "L2".equals(loan.getLoanId()))))
+                .thenThrow(new DataIntegrityViolationException("duplicate"));
+
+        // Run the test
+        final BulkIngestResultDTO result = loanIngestServiceUnderTest.ingest(
+                List.of(createSampleLoanDTO("L1"), createSampleLoanDTO("L2")));
+
+        // Verify the results
+        assertEquals(1, result.getAcceptedRows());
+        assertEquals(1, result.getRejectedRows());
+        assertEquals("L2", result.getErrors().get(0).getLoanId());
+    }
+
+    private LoanDTO createSampleLoanDTO(String loanId) {
+        LoanDTO loanDTO = new LoanDTO();
+        loanDTO.setLoanId(loanId);
+        loanDTO.setCustomerId("C1");
+        loanDTO.setLenderId("LEN1");
+        loanDTO.setAmount(10000.0);
+        loanDTO.setRemainingAmount(10000.0);
+        loanDTO.setPaymentDate(new java.sql.Date(1234567890123L));
+        loanDTO.setInterestPerDay(0.01);
+        loanDTO.setDueDate(new java.sql.Date(1234567890123L));
+        loanDTO.setPenaltyPerDay(0.01);
+        loanDTO.setCancelled(false);
+        return loanDTO;
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanPaymentDTO;
+import com.example.LoanManage.dto.LoanPaymentTotals;
+import com.example.LoanManage.entity.LedgerCheckpoint;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.entity.LoanPayment;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ResourceNotFoundException;
+import com.example.LoanManage.mapper.LoanMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanLedgerTest {
+
+    @Mock
+    private LoanRepository mockLoanRepository;
+
+    @Mock
+    private LoanPaymentRepository mockPaymentRepository;
+
+    @Mock
+    private LedgerCheckpointRepository mockCheckpointRepository;
+
+    @Mock
+    private LoanAggregateStore mockAggregateStore;
+
+    @Mock
+    private LoanCacheEvictor mockCacheEvictor;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    private LoanLedger ledgerUnderTest;
+    private long nextPaymentId;
+
+    @Before
+    public void setUp() {
+        ledgerUnderTest = new LoanLedger(mockLoanRepository, mockPaymentRepository, mockCheckpointRepository,
+                mockAggregateStore, mockCacheEvictor, new TransactionTemplate(mockTransactionManager), 100, 10,
+                5000);
+        nextPaymentId = 1;
+    }
+
+    @Test
+    public void testPost_CommitsQueuedPaymentsTogether() throws Exception {
+        // Setup: two payments to the same loan wait for one commit
+        when(mockLoanRepository.findByLoanIdIn(anyCollection()))
+                .thenReturn(Collections.singletonList(createSampleLoan("L1", 1000.0)));
+        stubSaveAll();
+        CompletableFuture<LoanPaymentDTO> first = ledgerUnderTest.post("L1", 100.0);
+        CompletableFuture<LoanPaymentDTO> second = ledgerUnderTest.post("L1", 200.0);
+
+        // Run the test
+        int written = ledgerUnderTest.writePending();
+
+        // Verify the results
+        assertEquals(2, written);
+        verify(mockPaymentRepository, times(1)).saveAll(anyList());
+        assertEquals(900.0, first.get().getRemainingAmount(), 1e-9);
+        assertEquals(700.0, second.get().getRemainingAmount(), 1e-9);
+        assertEquals(Long.valueOf(2L), second.get().getPaymentId());
+        assertEquals(700.0, ledgerUnderTest.applyUnsettled(LoanMapper.toDTO(createSampleLoan("L1", 1000.0)))
+                .getRemainingAmount(), 1e-9);
+        verify(mockCacheEvictor).evict(anyCollection());
+    }
+
+    @Test
+    public void testPost_RejectsOverpaymentAndUnknownLoan() {
+        // Setup: the second payment to L1 exceeds what the first leaves; L2 does not exist
+        when(mockLoanRepository.findByLoanIdIn(anyCollection()))
+                .thenReturn(Collections.singletonList(createSampleLoan("L1", 1000.0)));
+        stubSaveAll();
+        CompletableFuture<LoanPaymentDTO> accepted = ledgerUnderTest.post("L1", 600.0);
+        CompletableFuture<LoanPaymentDTO> overpaid = ledgerUnderTest.post("L1", 600.0);
+        CompletableFuture<LoanPaymentDTO> unknown = ledgerUnderTest.post("L2", 10.0);
+
+        // Run the test
+        ledgerUnderTest.writePending();
+
+        // Verify the results
+        assertFalse(accepted.isCompletedExceptionally());
+        assertTrue(causeOf(overpaid) instanceof LoanValidationException);
+        assertTrue(causeOf(unknown) instanceof ResourceNotFoundException);
+    }
+
+    @Test
+    public void testPost_RejectsCancelledLoan() {
+        // Setup
+        Loan loan = createSampleLoan("L1", 1000.0);
+        loan.setCancelled(true);
+        when(mockLoanRepository.findByLoanIdIn(anyCollection())).thenReturn(Collections.singletonList(loan));
+        CompletableFuture<LoanPaymentDTO> payment = ledgerUnderTest.post("L1", 10.0);
+
+        // Run the test
+        ledgerUnderTest.writePending();
+
+        // Verify the results
+        assertTrue(causeOf(payment) instanceof LoanValidationException);
+        verify(mockPaymentRepository, never()).saveAll(anyList());
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testPost_NonPositiveAmount() {
+        // Run the test
+        ledgerUnderTest.post("L1", 0.0);
+    }
+
+    @Test
+    public void testSettle_FoldsTailIntoLoans() throws Exception {
+        // Setup: one committed payment of 250, then settlement folds it into the loan row
+        when(mockLoanRepository.findByLoanIdIn(anyCollection()))
+                .thenReturn(Collections.singletonList(createSampleLoan("L1", 1000.0)));
+        stubSaveAll();
+        CompletableFuture<LoanPaymentDTO> payment = ledgerUnderTest.post("L1", 250.0);
+        ledgerUnderTest.writePending();
+        Loan row = createSampleLoan("L1", 1000.0);
+        when(mockCheckpointRepository.findById(LedgerCheckpoint.LEDGER)).thenReturn(Optional.empty());
+        when(mockPaymentRepository.findMaxId()).thenReturn(1L);
+        when(mockPaymentRepository.sumByLoanIdBetween(0L, 1L))
+                .thenReturn(Collections.singletonList(createTotals("L1", 250.0, 1L, payment.get().getPaidAt())));
+        when(mockLoanRepository.findByLoanIdIn(anyCollection())).thenReturn(Collections.singletonList(row));
+        saveThroughStore();
+
+        // Run the test
+        ledgerUnderTest.settle();
+
+        // Verify the results: the row carries the payment and the tail no longer does
+        assertEquals(750.0, row.getRemainingAmount(), 1e-9);
+        verify(mockCheckpointRepository).save(any(LedgerCheckpoint.class));
+        verify(mockAggregateStore).recordUpdateAll(any());
+        LoanDTO settled = ledgerUnderTest.applyUnsettled(LoanMapper.toDTO(row));
+        assertEquals(750.0, settled.getRemainingAmount(), 1e-9);
+    }
+
+    @Test
+    public void testReadView_RowsReadAcrossASettlementAgree() throws Exception {
+        // Setup: a committed payment of 250 that settles while the view is open, bumping the row version
+        when(mockLoanRepository.findByLoanIdIn(anyCollection()))
+                .thenReturn(Collections.singletonList(createSampleLoan("L1", 1000.0)));
+        stubSaveAll();
+        CompletableFuture<LoanPaymentDTO> payment = ledgerUnderTest.post("L1", 250.0);
+        ledgerUnderTest.writePending();
+        Loan row = createSampleLoan("L1", 1000.0);
+        when(mockCheckpointRepository.findById(LedgerCheckpoint.LEDGER)).thenReturn(Optional.empty());
+        when(mockPaymentRepository.findMaxId()).thenReturn(1L);
+        when(mockPaymentRepository.sumByLoanIdBetween(0L, 1L))
+                .thenReturn(Collections.singletonList(createTotals("L1", 250.0, 1L, payment.get().getPaidAt())));
+        when(mockLoanRepository.findByLoanIdIn(anyCollection())).thenReturn(Collections.singletonList(row));
+        when(mockAggregateStore.recordUpdateAll(any())).thenAnswer(invocation -> {
+            Object changes = ((Supplier<?>) invocation.getArgument(0)).get();
+            row.setVersion(row.getVersion() + 1);
+            return changes;
+        });
+
+        // Run the test: read the row before and after the settlement, within the same view
+        final double[] remaining = ledgerUnderTest.readView(view -> {
+            LoanDTO before = LoanMapper.toDTO(row);
+            ledgerUnderTest.settle();
+            LoanDTO after = LoanMapper.toDTO(row);
+            return new double[]{view.applyUnsettled(before).getRemainingAmount(),
+                    view.applyUnsettled(after).getRemainingAmount(), view.getSettledPaymentId()};
+        });
+
+        // Verify the results: the payment counts once either way, and the view keeps its checkpoint
+        assertEquals(750.0, remaining[0], 1e-9);
+        assertEquals(750.0, remaining[1], 1e-9);
+        assertEquals(0.0, remaining[2], 0.0);
+        assertEquals(750.0, ledgerUnderTest.readView(view -> view.applyUnsettled(LoanMapper.toDTO(row)))
+                .getRemainingAmount(), 1e-9);
+    }
+
+    @Test
+    public void testSettle_NothingToSettle() {
+        // Setup
+        when(mockCheckpointRepository.findById(LedgerCheckpoint.LEDGER)).thenReturn(Optional.empty());
+        when(mockPaymentRepository.findMaxId()).thenReturn(null);
+        saveThroughStore();
+
+        // Run the test
+        ledgerUnderTest.settle();
+
+        // Verify the results
+        verify(mockCheckpointRepository, never()).save(any(LedgerCheckpoint.class));
+        verify(mockCacheEvictor, never()).evict(anyCollection());
+    }
+
+    @Test
+    public void testRecover_RebuildsTailAfterCheckpoint() {
+        // Setup
+        LedgerCheckpoint checkpoint = new LedgerCheckpoint();
+        checkpoint.setSettledPaymentId(40L);
+        when(mockCheckpointRepository.findById(LedgerCheckpoint.LEDGER)).thenReturn(Optional.of(checkpoint));
+        when(mockPaymentRepository.sumByLoanIdBetween(40L, Long.MAX_VALUE))
+                .thenReturn(Collections.singletonList(createTotals("L1", 125.0, 42L, new Date(5000L))));
+
+        // Run the test
+        ledgerUnderTest.recover();
+
+        // Verify the results
+        LoanDTO loan = ledgerUnderTest.applyUnsettled(LoanMapper.toDTO(createSampleLoan("L1", 1000.0)));
+        assertEquals(875.0, loan.getRemainingAmount(), 1e-9);
+        assertEquals(new Date(5000L), loan.getLastModified());
+    }
+
+    private void saveThroughStore() {
+        when(mockAggregateStore.recordUpdateAll(any()))
+                .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+    }
+
+    private void stubSaveAll() {
+        when(mockPaymentRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<LoanPayment> payments = invocation.getArgument(0);
+            for (LoanPayment payment : payments) {
+                payment.setId(nextPaymentId++);
+            }
+            return payments;
+        });
+    }
+
+    private static Throwable causeOf(CompletableFuture<LoanPaymentDTO> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static LoanPaymentTotals createTotals(String loanId, double totalAmount, long lastPaymentId,
+                                                  Date lastPaidAt) {
+        return new LoanPaymentTotals() {
+            @Override
+            public String getLoanId() {
+                return loanId;
+            }
+
+            @Override
+            public Double getTotalAmount() {
+                return totalAmount;
+            }
+
+            @Override
+            public Long getLastPaymentId() {
+                return lastPaymentId;
+            }
+
+            @Override
+            public Date getLastPaidAt() {
+                return lastPaidAt;
+            }
+        };
+    }
+
+    private static Loan createSampleLoan(String loanId, double remainingAmount) {
+        Loan loan = new Loan();
+        loan.setLoanId(loanId);
+        loan.setCustomerId("C1");
+        loan.setLenderId("LEN1");
+        loan.setAmount(1000.0);
+        loan.setRemainingAmount(remainingAmount);
+        loan.setPaymentDate(new Date(1234567890123L));
+        loan.setInterestPerDay(0.01);
+        loan.setDueDate(new Date(1234567890123L));
+        loan.setPenaltyPerDay(0.01);
+        return loan;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanOverdueScannerTest {
+
+    private static final Instant START = Instant.ofEpochMilli(1_700_000_000_000L);
+
+    @Mock
+    private LoanRepository mockLoanRepository;
+
+    @Mock
+    private LoanPaymentRepository mockPaymentRepository;
+
+    @Mock
+    private LedgerCheckpointRepository mockCheckpointRepository;
+
+    @Mock
+    private LoanCacheEvictor mockCacheEvictor;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    private MutableClock clock;
+    private SimpleMeterRegistry meterRegistry;
+    private LoanOverdueScanner scannerUnderTest;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(START);
+        meterRegistry = new SimpleMeterRegistry();
+        LoanLedger ledger = new LoanLedger(mockLoanRepository, mockPaymentRepository, mockCheckpointRepository,
+                new LoanAggregateStore(mockLoanRepository), mockCacheEvictor,
+                new TransactionTemplate(mockTransactionManager), 1000, 1000, 5000);
+        scannerUnderTest = new LoanOverdueScanner(mockLoanRepository, ledger, meterRegistry, clock);
+    }
+
+    @Test
+    public void testScan_PicksUpLoansDueSinceLastTick() {
+        // Setup: one minute passes; the loan that fell due in it is picked up
+        LoanDTO loan = createSampleLoanDTO(new Date(START.toEpochMilli() + 30_000));
+        clock.advance(Duration.ofMinutes(1));
+        when(mockLoanRepository.findLoanDTOsFallingDueBetween(Date.from(START), Date.from(clock.instant())))
+                .thenReturn(Collections.singletonList(loan));
+
+        // Run the test
+        List<LoanDTO> result = scannerUnderTest.scan();
+
+        // Verify the results
+        assertEquals(1, result.size());
+        assertEquals(1.0, meterRegistry.get("loan.overdue.transitions").counter().count(), 0.0);
+    }
+
+    @Test
+    public void testScan_NextTickStartsAtWatermark() {
+        // Setup
+        Instant firstTick = START.plus(Duration.ofMinutes(1));
+        clock.advance(Duration.ofMinutes(1));
+        when(mockLoanRepository.findLoanDTOsFallingDueBetween(Date.from(START), Date.from(firstTick)))
+                .thenReturn(Collections.emptyList());
+        scannerUnderTest.scan();
+        clock.advance(Duration.ofMinutes(1));
+        when(mockLoanRepository.findLoanDTOsFallingDueBetween(Date.from(firstTick), Date.from(clock.instant())))
+                .thenReturn(Collections.emptyList());
+
+        // Run the test
+        List<LoanDTO> result = scannerUnderTest.scan();
+
+        // Verify the results: the second range begins where the first ended
+        assertTrue(result.isEmpty());
+        verify(mockLoanRepository).findLoanDTOsFallingDueBetween(Date.from(firstTick), Date.from(clock.instant()));
+    }
+
+    @Test
+    public void testScan_SameInstantReadsNothing() {
+        // Run the test
+        List<LoanDTO> result = scannerUnderTest.scan();
+
+        // Verify the results
+        assertTrue(result.isEmpty());
+    }
+
+    private static LoanDTO createSampleLoanDTO(Date dueDate) {
+        LoanDTO loanDTO = new LoanDTO();
+        loanDTO.setLoanId("L1");
+        loanDTO.setCustomerId("C1");
+        loanDTO.setLenderId("LEN1");
+        loanDTO.setAmount(10000.0);
+        loanDTO.setRemainingAmount(10000.0);
+        loanDTO.setPaymentDate(new Date(START.toEpochMilli() - 86_400_000L));
+        loanDTO.setInterestPerDay(0.01);
+        loanDTO.setDueDate(dueDate);
+        loanDTO.setPenaltyPerDay(0.01);
+        return loanDTO;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.dto.LoanQueryDTO;
+import com.example.LoanManage.dto.LoanQueryResultDTO;
+import com.example.LoanManage.exception.LoanValidationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanQueryServiceTest {
+
+    @Mock
+    private LoanRepository mockLoanRepository;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    private LoanQueryService loanQueryServiceUnderTest;
+
+    @Before
+    public void setUp() {
+        loanQueryServiceUnderTest = new LoanQueryService(
+                new LoanSnapshot(mockLoanRepository, mockTransactionManager), 2, 2000, 10000);
+    }
+
+    @Test
+    public void testQuery_FiltersOverdueLoansOfOneLenderAndGroupsByCustomer() {
+        // Setup: due on day 10 or 30; the query asks for loans due by day 20 with interest of at least 0.02
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                row(1, "C1", "LEN1", 1000.0, 0.02, 10, false),
+                row(2, "C1", "LEN1", 3000.0, 0.03, 10, false),
+                row(3, "C2", "LEN1", 2000.0, 0.02, 10, false),
+                row(4, "C2", "LEN1", 2000.0, 0.02, 30, false),
+                row(5, "C2", "LEN1", 2000.0, 0.02, 10, true),
+                row(6, "C3", "LEN1", 2000.0, 0.01, 10, false),
+                row(7, "C1", "LEN2", 2000.0, 0.02, 10, false)));
+        final LoanQueryDTO query = new LoanQueryDTO();
+        query.setLenderId("LEN1");
+        query.setCancelled(false);
+        query.setDueDateTo(day(20));
+        query.setMinInterestPerDay(0.02);
+        query.setGroupBy(Collections.singletonList("customer"));
+        query.setSortBy("remainingAmount");
+
+        // Run the test
+        final LoanQueryResultDTO result = loanQueryServiceUnderTest.query(query);
+
+        // Verify the results
+        assertEquals(7, result.getScannedLoans());
+        assertEquals(3, result.getMatchedLoans());
+        assertEquals(2, result.getGroupCount());
+        assertFalse(result.isTruncated());
+        assertEquals("C1", result.getGroups().get(0).getGroupKey());
+        assertEquals(2, result.getGroups().get(0).getLoanCount());
+        assertEquals(4000.0, result.getGroups().get(0).getTotalRemainingAmount(), 0.001);
+        assertEquals(1000.0 * 0.02 + 3000.0 * 0.03, result.getGroups().get(0).getTotalInterest(), 0.001);
+        assertEquals("C2", result.getGroups().get(1).getGroupKey());
+    }
+
+    @Test
+    public void testQuery_GroupsByTwoDimensionsAndAppliesLimit() {
+        // Setup
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                row(1, "C1", "LEN1", 1000.0, 0.02, 10, false),
+                row(2, "C1", "LEN2", 1000.0, 0.02, 10, false)));
+        final LoanQueryDTO query = new LoanQueryDTO();
+        query.setGroupBy(Arrays.asList("lender", "interest"));
+        query.setLimit(1);
+
+        // Run the test
+        final LoanQueryResultDTO result = loanQueryServiceUnderTest.query(query);
+
+        // Verify the results
+        assertEquals(Arrays.asList("lender", "interest"), result.getGroupBy());
+        assertEquals(2, result.getGroupCount());
+        assertTrue(result.isTruncated());
+        assertEquals(1, result.getGroups().size());
+        assertEquals("LEN1|0.02", result.getGroups().get(0).getGroupKey());
+    }
+
+    @Test
+    public void testQuery_ExcludesRepaidLoans() {
+        // Setup: loan 2 has nothing left to pay
+        Object[] repaid = row(2, "C1", "LEN1", 3000.0, 0.02, 10, false);
+        repaid[4] = 0.0;
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                row(1, "C1", "LEN1", 1000.0, 0.02, 10, false), repaid));
+        final LoanQueryDTO query = new LoanQueryDTO();
+        query.setRepaid(false);
+
+        // Run the test
+        final LoanQueryResultDTO result = loanQueryServiceUnderTest.query(query);
+
+        // Verify the results
+        assertEquals(1, result.getMatchedLoans());
+        assertEquals(1000.0 * 0.02, result.getTotalInterest(), 0.001);
+    }
+
+    @Test
+    public void testQuery_UnknownLenderMatchesNothing() {
+        // Setup
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.<Object[]>of(
+                row(1, "C1", "LEN1", 1000.0, 0.02, 10, false)));
+        final LoanQueryDTO query = new LoanQueryDTO();
+        query.setLenderId("LEN9");
+
+        // Run the test
+        final LoanQueryResultDTO result = loanQueryServiceUnderTest.query(query);
+
+        // Verify the results
+        assertEquals(0, result.getMatchedLoans());
+        assertTrue(result.getGroups().isEmpty());
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testQuery_TooManyGroups() {
+        // Setup: the service under test allows two groups
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                row(1, "C1", "LEN1", 1000.0, 0.02, 10, false),
+                row(2, "C2", "LEN1", 1000.0, 0.02, 10, false),
+                row(3, "C3", "LEN1", 1000.0, 0.02, 10, false)));
+        final LoanQueryDTO query = new LoanQueryDTO();
+        query.setGroupBy(Collections.singletonList("customer"));
+
+        // Run the test
+        loanQueryServiceUnderTest.query(query);
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testQuery_UnknownGroupBy() {
+        // Setup
+        final LoanQueryDTO query = new LoanQueryDTO();
+        query.setGroupBy(Collections.singletonList("region"));
+
+        // Run the test
+        loanQueryServiceUnderTest.query(query);
+    }
+
+    private static Object[] row(long id, String customerId, String lenderId, double amount,
+                                double interestPerDay, int dueDay, boolean cancelled) {
+        return new Object[]{id, customerId, lenderId, amount, amount, interestPerDay, 0.01,
+                day(0), day(dueDay), cancelled};
+    }
+
+    private static Date day(int epochDay) {
+        return new Date(epochDay * LoanSnapshot.MILLIS_PER_DAY);
+    }
+}
@@ -1,17 +1,40 @@
 package com.example.LoanManage.service;
 
 import com.example.LoanManage.dto.LoanAggregateDTO;
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.dto.LoanGroupDTO;
+import com.example.LoanManage.dto.LoanGroupTotals;
+import com.example.LoanManage.dto.LoanPageDTO;
 import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.mapper.LoanMapper;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -20,21 +43,40 @@ public class LoanServiceTest {
     @Mock
     private LoanRepository mockLoanRepository;
 
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    @Mock
+    private LoanCacheEvictor mockCacheEvictor;
+
+    @Mock
+    private LoanPaymentRepository mockPaymentRepository;
+
+    @Mock
+    private LedgerCheckpointRepository mockCheckpointRepository;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
     private LoanService loanServiceUnderTest;
 
     @Before
     public void setUp() {
-        loanServiceUnderTest = new LoanService(mockLoanRepository);
+        loanServiceUnderTest = new LoanService(mockLoanRepository, new LoanAggregateStore(mockLoanRepository),
+                new LoanSnapshot(mockLoanRepository, mockTransactionManager), mockCacheEvictor,
+                new LoanLedger(mockLoanRepository, mockPaymentRepository, mockCheckpointRepository,
+                        new LoanAggregateStore(mockLoanRepository), mockCacheEvictor,
+                        new TransactionTemplate(mockTransactionManager), 1000, 1000, 5000),
+                mockTransactionManager, meterRegistry);
     }
 
     @Test
-    public void testGetAllLoans() {
+    public void testStreamAllLoans() {
         // Setup
-        final Loan loan = createSampleLoan();
-        when(mockLoanRepository.findAll()).thenReturn(Collections.singletonList(loan));
+        final LoanDTO loan = createSampleLoanDTO();
+        when(mockLoanRepository.streamAllLoanDTOs()).thenReturn(Stream.of(loan));
+        final List<LoanDTO> result = new ArrayList<>();
 
         // Run the test
-        final List<Loan> result = loanServiceUnderTest.getAllLoans();
+        loanServiceUnderTest.streamAllLoans(result::add);
 
         // Verify the results
         assertEquals(1, result.size());
@@ -42,17 +84,52 @@ public class LoanServiceTest {
     }
 
     @Test
-    public void testGetAllLoans_LoanRepositoryReturnsNoItems() {
+    public void testStreamAllLoans_LoanRepositoryReturnsNoItems() {
         // Setup
-        when(mockLoanRepository.findAll()).thenReturn(Collections.emptyList());
+        when(mockLoanRepository.streamAllLoanDTOs()).thenReturn(Stream.empty());
+        final List<LoanDTO> result = new ArrayList<>();
 
         // Run the test
-        final List<Loan> result = loanServiceUnderTest.getAllLoans();
+        loanServiceUnderTest.streamAllLoans(result::add);
 
         // Verify the results
         assertTrue(result.isEmpty());
     }
 
+    @Test
+    public void testGetLoansAfter() {
+        // Setup
+        when(mockLoanRepository.findIdsAfter(0L, PageRequest.of(0, 1))).thenReturn(Collections.singletonList(7L));
+        when(mockLoanRepository.findLoanDTOsByIdIn(Collections.singletonList(7L)))
+                .thenReturn(new ArrayList<>(Collections.singletonList(LoanMapper.toDTO(createSampleLoan()))));
+
+        // Run the test
+        final LoanPageDTO result = loanServiceUnderTest.getLoansAfter(0L, 1);
+
+        // Verify the results: a full page has a cursor after its last id
+        assertEquals(1, result.getLoans().size());
+        assertEquals(LoanCursor.encode(7L), result.getNextCursor());
+    }
+
+    @Test
+    public void testGetLoansAfter_LastPage() {
+        // Setup
+        when(mockLoanRepository.findIdsAfter(7L, PageRequest.of(0, 10))).thenReturn(Collections.emptyList());
+
+        // Run the test
+        final LoanPageDTO result = loanServiceUnderTest.getLoansAfter(7L, 10);
+
+        // Verify the results
+        assertTrue(result.getLoans().isEmpty());
+        assertNull(result.getNextCursor());
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testGetLoansAfter_PageSizeTooLarge() {
+        // Run the test
+        loanServiceUnderTest.getLoansAfter(0L, LoanService.MAX_PAGE_SIZE + 1);
+    }
+
     @Test
     public void testAddLoan() {
         // Setup
@@ -64,29 +141,59 @@ public class LoanServiceTest {
 
         // Verify the results
         assertEquals(loan, result);
+        verify(mockCacheEvictor).evict(Collections.singletonList(loan));
     }
 
     @Test
     public void testGetLoanByLoanId() {
         // Setup
-        final Loan loan = createSampleLoan();
-        when(mockLoanRepository.findByLoanId("loanId")).thenReturn(Optional.of(loan));
+        final LoanDTO loan = createSampleLoanDTO();
+        when(mockLoanRepository.findLoanDTOByLoanId("loanId")).thenReturn(Optional.of(loan));
 
         // Run the test
-        final Optional<Loan> result = loanServiceUnderTest.getLoanByLoanId("loanId");
+        final Optional<LoanDTO> result = loanServiceUnderTest.getLoanByLoanId("loanId");
 
         // Verify the results
         assertTrue(result.isPresent());
         assertEquals(loan, result.get());
     }
 
+    @Test
+    public void testGetLoanByLoanId_LookupAcrossAPaymentIsNotServedAfterIt() {
+        // Setup: the caching proxy, and a payment that commits and evicts while the first lookup reads the row
+        final LoanDTO before = createSampleLoanDTO();
+        final LoanDTO after = createSampleLoanDTO();
+        after.setRemainingAmount(7500.0);
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.register(CachingConfig.class);
+            context.registerBean("loanChangeTracker", LoanChangeTracker.class, () -> new LoanChangeTracker());
+            context.registerBean(LoanService.class, () -> loanServiceUnderTest);
+            context.refresh();
+            final LoanCacheEvictor cacheEvictor = new LoanCacheEvictor(context.getBean(CacheManager.class),
+                    context.getBean(LoanChangeTracker.class));
+            when(mockLoanRepository.findLoanDTOByLoanId("L1")).thenAnswer(invocation -> {
+                cacheEvictor.evict(Collections.singletonList(createSampleLoan()));
+                return Optional.of(before);
+            }).thenReturn(Optional.of(after));
+            final LoanService proxy = context.getBean(LoanService.class);
+
+            // Run the test: the first lookup caches the row it read before the payment
+            proxy.getLoanByLoanId("L1");
+            final Optional<LoanDTO> result = proxy.getLoanByLoanId("L1");
+
+            // Verify the results: the next lookup misses the stale entry and reads the paid row
+            assertEquals(7500.0, result.get().getRemainingAmount(), 0.0);
+            assertSame(result.get(), proxy.getLoanByLoanId("L1").get());
+        }
+    }
+
     @Test
     public void testGetLoanByLoanId_LoanRepositoryReturnsAbsent() {
         // Setup
-        when(mockLoanRepository.findByLoanId("loanId")).thenReturn(Optional.empty());
+        when(mockLoanRepository.findLoanDTOByLoanId("loanId")).thenReturn(Optional.empty());
 
         // Run the test
-        final Optional<Loan> result = loanServiceUnderTest.getLoanByLoanId("loanId");
+        final Optional<LoanDTO> result = loanServiceUnderTest.getLoanByLoanId("loanId");
 
         // Verify the results
         assertFalse(result.isPresent());
@@ -95,24 +202,36 @@ public class LoanServiceTest {
     @Test
     public void testGetLoansByCustomerId() {
         // Setup
-        final Loan loan = createSampleLoan();
-        when(mockLoanRepository.findByCustomerId("customerId")).thenReturn(Collections.singletonList(loan));
+        final LoanDTO loan = createSampleLoanDTO();
+        when(mockLoanRepository.findLoanDTOsByCustomerId("customerId")).thenReturn(Collections.singletonList(loan));
 
         // Run the test
-        final List<Loan> result = loanServiceUnderTest.getLoansByCustomerId("customerId");
+        final List<LoanDTO> result = loanServiceUnderTest.getLoansByCustomerId("customerId");
 
         // Verify the results
         assertEquals(1, result.size());
         assertEquals(loan, result.get(0));
     }
 
+    @Test
+    public void testGetLoansByCustomerId_LoadsInAReadOnlyTransaction() {
+        // Setup
+        when(mockLoanRepository.findLoanDTOsByCustomerId("customerId")).thenReturn(Collections.emptyList());
+
+        // Run the test
+        loanServiceUnderTest.getLoansByCustomerId("customerId");
+
+        // Verify the results: the shared load, not the caller, opens the transaction
+        verify(mockTransactionManager).getTransaction(argThat(TransactionDefinition::isReadOnly));
+    }
+
     @Test
     public void testGetLoansByCustomerId_LoanRepositoryReturnsNoItems() {
         // Setup
-        when(mockLoanRepository.findByCustomerId("customerId")).thenReturn(Collections.emptyList());
+        when(mockLoanRepository.findLoanDTOsByCustomerId("customerId")).thenReturn(Collections.emptyList());
 
         // Run the test
-        final List<Loan> result = loanServiceUnderTest.getLoansByCustomerId("customerId");
+        final List<LoanDTO> result = loanServiceUnderTest.getLoansByCustomerId("customerId");
 
         // Verify the results
         assertTrue(result.isEmpty());
@@ -121,11 +240,11 @@ public class LoanServiceTest {
     @Test
     public void testGetLoansByLenderId() {
         // Setup
-        final Loan loan = createSampleLoan();
-        when(mockLoanRepository.findByLenderId("lenderId")).thenReturn(Collections.singletonList(loan));
+        final LoanDTO loan = createSampleLoanDTO();
+        when(mockLoanRepository.findLoanDTOsByLenderId("lenderId")).thenReturn(Collections.singletonList(loan));
 
         // Run the test
-        final List<Loan> result = loanServiceUnderTest.getLoansByLenderId("lenderId");
+        final List<LoanDTO> result = loanServiceUnderTest.getLoansByLenderId("lenderId");
 
         // Verify the results
         assertEquals(1, result.size());
@@ -135,20 +254,36 @@ public class LoanServiceTest {
     @Test
     public void testGetLoansByLenderId_LoanRepositoryReturnsNoItems() {
         // Setup
-        when(mockLoanRepository.findByLenderId("lenderId")).thenReturn(Collections.emptyList());
+        when(mockLoanRepository.findLoanDTOsByLenderId("lenderId")).thenReturn(Collections.emptyList());
 
         // Run the test
-        final List<Loan> result = loanServiceUnderTest.getLoansByLenderId("lenderId");
+        final List<LoanDTO> result = loanServiceUnderTest.getLoansByLenderId("lenderId");
 
         // Verify the results
         assertTrue(result.isEmpty());
     }
 
+    @Test
+    public void testGetOverdueLoansByLenderId() {
+        // Setup
+        final LoanDTO loan = createSampleLoanDTO();
+        final Date asOf = new Date();
+        when(mockLoanRepository.findOverdueLoanDTOsByLenderId("lenderId", asOf))
+                .thenReturn(Collections.singletonList(loan));
+
+        // Run the test
+        final List<LoanDTO> result = loanServiceUnderTest.getOverdueLoansByLenderId("lenderId", asOf);
+
+        // Verify the results
+        assertEquals(1, result.size());
+        assertEquals(loan, result.get(0));
+    }
+
     @Test
     public void testAggregateLoansByLender() {
         // Setup
-        final Loan loan = createSampleLoan();
-        when(mockLoanRepository.findAll()).thenReturn(Collections.singletonList(loan));
+        when(mockLoanRepository.sumByLender())
+                .thenReturn(Collections.singletonList(createGroupTotals("LEN1", 1L, 10000.0, 100.0, 100.0)));
 
         // Run the test
         final LoanAggregateDTO result = loanServiceUnderTest.aggregateLoansByLender();
@@ -161,10 +296,26 @@ public class LoanServiceTest {
         assertEquals(100.0, result.getTotalPenalty(), 0.001);
     }
 
+    @Test
+    public void testAggregateLoansByLender_TimedThroughTheProxy() {
+        // Setup
+        when(mockLoanRepository.sumByLender()).thenReturn(Collections.emptyList());
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(loanServiceUnderTest);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(new TimedAspect(meterRegistry));
+        LoanService proxy = proxyFactory.getProxy();
+
+        // Run the test
+        proxy.aggregateLoansByLender();
+
+        // Verify the results
+        assertEquals(1, meterRegistry.get("loan.service").tag("method", "aggregateLoansByLender").timer().count());
+    }
+
     @Test
     public void testAggregateLoansByLender_LoanRepositoryReturnsNoItems() {
         // Setup
-        when(mockLoanRepository.findAll()).thenReturn(Collections.emptyList());
+        when(mockLoanRepository.sumByLender()).thenReturn(Collections.emptyList());
 
         // Run the test
         final LoanAggregateDTO result = loanServiceUnderTest.aggregateLoansByLender();
@@ -177,6 +328,68 @@ public class LoanServiceTest {
         assertEquals(0.0, result.getTotalPenalty(), 0.001);
     }
 
+    @Test
+    public void testAggregateLoansByCustomerId() {
+        // Setup
+        when(mockLoanRepository.sumByCustomerId()).thenReturn(Arrays.asList(
+                createGroupTotals("C1", 2L, 15000.0, 150.0, 50.0),
+                createGroupTotals("C2", 1L, 5000.0, 50.0, 25.0)));
+
+        // Run the test
+        final LoanAggregateDTO result = loanServiceUnderTest.aggregateLoansByCustomerId();
+
+        // Verify the results
+        assertEquals("Customer", result.getGroupBy());
+        assertEquals(20000.0, result.getTotalRemainingAmount(), 0.001);
+        assertEquals(200.0, result.getTotalInterest(), 0.001);
+        assertEquals(75.0, result.getTotalPenalty(), 0.001);
+        assertEquals(2, result.getGroupCount());
+        assertEquals("C1", result.getGroups().get(0).getGroupKey());
+        assertEquals(2L, result.getGroups().get(0).getLoanCount());
+    }
+
+    @Test
+    public void testAggregateLoansByCustomerId_SortedAndLimited() {
+        // Setup
+        when(mockLoanRepository.sumByCustomerId()).thenReturn(Arrays.asList(
+                createGroupTotals("C1", 2L, 15000.0, 150.0, 50.0),
+                createGroupTotals("C2", 1L, 5000.0, 50.0, 25.0),
+                createGroupTotals("C3", 4L, 25000.0, 10.0, 5.0)));
+
+        // Run the test
+        final LoanAggregateDTO result = loanServiceUnderTest.aggregateLoansByCustomerId("remainingAmount", 2);
+
+        // Verify the results: totals cover all groups, breakdown keeps the two largest
+        assertEquals(45000.0, result.getTotalRemainingAmount(), 0.001);
+        assertEquals(3, result.getGroupCount());
+        assertEquals(2, result.getGroups().size());
+        assertEquals("C3", result.getGroups().get(0).getGroupKey());
+        assertEquals("C1", result.getGroups().get(1).getGroupKey());
+    }
+
+    @Test
+    public void testAggregateLoansByInterest_SortedByRateValue() {
+        // Setup: rates whose strings sort differently from their values
+        when(mockLoanRepository.sumByInterest()).thenReturn(Arrays.asList(
+                createGroupTotals(10.0, 1L, 1000.0, 10.0, 1.0),
+                createGroupTotals(2.0, 1L, 1000.0, 10.0, 1.0),
+                createGroupTotals(1.0E-4, 1L, 1000.0, 10.0, 1.0),
+                createGroupTotals(0.02, 1L, 1000.0, 10.0, 1.0)));
+
+        // Run the test
+        final LoanAggregateDTO result = loanServiceUnderTest.aggregateLoansByInterest();
+
+        // Verify the results
+        assertEquals(Arrays.asList("1.0E-4", "0.02", "2.0", "10.0"), result.getGroups().stream()
+                .map(LoanGroupDTO::getGroupKey).collect(Collectors.toList()));
+    }
+
+    @Test(expected = LoanValidationException.class)
+    public void testAggregateLoansByCustomerId_UnknownSortBy() {
+        // Run the test
+        loanServiceUnderTest.aggregateLoansByCustomerId("amount", null);
+    }
+
     // Create a sample Loan for testing
     private Loan createSampleLoan() {
         Loan loan = new Loan();
@@ -193,4 +406,48 @@ public class LoanServiceTest {
         loan.setCancelled(false);
         return loan;
     }
+
+    private LoanDTO createSampleLoanDTO() {
+        return LoanMapper.toDTO(createSampleLoan());
+    }
+
+    // Create a GROUP BY projection row for testing
+    private LoanGroupTotals createGroupTotals(Object groupKey, Long loanCount, Double remainingAmount,
+                                              Double interest, Double penalty) {
+        return new LoanGroupTotals() {
+            @Override
+            public Object getGroupKey() {
+                return groupKey;
+            }
+
+            @Override
+            public Long getLoanCount() {
+                return loanCount;
+            }
+
+            @Override
+            public Double getTotalRemainingAmount() {
+                return remainingAmount;
+            }
+
+            @Override
+            public Double getTotalInterest() {
+                return interest;
+            }
+
+            @Override
+            public Double getTotalPenalty() {
+                return penalty;
+            }
+        };
+    }
+
+    @Configuration
+    @EnableCaching
+    static class CachingConfig {
+        @Bean
+        public CacheManager cacheManager() {
+            return new ConcurrentMapCacheManager();
+        }
+    }
 }
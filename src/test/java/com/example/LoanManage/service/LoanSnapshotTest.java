@@ -0,0 +1,91 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.entity.Loan;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoanSnapshotTest {
+
+    @Mock
+    private LoanRepository mockLoanRepository;
+
+    @Mock
+    private PlatformTransactionManager mockTransactionManager;
+
+    private LoanSnapshot loanSnapshotUnderTest;
+
+    @Before
+    public void setUp() {
+        loanSnapshotUnderTest = new LoanSnapshot(mockLoanRepository, mockTransactionManager);
+    }
+
+    @Test
+    public void testRebuild_DictionaryEncodesIdsAndConvertsDates() {
+        // Setup
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.of(
+                new Object[]{1L, "C1", "LEN1", 1000.0, 800.0, 0.01, 0.02, new Date(0L), null, false},
+                new Object[]{2L, "C2", "LEN1", 2000.0, 2000.0, 0.02, 0.03,
+                        new Date(3 * LoanSnapshot.MILLIS_PER_DAY), new Date(10 * LoanSnapshot.MILLIS_PER_DAY), true}));
+
+        // Run the test
+        loanSnapshotUnderTest.rebuild();
+        final LoanSnapshot.Columns result = loanSnapshotUnderTest.columns();
+
+        // Verify the results
+        assertEquals(2, result.size());
+        assertEquals(result.lenderCode[0], result.lenderCode[1]);
+        assertEquals("LEN1", result.lenderId(result.lenderCode[0]));
+        assertEquals(1, result.customerCode("C2"));
+        assertEquals(LoanSnapshot.NO_CODE, result.customerCode("C3"));
+        assertEquals(0, result.paymentDay[0]);
+        assertEquals(LoanSnapshot.NO_DATE, result.dueDay[0]);
+        assertEquals(10, result.dueDay[1]);
+        assertTrue(result.cancelled[1]);
+    }
+
+    @Test
+    public void testRecordAddAll_AppendsWithoutChangingEarlierViews() {
+        // Setup
+        when(mockLoanRepository.streamSnapshotColumns()).thenReturn(Stream.empty());
+        final LoanSnapshot.Columns before = loanSnapshotUnderTest.columns();
+
+        // Run the test
+        loanSnapshotUnderTest.recordAddAll(() -> Arrays.asList(createSampleLoan(1L, "C1"), createSampleLoan(2L, "C9")));
+
+        // Verify the results
+        final LoanSnapshot.Columns after = loanSnapshotUnderTest.columns();
+        assertEquals(0, before.size());
+        assertEquals(LoanSnapshot.NO_CODE, before.customerCode("C9"));
+        assertEquals(2, after.size());
+        assertEquals("C9", after.customerId(after.customerCode[1]));
+        assertEquals(2L, after.id[1]);
+    }
+
+    private Loan createSampleLoan(Long id, String customerId) {
+        Loan loan = new Loan();
+        loan.setId(id);
+        loan.setLoanId("L" + id);
+        loan.setCustomerId(customerId);
+        loan.setLenderId("LEN1");
+        loan.setAmount(1000.0);
+        loan.setRemainingAmount(1000.0);
+        loan.setPaymentDate(new Date(0L));
+        loan.setDueDate(new Date(LoanSnapshot.MILLIS_PER_DAY));
+        loan.setInterestPerDay(0.01);
+        loan.setPenaltyPerDay(0.02);
+        return loan;
+    }
+}
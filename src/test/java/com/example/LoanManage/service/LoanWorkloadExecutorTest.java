@@ -0,0 +1,155 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.exception.LoanQueryTimeoutException;
+import com.example.LoanManage.exception.LoanValidationException;
+import com.example.LoanManage.exception.ServiceOverloadedException;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Permit;
+import com.example.LoanManage.service.LoanWorkloadExecutor.Workload;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoanWorkloadExecutorTest {
+
+    private ExecutorService pool;
+    private SimpleMeterRegistry meterRegistry;
+    private LoanWorkloadExecutor workloadExecutorUnderTest;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(2);
+        meterRegistry = new SimpleMeterRegistry();
+        workloadExecutorUnderTest = createExecutor(5000);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testSubmit_RejectsWhenWorkloadIsAtItsLimit() throws Exception {
+        // Setup: one aggregate is already running
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = workloadExecutorUnderTest.submit(Workload.AGGREGATE, () -> {
+            await(release);
+            return "done";
+        });
+
+        // Run the test
+        try {
+            workloadExecutorUnderTest.submit(Workload.AGGREGATE, () -> "second");
+            fail("Expected the second aggregate to be rejected");
+        } catch (ServiceOverloadedException expected) {
+            // Verify the results
+            assertEquals(1.0, meterRegistry.get("loan.workload.rejected").tag("workload", "aggregate")
+                    .counter().count(), 0.0);
+        }
+        // Other workloads are not affected
+        assertEquals("list", workloadExecutorUnderTest.submit(Workload.LIST_ALL, () -> "list").join());
+
+        release.countDown();
+        assertEquals("done", running.join());
+        // The slot is free again once the first aggregate finished
+        assertEquals("third", workloadExecutorUnderTest.submit(Workload.AGGREGATE, () -> "third").join());
+    }
+
+    @Test
+    public void testSubmit_TimesOutWithoutReleasingTheRunningSlot() {
+        // Setup
+        workloadExecutorUnderTest = createExecutor(50);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slow = workloadExecutorUnderTest.submit(Workload.AGGREGATE, () -> {
+            await(release);
+            return "late";
+        });
+
+        // Run the test
+        try {
+            slow.join();
+            fail("Expected a timeout");
+        } catch (CompletionException ex) {
+            // Verify the results
+            assertTrue(ex.getCause() instanceof LoanQueryTimeoutException);
+        }
+        try {
+            workloadExecutorUnderTest.acquire(Workload.AGGREGATE);
+            fail("Expected the timed-out aggregate to still hold its slot");
+        } catch (ServiceOverloadedException expected) {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testSubmit_PassesServiceExceptionsThrough() {
+        try {
+            workloadExecutorUnderTest.submit(Workload.QUERY, () -> {
+                throw new LoanValidationException("bad query");
+            }).join();
+            fail("Expected a validation error");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof LoanValidationException);
+        }
+    }
+
+    @Test
+    public void testSubmit_BatchRunsOnItsOwnExecutor() {
+        // Setup: batch work is only queued, so it would hold the pool if it ran there
+        List<Runnable> batchTasks = new ArrayList<>();
+        workloadExecutorUnderTest = new LoanWorkloadExecutor(pool, batchTasks::add, new MockEnvironment(),
+                meterRegistry);
+
+        // Run the test
+        CompletableFuture<String> batch = workloadExecutorUnderTest.submit(Workload.BATCH, () -> "batch");
+
+        // Verify the results
+        assertEquals(1, batchTasks.size());
+        assertEquals("query", workloadExecutorUnderTest.submit(Workload.QUERY, () -> "query").join());
+        batchTasks.forEach(Runnable::run);
+        assertEquals("batch", batch.join());
+    }
+
+    @Test
+    public void testAcquire_PermitReleasesOnce() {
+        Permit permit = workloadExecutorUnderTest.acquire(Workload.AGGREGATE);
+        permit.close();
+        permit.close();
+
+        Permit next = workloadExecutorUnderTest.acquire(Workload.AGGREGATE);
+        try {
+            workloadExecutorUnderTest.acquire(Workload.AGGREGATE);
+            fail("Expected the limit of one to hold after a double close");
+        } catch (ServiceOverloadedException expected) {
+            next.close();
+        }
+    }
+
+    private LoanWorkloadExecutor createExecutor(long aggregateTimeoutMillis) {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("loan.async.aggregate.max-concurrent", "1")
+                .withProperty("loan.async.aggregate.timeout-ms", String.valueOf(aggregateTimeoutMillis));
+        return new LoanWorkloadExecutor(pool, pool, environment, meterRegistry);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.LoanManage.service;
+
+import com.example.LoanManage.exception.LoanValidationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private ExecutorService pool;
+    private SimpleMeterRegistry meterRegistry;
+    private SingleFlight singleFlightUnderTest;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+        meterRegistry = new SimpleMeterRegistry();
+        singleFlightUnderTest = new SingleFlight(meterRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testExecute_CollapsesConcurrentIdenticalCalls() throws Exception {
+        // Setup: the first call blocks until three more identical calls are waiting on it
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        Object value = new Object();
+        Future<Object> leader = pool.submit(() -> singleFlightUnderTest.execute("read", "K1", () -> {
+            executions.incrementAndGet();
+            started.countDown();
+            await(release);
+            return value;
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        // Run the test
+        Future<Object> follower1 = pool.submit(() -> singleFlightUnderTest.execute("read", "K1", () -> {
+            executions.incrementAndGet();
+            return new Object();
+        }));
+        Future<Object> follower2 = pool.submit(() -> singleFlightUnderTest.execute("read", "K1", () -> {
+            executions.incrementAndGet();
+            return new Object();
+        }));
+        waitForCollapsed(2);
+        // A different key is not collapsed
+        assertEquals("other", singleFlightUnderTest.execute("read", "K2", () -> "other"));
+        release.countDown();
+
+        // Verify the results
+        assertSame(value, leader.get(5, TimeUnit.SECONDS));
+        assertSame(value, follower1.get(5, TimeUnit.SECONDS));
+        assertSame(value, follower2.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+        assertEquals(2.0, count("executed"), 0.0);
+    }
+
+    @Test
+    public void testExecute_CallAfterCompletionRunsAgain() {
+        AtomicInteger executions = new AtomicInteger();
+
+        singleFlightUnderTest.execute("read", "K1", executions::incrementAndGet);
+        singleFlightUnderTest.execute("read", "K1", executions::incrementAndGet);
+
+        assertEquals(2, executions.get());
+        assertEquals(0.0, count("collapsed"), 0.0);
+    }
+
+    @Test
+    public void testExecute_PropagatesTheException() {
+        try {
+            singleFlightUnderTest.execute("read", "K1", () -> {
+                throw new LoanValidationException("bad");
+            });
+            fail("Expected the exception of the call");
+        } catch (LoanValidationException expected) {
+            // The in-flight entry is cleared, so the next call runs
+            assertEquals("ok", singleFlightUnderTest.execute("read", "K1", () -> "ok"));
+        }
+    }
+
+    private double count(String outcome) {
+        Counter counter = meterRegistry.find("loan.singleflight.calls").tag("operation", "read")
+                .tag("outcome", outcome).counter();
+        return counter != null ? counter.count() : 0.0;
+    }
+
+    private void waitForCollapsed(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.find("loan.singleflight.calls").tag("outcome", "collapsed").counter() == null
+                || count("collapsed") < expected) {
+            if (System.nanoTime() > deadline) {
+                fail("Calls were not collapsed");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
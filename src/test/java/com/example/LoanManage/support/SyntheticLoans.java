@@ -0,0 +1,79 @@
+package com.example.LoanManage.support;
+
+import com.example.LoanManage.dto.LoanDTO;
+import com.example.LoanManage.entity.Loan;
+import com.example.LoanManage.mapper.LoanMapper;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic synthetic loan book for tests and benchmarks. Loan number {@code i} always has
+ * the same field values, so books of different sizes share a prefix and runs are comparable
+ * between commits.
+ */
+public final class SyntheticLoans {
+    public static final int LENDERS = 100;
+    public static final int CUSTOMERS = 50_000;
+    public static final int INTEREST_RATES = 10;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long FIRST_PAYMENT_DAY = LocalDate.of(2023, 1, 1).toEpochDay();
+
+    private SyntheticLoans() {
+    }
+
+    /**
+     * Build loan number {@code index}. The surrogate id is {@code index + 1}.
+     *
+     * @param index Position of the loan in the book, starting at 0.
+     * @return A new Loan.
+     */
+    public static Loan loan(long index) {
+        SplittableRandom random = new SplittableRandom(index * 0x9E3779B97F4A7C15L);
+        long paymentDay = FIRST_PAYMENT_DAY + random.nextInt(365);
+        double amount = 1_000 + random.nextInt(99_000);
+
+        Loan loan = new Loan();
+        loan.setId(index + 1);
+        loan.setLoanId("L" + index);
+        loan.setCustomerId("C" + (index % CUSTOMERS));
+        loan.setLenderId("LEN" + (index % LENDERS));
+        loan.setAmount(amount);
+        loan.setRemainingAmount(Math.floor(amount * random.nextDouble()));
+        loan.setPaymentDate(new java.sql.Date(paymentDay * MILLIS_PER_DAY));
+        loan.setInterestPerDay(0.0001 * (1 + index % INTEREST_RATES));
+        loan.setDueDate(new java.sql.Date((paymentDay + 30 + random.nextInt(335)) * MILLIS_PER_DAY));
+        loan.setPenaltyPerDay(0.0005);
+        loan.setCancelled(random.nextInt(50) == 0);
+        return loan;
+    }
+
+    public static LoanDTO dto(long index) {
+        return LoanMapper.toDTO(loan(index));
+    }
+
+    public static List<Loan> loans(int count) {
+        List<Loan> loans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            loans.add(loan(i));
+        }
+        return loans;
+    }
+
+    public static List<LoanDTO> dtos(int count) {
+        List<LoanDTO> dtos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            dtos.add(dto(i));
+        }
+        return dtos;
+    }
+
+    public static Stream<Loan> stream(long count) {
+        return LongStream.range(0, count).mapToObj(SyntheticLoans::loan);
+    }
+}